@@ -0,0 +1,100 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import com.esri.arcgisruntime.arcgisservices.LevelOfDetail;
+import com.esri.arcgisruntime.arcgisservices.TileInfo;
+import com.esri.arcgisruntime.data.TileKey;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
+import com.esri.arcgisruntime.layers.ImageTiledLayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * CachedTileLayer.java
+ *
+ * Raster basemap in the web mercator tiling scheme, served from a TileCache and fetched from a
+ * tile service (URL template with level, row and column) on a miss. Without network, cached
+ * tiles still show and the others stay blank.
+ */
+class CachedTileLayer extends ImageTiledLayer {
+    static final int MAX_LEVEL = 19;
+    static final int TILE_SIZE = 256;
+    private static final int DPI = 96;
+    private static final double WORLD_HALF = 20037508.342787;  // metres, web mercator
+    private static final double LEVEL_0_RESOLUTION = 156543.03392800014;  // metres per pixel
+    private static final double LEVEL_0_SCALE = 591657527.591555;
+    private static final int TIMEOUT = 10000;  // ms
+
+    private final TileCache cache;
+    private final TileCache.Fetcher fetcher;
+
+    CachedTileLayer(TileCache cache, String urlTemplate) {
+        super(createTileInfo(TileInfo.ImageFormat.JPG), createExtent());
+        this.cache = cache;
+        this.fetcher = createFetcher(urlTemplate);
+    }
+
+    @Override
+    protected byte[] getTile(TileKey tileKey) {
+        return cache.getOrFetch(tileKey.getLevel(), tileKey.getRow(), tileKey.getColumn(),
+                fetcher);
+    }
+
+    /**
+     * Downloads tiles of `urlTemplate`, a format string of level, row and column.
+     */
+    static TileCache.Fetcher createFetcher(String urlTemplate) {
+        return new TileCache.Fetcher() {
+            @Override
+            public byte[] fetch(int level, int row, int column) throws IOException {
+                URL url = new URL(String.format(Locale.ROOT, urlTemplate, level, row, column));
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(TIMEOUT);
+                connection.setReadTimeout(TIMEOUT);
+                try {
+                    if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                        return null;  // no tile there, not an error
+                    }
+                    try (InputStream in = connection.getInputStream()) {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+                        byte[] buffer = new byte[8192];
+                        int n;
+                        while ((n = in.read(buffer)) > 0) {
+                            out.write(buffer, 0, n);
+                        }
+                        return out.toByteArray();
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+
+    /**
+     * Web mercator tiling scheme, levels 0 to MAX_LEVEL.
+     */
+    static TileInfo createTileInfo(TileInfo.ImageFormat format) {
+        List<LevelOfDetail> levels = new ArrayList<>();
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            levels.add(new LevelOfDetail(level, LEVEL_0_RESOLUTION / (1 << level),
+                    LEVEL_0_SCALE / (1 << level)));
+        }
+        return new TileInfo(DPI, format, levels,
+                new Point(-WORLD_HALF, WORLD_HALF, SpatialReferences.getWebMercator()),
+                SpatialReferences.getWebMercator(), TILE_SIZE, TILE_SIZE);
+    }
+
+    static Envelope createExtent() {
+        return new Envelope(-WORLD_HALF, -WORLD_HALF, WORLD_HALF, WORLD_HALF,
+                SpatialReferences.getWebMercator());
+    }
+}
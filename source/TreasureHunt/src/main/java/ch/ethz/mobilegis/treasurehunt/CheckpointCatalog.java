@@ -0,0 +1,426 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * CheckpointCatalog.java
+ *
+ * The treasure locations, compiled at build time from src/main/catalog/checkpoints.csv (see
+ * compileCheckpointCatalog in build.gradle) into a binary file shipped as an uncompressed asset.
+ * The app maps the file and reads the header, so opening does not depend on the number of
+ * checkpoints; a checkpoint is only decoded when asked for.
+ *
+ * File, big endian:
+ *   header, 64 bytes: magic, version, count, grid columns and rows, grid origin (lat, lon) and
+ *                     cell size in degrees, offsets of the sections below
+ *   entries:          per checkpoint in CSV order: latitude, longitude (1e-7 degrees, int),
+ *                     name offset and length in the name table
+ *   grid:             for each cell (row-major) the start of its run in the cell entries,
+ *                     plus the end of the last run
+ *   cell entries:     checkpoint indices grouped by cell
+ *   names:            UTF-8
+ *
+ * The grid holds about CELL_TARGET checkpoints per cell, so nearest() looks at a few cells
+ * around the query instead of at every checkpoint.
+ */
+public class CheckpointCatalog {
+    public static final String ASSET_NAME = "checkpoints.ckc";
+    private static final int MAGIC = 0x54484331;  // "THC1"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 16;
+    private static final int CELL_TARGET = 16;
+    private static final double DEGREE_SCALE = 1e7;
+    private static final double METRES_PER_DEGREE = 111195;  // mean, along a meridian
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int columns;
+    private final int rows;
+    private final double originLatitude;
+    private final double originLongitude;
+    private final double cellSize;
+    private final int entriesOffset;
+    private final int gridOffset;
+    private final int cellEntriesOffset;
+    private final int namesOffset;
+
+    private CheckpointCatalog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a checkpoint catalog");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("Unsupported catalog version " + buffer.getShort(4));
+        }
+        count = buffer.getInt(8);
+        columns = buffer.getInt(12);
+        rows = buffer.getInt(16);
+        originLatitude = buffer.getDouble(20);
+        originLongitude = buffer.getDouble(28);
+        cellSize = buffer.getDouble(36);
+        entriesOffset = buffer.getInt(44);
+        gridOffset = buffer.getInt(48);
+        cellEntriesOffset = buffer.getInt(52);
+        namesOffset = buffer.getInt(56);
+        if (namesOffset > buffer.capacity()) {
+            throw new IOException("Truncated checkpoint catalog");
+        }
+    }
+
+    /**
+     * Map `length` bytes of `channel` from `offset`, e.g. an asset opened with
+     * AssetManager.openFd(). The mapping stays valid once the channel is closed.
+     */
+    public static CheckpointCatalog map(FileChannel channel, long offset, long length)
+            throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        return new CheckpointCatalog(mapped);
+    }
+
+    public static CheckpointCatalog open(File file) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            return map(channel, 0, channel.size());
+        }
+    }
+
+    /**
+     * In-memory catalog of build(), e.g. for benchmarks.
+     */
+    static CheckpointCatalog of(List<String> names, List<double[]> coordinates)
+            throws IOException {
+        return new CheckpointCatalog(build(names, coordinates));
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return extent of the grid, covering every checkpoint: {south, west, north, east} in degrees
+     */
+    public double[] getBounds() {
+        return new double[]{originLatitude, originLongitude, originLatitude + rows * cellSize,
+                originLongitude + columns * cellSize};
+    }
+
+    public double getLatitude(int i) {
+        return buffer.getInt(entry(i)) / DEGREE_SCALE;
+    }
+
+    public double getLongitude(int i) {
+        return buffer.getInt(entry(i) + 4) / DEGREE_SCALE;
+    }
+
+    public String getName(int i) {
+        int entry = entry(i);
+        byte[] name = new byte[buffer.getInt(entry + 12)];
+        for (int j = 0, offset = namesOffset + buffer.getInt(entry + 8); j < name.length; j++) {
+            name[j] = buffer.get(offset + j);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the i-th checkpoint, decoded now (not cached)
+     */
+    public CheckPoint get(int i) {
+        return new CheckPoint(getName(i), getLongitude(i), getLatitude(i));
+    }
+
+    /**
+     * @return read-only list view, decoding an entry on each get()
+     */
+    public List<CheckPoint> asList() {
+        return new Entries();
+    }
+
+    private int entry(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("checkpoint " + i + ", size " + count);
+        }
+        return entriesOffset + i * ENTRY_SIZE;
+    }
+
+    /**
+     * Closest checkpoint to (latitude, longitude) within `maxDistance`.
+     *
+     * @param maxDistance m
+     * @return its index, -1 if none
+     */
+    public int nearest(double latitude, double longitude, double maxDistance) {
+        int[] index = new int[1];
+        if (0 == nearest(latitude, longitude, 0, maxDistance, 1, index, new double[1])) {
+            return -1;
+        }
+        return index[0];
+    }
+
+    /**
+     * The `k` closest checkpoints to (latitude, longitude) at a distance in
+     * [minDistance, maxDistance], closest first. Looks at the grid cells around the query only,
+     * and does not allocate.
+     *
+     * @param indices   receives their indices, length at least k
+     * @param distances receives their distances in m, length at least k
+     * @return number of checkpoints found, at most k
+     */
+    public int nearest(double latitude, double longitude, double minDistance, double maxDistance,
+                       int k, int[] indices, double[] distances) {
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        int row = cellRow(latitude);
+        int column = cellColumn(longitude);
+        // max-heap of the k best so far, worst at 0; rings of cells around the query until the
+        // nearest cell edge of the next ring is farther than that worst
+        int found = 0;
+        int maxRing = Math.max(rows, columns);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            double ringDistance = (ring - 1) * cellSize * cosLatitude * METRES_PER_DEGREE;
+            if (ring > 0 && ringDistance > (found < k ? maxDistance : distances[0])) {
+                break;
+            }
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                boolean edgeRow = r == row - ring || r == row + ring;
+                for (int c = column - ring; c <= column + ring;
+                     c += edgeRow || ring == 0 ? 1 : 2 * ring) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    int end = buffer.getInt(gridOffset + (cell + 1) * 4);
+                    for (int e = buffer.getInt(gridOffset + cell * 4); e < end; e++) {
+                        int i = buffer.getInt(cellEntriesOffset + e * 4);
+                        double d = distance(latitude, longitude, cosLatitude, i);
+                        if (d < minDistance || d > maxDistance) {
+                            continue;
+                        }
+                        if (found < k) {
+                            indices[found] = i;
+                            distances[found] = d;
+                            siftUp(indices, distances, found++);
+                        } else if (d < distances[0]) {
+                            indices[0] = i;
+                            distances[0] = d;
+                            siftDown(indices, distances, 0, found);
+                        }
+                    }
+                }
+            }
+        }
+        for (int last = found - 1; last > 0; last--) {  // heap sort, closest first
+            swap(indices, distances, 0, last);
+            siftDown(indices, distances, 0, last);
+        }
+        return found;
+    }
+
+    private static void siftUp(int[] indices, double[] distances, int i) {
+        while (i > 0 && distances[(i - 1) / 2] < distances[i]) {
+            swap(indices, distances, i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private static void siftDown(int[] indices, double[] distances, int i, int size) {
+        for (int child = 2 * i + 1; child < size; i = child, child = 2 * i + 1) {
+            if (child + 1 < size && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[i] >= distances[child]) {
+                return;
+            }
+            swap(indices, distances, i, child);
+        }
+    }
+
+    private static void swap(int[] indices, double[] distances, int i, int j) {
+        int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    /**
+     * @return distance in m from (latitude, longitude) to the i-th checkpoint, on the local plane
+     * used by nearest()
+     */
+    public double distance(double latitude, double longitude, int i) {
+        return distance(latitude, longitude, Math.cos(Math.toRadians(latitude)), i);
+    }
+
+    private double distance(double latitude, double longitude, double cosLatitude, int i) {
+        double north = (getLatitude(i) - latitude) * METRES_PER_DEGREE;
+        double east = (getLongitude(i) - longitude) * cosLatitude * METRES_PER_DEGREE;
+        return Math.sqrt(north * north + east * east);
+    }
+
+    private int cellRow(double latitude) {
+        return clamp((int) Math.floor((latitude - originLatitude) / cellSize), rows);
+    }
+
+    private int cellColumn(double longitude) {
+        return clamp((int) Math.floor((longitude - originLongitude) / cellSize), columns);
+    }
+
+    private static int clamp(int cell, int cells) {
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    private class Entries extends AbstractList<CheckPoint> implements RandomAccess {
+        @Override
+        public CheckPoint get(int index) {
+            return CheckpointCatalog.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    /********************************** build time ***********************************************/
+
+    /**
+     * Compile a checkpoint CSV (header line, then "name;longitude;latitude") into a catalog.
+     * Run by the compileCheckpointCatalog task of the app build.
+     */
+    public static void compile(File csv, File catalog) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<double[]> coordinates = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(csv), StandardCharsets.UTF_8))) {
+            reader.readLine();  // header
+            String line;
+            int number = 1;
+            while (null != (line = reader.readLine())) {
+                number++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] values = line.split(";");
+                if (values.length != 3) {
+                    throw new IOException(csv + ":" + number + ": expected name;longitude;latitude");
+                }
+                try {
+                    coordinates.add(new double[]{Double.parseDouble(values[2].trim()),
+                            Double.parseDouble(values[1].trim())});
+                } catch (NumberFormatException e) {
+                    throw new IOException(csv + ":" + number + ": " + e.getMessage());
+                }
+                names.add(values[0].trim());
+            }
+        }
+        File parent = catalog.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        try (FileOutputStream out = new FileOutputStream(catalog)) {
+            out.write(build(names, coordinates).array());
+        }
+    }
+
+    /**
+     * @param coordinates per checkpoint {latitude, longitude}
+     */
+    static ByteBuffer build(List<String> names, List<double[]> coordinates) {
+        int n = names.size();
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+        for (double[] c : coordinates) {
+            minLatitude = Math.min(minLatitude, c[0]);
+            maxLatitude = Math.max(maxLatitude, c[0]);
+            minLongitude = Math.min(minLongitude, c[1]);
+            maxLongitude = Math.max(maxLongitude, c[1]);
+        }
+        if (0 == n) {
+            minLatitude = minLongitude = maxLatitude = maxLongitude = 0;
+        }
+        // square cells (in degrees), about CELL_TARGET checkpoints each
+        double height = Math.max(maxLatitude - minLatitude, 1e-6);
+        double width = Math.max(maxLongitude - minLongitude, 1e-6);
+        double cellSize = Math.sqrt(height * width * CELL_TARGET / Math.max(n, 1));
+        int rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        int columns = Math.max(1, (int) Math.ceil(width / cellSize));
+
+        int[] cells = new int[n];
+        int[] cellStart = new int[rows * columns + 1];
+        for (int i = 0; i < n; i++) {
+            int row = clamp((int) Math.floor((coordinates.get(i)[0] - minLatitude) / cellSize),
+                    rows);
+            int column = clamp((int) Math.floor((coordinates.get(i)[1] - minLongitude) / cellSize),
+                    columns);
+            cells[i] = row * columns + column;
+            cellStart[cells[i] + 1]++;
+        }
+        for (int c = 0; c < rows * columns; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] cellEntries = new int[n];
+        int[] fill = Arrays.copyOf(cellStart, rows * columns);
+        for (int i = 0; i < n; i++) {
+            cellEntries[fill[cells[i]]++] = i;
+        }
+
+        byte[][] encodedNames = new byte[n][];
+        int namesSize = 0;
+        for (int i = 0; i < n; i++) {
+            encodedNames[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+            namesSize += encodedNames[i].length;
+        }
+        int entriesOffset = HEADER_SIZE;
+        int gridOffset = entriesOffset + n * ENTRY_SIZE;
+        int cellEntriesOffset = gridOffset + cellStart.length * 4;
+        int namesOffset = cellEntriesOffset + n * 4;
+        ByteBuffer out = ByteBuffer.allocate(namesOffset + namesSize);
+        out.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(n).putInt(columns)
+                .putInt(rows).putDouble(minLatitude).putDouble(minLongitude).putDouble(cellSize)
+                .putInt(entriesOffset).putInt(gridOffset).putInt(cellEntriesOffset)
+                .putInt(namesOffset);
+        out.position(entriesOffset);
+        int nameOffset = 0;
+        for (int i = 0; i < n; i++) {
+            out.putInt((int) Math.round(coordinates.get(i)[0] * DEGREE_SCALE));
+            out.putInt((int) Math.round(coordinates.get(i)[1] * DEGREE_SCALE));
+            out.putInt(nameOffset).putInt(encodedNames[i].length);
+            nameOffset += encodedNames[i].length;
+        }
+        for (int start : cellStart) {
+            out.putInt(start);
+        }
+        for (int i : cellEntries) {
+            out.putInt(i);
+        }
+        for (byte[] name : encodedNames) {
+            out.put(name);
+        }
+        return out;
+    }
+
+    /**
+     * Build-time entry point: CheckpointCatalog <csv> <catalog>
+     */
+    public static void main(String[] args) throws IOException {
+        compile(new File(args[0]), new File(args[1]));
+    }
+}
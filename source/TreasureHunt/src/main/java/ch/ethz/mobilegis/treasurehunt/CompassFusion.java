@@ -0,0 +1,158 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import android.hardware.GeomagneticField;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * CompassFusion.java
+ *
+ * Heading of the phone relative to true north, for the compass needle.
+ *
+ * Sources, best first:
+ * - TYPE_ROTATION_VECTOR: fused by the platform (gyroscope, accelerometer, magnetometer);
+ * - TYPE_ACCELEROMETER + TYPE_MAGNETIC_FIELD: both low-pass filtered before the rotation matrix
+ * is built, which removes most hand shake and magnetometer noise.
+ *
+ * The sensors report magnetic north, the bearing to a target is geodetic, so the magnetic
+ * declination at the user's position is added. It comes from a GeomagneticField that is only
+ * rebuilt when the user moved DECLINATION_DISTANCE away from where it was computed.
+ *
+ * All buffers are preallocated, onSensorChanged() does not allocate. The heading is only stored;
+ * the listener is told that a new one is available and should render it at its own pace.
+ */
+class CompassFusion implements SensorEventListener {
+    private static final float LOW_PASS_ALPHA = 0.15f;  // weight of a new accel / mag sample
+    private static final double DECLINATION_DISTANCE = 10000.0;  // m
+    private static final int SENSOR_DELAY = SensorManager.SENSOR_DELAY_GAME;
+
+    interface Listener {
+        /**
+         * A new heading is available. Called on the sensor thread (main thread by default).
+         */
+        void onHeadingChanged();
+    }
+
+    private final SensorManager sensorManager;
+    private final Sensor rotationVector;
+    private final Sensor accelerometer;
+    private final Sensor magnetic;
+    private Listener listener;
+
+    // preallocated fusion state
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientation = new float[3];
+    private final float[] gravity = new float[3];
+    private final float[] geomagnetic = new float[3];
+    private boolean hasGravity;
+    private boolean hasGeomagnetic;
+
+    // declination cache
+    private final LocalFrame declinationFrame = new LocalFrame(0, 0);
+    private boolean hasDeclination;
+    private float declination;  // degrees, east positive
+
+    private float heading;  // degrees from true north, [-180, 180)
+
+    public CompassFusion(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+        rotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        magnetic = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+    }
+
+    public void start(Listener listener) {
+        this.listener = listener;
+        hasGravity = false;
+        hasGeomagnetic = false;
+        if (null != rotationVector) {
+            sensorManager.registerListener(this, rotationVector, SENSOR_DELAY);
+        } else {
+            sensorManager.registerListener(this, accelerometer, SENSOR_DELAY);
+            sensorManager.registerListener(this, magnetic, SENSOR_DELAY);
+        }
+    }
+
+    public void stop() {
+        sensorManager.unregisterListener(this);
+    }
+
+    /**
+     * @return true if the platform rotation vector is used, false for accelerometer + magnetometer
+     */
+    public boolean isUsingRotationVector() {
+        return null != rotationVector;
+    }
+
+    /**
+     * Update the magnetic declination for the user's position. Cheap when called on every fix,
+     * the field model is only evaluated again after DECLINATION_DISTANCE.
+     *
+     * @param time fix time, ms since epoch
+     */
+    public void updatePosition(double latitude, double longitude, double altitude, long time) {
+        if (hasDeclination && LocalFrame.distance(0, 0, declinationFrame.east(longitude),
+                declinationFrame.north(latitude)) < DECLINATION_DISTANCE) {
+            return;
+        }
+        declinationFrame.anchor(latitude, longitude);
+        declination = new GeomagneticField((float) latitude, (float) longitude, (float) altitude,
+                time).getDeclination();
+        hasDeclination = true;
+    }
+
+    /**
+     * @return heading of the phone (its y axis) from true north, degrees in [-180, 180)
+     */
+    public float getHeading() {
+        return heading;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        switch (event.sensor.getType()) {
+            case Sensor.TYPE_ROTATION_VECTOR:
+                SensorManager.getRotationMatrixFromVector(rotationMatrix, event.values);
+                break;
+            case Sensor.TYPE_ACCELEROMETER:
+                hasGravity = lowPass(event.values, gravity, hasGravity);
+                if (!hasGeomagnetic || !SensorManager.getRotationMatrix(rotationMatrix, null,
+                        gravity, geomagnetic)) {
+                    return;
+                }
+                break;
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                hasGeomagnetic = lowPass(event.values, geomagnetic, hasGeomagnetic);
+                if (!hasGravity || !SensorManager.getRotationMatrix(rotationMatrix, null,
+                        gravity, geomagnetic)) {
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+        SensorManager.getOrientation(rotationMatrix, orientation);
+        float azimuth = (float) Math.toDegrees(orientation[0]) + declination;
+        heading = azimuth >= 180 ? azimuth - 360 : azimuth < -180 ? azimuth + 360 : azimuth;
+        listener.onHeadingChanged();
+    }
+
+    /**
+     * Exponential low-pass filter of a 3-axis sample into state, seeded by the first sample.
+     *
+     * @return true, the state is valid afterwards
+     */
+    private static boolean lowPass(float[] values, float[] state, boolean initialized) {
+        for (int i = 0; i < 3; i++) {
+            state[i] = initialized ? state[i] + LOW_PASS_ALPHA * (values[i] - state[i]) : values[i];
+        }
+        return true;
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+}
@@ -11,14 +11,20 @@ import android.icu.util.GregorianCalendar;
 import android.net.ConnectivityManager;
 import android.os.Bundle;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.text.method.ScrollingMovementMethod;
 import android.util.Log;
@@ -31,23 +37,33 @@ import android.widget.Spinner;
 import android.widget.SpinnerAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
+import android.widget.ToggleButton;
 
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.data.Field;
 import com.esri.arcgisruntime.data.FeatureQueryResult;
 import com.esri.arcgisruntime.data.QueryParameters;
 import com.esri.arcgisruntime.data.ServiceFeatureTable;
+import com.esri.arcgisruntime.data.StatisticDefinition;
+import com.esri.arcgisruntime.data.StatisticRecord;
+import com.esri.arcgisruntime.data.StatisticType;
+import com.esri.arcgisruntime.data.StatisticsQueryParameters;
+import com.esri.arcgisruntime.data.StatisticsQueryResult;
 import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Polyline;
 import com.esri.arcgisruntime.geometry.SpatialReference;
 import com.esri.arcgisruntime.layers.FeatureLayer;
+import com.esri.arcgisruntime.loadable.LoadStatus;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
+import com.esri.arcgisruntime.mapping.Basemap;
 import com.esri.arcgisruntime.mapping.BasemapStyle;
 import com.esri.arcgisruntime.mapping.GeoElement;
 import com.esri.arcgisruntime.mapping.Viewpoint;
 import com.esri.arcgisruntime.mapping.view.Callout;
 import com.esri.arcgisruntime.mapping.view.DefaultMapViewOnTouchListener;
-import com.esri.arcgisruntime.mapping.view.IdentifyLayerResult;
+import com.esri.arcgisruntime.mapping.view.IdentifyGraphicsOverlayResult;
 import com.esri.arcgisruntime.mapping.view.MapView;
 
 
@@ -61,46 +77,83 @@ import com.esri.arcgisruntime.mapping.view.MapView;
  *
  * Used to show tracks on the provided url (ArcGIS server Feature Table)
  *
- * Requires internet connection.
+ * The topographic basemap comes from a tile cache on disk (see TileCache), prefetched around
+ * the checkpoints by TilePrefetchWorker, so the map also opens offline. Tracks require internet
+ * connection: they are fetched once, then only those uploaded since, and filtered on the
+ * device (see TrackIndex). The heatmap mode shows the density of all tracks instead, counted
+ * in the background as they sync (see TrackHeatmap).
 
  * */
 
 
 public class FeatureMapActivity extends AppCompatActivity {
     private static final String TAG = FeatureMapActivity.class.getSimpleName();
+    private static final String TILE_CACHE_DIR = "tiles";
+    private static final long TILE_CACHE_BYTES = 64L << 20;
+    // prefetched: the catalog extent plus a margin (degrees), at street to city levels
+    private static final double PREFETCH_MARGIN = 0.01;
+    private static final int PREFETCH_MIN_LEVEL = 10;
+    private static final int PREFETCH_MAX_LEVEL = 18;
+    private static final String USER_ID_FIELD = "user_id";
+    private static final String USER_ID_CACHE_FILE = "user_ids.bin";
+    private static final long USER_ID_TTL = 60 * 60 * 1000;  // ms
+    private static final List<String> ALL_FIELDS = Collections.singletonList("*");
+    private static final long SYNC_INTERVAL = 60 * 1000;  // ms, between syncs on search
+    private static final int TRACK_COLOR = 0xFF0079C1;
+    private static final float TRACK_WIDTH = 2;
+    private static final float HEATMAP_OPACITY = 0.8f;
+    private static final int HEATMAP_THREADS = Runtime.getRuntime().availableProcessors();
 
     // UI elements
     private MapView mMapView;
     private Spinner spinnerUserid;
     private ImageButton searchButton;
+    private ToggleButton heatmapButton;
 
     // ArcGIS Map
     private ArcGISMap map;
     private Callout mCallout;
 
     // Feature collections
-    private ArrayList<Feature> allFeatures;
-    private Set<Integer> userIdSet;
     private ArrayList<String> userIdStrings;
-    private ArrayList<Feature> lastDisplayFeatures;
     private String currentUserId = null;
     private String selectedUserId = null;
 
     private ServiceFeatureTable mServiceFeatureTable;
     private FeatureLayer featureLayer;
+    private TileCache tileCache;
+    private LodTrackOverlay lodTracks;
+    private PagedQuery trackQuery;
+    private final TrackIndex trackIndex = new TrackIndex();
+    private String objectIdField;
+    private long lastSyncTime;
+    private SpatialReference trackSpatialReference;
+    private final TrackHeatmap heatmap = new TrackHeatmap();
+    // one update at a time, in sync order, each split over the workers
+    private final ExecutorService heatmapExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService heatmapWorkers = Executors.newFixedThreadPool(HEATMAP_THREADS);
+    private final AtomicInteger heatmapUpdates = new AtomicInteger();  // queued or running
+    private HeatmapTileLayer heatmapLayer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         Log.d(TAG, "onCreate()");
         super.onCreate(savedInstanceState);
 
-        // check network connection
-        if (!isNetworkConnected()) {
+        // the basemap is cached, only the tracks need the network
+        boolean online = isNetworkConnected();
+        if (!online) {
             Log.d(TAG, "no internet");
-            Toast.makeText(this, "Please check internet connection.", Toast.LENGTH_LONG).show();
-//            setResult(RESULT_CANCELED);
-            finish();
-            return;
+            Toast.makeText(this, R.string.map_offline, Toast.LENGTH_LONG).show();
+        }
+        try {
+            tileCache = getTileCache(this);
+        } catch (IOException e) {
+            Log.e(TAG, "Tile cache unavailable: " + e.getMessage());
+            if (!online) {
+                finish();
+                return;
+            }
         }
 
         setContentView(R.layout.activity_feature_map);
@@ -115,18 +168,27 @@ public class FeatureMapActivity extends AppCompatActivity {
                 onSearchButtonClicked();
             }
         });
+        heatmapButton = (ToggleButton) findViewById(R.id.toggleButtonHeatmap);
+        heatmapButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showHeatmap(heatmapButton.isChecked());
+            }
+        });
 
-        allFeatures = new ArrayList<>();
-        userIdSet = new HashSet<>();
         userIdStrings = new ArrayList<>();
-        lastDisplayFeatures = new ArrayList<>();
 
         // authentication with an API key or named user is required to access basemaps and other
         // location services
         ArcGISRuntimeEnvironment.setApiKey(BuildConfig.API_KEY);
 
-        // create an ArcGISMap with a topographic basemap
-        map = new ArcGISMap(BasemapStyle.ARCGIS_TOPOGRAPHIC);
+        // create an ArcGISMap with a topographic basemap, cached on disk if possible
+        if (null != tileCache) {
+            map = new ArcGISMap(new Basemap(new CachedTileLayer(tileCache,
+                    getString(R.string.topographic_tile_url))));
+        } else {
+            map = new ArcGISMap(BasemapStyle.ARCGIS_TOPOGRAPHIC);
+        }
         // set the ArcGISMap to the MapView
         mMapView.setMap(map);
         // set a viewpoint
@@ -135,13 +197,40 @@ public class FeatureMapActivity extends AppCompatActivity {
         mCallout = mMapView.getCallout();
         // create the service feature table
         mServiceFeatureTable = new ServiceFeatureTable(getResources().getString(R.string.round_trip_layer_url));
+        // tracks are loaded by syncTracks() only, and filtered on the device
+        mServiceFeatureTable.setFeatureRequestMode(ServiceFeatureTable.FeatureRequestMode.MANUAL_CACHE);
         // create the feature layer using the service feature table
         featureLayer = new FeatureLayer(mServiceFeatureTable);
+        // drawn by the track overlay at the level of detail of the scale
+        featureLayer.setVisible(false);
 
         // add the layer to the map
         map.getOperationalLayers().add(featureLayer);
+        lodTracks = new LodTrackOverlay(TRACK_COLOR, TRACK_WIDTH);
+        mMapView.getGraphicsOverlays().add(lodTracks.getOverlay());
+        mMapView.addViewpointChangedListener(event -> {
+            if (lodTracks.setUnitsPerPixel(mMapView.getUnitsPerDensityIndependentPixel())) {
+                Log.d(TAG, "Track level " + lodTracks.getLevel() + ": "
+                        + lodTracks.getVertexCount() + " vertices");
+            }
+        });
 
-        initSpinner();
+        if (online) {
+            initSpinner();
+            mServiceFeatureTable.addDoneLoadingListener(() -> {
+                if (mServiceFeatureTable.getLoadStatus() != LoadStatus.LOADED) {
+                    Log.e(TAG, "Track layer not loaded: " + mServiceFeatureTable.getLoadError());
+                    return;
+                }
+                for (Field field : mServiceFeatureTable.getFields()) {
+                    if (field.getFieldType() == Field.Type.OID) {
+                        objectIdField = field.getName();
+                    }
+                }
+                syncTracks(true);
+            });
+            mServiceFeatureTable.loadAsync();
+        }
 
         // set an on touch listener to listen for click events
         mMapView.setOnTouchListener(new DefaultMapViewOnTouchListener(this, mMapView) {
@@ -158,12 +247,12 @@ public class FeatureMapActivity extends AppCompatActivity {
                 final Point screenPoint = new Point(Math.round(e.getX()), Math.round(e.getY()));
                 // create a selection tolerance
                 int tolerance = 10;
-                // use identifyLayerAsync to get tapped features
-                final ListenableFuture<IdentifyLayerResult> identifyLayerResultListenableFuture = mMapView
-                        .identifyLayerAsync(featureLayer, screenPoint, tolerance, false, 1);
+                // use identifyGraphicsOverlayAsync to get tapped tracks
+                final ListenableFuture<IdentifyGraphicsOverlayResult> identifyLayerResultListenableFuture = mMapView
+                        .identifyGraphicsOverlayAsync(lodTracks.getOverlay(), screenPoint, tolerance, false, 1);
                 identifyLayerResultListenableFuture.addDoneListener(() -> {
                     try {
-                        IdentifyLayerResult identifyLayerResult = identifyLayerResultListenableFuture.get();
+                        IdentifyGraphicsOverlayResult identifyLayerResult = identifyLayerResultListenableFuture.get();
                         // create a textview to display field values
                         TextView calloutContent = new TextView(getApplicationContext());
                         calloutContent.setTextColor(Color.BLACK);
@@ -172,8 +261,7 @@ public class FeatureMapActivity extends AppCompatActivity {
                         calloutContent.setScrollBarStyle(View.SCROLLBARS_INSIDE_INSET);
                         calloutContent.setMovementMethod(new ScrollingMovementMethod());
                         calloutContent.setLines(5);
-                        for (GeoElement element : identifyLayerResult.getElements()) {
-                            Feature feature = (Feature) element;
+                        for (GeoElement feature : identifyLayerResult.getGraphics()) {
                             // create a map of all available attributes as name value pairs
                             Map<String, Object> attr = feature.getAttributes();
                             Set<String> keys = attr.keySet();
@@ -242,69 +330,69 @@ public class FeatureMapActivity extends AppCompatActivity {
         return cm.getActiveNetworkInfo() != null && cm.getActiveNetworkInfo().isConnected();
     }
 
+    static TileCache getTileCache(Context context) throws IOException {
+        return TileCache.open(new File(context.getCacheDir(), TILE_CACHE_DIR), TILE_CACHE_BYTES);
+    }
+
+    /**
+     * Load the basemap tiles around the checkpoints into the tile cache, so the map opens
+     * offline. Blocks, run by TilePrefetchWorker; cached tiles are not fetched again.
+     *
+     * @param bounds of the checkpoint catalog
+     * @return number of tiles fetched
+     * @throws IOException from `fetcher`, e.g. when offline; tiles fetched so far are kept
+     */
+    static int prefetchTiles(Context context, double[] bounds, TileCache.Fetcher fetcher)
+            throws IOException {
+        return getTileCache(context).prefetch(bounds[0] - PREFETCH_MARGIN,
+                bounds[1] - PREFETCH_MARGIN, bounds[2] + PREFETCH_MARGIN,
+                bounds[3] + PREFETCH_MARGIN, PREFETCH_MIN_LEVEL, PREFETCH_MAX_LEVEL, fetcher);
+    }
+
     /**
-     * Get all features, update userIdSet, update spinner
+     * Update the spinner with the distinct user IDs of the track layer.
+     *
+     * Taken from the user ID cache while younger than USER_ID_TTL, else from a statistics query
+     * grouped by user_id: one row per user instead of every track with its geometry.
      */
     private void initSpinner() {
         Log.d(TAG, "initSpinner()");
-        // Get all features from table
-        //create query parameters
-        QueryParameters queryParams = new QueryParameters();
-        // 1=1 will give all the features from the table
-        queryParams.setWhereClause("1=1");
-        //query feature from the table
-        final ListenableFuture<FeatureQueryResult> future = mServiceFeatureTable.queryFeaturesAsync(queryParams);
+        String layerUrl = getString(R.string.round_trip_layer_url);
+        File cacheFile = new File(getCacheDir(), USER_ID_CACHE_FILE);
+        int[] cached = UserIdCache.read(cacheFile, layerUrl, System.currentTimeMillis(),
+                USER_ID_TTL);
+        if (null != cached) {
+            Log.d(TAG, "user IDs from cache");
+            showUserIds(cached);
+            return;
+        }
+        // count of tracks per user_id
+        StatisticsQueryParameters queryParams = new StatisticsQueryParameters(
+                Collections.singletonList(new StatisticDefinition(USER_ID_FIELD,
+                        StatisticType.COUNT, "tracks")));
+        queryParams.getGroupByFieldNames().add(USER_ID_FIELD);
+        queryParams.getOrderByFields().add(
+                new QueryParameters.OrderBy(USER_ID_FIELD, QueryParameters.SortOrder.ASCENDING));
+        final ListenableFuture<StatisticsQueryResult> future =
+                mServiceFeatureTable.queryStatisticsAsync(queryParams);
         // add done loading listener to fire when the selection returns
         future.addDoneListener(() -> {
             try {
-                // clear lists
-                allFeatures.clear();
-                userIdSet.clear();
-
-                // call get on the future to get the result
-                FeatureQueryResult result = future.get();
-                // check there are some results
-                Iterator<Feature> resultIterator = result.iterator();
-                while (resultIterator.hasNext()) {
-                    // get the extent of the first feature in the result to zoom to
-                    Feature feature = resultIterator.next();
-//                    Log.d(TAG, "feature: " + feature.toString());
-                    allFeatures.add(feature);
-                    Map<String, Object> attr = feature.getAttributes();
-//                    Log.d(TAG, "attribute: " + attr.toString());
-                    int userId = (Integer) attr.get("user_id");
-//                    Log.d(TAG, "user_id = " + userId);
-                    userIdSet.add(userId);
+                List<Integer> userIds = new ArrayList<>();
+                Iterator<StatisticRecord> records = future.get().iterator();
+                while (records.hasNext()) {
+                    Object userId = records.next().getGroup().get(USER_ID_FIELD);
+                    if (null != userId) {
+                        userIds.add(((Number) userId).intValue());
+                    }
                 }
-
-                // update last features
-                lastDisplayFeatures = allFeatures;
-
-                // Update user id
-                ArrayList<Integer> tempUserIds = new ArrayList<Integer>();
-                tempUserIds.addAll(userIdSet);
-                Collections.sort(tempUserIds);
-                userIdStrings.add(0, getString(R.string.user_id_all_uers));
-                for (int id : tempUserIds) {
-                    userIdStrings.add(Integer.toString(id));
+                int[] ids = new int[userIds.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = userIds.get(i);
                 }
-                SpinnerAdapter adapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, userIdStrings);
-                spinnerUserid.setAdapter(adapter);
-
-                // Set spinner listener
-                spinnerUserid.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
-                    @Override
-                    public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                        selectedUserId = userIdStrings.get(position);
-                        Log.d(TAG, "select user id: " + selectedUserId);
-                    }
-
-                    @Override
-                    public void onNothingSelected(AdapterView<?> parent) {
-                    }
-                });
-
-                Toast.makeText(this, "User ID loaded", Toast.LENGTH_SHORT).show();
+                Arrays.sort(ids);
+                showUserIds(ids);
+                writeUserIdCache(cacheFile, layerUrl, ids);
             } catch (Exception e) {
                 Toast.makeText(this, "Fail to load User ID, please retry.", Toast.LENGTH_LONG).show();
                 Log.e(TAG, "error: " + e.toString());
@@ -312,91 +400,281 @@ public class FeatureMapActivity extends AppCompatActivity {
         });
     }
 
+    private static void writeUserIdCache(File file, String layerUrl, int[] ids) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    UserIdCache.write(file, layerUrl, System.currentTimeMillis(), ids);
+                } catch (IOException e) {
+                    Log.e(TAG, "Fail to cache user IDs: " + e.getMessage());
+                }
+            }
+        }, "UserIdCache").start();
+    }
+
+    /**
+     * Fill the spinner with "all users" and the given (ascending) user IDs.
+     */
+    private void showUserIds(int[] userIds) {
+        userIdStrings.clear();
+        userIdStrings.add(getString(R.string.user_id_all_uers));
+        for (int id : userIds) {
+            userIdStrings.add(Integer.toString(id));
+        }
+        SpinnerAdapter adapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, userIdStrings);
+        spinnerUserid.setAdapter(adapter);
+
+        // Set spinner listener
+        spinnerUserid.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                selectedUserId = userIdStrings.get(position);
+                Log.d(TAG, "select user id: " + selectedUserId);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        Toast.makeText(this, "User ID loaded", Toast.LENGTH_SHORT).show();
+    }
+
     /**
      * Response when search button is clicked.
      *
-     * Select corresponding features, referring to selected userid.
+     * Select corresponding features, referring to selected userid, from the track index; tracks
+     * uploaded since the last sync are fetched first if it is older than SYNC_INTERVAL.
      *
      * */
     private void onSearchButtonClicked() {
         Log.d(TAG, "onSearchButtonClicked(), selectedUserId = " + selectedUserId);
-        if (null == selectedUserId) {
+        if (null == selectedUserId || null == objectIdField) {
             return;
-        } else if (getString(R.string.user_id_all_uers).equals(selectedUserId)) {
-            // all features
-            updateAllFeatures();
-        } else {
-            updateFeatures(selectedUserId);
         }
+        boolean syncing = null != trackQuery && !trackQuery.isFinished()
+                && !trackQuery.isCancelled();
+        if (!syncing && System.currentTimeMillis() - lastSyncTime > SYNC_INTERVAL) {
+            syncTracks(false);  // shows the selection again when done
+        }
+        showSelection();
     }
 
     /**
-     * Filter features of a specific user.
+     * Show the tracks of the selected user (or all), filtered by the track index, and zoom to
+     * them. Runs on the tracks already synced, without a server request; the extent comes from
+     * the envelopes kept by the overlay.
+     * */
+    private void showSelection() {
+        if (null == selectedUserId || null == objectIdField) {
+            return;
+        }
+        if (getString(R.string.user_id_all_uers).equals(selectedUserId)) {
+            lodTracks.show(null);
+            return;
+        }
+        long start = System.nanoTime();
+        long[] found = trackIndex.find(new TrackIndex.Filter()
+                .user(Integer.parseInt(selectedUserId)));
+        Log.d(TAG, found.length + " of " + trackIndex.size() + " tracks found in "
+                + (System.nanoTime() - start) / 1000 + " us");
+        // display selected features only
+        lodTracks.show(found);
+        // center the mapview on the selected features
+        Envelope extent = lodTracks.getExtent();
+        if (null != extent) {
+            mMapView.setViewpointGeometryAsync(extent, 800);
+        }
+    }
+
+    /**
+     * Fetch the tracks above the largest object ID in the track index, page by page (see
+     * PagedQuery), into the table cache and the index.
+     *
+     * Each page shows as it arrives; on the first sync the map zooms whenever the bounds of the
+     * tracks so far grow. A running sync is cancelled.
      *
-     * @param userId : the user id to filter.
+     * @param first : first sync after opening, zooms to the tracks
      * */
-    private void updateFeatures(String userId) {
-        Log.d(TAG, "updateFeatures()");
-        queryUpdateFeatures("user_id=" + userId);
+    private void syncTracks(boolean first) {
+        Log.d(TAG, "syncTracks() above " + trackIndex.getMaxObjectId());
+        if (null != trackQuery) {
+            trackQuery.cancel();
+        }
+        String where = objectIdField + " > " + trackIndex.getMaxObjectId();
+        long startTime = System.currentTimeMillis();
+        trackQuery = new PagedQuery(new PagedQuery.PageSource() {
+            @Override
+            public Future<?> load(PagedQuery query, int offset, int count) {
+                //create query parameters
+                QueryParameters queryParams = new QueryParameters();
+                queryParams.setWhereClause(where);
+                queryParams.getOrderByFields().add(new QueryParameters.OrderBy(objectIdField,
+                        QueryParameters.SortOrder.ASCENDING));
+                queryParams.setResultOffset(offset);
+                queryParams.setMaxFeatures(count);
+                // load the page into the table, next to the tracks already there
+                final ListenableFuture<FeatureQueryResult> future = mServiceFeatureTable
+                        .populateFromServiceAsync(queryParams, false, ALL_FIELDS);
+                future.addDoneListener(() -> {
+                    if (query.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        FeatureQueryResult result = future.get();
+                        ArrayList<Feature> page = new ArrayList<>();
+                        List<double[]> pageTracks = new ArrayList<>();
+                        Iterator<Feature> resultIterator = result.iterator();
+                        while (resultIterator.hasNext()) {
+                            Feature feature = resultIterator.next();
+                            page.add(feature);
+                            long objectId = indexTrack(feature.getAttributes());
+                            if (objectId >= 0 && feature.getGeometry() instanceof Polyline) {
+                                double[][] parts = lodTracks.add(objectId,
+                                        (Polyline) feature.getGeometry(), feature.getAttributes());
+                                if (null != parts) {
+                                    pageTracks.addAll(Arrays.asList(parts));
+                                }
+                            }
+                        }
+                        if (!pageTracks.isEmpty()) {
+                            updateHeatmap(pageTracks);
+                        }
+                        double[] pageBounds = null;
+                        Envelope envelope = getMaxEnvelope(page);
+                        if (null != envelope.getSpatialReference()) {
+                            trackSpatialReference = envelope.getSpatialReference();
+                            pageBounds = new double[]{envelope.getXMin(), envelope.getYMin(),
+                                    envelope.getXMax(), envelope.getYMax()};
+                        }
+                        query.pageLoaded(page.size(), pageBounds,
+                                result.isTransferLimitExceeded());
+                    } catch (Exception e) {
+                        query.cancel();
+                        Toast.makeText(FeatureMapActivity.this, "Fail to load Tracks, please retry.", Toast.LENGTH_LONG).show();
+                        Log.e(TAG, "Load feature error: " + e.toString());
+                    }
+                });
+                return future;
+            }
+        }, new PagedQuery.Listener() {
+            @Override
+            public void onPage(PagedQuery query, int count, boolean boundsGrew) {
+                if (1 == query.getPages()) {
+                    Log.d(TAG, "First " + count + " tracks after "
+                            + (System.currentTimeMillis() - startTime) + " ms");
+                }
+                if (first && boundsGrew && null == selectedUserId) {
+                    // zoom to the tracks so far
+                    double[] bounds = query.getBounds();
+                    mMapView.setViewpointGeometryAsync(new Envelope(bounds[0], bounds[1],
+                            bounds[2], bounds[3], trackSpatialReference), 800);
+                }
+            }
+
+            @Override
+            public void onFinished(PagedQuery query) {
+                lastSyncTime = System.currentTimeMillis();
+                Log.d(TAG, query.getLoaded() + " new features in " + query.getPages()
+                        + " pages loaded in " + (lastSyncTime - startTime) + " ms, "
+                        + trackIndex.size() + " indexed");
+                if (first) {
+                    Toast.makeText(FeatureMapActivity.this, "Tracks loaded", Toast.LENGTH_SHORT).show();
+                } else if (query.getLoaded() > 0) {
+                    showSelection();  // with the new tracks
+                }
+            }
+        });
+        trackQuery.start();
     }
 
     /**
-     * Show all features.
+     * Count tracks into the heatmap in the background. The heatmap layer, if shown, is
+     * refreshed once the updates queued so far are done.
      *
+     * @param tracks track parts in web mercator metres
      * */
-    private void updateAllFeatures() {
-        Log.d(TAG, "updateAllFeatures()");
-        queryUpdateFeatures("1=1");
+    private void updateHeatmap(List<double[]> tracks) {
+        heatmapUpdates.incrementAndGet();
+        heatmapExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.currentTimeMillis();
+                try {
+                    heatmap.addAll(tracks, heatmapWorkers, HEATMAP_THREADS);
+                } catch (InterruptedException e) {
+                    return;  // closing
+                }
+                Log.d(TAG, String.format(Locale.ROOT,
+                        "Heatmap: %d parts added in %d ms, %d tiles, %d kB",
+                        tracks.size(), System.currentTimeMillis() - startTime,
+                        heatmap.getTileCount(), heatmap.getMemory() >> 10));
+                if (0 == heatmapUpdates.decrementAndGet()) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (null != heatmapLayer) {
+                                showHeatmap(true);
+                            }
+                        }
+                    });
+                }
+            }
+        });
     }
 
+    /**
+     * Switch between the heatmap and the track lines. The heatmap layer is created anew to show
+     * the current counts.
+     * */
+    private void showHeatmap(boolean shown) {
+        if (null != heatmapLayer) {
+            map.getOperationalLayers().remove(heatmapLayer);
+            heatmapLayer = null;
+        }
+        if (shown) {
+            heatmapLayer = new HeatmapTileLayer(heatmap);
+            heatmapLayer.setOpacity(HEATMAP_OPACITY);
+            map.getOperationalLayers().add(heatmapLayer);
+        }
+        lodTracks.getOverlay().setVisible(!shown);
+    }
 
     /**
-     * Query from FeatureTable and show.
+     * Add a track to the track index, from its feature attributes.
      *
-     * Query -> Hide previous features -> Show selected features -> Zoom to features.
-     *
-     * @param queryPhase : Query sentence, to be put in setWhereClause()
+     * @return object ID of the track, -1 if it has none or no user ID
      * */
-    private void queryUpdateFeatures(String queryPhase) {
-        Log.d(TAG, "queryUpdateFeatures(\"" + queryPhase + "\")");
-        // Get all features from table
-        //create query parameters
-        QueryParameters queryParams = new QueryParameters();
-        // 1=1 will give all the features from the table
-        queryParams.setWhereClause(queryPhase);
-        //query feature from the table
-        final ListenableFuture<FeatureQueryResult> future = mServiceFeatureTable.queryFeaturesAsync(queryParams);
-        // add done loading listener to fire when the selection returns
-        ArrayList<Feature> selectedFeatures = new ArrayList<>();
-        future.addDoneListener(() -> {
-            try {
-                // call get on the future to get the result
-                FeatureQueryResult result = future.get();
-                // check there are some results
-                Iterator<Feature> resultIterator = result.iterator();
-                while (resultIterator.hasNext()) {
-                    // get the extent of the first feature in the result to zoom to
-                    Feature feature = resultIterator.next();
-                    selectedFeatures.add(feature);
-                }
+    private long indexTrack(Map<String, Object> attr) {
+        Object objectId = attr.get(objectIdField);
+        Object userId = attr.get(USER_ID_FIELD);
+        if (!(objectId instanceof Number) || !(userId instanceof Number)) {
+            return -1;
+        }
+        Object reward = attr.get("reward");
+        trackIndex.add(((Number) objectId).longValue(), ((Number) userId).intValue(),
+                null == reward ? null : reward.toString(), number(attr.get("distance")),
+                number(attr.get("duration")), number(attr.get("average_speed")),
+                number(attr.get("start_timestamp")));
+        return ((Number) objectId).longValue();
+    }
 
-                // hide last features
-                featureLayer.setFeaturesVisible(lastDisplayFeatures, false);
-                // display selected features
-                featureLayer.setFeaturesVisible(selectedFeatures, true);
-                // update last features
-                lastDisplayFeatures = selectedFeatures;
-                // center the mapview on the last feature in list
-                Envelope envelope = getMaxEnvelope(selectedFeatures);
-                mMapView.setViewpointGeometryAsync(envelope, 800);
-
-                Toast.makeText(this, "Tracks loaded", Toast.LENGTH_SHORT).show();
-                Log.d(TAG, "Features loaded for userId =" + selectedUserId);
-            } catch (Exception e) {
-                Toast.makeText(this, "Fail to load Tracks, please retry.", Toast.LENGTH_LONG).show();
-                Log.e(TAG, "Load feature error: " + e.toString());
+    /**
+     * @return value of a numeric attribute, also uploaded as text (start_timestamp); NaN if none
+     * */
+    private static double number(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (null != value) {
+            try {
+                return Double.parseDouble(value.toString());
+            } catch (NumberFormatException e) {
+                // not a number
             }
-        });
+        }
+        return Double.NaN;
     }
 
     /**
@@ -431,6 +709,13 @@ public class FeatureMapActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         mMapView.pause();
+        if (null != tileCache) {
+            Log.i(TAG, String.format(Locale.ROOT,
+                    "Tile cache: %d hits, %d misses (%.0f%% hit rate), %d kB saved, %d kB fetched, %d tiles, %d kB on disk",
+                    tileCache.getHits(), tileCache.getMisses(), tileCache.getHitRate() * 100,
+                    tileCache.getBytesSaved() >> 10, tileCache.getBytesFetched() >> 10,
+                    tileCache.getTileCount(), tileCache.getSize() >> 10));
+        }
     }
 
     @Override
@@ -442,6 +727,13 @@ public class FeatureMapActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mMapView.dispose();
+        if (null != trackQuery) {
+            trackQuery.cancel();
+        }
+        heatmapExecutor.shutdownNow();
+        heatmapWorkers.shutdownNow();
+        if (null != mMapView) {  // null if finished in onCreate()
+            mMapView.dispose();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.Arrays;
+
+/**
+ * FixBatch.java
+ *
+ * Reusable list of fixes delivered together by a batching LocationSource, oldest first.
+ * Columns of primitives like TrackBuffer, but cleared and refilled for every batch, so a source
+ * keeps one instance and does not allocate per delivery once it has grown to the batch size.
+ */
+class FixBatch {
+    private long[] times;
+    private double[] latitudes;
+    private double[] longitudes;
+    private float[] accuracies;
+    private double[] altitudes;
+    private int size;
+
+    public FixBatch(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        accuracies = new float[capacity];
+        altitudes = new double[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(long time, double latitude, double longitude, float accuracy, double altitude) {
+        if (size == times.length) {
+            int capacity = 2 * size;
+            times = Arrays.copyOf(times, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+            altitudes = Arrays.copyOf(altitudes, capacity);
+        }
+        times[size] = time;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        accuracies[size] = accuracy;
+        altitudes[size] = altitude;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    public float getAccuracy(int i) {
+        return accuracies[i];
+    }
+
+    public double getAltitude(int i) {
+        return altitudes[i];
+    }
+}
@@ -0,0 +1,109 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationAvailability;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.List;
+
+/**
+ * FusedLocationSource.java
+ *
+ * LocationSource backed by the fused location provider of Google Play services, with batching:
+ * the GPS still samples every `interval` ms, but fixes are held in the chip / system and handed
+ * over together at most every `maxDelay` ms. One delivery per batch means one wakeup of the
+ * receiving thread instead of one per fix.
+ *
+ * A fix is therefore reported at most interval + maxDelay after it was measured, which bounds
+ * the geofence latency.
+ *
+ * The caller must hold the location permission before start().
+ */
+class FusedLocationSource extends LocationCallback implements LocationSource {
+    private final FusedLocationProviderClient client;
+    private final Looper looper;
+    private final LocationRequest request;
+    private final FixBatch batch = new FixBatch(16);
+    private FixListener listener;
+    private boolean started;
+    private boolean available = true;
+
+    /**
+     * @param interval    time between fixes, ms
+     * @param minDistance minimum distance between fixes, m
+     * @param maxDelay    longest time a fix may be held back for batching, ms; 0 for no batching
+     * @param looper      thread receiving the batches
+     */
+    public FusedLocationSource(Context context, long interval, float minDistance, long maxDelay,
+                               Looper looper) {
+        this.client = LocationServices.getFusedLocationProviderClient(context);
+        this.looper = looper;
+        request = LocationRequest.create()
+                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                .setInterval(interval)
+                .setFastestInterval(interval)
+                .setSmallestDisplacement(minDistance)
+                .setMaxWaitTime(maxDelay);
+    }
+
+    @Override
+    @SuppressWarnings("MissingPermission")
+    public void start(FixListener listener) {
+        this.listener = listener;
+        started = true;
+        client.requestLocationUpdates(request, this, looper);
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        client.removeLocationUpdates(this);
+    }
+
+    @Override
+    @SuppressWarnings("MissingPermission")
+    public void setInterval(long interval, float minDistance) {
+        request.setInterval(interval)
+                .setFastestInterval(interval)
+                .setSmallestDisplacement(minDistance);
+        if (started) {
+            client.removeLocationUpdates(this);
+            client.requestLocationUpdates(request, this, looper);
+        }
+    }
+
+    @Override
+    public void onLocationResult(@NonNull LocationResult result) {
+        List<Location> locations = result.getLocations();
+        batch.clear();
+        for (int i = 0; i < locations.size(); i++) {
+            Location location = locations.get(i);
+            batch.add(location.getTime(), location.getLatitude(), location.getLongitude(),
+                    location.getAccuracy(), location.getAltitude());
+        }
+        listener.onFixes(batch);
+    }
+
+    @Override
+    public void onLocationAvailability(@NonNull LocationAvailability availability) {
+        boolean isAvailable = availability.isLocationAvailable();
+        if (isAvailable == available) {
+            return;
+        }
+        available = isAvailable;
+        if (available) {
+            listener.onSourceEnabled();
+        } else {
+            listener.onSourceDisabled();
+        }
+    }
+}
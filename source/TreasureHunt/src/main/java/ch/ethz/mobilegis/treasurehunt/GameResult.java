@@ -1,9 +1,6 @@
 package ch.ethz.mobilegis.treasurehunt;
 
-import android.location.Location;
-import com.esri.arcgisruntime.geometry.Point;
 import java.io.Serializable;
-import java.util.ArrayList;
 
 /**
  * GameResult.java
@@ -21,7 +18,8 @@ import java.util.ArrayList;
 
 class TrackResult implements Serializable {
 //    private ArrayList<Location> trackLocation;
-    private ArrayList<LonLatPoint> trackPoints;
+    private TrackView trackPoints;  // raw fixes, from the TrackJournal or the SessionArchive
+    private TrackView simplifiedTrackPoints;  // same track, simplified for upload and display
     private Long startTimestamp;
     private int userId;
     private int trackId;
@@ -32,10 +30,11 @@ class TrackResult implements Serializable {
     private double avgTemperature;
 
 
-    public TrackResult(ArrayList<LonLatPoint> trackPoints, Long startTimestamp, int userId,
-                       int trackId, String rewardName, double distance, double duration,
+    public TrackResult(TrackView trackPoints, TrackView simplifiedTrackPoints, Long startTimestamp,
+                       int userId, int trackId, String rewardName, double distance, double duration,
                        double avgSpeed, double avgTemperature) {
         this.trackPoints = trackPoints;
+        this.simplifiedTrackPoints = simplifiedTrackPoints;
         this.startTimestamp = startTimestamp;
         this.userId = userId;
         this.trackId = trackId;
@@ -46,14 +45,22 @@ class TrackResult implements Serializable {
         this.avgTemperature = avgTemperature;
     }
 
-    public ArrayList<LonLatPoint> getTrackPoints() {
+    public TrackView getTrackPoints() {
         return trackPoints;
     }
 
-    public void setTrackPoints(ArrayList<LonLatPoint> trackPoints) {
+    public void setTrackPoints(TrackView trackPoints) {
         this.trackPoints = trackPoints;
     }
 
+    public TrackView getSimplifiedTrackPoints() {
+        return simplifiedTrackPoints;
+    }
+
+    public void setSimplifiedTrackPoints(TrackView simplifiedTrackPoints) {
+        this.simplifiedTrackPoints = simplifiedTrackPoints;
+    }
+
     public Long getStartTimestamp() {
         return startTimestamp;
     }
@@ -169,6 +176,89 @@ class PointResult implements Serializable {
     }
 }
 
+/**
+ * One finished hunt as kept in the SessionArchive (and in the former output.csv): the track
+ * itself is stored separately.
+ */
+class SessionSummary implements Serializable {
+    private long startTimestamp;
+    private double startLongitude;
+    private double startLatitude;
+    private String checkpointName;
+    private double checkpointLongitude;
+    private double checkpointLatitude;
+    private double distance;  // m
+    private double duration;  // s
+    private double avgSpeed;  // km/h
+    private double avgTemperature;  // celsius
+    private String rewardName;
+
+    public SessionSummary(long startTimestamp, double startLongitude, double startLatitude,
+                          String checkpointName, double checkpointLongitude,
+                          double checkpointLatitude, double distance, double duration,
+                          double avgSpeed, double avgTemperature, String rewardName) {
+        this.startTimestamp = startTimestamp;
+        this.startLongitude = startLongitude;
+        this.startLatitude = startLatitude;
+        this.checkpointName = checkpointName;
+        this.checkpointLongitude = checkpointLongitude;
+        this.checkpointLatitude = checkpointLatitude;
+        this.distance = distance;
+        this.duration = duration;
+        this.avgSpeed = avgSpeed;
+        this.avgTemperature = avgTemperature;
+        this.rewardName = rewardName;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public double getStartLongitude() {
+        return startLongitude;
+    }
+
+    public double getStartLatitude() {
+        return startLatitude;
+    }
+
+    public String getCheckpointName() {
+        return checkpointName;
+    }
+
+    public void setCheckpointName(String checkpointName) {
+        this.checkpointName = checkpointName;
+    }
+
+    public double getCheckpointLongitude() {
+        return checkpointLongitude;
+    }
+
+    public double getCheckpointLatitude() {
+        return checkpointLatitude;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public double getAvgSpeed() {
+        return avgSpeed;
+    }
+
+    public double getAvgTemperature() {
+        return avgTemperature;
+    }
+
+    public String getRewardName() {
+        return rewardName;
+    }
+}
+
 class LonLatPoint implements Serializable {
     private double longitude;
     private double latitude;
@@ -1,7 +1,5 @@
 package ch.ethz.mobilegis.treasurehunt;
 
-import android.location.Location;
-
 import androidx.annotation.NonNull;
 
 import java.io.Serializable;
@@ -16,6 +14,12 @@ public class Geofence implements Serializable, Cloneable {
 
     private String name;
 
+    // projection into the LocalFrame last asked for, refreshed when the frame re-anchors
+    private transient LocalFrame projectedFrame;
+    private transient int projectedEpoch;
+    private transient double east;
+    private transient double north;
+
     /**
      * Creates a new Geofence.
      *
@@ -32,23 +36,46 @@ public class Geofence implements Serializable, Cloneable {
     }
 
     /**
-     * Transforms this Geofence into an Android location.
-     *
-     * @return A location containing latitude and longitude of this Geofence.
+     * Projected east coordinate of the centre in the given frame, in m.
+     */
+    public double getEast(LocalFrame frame) {
+        project(frame);
+        return east;
+    }
+
+    /**
+     * Projected north coordinate of the centre in the given frame, in m.
      */
-    public Location getLocation() {
-        Location target = new Location("");
-        target.setLatitude(latitude);
-        target.setLongitude(longitude);
-        return target;
+    public double getNorth(LocalFrame frame) {
+        project(frame);
+        return north;
+    }
+
+    /**
+     * Distance in m from a point projected in the same frame to the centre of this Geofence.
+     */
+    public double distanceTo(LocalFrame frame, double east, double north) {
+        project(frame);
+        return LocalFrame.distance(east, north, this.east, this.north);
+    }
+
+    private void project(LocalFrame frame) {
+        if (frame != projectedFrame || frame.getEpoch() != projectedEpoch) {
+            east = frame.east(longitude);
+            north = frame.north(latitude);
+            projectedFrame = frame;
+            projectedEpoch = frame.getEpoch();
+        }
     }
 
     public void setLatitude(double latitude) {
         this.latitude = latitude;
+        projectedFrame = null;
     }
 
     public void setLongitude(double longitude) {
         this.longitude = longitude;
+        projectedFrame = null;
     }
 
     public void setRadius(double radius) {
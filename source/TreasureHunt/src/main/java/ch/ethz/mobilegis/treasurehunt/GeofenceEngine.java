@@ -0,0 +1,264 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GeofenceEngine.java
+ *
+ * Evaluates many Geofences at once. Each fix returns the enter / exit / dwell transitions it
+ * caused, in time independent of the total number of fences.
+ *
+ * Index: a uniform lat/lon grid. Every fence is registered in all cells overlapped by its disk
+ * (grown by the hysteresis margin); the cells are stored sorted in compressed rows
+ * (cellKeys -> fenceIds), so a lookup is a binary search plus a scan of the few fences in that
+ * cell. Fences the user is currently inside are tracked separately, so exits are detected even
+ * after a jump across cells.
+ *
+ * Hysteresis: a fence is entered when the distance drops below radius - hysteresis and left
+ * when it exceeds radius + hysteresis, so GPS jitter at the border does not toggle the state.
+ * After dwellTime inside, a single DWELL transition is reported.
+ *
+ * Not thread safe. onFix() allocates nothing.
+ */
+class GeofenceEngine {
+    public static final byte ENTER = 1;
+    public static final byte EXIT = 2;
+    public static final byte DWELL = 3;
+
+    private static final double DEFAULT_HYSTERESIS = 2.0;  // m
+    private static final long DEFAULT_DWELL_TIME = 30000;  // ms
+    private static final double MIN_CELL_SIZE = 50.0;  // m
+
+    private final Geofence[] fences;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] radii;
+    private final double hysteresis;
+    private final long dwellTime;
+
+    // grid
+    private final double cellDegLat;
+    private final double cellDegLon;
+    private final long[] cellKeys;  // sorted
+    private final int[] cellStart;  // fences of cellKeys[i]: fenceIds[cellStart[i] .. cellStart[i + 1])
+    private final int[] fenceIds;
+
+    // per-fence state
+    private final boolean[] inside;
+    private final long[] enterTime;
+    private final boolean[] dwellReported;
+    private final int[] active;  // fences currently inside
+    private int activeCount;
+
+    private final LocalFrame frame = new LocalFrame(0, 0);
+    private final Transitions transitions;
+
+    public GeofenceEngine(List<Geofence> geofences) {
+        this(geofences, DEFAULT_HYSTERESIS, DEFAULT_DWELL_TIME);
+    }
+
+    /**
+     * @param geofences  fences to watch, indices in this list identify them in Transitions.
+     * @param hysteresis half width of the border band, m
+     * @param dwellTime  time inside before a DWELL transition, ms
+     */
+    public GeofenceEngine(List<Geofence> geofences, double hysteresis, long dwellTime) {
+        int n = geofences.size();
+        this.hysteresis = hysteresis;
+        this.dwellTime = dwellTime;
+        fences = geofences.toArray(new Geofence[0]);
+        latitudes = new double[n];
+        longitudes = new double[n];
+        radii = new double[n];
+        double maxRadius = 0;
+        double meanLat = 0;
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = fences[i].getLatitude();
+            longitudes[i] = fences[i].getLongitude();
+            radii[i] = fences[i].getRadius();
+            maxRadius = Math.max(maxRadius, radii[i]);
+            meanLat += latitudes[i] / n;
+        }
+        inside = new boolean[n];
+        enterTime = new long[n];
+        dwellReported = new boolean[n];
+        active = new int[n];
+        transitions = new Transitions(n);
+
+        // cells about twice as large as the biggest fence
+        double cellSize = Math.max(MIN_CELL_SIZE, 2 * (maxRadius + hysteresis));
+        frame.anchor(meanLat, 0);
+        cellDegLat = cellSize / frame.north(meanLat + 1);
+        cellDegLon = cellSize / frame.east(1);
+
+        // (cell, fence) pairs, sorted by cell
+        long[] pairs = new long[countPairs()];
+        int[] pairFence = new int[pairs.length];
+        int p = 0;
+        for (int i = 0; i < n; i++) {
+            int[] box = cellBox(i);
+            for (int cy = box[0]; cy <= box[2]; cy++) {
+                for (int cx = box[1]; cx <= box[3]; cx++) {
+                    pairs[p] = cellKey(cy, cx);
+                    pairFence[p] = i;
+                    p++;
+                }
+            }
+        }
+        Integer[] order = new Integer[pairs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(pairs[a], pairs[b]));
+
+        fenceIds = new int[pairs.length];
+        long[] keys = new long[pairs.length];
+        int[] starts = new int[pairs.length + 1];
+        int cells = 0;
+        for (int i = 0; i < order.length; i++) {
+            long key = pairs[order[i]];
+            if (0 == cells || keys[cells - 1] != key) {
+                keys[cells] = key;
+                starts[cells] = i;
+                cells++;
+            }
+            fenceIds[i] = pairFence[order[i]];
+        }
+        starts[cells] = pairs.length;
+        cellKeys = Arrays.copyOf(keys, cells);
+        cellStart = Arrays.copyOf(starts, cells + 1);
+    }
+
+    private int countPairs() {
+        int count = 0;
+        for (int i = 0; i < fences.length; i++) {
+            int[] box = cellBox(i);
+            count += (box[2] - box[0] + 1) * (box[3] - box[1] + 1);
+        }
+        return count;
+    }
+
+    /**
+     * @return {minRow, minCol, maxRow, maxCol} of the cells overlapped by fence i
+     */
+    private int[] cellBox(int i) {
+        frame.anchor(latitudes[i], longitudes[i]);
+        double reach = radii[i] + hysteresis;
+        double dLat = reach / frame.north(latitudes[i] + 1);
+        double dLon = reach / frame.east(longitudes[i] + 1);
+        return new int[]{
+                row(latitudes[i] - dLat), col(longitudes[i] - dLon),
+                row(latitudes[i] + dLat), col(longitudes[i] + dLon)};
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / cellDegLat);
+    }
+
+    private int col(double longitude) {
+        return (int) Math.floor(longitude / cellDegLon);
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    /**
+     * Evaluate a fix against all fences.
+     *
+     * @return transitions caused by this fix. The object is reused by the next call.
+     */
+    public Transitions onFix(double latitude, double longitude, long time) {
+        transitions.clear();
+        frame.anchor(latitude, longitude);
+
+        // fences we are inside: exit or dwell
+        for (int a = 0; a < activeCount; ) {
+            int i = active[a];
+            if (distance(i) > radii[i] + hysteresis) {
+                inside[i] = false;
+                active[a] = active[--activeCount];
+                transitions.add(i, EXIT);
+                continue;
+            }
+            if (!dwellReported[i] && time - enterTime[i] >= dwellTime) {
+                dwellReported[i] = true;
+                transitions.add(i, DWELL);
+            }
+            a++;
+        }
+
+        // candidates from the grid: enter
+        int cell = Arrays.binarySearch(cellKeys, cellKey(row(latitude), col(longitude)));
+        if (cell >= 0) {
+            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                int i = fenceIds[k];
+                if (!inside[i] && distance(i) < radii[i] - hysteresis) {
+                    inside[i] = true;
+                    enterTime[i] = time;
+                    dwellReported[i] = false;
+                    active[activeCount++] = i;
+                    transitions.add(i, ENTER);
+                }
+            }
+        }
+        return transitions;
+    }
+
+    /**
+     * Distance from the current fix (frame anchor) to the centre of fence i.
+     */
+    private double distance(int i) {
+        return Math.hypot(frame.east(longitudes[i]), frame.north(latitudes[i]));
+    }
+
+    public boolean isInside(int fence) {
+        return inside[fence];
+    }
+
+    public Geofence getGeofence(int fence) {
+        return fences[fence];
+    }
+
+    public int size() {
+        return fences.length;
+    }
+
+    /**
+     * Reusable list of (fence index, transition type).
+     */
+    static class Transitions {
+        private final int[] fences;
+        private final byte[] types;
+        private int size;
+
+        Transitions(int capacity) {
+            // a fix can at most exit every active fence and enter every fence of its cell
+            fences = new int[2 * capacity];
+            types = new byte[2 * capacity];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int fence, byte type) {
+            fences[size] = fence;
+            types[size] = type;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getFence(int i) {
+            return fences[i];
+        }
+
+        public byte getType(int i) {
+            return types[i];
+        }
+    }
+}
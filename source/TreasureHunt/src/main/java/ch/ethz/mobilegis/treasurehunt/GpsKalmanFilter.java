@@ -0,0 +1,195 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+/**
+ * GpsKalmanFilter.java
+ *
+ * Constant-velocity Kalman filter for GPS fixes.
+ *
+ * The state (east, north, v_east, v_north) lives in a LocalFrame anchored at the first fix (and
+ * moved to the fix the filter restarts from). Process noise is white acceleration, measurement
+ * noise is taken from the fix accuracy.
+ * With isotropic noise the two axes are independent, so the 4x4 problem is run as two 2x2
+ * filters sharing the same gain; all state is kept in fields, an update allocates nothing.
+ *
+ * Fixes whose innovation is too unlikely (chi-square test, 2 dof) are rejected as outliers.
+ * After MAX_REJECTS consecutive rejections the filter assumes it is the one that is wrong and
+ * restarts from the latest fix.
+ */
+class GpsKalmanFilter {
+    private static final double DEFAULT_ACCEL_NOISE = 0.5;  // m/s^2, walking / running
+    private static final double CHI2_GATE = 13.8;  // 99.9% quantile, 2 dof
+    private static final int MAX_REJECTS = 5;
+    private static final double MIN_ACCURACY = 1.0;  // m, some devices report 0
+    private static final double MAX_DT = 60.0;  // s, longer gaps restart the filter
+
+    private final double accelNoise2;
+
+    // local frame, anchored at the latest reset
+    private boolean initialized;
+    private LocalFrame frame;
+
+    // state, east axis: position, velocity, covariance (symmetric 2x2)
+    private double x;
+    private double vx;
+    private double pxx;
+    private double pxv;
+    private double pvvx;
+    // state, north axis
+    private double y;
+    private double vy;
+    private double pyy;
+    private double pyv;
+    private double pvvy;
+
+    private long lastTime;
+    private int rejects;
+
+    public GpsKalmanFilter() {
+        this(DEFAULT_ACCEL_NOISE);
+    }
+
+    /**
+     * @param accelNoise standard deviation of the unmodelled acceleration, m/s^2
+     */
+    public GpsKalmanFilter(double accelNoise) {
+        this.accelNoise2 = accelNoise * accelNoise;
+    }
+
+    /**
+     * Predict to the fix time and correct with the fix.
+     *
+     * @param longitude degrees
+     * @param latitude  degrees
+     * @param accuracy  horizontal accuracy (1 sigma) in m
+     * @param time      fix time, ms
+     * @return false if the fix was rejected as an outlier (state is only predicted)
+     */
+    public boolean update(double longitude, double latitude, float accuracy, long time) {
+        double r = Math.max(accuracy, MIN_ACCURACY);
+        r *= r;
+        if (!initialized) {
+            reset(longitude, latitude, r, time);
+            return true;
+        }
+        double dt = (time - lastTime) / 1000.0;
+        if (dt > MAX_DT) {
+            reset(longitude, latitude, r, time);
+            return true;
+        }
+        if (dt > 0) {
+            predict(dt);
+            lastTime = time;
+        }
+
+        double zx = frame.east(longitude);
+        double zy = frame.north(latitude);
+        double ix = zx - x;
+        double iy = zy - y;
+        double sx = pxx + r;
+        double sy = pyy + r;
+
+        // outlier gate on the normalised innovation
+        if (ix * ix / sx + iy * iy / sy > CHI2_GATE) {
+            if (++rejects < MAX_REJECTS) {
+                return false;
+            }
+            reset(longitude, latitude, r, time);
+            return true;
+        }
+        rejects = 0;
+
+        // east
+        double kp = pxx / sx;
+        double kv = pxv / sx;
+        x += kp * ix;
+        vx += kv * ix;
+        double pxvOld = pxv;
+        pvvx -= kv * pxvOld;
+        pxv -= kp * pxvOld;
+        pxx -= kp * pxx;
+        // north
+        kp = pyy / sy;
+        kv = pyv / sy;
+        y += kp * iy;
+        vy += kv * iy;
+        double pyvOld = pyv;
+        pvvy -= kv * pyvOld;
+        pyv -= kp * pyvOld;
+        pyy -= kp * pyy;
+        return true;
+    }
+
+    /**
+     * x' = F x, P' = F P F^T + Q, with F = [1 dt; 0 1] and white-acceleration Q.
+     */
+    private void predict(double dt) {
+        double dt2 = dt * dt;
+        double q11 = accelNoise2 * dt2 * dt2 / 4;
+        double q12 = accelNoise2 * dt2 * dt / 2;
+        double q22 = accelNoise2 * dt2;
+
+        x += vx * dt;
+        pxx += 2 * dt * pxv + dt2 * pvvx + q11;
+        pxv += dt * pvvx + q12;
+        pvvx += q22;
+
+        y += vy * dt;
+        pyy += 2 * dt * pyv + dt2 * pvvy + q11;
+        pyv += dt * pvvy + q12;
+        pvvy += q22;
+    }
+
+    private void reset(double longitude, double latitude, double r, long time) {
+        if (!initialized) {
+            frame = new LocalFrame(latitude, longitude);
+            initialized = true;
+        } else {
+            frame.anchor(latitude, longitude);
+        }
+        x = 0;
+        y = 0;
+        vx = 0;
+        vy = 0;
+        pxx = r;
+        pyy = r;
+        pxv = 0;
+        pyv = 0;
+        pvvx = 4.0;  // (2 m/s)^2, walking speed is unknown at start
+        pvvy = 4.0;
+        lastTime = time;
+        rejects = 0;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public double getLongitude() {
+        return frame.longitude(x);
+    }
+
+    public double getLatitude() {
+        return frame.latitude(y);
+    }
+
+    /**
+     * @return filtered speed in m/s
+     */
+    public double getSpeed() {
+        return Math.hypot(vx, vy);
+    }
+
+    /**
+     * @return direction of travel in degrees, clockwise from north, (-180, 180]
+     */
+    public double getBearing() {
+        return Math.toDegrees(Math.atan2(vx, vy));
+    }
+
+    /**
+     * @return 1-sigma horizontal position uncertainty in m
+     */
+    public double getAccuracy() {
+        return Math.sqrt((pxx + pyy) / 2);
+    }
+}
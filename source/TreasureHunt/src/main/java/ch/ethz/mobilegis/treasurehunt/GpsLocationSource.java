@@ -0,0 +1,88 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * GpsLocationSource.java
+ *
+ * LocationSource backed by LocationManager.GPS_PROVIDER.
+ * The caller must hold the location permission before start().
+ */
+class GpsLocationSource implements LocationSource, LocationListener {
+    private final LocationManager locationManager;
+    private final Looper looper;
+    private long interval;
+    private float minDistance;
+    private FixListener listener;
+    private boolean started;
+
+    /**
+     * @param interval    minimum time between fixes, ms
+     * @param minDistance minimum distance between fixes, m
+     */
+    public GpsLocationSource(LocationManager locationManager, long interval, float minDistance) {
+        this(locationManager, interval, minDistance, null);
+    }
+
+    /**
+     * @param looper thread receiving the fixes, null for the thread calling start()
+     */
+    public GpsLocationSource(LocationManager locationManager, long interval, float minDistance,
+                             Looper looper) {
+        this.locationManager = locationManager;
+        this.interval = interval;
+        this.minDistance = minDistance;
+        this.looper = looper;
+    }
+
+    @Override
+    @SuppressWarnings("MissingPermission")
+    public void start(FixListener listener) {
+        this.listener = listener;
+        started = true;
+        requestUpdates();
+    }
+
+    @SuppressWarnings("MissingPermission")
+    private void requestUpdates() {
+        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, interval,
+                minDistance, this, null != looper ? looper : Looper.myLooper());
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        locationManager.removeUpdates(this);
+    }
+
+    @Override
+    public void setInterval(long interval, float minDistance) {
+        this.interval = interval;
+        this.minDistance = minDistance;
+        if (started) {
+            locationManager.removeUpdates(this);
+            requestUpdates();
+        }
+    }
+
+    @Override
+    public void onLocationChanged(@NonNull Location location) {
+        listener.onFix(location.getTime(), location.getLatitude(), location.getLongitude(),
+                location.getAccuracy(), location.getAltitude());
+    }
+
+    @Override
+    public void onProviderEnabled(@NonNull String provider) {
+        listener.onSourceEnabled();
+    }
+
+    @Override
+    public void onProviderDisabled(@NonNull String provider) {
+        listener.onSourceDisabled();
+    }
+}
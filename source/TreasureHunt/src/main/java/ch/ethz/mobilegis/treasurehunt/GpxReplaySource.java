@@ -0,0 +1,327 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * GpxReplaySource.java
+ *
+ * LocationSource replaying the track points of a GPX file.
+ *
+ * The recorded geometry is walked at a constant speed and sampled every fixInterval ms, so the
+ * fixes look like a live GPS stream regardless of how dense the file is or whether it has
+ * timestamps. Accuracy is constant, optional gaussian noise comes from a seeded Random, so a
+ * replay is deterministic.
+ *
+ * Replay speed:
+ * - 1 real time, 100 = 100x faster, ...: fixes are delivered on a replay thread;
+ * - AS_FAST_AS_POSSIBLE: all fixes are delivered synchronously inside start().
+ *
+ * setInterval() thins the sampled stream out like a GPS request would: a fix is only delivered
+ * once both the requested interval and the minimum distance have passed since the last one.
+ *
+ * With setBatchSize(n), fixes are delivered n at a time through onFixes(), like a batching
+ * FusedLocationSource; the last batch of the track may be shorter.
+ */
+class GpxReplaySource implements LocationSource {
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    private static final double DEFAULT_WALKING_SPEED = 1.4;  // m/s
+    private static final long DEFAULT_FIX_INTERVAL = 1000;  // ms
+    private static final float DEFAULT_ACCURACY = 5f;  // m
+    private static final long DEFAULT_START_TIME = 1622966400000L;  // 2021-06-06 UTC
+
+    // recorded track
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+
+    // replay settings
+    private double speedup = AS_FAST_AS_POSSIBLE;
+    private double walkingSpeed = DEFAULT_WALKING_SPEED;
+    private long fixInterval = DEFAULT_FIX_INTERVAL;
+    private float accuracy = DEFAULT_ACCURACY;
+    private double noise = 0;  // m, 1 sigma
+    private long seed = 0;
+    private long startTime = DEFAULT_START_TIME;
+    private boolean roundTrip = false;
+    private int batchSize = 1;
+    private FixBatch batch;
+
+    // requested rate, may be changed from the listener while replaying
+    private volatile long requestedInterval = 0;
+    private volatile float requestedMinDistance = 0;
+    private long lastTime;
+    private double lastLatitude;  // of the last delivered fix
+    private double lastLongitude;
+    private boolean delivered;
+
+    private volatile boolean running;
+    private Thread replayThread;
+
+    public GpxReplaySource(double[] latitudes, double[] longitudes, double[] altitudes) {
+        if (latitudes.length == 0 || latitudes.length != longitudes.length
+                || latitudes.length != altitudes.length) {
+            throw new IllegalArgumentException("empty or inconsistent track");
+        }
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.altitudes = altitudes;
+    }
+
+    /**
+     * Read the track points (trkpt) of a GPX file.
+     */
+    public static GpxReplaySource fromFile(String path) throws IOException {
+        try (InputStream inputStream = new FileInputStream(path)) {
+            return fromStream(inputStream);
+        }
+    }
+
+    public static GpxReplaySource fromStream(InputStream inputStream) throws IOException {
+        TrackHandler handler = new TrackHandler();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(inputStream, handler);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid GPX: " + e.getMessage(), e);
+        }
+        TrackBuffer track = handler.track;
+        double[] latitudes = new double[track.size()];
+        double[] longitudes = new double[track.size()];
+        double[] altitudes = new double[track.size()];
+        for (int i = 0; i < track.size(); i++) {
+            latitudes[i] = track.getLatitude(i);
+            longitudes[i] = track.getLongitude(i);
+            altitudes[i] = track.getAltitude(i);
+        }
+        return new GpxReplaySource(latitudes, longitudes, altitudes);
+    }
+
+    /**
+     * @param speedup replay speed relative to real time, or AS_FAST_AS_POSSIBLE
+     */
+    public GpxReplaySource setSpeedup(double speedup) {
+        this.speedup = speedup;
+        return this;
+    }
+
+    /**
+     * @param walkingSpeed speed along the track, m/s
+     */
+    public GpxReplaySource setWalkingSpeed(double walkingSpeed) {
+        this.walkingSpeed = walkingSpeed;
+        return this;
+    }
+
+    /**
+     * @param fixInterval time between fixes, ms (simulated time)
+     */
+    public GpxReplaySource setFixInterval(long fixInterval) {
+        this.fixInterval = fixInterval;
+        return this;
+    }
+
+    /**
+     * @param accuracy reported accuracy, m
+     * @param noise    standard deviation of the position noise added to each fix, m
+     * @param seed     seed of the noise
+     */
+    public GpxReplaySource setAccuracy(float accuracy, double noise, long seed) {
+        this.accuracy = accuracy;
+        this.noise = noise;
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param startTime time of the first fix, ms since epoch
+     */
+    public GpxReplaySource setStartTime(long startTime) {
+        this.startTime = startTime;
+        return this;
+    }
+
+    /**
+     * @param roundTrip walk the track back to its first point after reaching the end
+     */
+    public GpxReplaySource setRoundTrip(boolean roundTrip) {
+        this.roundTrip = roundTrip;
+        return this;
+    }
+
+    /**
+     * @param batchSize number of fixes per delivery, 1 for one onFix() per fix
+     */
+    public GpxReplaySource setBatchSize(int batchSize) {
+        this.batchSize = Math.max(batchSize, 1);
+        return this;
+    }
+
+    @Override
+    public void setInterval(long interval, float minDistance) {
+        requestedInterval = interval;
+        requestedMinDistance = minDistance;
+    }
+
+    @Override
+    public void start(FixListener listener) {
+        batch = batchSize > 1 ? new FixBatch(batchSize) : null;
+        delivered = false;
+        running = true;
+        if (speedup <= AS_FAST_AS_POSSIBLE) {
+            replay(listener);
+            return;
+        }
+        replayThread = new Thread(() -> replay(listener), "GpxReplay");
+        replayThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (null != replayThread && Thread.currentThread() != replayThread) {
+            replayThread.interrupt();
+            try {
+                replayThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        replayThread = null;
+    }
+
+    private void replay(FixListener listener) {
+        walk(listener, speedup > AS_FAST_AS_POSSIBLE);
+        if (null != batch && batch.size() > 0) {
+            listener.onFixes(batch);
+            batch.clear();
+        }
+        running = false;
+    }
+
+    /**
+     * Sample the track every walkingSpeed * fixInterval metres.
+     */
+    private void walk(FixListener listener, boolean sleep) {
+        Random random = new Random(seed);
+        LocalFrame frame = new LocalFrame(latitudes[0], longitudes[0]);
+        double step = walkingSpeed * fixInterval / 1000.0;
+        int n = latitudes.length;
+        int legs = roundTrip ? 2 * (n - 1) : n - 1;
+        long time = startTime;
+        double offset = 0;  // distance into the current segment of the next fix
+        deliver(listener, frame, random, time, 0, 0, altitudes[0]);  // first track point
+
+        for (int leg = 0; leg < legs && running; leg++) {
+            int from = leg < n - 1 ? leg : 2 * (n - 1) - leg;
+            int to = leg < n - 1 ? leg + 1 : from - 1;
+            frame.ensureCovers(latitudes[from], longitudes[from]);
+            double e0 = frame.east(longitudes[from]);
+            double n0 = frame.north(latitudes[from]);
+            double e1 = frame.east(longitudes[to]);
+            double n1 = frame.north(latitudes[to]);
+            double length = LocalFrame.distance(e0, n0, e1, n1);
+            while (offset + step <= length && running) {
+                offset += step;
+                time += fixInterval;
+                if (sleep) {
+                    pause();
+                }
+                double f = offset / length;
+                deliver(listener, frame, random, time, e0 + f * (e1 - e0), n0 + f * (n1 - n0),
+                        altitudes[from] + f * (altitudes[to] - altitudes[from]));
+            }
+            offset -= length;
+            // keep the last point of the track as a fix, so the end fence is reached
+            if (leg == legs - 1 && running) {
+                time += fixInterval;
+                deliver(listener, frame, random, time, e1, n1, altitudes[to]);
+            }
+        }
+    }
+
+    private void deliver(FixListener listener, LocalFrame frame, Random random, long time,
+                         double east, double north, double altitude) {
+        if (noise > 0) {
+            east += random.nextGaussian() * noise;
+            north += random.nextGaussian() * noise;
+        }
+        if (delivered && (time - lastTime < requestedInterval
+                || LocalFrame.distance(frame.east(lastLongitude), frame.north(lastLatitude),
+                east, north) < requestedMinDistance)) {
+            return;  // not requested
+        }
+        double latitude = frame.latitude(north);
+        double longitude = frame.longitude(east);
+        delivered = true;
+        lastTime = time;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        if (null == batch) {
+            listener.onFix(time, latitude, longitude, accuracy, altitude);
+            return;
+        }
+        batch.add(time, latitude, longitude, accuracy, altitude);
+        if (batch.size() == batchSize) {
+            listener.onFixes(batch);
+            batch.clear();
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep((long) (fixInterval / speedup));
+        } catch (InterruptedException e) {
+            running = false;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Collects lat, lon and ele of every trkpt.
+     */
+    private static class TrackHandler extends DefaultHandler {
+        private final TrackBuffer track = new TrackBuffer();
+        private final StringBuilder text = new StringBuilder();
+        private boolean inTrackPoint;
+        private double latitude;
+        private double longitude;
+        private double elevation;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            String name = localName.isEmpty() ? qName : localName;
+            if ("trkpt".equals(name)) {
+                inTrackPoint = true;
+                latitude = Double.parseDouble(attributes.getValue("lat"));
+                longitude = Double.parseDouble(attributes.getValue("lon"));
+                elevation = 0;
+            }
+            text.setLength(0);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            String name = localName.isEmpty() ? qName : localName;
+            if (inTrackPoint && "ele".equals(name)) {
+                elevation = Double.parseDouble(text.toString().trim());
+            } else if ("trkpt".equals(name)) {
+                track.append(longitude, latitude, 0, 0f, elevation);
+                inTrackPoint = false;
+            }
+        }
+    }
+}
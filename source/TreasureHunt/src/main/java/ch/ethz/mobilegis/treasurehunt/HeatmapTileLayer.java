@@ -0,0 +1,49 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import android.graphics.Bitmap;
+
+import com.esri.arcgisruntime.arcgisservices.TileInfo;
+import com.esri.arcgisruntime.data.TileKey;
+import com.esri.arcgisruntime.layers.ImageTiledLayer;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * HeatmapTileLayer.java
+ *
+ * Track density of a TrackHeatmap as transparent PNG tiles over the basemap, coloured relative
+ * to the busiest cell of the level. Tiles are drawn when the map asks for them, so a layer
+ * shows the counts as they were then; a new layer is created to show later tracks.
+ */
+class HeatmapTileLayer extends ImageTiledLayer {
+    private final TrackHeatmap heatmap;
+
+    HeatmapTileLayer(TrackHeatmap heatmap) {
+        super(CachedTileLayer.createTileInfo(TileInfo.ImageFormat.PNG),
+                CachedTileLayer.createExtent());
+        this.heatmap = heatmap;
+    }
+
+    @Override
+    protected byte[] getTile(TileKey tileKey) {
+        char[] counts = heatmap.getTile(tileKey.getLevel(), tileKey.getRow(),
+                tileKey.getColumn());
+        if (null == counts) {
+            return null;  // no track there
+        }
+        int max = heatmap.getMaxCount(tileKey.getLevel());
+        int[] colors = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            colors[i] = TrackHeatmap.color(counts[i], max);
+        }
+        Bitmap cells = Bitmap.createBitmap(colors, TrackHeatmap.CELLS, TrackHeatmap.CELLS,
+                Bitmap.Config.ARGB_8888);
+        Bitmap tile = Bitmap.createScaledBitmap(cells, CachedTileLayer.TILE_SIZE,
+                CachedTileLayer.TILE_SIZE, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        tile.compress(Bitmap.CompressFormat.PNG, 100, out);
+        cells.recycle();
+        tile.recycle();
+        return out.toByteArray();
+    }
+}
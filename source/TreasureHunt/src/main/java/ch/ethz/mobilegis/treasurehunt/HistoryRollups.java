@@ -0,0 +1,344 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * HistoryRollups.java
+ *
+ * Totals of the finished hunts per day, per ISO week, per checkpoint and per reward, plus the
+ * grand total. Each finished hunt is folded in with add() and the result saved to a small file
+ * next to the SessionArchive, so the totals are read without scanning the history.
+ *
+ * The file records how many sessions it covers and the time zone of its day and week keys. When
+ * either does not match (a crash between archiving and saving, an import, a new time zone),
+ * load() rebuilds the rollups from the archive summaries, in chunks on all cores.
+ */
+class HistoryRollups {
+    static final String FILE = "rollups.dat";
+    private static final int MAGIC = 0x54485231;  // "THR1"
+    private static final short VERSION = 1;
+    private static final int MIN_CHUNK = 256;  // sessions per rebuild thread
+
+    private final TimeZone zone;
+    private final Calendar calendar;
+    private final Rollup total = new Rollup();
+    private final TreeMap<Integer, Rollup> days = new TreeMap<>();  // yyyymmdd
+    private final TreeMap<Integer, Rollup> weeks = new TreeMap<>();  // week year * 100 + week
+    private final TreeMap<String, Rollup> checkpoints = new TreeMap<>();
+    private final TreeMap<String, Rollup> rewards = new TreeMap<>();
+
+    HistoryRollups(TimeZone zone) {
+        this.zone = zone;
+        calendar = Calendar.getInstance(zone);
+        calendar.setFirstDayOfWeek(Calendar.MONDAY);  // ISO 8601 weeks
+        calendar.setMinimalDaysInFirstWeek(4);
+    }
+
+    /**
+     * Rollups of the sessions in `archive`, from the file in `dir` if it is up to date, else
+     * rebuilt and saved.
+     */
+    public static HistoryRollups load(File dir, SessionArchive archive, TimeZone zone)
+            throws IOException {
+        File file = new File(dir, FILE);
+        if (file.exists()) {
+            try {
+                HistoryRollups rollups = read(file);
+                if (rollups.zone.getID().equals(zone.getID())
+                        && rollups.getSessionCount() == archive.size()) {
+                    return rollups;
+                }
+            } catch (IOException e) {
+                // corrupt, rebuilt below
+            }
+        }
+        HistoryRollups rollups = rebuild(archive, zone, Runtime.getRuntime().availableProcessors());
+        rollups.save(dir);
+        return rollups;
+    }
+
+    /**
+     * Fold all sessions of `archive` again, split into chunks over `threads` threads.
+     */
+    public static HistoryRollups rebuild(SessionArchive archive, TimeZone zone, int threads)
+            throws IOException {
+        int n = archive.size();
+        int chunks = Math.max(1, Math.min(threads, n / MIN_CHUNK));
+        ExecutorService executor = Executors.newFixedThreadPool(chunks);
+        try {
+            List<Future<HistoryRollups>> parts = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                int from = (int) ((long) n * c / chunks);
+                int to = (int) ((long) n * (c + 1) / chunks);
+                parts.add(executor.submit(new Callable<HistoryRollups>() {
+                    @Override
+                    public HistoryRollups call() throws IOException {
+                        HistoryRollups part = new HistoryRollups(zone);
+                        for (int i = from; i < to; i++) {
+                            part.add(archive.getSummary(i));
+                        }
+                        return part;
+                    }
+                }));
+            }
+            HistoryRollups rollups = new HistoryRollups(zone);
+            for (Future<HistoryRollups> part : parts) {
+                rollups.merge(part.get());
+            }
+            return rollups;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Rebuild interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fold in one finished hunt.
+     */
+    public void add(SessionSummary summary) {
+        calendar.setTimeInMillis(summary.getStartTimestamp());
+        int day = calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+        int week = calendar.getWeekYear() * 100 + calendar.get(Calendar.WEEK_OF_YEAR);
+        total.add(summary);
+        get(days, day).add(summary);
+        get(weeks, week).add(summary);
+        get(checkpoints, summary.getCheckpointName()).add(summary);
+        get(rewards, summary.getRewardName()).add(summary);
+    }
+
+    private void merge(HistoryRollups other) {
+        total.merge(other.total);
+        mergeAll(days, other.days);
+        mergeAll(weeks, other.weeks);
+        mergeAll(checkpoints, other.checkpoints);
+        mergeAll(rewards, other.rewards);
+    }
+
+    private static <K> void mergeAll(Map<K, Rollup> into, Map<K, Rollup> from) {
+        for (Map.Entry<K, Rollup> entry : from.entrySet()) {
+            get(into, entry.getKey()).merge(entry.getValue());
+        }
+    }
+
+    private static <K> Rollup get(Map<K, Rollup> map, K key) {
+        Rollup rollup = map.get(key);
+        if (null == rollup) {
+            rollup = new Rollup();
+            map.put(key, rollup);
+        }
+        return rollup;
+    }
+
+    /**
+     * Write the rollups to `dir`, replacing the previous file only once complete.
+     */
+    public void save(File dir) throws IOException {
+        File tmp = File.createTempFile(FILE, null, dir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(zone.getID());
+            total.write(out);
+            out.writeInt(days.size());
+            for (Map.Entry<Integer, Rollup> entry : days.entrySet()) {
+                out.writeInt(entry.getKey());
+                entry.getValue().write(out);
+            }
+            out.writeInt(weeks.size());
+            for (Map.Entry<Integer, Rollup> entry : weeks.entrySet()) {
+                out.writeInt(entry.getKey());
+                entry.getValue().write(out);
+            }
+            writeNamed(out, checkpoints);
+            writeNamed(out, rewards);
+        }
+        if (!tmp.renameTo(new File(dir, FILE))) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + FILE);
+        }
+    }
+
+    private static HistoryRollups read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not a rollup file: " + file);
+            }
+            HistoryRollups rollups = new HistoryRollups(TimeZone.getTimeZone(in.readUTF()));
+            rollups.total.read(in);
+            for (int n = in.readInt(); n > 0; n--) {
+                rollups.days.put(in.readInt(), new Rollup().read(in));
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                rollups.weeks.put(in.readInt(), new Rollup().read(in));
+            }
+            readNamed(in, rollups.checkpoints);
+            readNamed(in, rollups.rewards);
+            return rollups;
+        }
+    }
+
+    private static void writeNamed(DataOutputStream out, Map<String, Rollup> map)
+            throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, Rollup> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    private static void readNamed(DataInputStream in, Map<String, Rollup> map)
+            throws IOException {
+        for (int n = in.readInt(); n > 0; n--) {
+            map.put(in.readUTF(), new Rollup().read(in));
+        }
+    }
+
+    public int getSessionCount() {
+        return total.getCount();
+    }
+
+    public Rollup getTotal() {
+        return total;
+    }
+
+    /**
+     * @return rollup of the day of `time` (in the time zone of the rollups), null if no hunt
+     */
+    public Rollup getDay(long time) {
+        calendar.setTimeInMillis(time);
+        return days.get(calendar.get(Calendar.YEAR) * 10000
+                + (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * @return rollup of the ISO week of `time`, null if no hunt
+     */
+    public Rollup getWeek(long time) {
+        calendar.setTimeInMillis(time);
+        return weeks.get(calendar.getWeekYear() * 100 + calendar.get(Calendar.WEEK_OF_YEAR));
+    }
+
+    /**
+     * @return rollups by day, keyed yyyymmdd
+     */
+    public SortedMap<Integer, Rollup> getDays() {
+        return Collections.unmodifiableSortedMap(days);
+    }
+
+    /**
+     * @return rollups by ISO week, keyed week year * 100 + week
+     */
+    public SortedMap<Integer, Rollup> getWeeks() {
+        return Collections.unmodifiableSortedMap(weeks);
+    }
+
+    public SortedMap<String, Rollup> getCheckpoints() {
+        return Collections.unmodifiableSortedMap(checkpoints);
+    }
+
+    public SortedMap<String, Rollup> getRewards() {
+        return Collections.unmodifiableSortedMap(rewards);
+    }
+}
+
+/**
+ * Count, distance, duration and best pace of a group of hunts.
+ */
+class Rollup {
+    private int count;
+    private double distance;  // m
+    private double duration;  // s
+    private double bestPace = Double.NaN;  // s/km, NaN until a hunt with a distance
+
+    void add(SessionSummary summary) {
+        count++;
+        distance += summary.getDistance();
+        duration += summary.getDuration();
+        if (summary.getDistance() > 0) {
+            updateBestPace(summary.getDuration() / (summary.getDistance() / 1000));
+        }
+    }
+
+    void merge(Rollup other) {
+        count += other.count;
+        distance += other.distance;
+        duration += other.duration;
+        updateBestPace(other.bestPace);
+    }
+
+    private void updateBestPace(double pace) {
+        if (Double.isNaN(bestPace) || pace < bestPace) {
+            bestPace = pace;
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        out.writeDouble(distance);
+        out.writeDouble(duration);
+        out.writeDouble(bestPace);
+    }
+
+    Rollup read(DataInputStream in) throws IOException {
+        count = in.readInt();
+        distance = in.readDouble();
+        duration = in.readDouble();
+        bestPace = in.readDouble();
+        return this;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return m
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return s
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return fastest pace of a single hunt, s/km, NaN if none
+     */
+    public double getBestPace() {
+        return bestPace;
+    }
+}
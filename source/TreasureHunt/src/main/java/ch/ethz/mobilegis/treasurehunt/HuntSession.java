@@ -0,0 +1,401 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HuntSession.java
+ *
+ * The round trip logic of a treasure hunt, independent of Android:
+ * fixes from a LocationSource -> Kalman filter -> distance / speed / bearing -> geofence
+ * transitions -> checkpoint(s) reached, back at start -> reward -> result.
+ *
+ * A hunt visits one checkpoint, or the checkpoints of a route in order (TourPlanner), and then
+ * returns to where it started.
+ *
+ * TrackingService drives it with a device LocationSource and forwards the Listener callbacks;
+ * a test can drive it with GpxReplaySource and run a complete hunt on the JVM.
+ *
+ * All times are fix times, so a replayed hunt gives the same result every run. This is also
+ * how a hunt is resumed after the process died: its TrackJournal is replayed through a new
+ * session (replayJournal()), which ends up in the same state.
+ */
+class HuntSession implements LocationSource.FixListener {
+    static final double TRACK_SIMPLIFY_TOLERANCE = 5.0;  // m
+    static final String START_POINT_NAME = "Start Point";
+    static final int MEDIAN = 0;  // quantile indices of the statistics
+    static final int P90 = 1;
+
+    /**
+     * Progress of the hunt. Called on the thread delivering the fixes.
+     */
+    interface Listener {
+        /**
+         * @param distance distance to the current target, m
+         * @param speed    filtered speed, m/s
+         * @param bearing  bearing to the current target, degrees
+         */
+        void onPositionChanged(double distance, double speed, float bearing);
+
+        /**
+         * A checkpoint was reached, the target is now the next checkpoint of the route, or the
+         * start point after the last one.
+         */
+        void onCheckpointReached(Geofence checkpoint);
+
+        /**
+         * Back at the start point. No more fixes are processed.
+         */
+        void onFinished(Reward reward);
+    }
+
+    private final Geofence targetGeofence;  // the (first) checkpoint, used for result output
+    private final List<Geofence> route;  // checkpoints, in order
+    private final float geofenceRadius;
+    private final Listener listener;
+
+    // pipeline
+    private final GpsKalmanFilter kalmanFilter = new GpsKalmanFilter();
+    private LocalFrame localFrame;  // anchored near the user, re-anchors when drifting away
+    private Geofence geofence;  // current target
+    private GeofenceEngine geofenceEngine;
+    private final TrackBuffer trackPoints;  // raw fixes, on the heap when there is no journal
+    private final TrackJournal journal;  // raw fixes and temperature samples, in a file
+    private boolean replaying;
+    private final TrackSimplifier trackSimplifier = new TrackSimplifier(TRACK_SIMPLIFY_TOLERANCE);
+    private final StreamingStats temperatureStats = new StreamingStats(0.5, 0.9);  // celsius
+    private final StreamingStats speedStats = new StreamingStats(0.5, 0.9);  // m/s
+
+    // state
+    private boolean started;
+    private int leg;  // index in route of the current target
+    private boolean returnTrip;
+    private boolean finished;
+    private double startLongitude;
+    private double startLatitude;
+    private long startTime;
+    private long lastTime;
+    private double lastLongitude;  // last filtered position
+    private double lastLatitude;
+    private double totalDist;
+    private double speed;
+    private float targetBearing;
+    private double distance;
+    private float startTemperature = Float.NaN;  // celsius, latest sample before the first fix
+    private boolean inBatch;  // position callbacks are held back until the end of a batch
+    private boolean positionPending;
+
+    // result
+    private Reward reward;
+    private double duration;
+    private double avgSpeed;
+    private double avgTemp;
+
+    /**
+     * @param checkpoint     the treasure location
+     * @param geofenceRadius radius of the start point geofence, m
+     */
+    public HuntSession(Geofence checkpoint, float geofenceRadius, Listener listener) {
+        this(checkpoint, geofenceRadius, listener, null);
+    }
+
+    /**
+     * @param journal where the raw fixes and temperature samples are kept, null to keep the
+     *                fixes on the heap
+     */
+    public HuntSession(Geofence checkpoint, float geofenceRadius, Listener listener,
+                       TrackJournal journal) {
+        this(Collections.singletonList(checkpoint), geofenceRadius, listener, journal);
+    }
+
+    /**
+     * @param route checkpoints to visit in this order, at least one
+     */
+    public HuntSession(List<Geofence> route, float geofenceRadius, Listener listener,
+                       TrackJournal journal) {
+        this.route = new ArrayList<>(route);
+        this.targetGeofence = route.get(0).clone();
+        this.geofenceRadius = geofenceRadius;
+        this.listener = listener;
+        this.journal = journal;
+        this.trackPoints = null == journal ? new TrackBuffer() : null;
+        setTarget(route.get(0));
+    }
+
+    /**
+     * Run the fixes and temperature samples already in the journal through the pipeline, in the
+     * order they came, to resume an interrupted hunt. The listener gets the usual callbacks; the
+     * fixes and samples are not journaled again.
+     */
+    public void replayJournal() {
+        replaying = true;
+        int samples = journal.getTemperatureCount();
+        int j = 0;
+        for (int i = 0, n = journal.size(); i <= n && !finished; i++) {
+            for (; j < samples && journal.getTemperatureFixes(j) <= i; j++) {
+                addTemperature(journal.getTemperature(j));
+            }
+            if (i < n) {
+                onFix(journal.getTime(i), journal.getLatitude(i), journal.getLongitude(i),
+                        journal.getAccuracy(i), journal.getAltitude(i));
+            }
+        }
+        replaying = false;
+    }
+
+    private void setTarget(Geofence target) {
+        geofence = target;
+        geofenceEngine = new GeofenceEngine(Collections.singletonList(target));
+    }
+
+    @Override
+    public void onFix(long time, double latitude, double longitude, float accuracy, double altitude) {
+        if (finished) {
+            return;
+        }
+        // store location
+        if (null == journal) {
+            trackPoints.append(longitude, latitude, time, accuracy, altitude);
+        } else if (!replaying) {
+            journal.append(longitude, latitude, time, accuracy, altitude);
+        }
+        trackSimplifier.add(longitude, latitude, time, accuracy, altitude);
+
+        // Filter. Outliers are kept in the raw track but do not move the user.
+        if (!kalmanFilter.update(longitude, latitude, accuracy, time)) {
+            return;
+        }
+        double filteredLon = kalmanFilter.getLongitude();
+        double filteredLat = kalmanFilter.getLatitude();
+
+        // Start location
+        if (!started) {
+            started = true;
+            startLongitude = filteredLon;
+            startLatitude = filteredLat;
+            startTime = time;
+            lastLongitude = filteredLon;
+            lastLatitude = filteredLat;
+            localFrame = new LocalFrame(filteredLat, filteredLon);
+            if (!Float.isNaN(startTemperature)) {
+                temperatureStats.add(startTemperature, time);
+            }
+        }
+        lastTime = time;
+
+        // Distance, all from the filtered position
+        localFrame.ensureCovers(filteredLat, filteredLon);
+        double east = localFrame.east(filteredLon);
+        double north = localFrame.north(filteredLat);
+        double targetEast = geofence.getEast(localFrame);
+        double targetNorth = geofence.getNorth(localFrame);
+        distance = LocalFrame.distance(east, north, targetEast, targetNorth);
+        targetBearing = (float) LocalFrame.bearing(east, north, targetEast, targetNorth);
+        totalDist += LocalFrame.distance(localFrame.east(lastLongitude),
+                localFrame.north(lastLatitude), east, north);  // accumulate distances
+        speed = kalmanFilter.getSpeed();  // m/s
+        speedStats.add(speed, time);
+        lastLongitude = filteredLon;
+        lastLatitude = filteredLat;
+        positionPending = true;
+        if (!inBatch) {
+            notifyPosition();
+        }
+
+        // Geofence transitions, with hysteresis at the border
+        GeofenceEngine.Transitions transitions = geofenceEngine.onFix(filteredLat, filteredLon, time);
+        for (int i = 0; i < transitions.size(); i++) {
+            if (GeofenceEngine.ENTER == transitions.getType(i)) {
+                onArrival();
+                break;  // onArrival() replaces the watched geofence
+            }
+        }
+    }
+
+    /**
+     * Run a whole batch through filter, distance, geofences and track in one pass. The listener
+     * gets a single onPositionChanged() for the batch; arrivals are reported as they happen,
+     * after the position that caused them.
+     */
+    @Override
+    public void onFixes(FixBatch batch) {
+        inBatch = true;
+        for (int i = 0; i < batch.size() && !finished; i++) {
+            onFix(batch.getTime(i), batch.getLatitude(i), batch.getLongitude(i),
+                    batch.getAccuracy(i), batch.getAltitude(i));
+        }
+        inBatch = false;
+        notifyPosition();
+    }
+
+    private void notifyPosition() {
+        if (positionPending) {
+            positionPending = false;
+            listener.onPositionChanged(distance, speed, targetBearing);
+        }
+    }
+
+    /**
+     * Entered the current target: go on to the next checkpoint, turn back after the last one,
+     * finish at the start point.
+     */
+    private void onArrival() {
+        notifyPosition();
+        if (!returnTrip) {
+            Geofence reached = 0 == leg ? targetGeofence : geofence;
+            if (++leg < route.size()) {
+                setTarget(route.get(leg));
+            } else {
+                returnTrip = true;
+                setTarget(new Geofence(START_POINT_NAME, startLatitude, startLongitude,
+                        geofenceRadius));
+            }
+            listener.onCheckpointReached(reached);
+        } else {
+            finished = true;
+            trackSimplifier.flush();
+            reward = calculateReward();
+            listener.onFinished(reward);
+        }
+    }
+
+    /**
+     * Add an ambient temperature sample. It holds until the next one. Samples are timed by the
+     * latest fix, the clock of the hunt, whatever the clock of the sensor; a sample before the
+     * first fix is the temperature at the start.
+     *
+     * @param temperature celsius
+     */
+    public void addTemperature(float temperature) {
+        if (null != journal && !replaying && !finished) {
+            journal.appendTemperature(temperature);
+        }
+        if (started) {
+            temperatureStats.add(temperature, lastTime);
+        } else {
+            startTemperature = temperature;
+        }
+    }
+
+    /**
+     * Determine which reward should be given, considering avgSpeed, totalDistance, avgTemperature.
+     */
+    private Reward calculateReward() {
+        duration = (lastTime - startTime) / 1000.0;
+        avgSpeed = duration > 0 ? totalDist / duration * 3.6 : 0;  // km/h
+        // average temperature over the hunt, the last reading holding until the end
+        avgTemp = temperatureStats.getCount() > 0
+                ? temperatureStats.getTimeWeightedMean(lastTime) : 0;
+        return Reward.judge(avgSpeed, totalDist, avgTemp);
+    }
+
+    public TrackResult buildTrackResult(int userId, int trackId) {
+        return new TrackResult(getTrackPoints(), trackSimplifier.getOutput().snapshot(),
+                startTime, userId, trackId, reward.getPureName(), totalDist, duration, avgSpeed,
+                avgTemp);
+    }
+
+    public SessionSummary buildSummary() {
+        return new SessionSummary(startTime, startLongitude, startLatitude,
+                targetGeofence.getName(), targetGeofence.getLongitude(),
+                targetGeofence.getLatitude(), totalDist, duration, avgSpeed, avgTemp,
+                reward.getPureName());
+    }
+
+    public PointResult buildPointResult(int userId, int trackId) {
+        CheckPoint checkPoint = new CheckPoint(targetGeofence.getName(),
+                targetGeofence.getLongitude(), targetGeofence.getLatitude());
+        return new PointResult(checkPoint, lastTime, userId, trackId);
+    }
+
+    public Geofence getGeofence() {
+        return geofence;
+    }
+
+    public Geofence getTargetGeofence() {
+        return targetGeofence;
+    }
+
+    /**
+     * @return checkpoints of the hunt, in order
+     */
+    public List<Geofence> getRoute() {
+        return Collections.unmodifiableList(route);
+    }
+
+    /**
+     * @return number of checkpoints reached so far
+     */
+    public int getCheckpointsReached() {
+        return leg;
+    }
+
+    public boolean isReturnTrip() {
+        return returnTrip;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public Reward getReward() {
+        return reward;
+    }
+
+    public double getTotalDist() {
+        return totalDist;
+    }
+
+    public double getAvgSpeed() {
+        return avgSpeed;
+    }
+
+    public double getAvgTemp() {
+        return avgTemp;
+    }
+
+    /**
+     * Live temperature statistics, celsius. Quantiles: MEDIAN, P90.
+     */
+    public StreamingStats getTemperatureStats() {
+        return temperatureStats;
+    }
+
+    /**
+     * Live statistics of the filtered speed, m/s. Quantiles: MEDIAN, P90.
+     */
+    public StreamingStats getSpeedStats() {
+        return speedStats;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return last filtered latitude, degrees
+     */
+    public double getLatitude() {
+        return lastLatitude;
+    }
+
+    /**
+     * @return last filtered longitude, degrees
+     */
+    public double getLongitude() {
+        return lastLongitude;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public TrackView getTrackPoints() {
+        return null == journal ? trackPoints.snapshot() : journal.snapshot();
+    }
+
+    public TrackJournal getJournal() {
+        return journal;
+    }
+}
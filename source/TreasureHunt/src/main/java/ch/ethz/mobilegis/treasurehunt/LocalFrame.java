@@ -0,0 +1,128 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+/**
+ * LocalFrame.java
+ *
+ * Local east/north frame (metres) tangent to the WGS84 ellipsoid at an anchor point.
+ *
+ * Projection is equirectangular with the ellipsoid's radii of curvature at the anchor, so a
+ * point costs one subtraction and one multiplication per axis; distance and bearing between
+ * projected points are a hypot / atan2 on primitives. No objects are created.
+ *
+ * Accuracy contract: for two points within REANCHOR_DISTANCE of the anchor, at latitudes up to
+ * 70 degrees and distances up to a few kilometres, the distance differs from the geodesic
+ * (Vincenty) distance by less than 0.1% + 1 cm, and the bearing by less than 0.1 degree
+ * (for distances above 10 m). See LocalFrameTest.
+ *
+ * To stay inside the contract, callers pass each new position to ensureCovers(), which moves
+ * the anchor once the position drifts further than REANCHOR_DISTANCE. Every re-anchor bumps
+ * getEpoch(), so cached projections (see Geofence) know when to refresh.
+ */
+class LocalFrame {
+    static final double EQUATORIAL_RADIUS = 6378137.0;  // WGS84 a, m
+    static final double FLATTENING = 1 / 298.257223563;  // WGS84 f
+    static final double EARTH_RADIUS = 6371008.8;  // mean radius, m
+    static final double REANCHOR_DISTANCE = 2000.0;  // m
+    private static final double E2 = FLATTENING * (2 - FLATTENING);
+
+    private double anchorLon;
+    private double anchorLat;
+    private double metersPerDegLon;
+    private double metersPerDegLat;
+    private int epoch;
+
+    public LocalFrame(double anchorLat, double anchorLon) {
+        anchor(anchorLat, anchorLon);
+    }
+
+    /**
+     * Move the anchor. Projections made before are no longer valid.
+     */
+    public void anchor(double latitude, double longitude) {
+        double phi = Math.toRadians(latitude);
+        double sin = Math.sin(phi);
+        double w2 = 1 - E2 * sin * sin;
+        double w = Math.sqrt(w2);
+        double meridional = EQUATORIAL_RADIUS * (1 - E2) / (w2 * w);  // M
+        double primeVertical = EQUATORIAL_RADIUS / w;  // N
+        anchorLat = latitude;
+        anchorLon = longitude;
+        metersPerDegLat = Math.toRadians(meridional);
+        metersPerDegLon = Math.toRadians(primeVertical * Math.cos(phi));
+        epoch++;
+    }
+
+    /**
+     * Re-anchor at (latitude, longitude) if it is further than REANCHOR_DISTANCE from the anchor.
+     *
+     * @return true if the frame was re-anchored
+     */
+    public boolean ensureCovers(double latitude, double longitude) {
+        double e = east(longitude);
+        double n = north(latitude);
+        if (e * e + n * n > REANCHOR_DISTANCE * REANCHOR_DISTANCE) {
+            anchor(latitude, longitude);
+            return true;
+        }
+        return false;
+    }
+
+    public double east(double longitude) {
+        double dLon = longitude - anchorLon;
+        // wrap across the antimeridian
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        return dLon * metersPerDegLon;
+    }
+
+    public double north(double latitude) {
+        return (latitude - anchorLat) * metersPerDegLat;
+    }
+
+    /**
+     * @return longitude of a projected point, [-180, 180)
+     */
+    public double longitude(double east) {
+        double longitude = anchorLon + east / metersPerDegLon;
+        // wrap across the antimeridian
+        if (longitude >= 180) {
+            longitude -= 360;
+        } else if (longitude < -180) {
+            longitude += 360;
+        }
+        return longitude;
+    }
+
+    public double latitude(double north) {
+        return anchorLat + north / metersPerDegLat;
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public double getAnchorLatitude() {
+        return anchorLat;
+    }
+
+    public double getAnchorLongitude() {
+        return anchorLon;
+    }
+
+    /**
+     * @return distance in m between two projected points
+     */
+    public static double distance(double e1, double n1, double e2, double n2) {
+        return Math.hypot(e2 - e1, n2 - n1);
+    }
+
+    /**
+     * @return bearing from point 1 to point 2, degrees clockwise from north, (-180, 180]
+     */
+    public static double bearing(double e1, double n1, double e2, double n2) {
+        return Math.toDegrees(Math.atan2(e2 - e1, n2 - n1));
+    }
+}
@@ -0,0 +1,60 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+/**
+ * LocationSource.java
+ *
+ * Where the hunt pipeline gets its fixes from. FusedLocationSource reads batched fixes from
+ * Google Play services, GpsLocationSource reads the device GPS one fix at a time,
+ * GpxReplaySource replays a recorded track, so a whole hunt can also run off-device.
+ */
+interface LocationSource {
+
+    /**
+     * Start delivering fixes to the listener.
+     */
+    void start(FixListener listener);
+
+    /**
+     * Stop delivering fixes. The source may be started again.
+     */
+    void stop();
+
+    /**
+     * Change the requested rate, e.g. from a SamplingScheduler. A started source re-registers.
+     *
+     * @param interval    time between fixes, ms
+     * @param minDistance minimum distance between fixes, m
+     */
+    void setInterval(long interval, float minDistance);
+
+    /**
+     * Receives fixes as primitives, so a source does not need to allocate per fix.
+     */
+    interface FixListener {
+        /**
+         * @param time      fix time, ms since epoch
+         * @param latitude  degrees
+         * @param longitude degrees
+         * @param accuracy  horizontal accuracy in m
+         * @param altitude  altitude in m
+         */
+        void onFix(long time, double latitude, double longitude, float accuracy, double altitude);
+
+        /**
+         * Several fixes at once, from a source that batches them to save wakeups.
+         * The batch is reused by the source after this call returns.
+         */
+        default void onFixes(FixBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                onFix(batch.getTime(i), batch.getLatitude(i), batch.getLongitude(i),
+                        batch.getAccuracy(i), batch.getAltitude(i));
+            }
+        }
+
+        default void onSourceEnabled() {
+        }
+
+        default void onSourceDisabled() {
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.geometry.ImmutablePart;
+import com.esri.arcgisruntime.geometry.Part;
+import com.esri.arcgisruntime.geometry.PartCollection;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.Polyline;
+import com.esri.arcgisruntime.geometry.SpatialReference;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
+import com.esri.arcgisruntime.mapping.view.Graphic;
+import com.esri.arcgisruntime.mapping.view.GraphicsOverlay;
+import com.esri.arcgisruntime.symbology.SimpleLineSymbol;
+import com.esri.arcgisruntime.symbology.SimpleRenderer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LodTrackOverlay.java
+ *
+ * Track polylines as graphics drawn at the level of detail of the map scale: each track keeps
+ * a TrackPyramid per part (in web mercator metres), and when the map units per pixel cross a
+ * level, the visible graphics get the geometry of the new level. Hidden tracks are brought to
+ * the current level when shown. The envelope of each track is kept too, so the extent of the
+ * shown tracks needs no query.
+ *
+ * Used on the main thread.
+ */
+class LodTrackOverlay {
+    private static final double PIXEL_TOLERANCE = 0.5;  // largest error drawn, in pixels
+    private static final SpatialReference MAP_REFERENCE = SpatialReferences.getWebMercator();
+
+    private static class Track {
+        final Graphic graphic;
+        final TrackPyramid[] parts;
+        final double[] envelope;  // xmin, ymin, xmax, ymax
+        int level;
+
+        Track(Graphic graphic, TrackPyramid[] parts, double[] envelope, int level) {
+            this.graphic = graphic;
+            this.parts = parts;
+            this.envelope = envelope;
+            this.level = level;
+        }
+    }
+
+    private final GraphicsOverlay overlay = new GraphicsOverlay();
+    private final Map<Long, Track> tracks = new HashMap<>();
+    private Set<Long> shown;  // null: all
+    private int level;
+
+    LodTrackOverlay(int color, float width) {
+        overlay.setRenderer(new SimpleRenderer(new SimpleLineSymbol(SimpleLineSymbol.Style.SOLID,
+                color, width)));
+    }
+
+    GraphicsOverlay getOverlay() {
+        return overlay;
+    }
+
+    /**
+     * Add a track, ignored if `objectId` is already there.
+     *
+     * @return the parts of the track in web mercator metres (x0, y0, x1, y1, ... each), null if
+     *         it was already there
+     */
+    double[][] add(long objectId, Polyline polyline, Map<String, Object> attributes) {
+        if (tracks.containsKey(objectId)) {
+            return null;
+        }
+        Polyline projected = (Polyline) GeometryEngine.project(polyline, MAP_REFERENCE);
+        double[][] coordinates = new double[projected.getParts().size()][];
+        TrackPyramid[] parts = new TrackPyramid[coordinates.length];
+        double[] envelope = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        int p = 0;
+        for (ImmutablePart part : projected.getParts()) {
+            double[] xy = new double[2 * part.getPointCount()];
+            for (int i = 0; i < part.getPointCount(); i++) {
+                Point point = part.getPoint(i);
+                xy[2 * i] = point.getX();
+                xy[2 * i + 1] = point.getY();
+                envelope[0] = Math.min(envelope[0], xy[2 * i]);
+                envelope[1] = Math.min(envelope[1], xy[2 * i + 1]);
+                envelope[2] = Math.max(envelope[2], xy[2 * i]);
+                envelope[3] = Math.max(envelope[3], xy[2 * i + 1]);
+            }
+            coordinates[p] = xy;
+            parts[p++] = new TrackPyramid(xy);
+        }
+        Graphic graphic = new Graphic(geometry(parts, level), attributes);
+        graphic.setVisible(null == shown || shown.contains(objectId));
+        tracks.put(objectId, new Track(graphic, parts, envelope, level));
+        overlay.getGraphics().add(graphic);
+        return coordinates;
+    }
+
+    /**
+     * Swap the visible tracks to the level of detail of a map scale.
+     *
+     * @param unitsPerPixel map units (metres) per pixel at the current scale
+     * @return whether the level changed
+     */
+    boolean setUnitsPerPixel(double unitsPerPixel) {
+        int newLevel = TrackPyramid.levelFor(unitsPerPixel * PIXEL_TOLERANCE);
+        if (newLevel == level) {
+            return false;
+        }
+        level = newLevel;
+        for (Track track : tracks.values()) {
+            if (track.graphic.isVisible()) {
+                update(track);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param objectIds tracks to show, null for all
+     */
+    void show(long[] objectIds) {
+        if (null == objectIds) {
+            shown = null;
+        } else {
+            shown = new HashSet<>();
+            for (long objectId : objectIds) {
+                shown.add(objectId);
+            }
+        }
+        for (Map.Entry<Long, Track> entry : tracks.entrySet()) {
+            Track track = entry.getValue();
+            boolean visible = null == shown || shown.contains(entry.getKey());
+            if (visible) {
+                update(track);
+            }
+            track.graphic.setVisible(visible);
+        }
+    }
+
+    /**
+     * @return envelope of the shown tracks, null if none is shown
+     */
+    Envelope getExtent() {
+        double xmin = Double.POSITIVE_INFINITY;
+        double ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY;
+        double ymax = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<Long, Track> entry : tracks.entrySet()) {
+            double[] envelope = entry.getValue().envelope;
+            if ((null == shown || shown.contains(entry.getKey())) && envelope[0] <= envelope[2]) {
+                xmin = Math.min(xmin, envelope[0]);
+                ymin = Math.min(ymin, envelope[1]);
+                xmax = Math.max(xmax, envelope[2]);
+                ymax = Math.max(ymax, envelope[3]);
+            }
+        }
+        return xmin <= xmax ? new Envelope(xmin, ymin, xmax, ymax, MAP_REFERENCE) : null;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return vertices of the visible tracks at the current level
+     */
+    long getVertexCount() {
+        long n = 0;
+        for (Track track : tracks.values()) {
+            if (track.graphic.isVisible()) {
+                for (TrackPyramid part : track.parts) {
+                    n += part.size(track.level);
+                }
+            }
+        }
+        return n;
+    }
+
+    private void update(Track track) {
+        if (track.level != level) {
+            track.graphic.setGeometry(geometry(track.parts, level));
+            track.level = level;
+        }
+    }
+
+    private static Polyline geometry(TrackPyramid[] parts, int level) {
+        PartCollection collection = new PartCollection(MAP_REFERENCE);
+        for (TrackPyramid pyramid : parts) {
+            Part part = new Part(MAP_REFERENCE);
+            for (int i = 0; i < pyramid.size(level); i++) {
+                part.addPoint(pyramid.getX(level, i), pyramid.getY(level, i));
+            }
+            collection.add(part);
+        }
+        return new Polyline(collection);
+    }
+}
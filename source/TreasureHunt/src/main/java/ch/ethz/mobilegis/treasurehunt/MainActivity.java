@@ -10,27 +10,34 @@ import android.app.NotificationManager;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.location.Location;
+import android.location.LocationManager;
 import android.media.Image;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.ImageButton;
 import android.widget.Spinner;
-import android.widget.SpinnerAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 
 /**
@@ -64,24 +71,43 @@ public class MainActivity extends AppCompatActivity {
     public static final int RESULT_OK = 0;
     public static final int RESULT_CANCEL = -1;
     private static final String TAG = MainActivity.class.getSimpleName();
-
-    public static TrackResult globalTrackResult = null;
+    private static final String LEGACY_RESULT_FILE = "output.csv";  // before the session archive
+    private static final int NEARBY_COUNT = 10;  // checkpoints offered when the position is known
+    private static final double NEARBY_MAX_DISTANCE = 5000;  // m
+    private static final long NEARBY_INTERVAL = 5000;  // ms
+    private static final float NEARBY_MIN_DISTANCE = 5;  // m
+    private static final int TOUR_STOPS = 3;
+    private static final double TOUR_DISTANCE = 3000;  // m
+    private static final long TOUR_TIME_LIMIT = 300;  // ms
 
     // Set up location-related variables.
     private Geofence geofence;
     private CheckPoint selectedCheckPoint;
+    private int selectedIndex;  // of selectedCheckPoint in the catalog
 
     // UI components (start page)
     private TextView txtLog;
     private TextView coordText;
+    private TextView historyText;
     private Button buttonStart;
     private Button buttonMap;
+    private Button buttonTour;
     private Button buttonAR;  // Assignment 3
     private ImageButton buttonInfo; // Assignment 3
     private Spinner spinnerCheckpoint;
 
     // UI variables
-    private ArrayList<CheckPoint> checkPoints;
+    private List<CheckPoint> checkPoints;  // the catalog, decoded on access
+    private CheckpointCatalog catalog;
+    // in the spinner: checkPoints, or the closest ones with their catalog indices
+    private List<CheckPoint> shownCheckPoints = Collections.emptyList();
+    private int[] shownIndices;  // null when showing checkPoints
+    private CheckPointAdapter checkPointAdapter;
+    private NearbyCheckpoints nearby;
+    private LocationSource nearbySource;
+    private boolean hasPosition;  // last fix of nearbySource
+    private double lastLatitude;
+    private double lastLongitude;
 
     // Flags
     private boolean isAssetComplete;
@@ -142,11 +168,22 @@ public class MainActivity extends AppCompatActivity {
      *
      * */
     private void shareResultThenFinish() {
-        if (null == globalTrackResult) {
-            Log.d(TAG, "globalTrackResult == null");
+        TrackResult lastResult = null;
+        try {
+            SessionRepository repository = SessionRepository.open(TrackingService.getArchiveDir(this));
+            long sessionId = repository.getLastSessionId();
+            if (SessionRepository.NO_SESSION != sessionId) {
+                lastResult = repository.getTrackResult(sessionId);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Fail to load last result: " + e.getMessage());
+        }
+        if (null == lastResult) {
+            Log.d(TAG, "no result to share");
             finish();
             return;
         }
+        TrackResult result = lastResult;
         Log.d(TAG, "shareResult");
         AlertDialog.Builder dialog = new AlertDialog.Builder(MainActivity.this)
                 .setTitle(R.string.share_dialog_title)
@@ -166,8 +203,8 @@ public class MainActivity extends AppCompatActivity {
                                 Intent sendIntent = new Intent();
                                 sendIntent.setAction(Intent.ACTION_SEND);
                                 String share_text = getString(R.string.social_share_text,
-                                        globalTrackResult.getUserId(), globalTrackResult.getDuration(),
-                                        globalTrackResult.getDistance(), globalTrackResult.getRewardName());
+                                        result.getUserId(), result.getDuration(),
+                                        result.getDistance(), result.getRewardName());
                                 Log.d(TAG, share_text);
                                 sendIntent.putExtra(Intent.EXTRA_TEXT, share_text);
                                 sendIntent.setType("text/plain");
@@ -192,6 +229,7 @@ public class MainActivity extends AppCompatActivity {
         // UI Elements
         txtLog = (TextView) findViewById(R.id.spinnerText);
         coordText = (TextView) findViewById(R.id.coordText);
+        historyText = (TextView) findViewById(R.id.historyText);
         buttonStart = (Button) findViewById(R.id.buttonStart);
         buttonStart.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -200,6 +238,14 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        buttonTour = (Button) findViewById(R.id.buttonTour);
+        buttonTour.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                onButtonTour();
+            }
+        });
+
         buttonMap = (Button) findViewById(R.id.buttonMap);
         buttonMap.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -229,9 +275,92 @@ public class MainActivity extends AppCompatActivity {
         createNotificationChannel();
 
         // Check assets
-        if (readCheckpointCSV()) {
+        if (readCheckpointCatalog()) {
             isAssetComplete = true;
+            TilePrefetchWorker.enqueue(getApplicationContext(), catalog);
         }
+
+        offerRecovery();
+        importLegacyResults();
+    }
+
+    /**
+     * Move the results of older versions, appended to output.csv, into the session archive.
+     * Runs once: the file is renamed when imported. If some lines could not be read, the file
+     * is kept so they are not lost; the next start passes over the sessions already imported.
+     */
+    private void importLegacyResults() {
+        File csv = new File(getExternalFilesDir(null), LEGACY_RESULT_FILE);
+        if (!csv.exists()) {
+            return;
+        }
+        File archiveDir = TrackingService.getArchiveDir(this);
+        List<CheckPoint> known = checkPoints;  // read-only view of the mapped catalog
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SessionArchive.CsvImport result;
+                try (Reader reader = new FileReader(csv)) {
+                    result = SessionArchive.open(archiveDir).importCsv(reader, known);
+                    Log.i(TAG, "Imported " + result.getImported() + " sessions from " + csv);
+                } catch (IOException e) {
+                    Log.e(TAG, "Fail to import " + csv + ": " + e.getMessage());
+                    return;
+                }
+                if (result.getSkipped() > 0) {
+                    Log.w(TAG, result.getSkipped() + " lines of " + csv
+                            + " could not be read, keeping it");
+                } else if (!csv.renameTo(new File(csv.getPath() + ".imported"))) {
+                    Log.e(TAG, "Fail to rename " + csv);
+                }
+                loadHistory();  // rebuilt with the imported sessions
+            }
+        }, "ResultImport").start();
+    }
+
+    /**
+     * If a hunt was interrupted (the app was killed while tracking), ask whether to resume it.
+     * Resuming restarts NavigateActivity with the journal of that hunt, discarding deletes it.
+     */
+    private void offerRecovery() {
+        List<File> interrupted = TrackJournal.findInterrupted(
+                TrackingService.getJournalDir(this), TrackingService.getActiveJournal());
+        if (interrupted.isEmpty()) {
+            return;
+        }
+        File journal = interrupted.get(0);
+        List<Geofence> route;
+        try {
+            route = TrackJournal.readRoute(journal);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read journal " + journal + ": " + e.getMessage());
+            TrackJournal.delete(journal);
+            return;
+        }
+        Geofence checkpoint = route.get(0);
+        Log.i(TAG, "Interrupted hunt: " + journal);
+        AlertDialog.Builder dialog = new AlertDialog.Builder(MainActivity.this)
+                .setTitle(R.string.recover_dialog_title)
+                .setMessage(getString(R.string.recover_dialog_msg, checkpoint.getName()))
+                .setCancelable(false)
+                .setNegativeButton("Discard", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        TrackJournal.delete(journal);
+                    }
+                })
+                .setPositiveButton("Resume", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Bundle bundleObject = new Bundle();
+                        TrackingService.putRoute(bundleObject, route);
+                        bundleObject.putString(TrackingService.EXTRA_JOURNAL, journal.getPath());
+                        Intent naviIntent = new Intent(MainActivity.this, NavigateActivity.class);
+                        naviIntent.putExtra("geofenceBundle", bundleObject);
+                        startActivity(naviIntent);
+                    }
+                });
+        dialog.show();
     }
 
     @Override
@@ -243,9 +372,10 @@ public class MainActivity extends AppCompatActivity {
         checkAndRequestPermissions();
 
         if (isAssetComplete) {
-            Log.d(TAG, checkPoints.toString());
+            Log.d(TAG, checkPoints.size() + " checkpoints");
             setSpinnerResource();
             selectedCheckPoint = checkPoints.get(0);
+            selectedIndex = 0;
         } else {
             // warning if false==isAssetComplete
             AlertDialog.Builder dialog = new AlertDialog.Builder(MainActivity.this)
@@ -261,20 +391,29 @@ public class MainActivity extends AppCompatActivity {
                     );
             dialog.show();
         }
+
+        showHistory();
     }
 
     /**
      * Call back function when [Start] button is clicked.
      * Start NavigateActivity and pass selected geofence to it.
      * Extract geofence data using:
-     *       [intent].getExtras().getBundle("geofenceBundle").getSerializable("geofence")
+     *       TrackingService.getGeofence([intent].getExtras().getBundle("geofenceBundle"))
      *
      * */
     private void onButtonStart() {
         Log.i(TAG, "buttonStart clicked");
 
+        startHunt(Collections.singletonList(geofence));
+    }
+
+    /**
+     * Start NavigateActivity for a hunt through `route`, in this order.
+     */
+    private void startHunt(List<Geofence> route) {
         Bundle bundleObject = new Bundle();
-        bundleObject.putSerializable("geofence", geofence);
+        TrackingService.putRoute(bundleObject, route);
 
         Intent naviIntent = new Intent(this, NavigateActivity.class);
 //        naviIntent.addCategory(Intent.CATEGORY_HOME);
@@ -284,12 +423,109 @@ public class MainActivity extends AppCompatActivity {
 //        startActivityForResult(naviIntent, NAVIGATE_REQUEST_CODE);
     }
 
+    /**
+     * Call back function when [Plan a tour] button is clicked.
+     * Plan a loop through TOUR_STOPS checkpoints from the current position, about TOUR_DISTANCE
+     * long, and offer to hunt it.
+     */
+    private void onButtonTour() {
+        Log.i(TAG, "buttonTour clicked");
+        if (!isAssetComplete || !hasPosition) {
+            Toast.makeText(this, R.string.tour_no_position, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        double latitude = lastLatitude;
+        double longitude = lastLongitude;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TourPlanner.Tour tour = new TourPlanner(catalog,
+                        Runtime.getRuntime().availableProcessors()).plan(latitude, longitude,
+                        TOUR_STOPS, TOUR_DISTANCE, TOUR_TIME_LIMIT);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showTour(tour);
+                    }
+                });
+            }
+        }, "TourPlanner").start();
+    }
+
+    private void showTour(TourPlanner.Tour tour) {
+        if (null == tour) {
+            Toast.makeText(this, R.string.tour_not_found, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        StringBuilder stops = new StringBuilder();
+        for (int i = 0; i < tour.getStops().size(); i++) {
+            stops.append(i + 1).append(". ").append(tour.getStops().get(i).getName()).append('\n');
+        }
+        int minutes = (int) Math.round(tour.getLength() / TourPlanner.WALKING_SPEED / 60);
+        new AlertDialog.Builder(MainActivity.this)
+                .setTitle(getString(R.string.tour_dialog_title, tour.getStops().size()))
+                .setMessage(getString(R.string.tour_dialog_msg, stops.toString().trim(),
+                        tour.getLength() / 1000, minutes))
+                .setNegativeButton("Cancel", null)
+                .setPositiveButton("Start", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        startHunt(tour.toGeofences(GEOFENCE_RADIUS));
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Show the totals of the past hunts, from the history rollups.
+     */
+    private void showHistory() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadHistory();
+            }
+        }, "History").start();
+    }
+
+    /**
+     * Load the history rollups (rebuilt if out of date) and show them. Background thread.
+     */
+    private void loadHistory() {
+        File dir = TrackingService.getArchiveDir(this);
+        HistoryRollups rollups;
+        try {
+            rollups = HistoryRollups.load(dir, SessionArchive.open(dir), TimeZone.getDefault());
+        } catch (IOException e) {
+            Log.e(TAG, "Fail to load history: " + e.getMessage());
+            return;
+        }
+        if (0 == rollups.getSessionCount()) {
+            return;
+        }
+        Rollup total = rollups.getTotal();
+        Rollup week = rollups.getWeek(System.currentTimeMillis());
+        double pace = total.getBestPace();
+        String bestPace = Double.isNaN(pace) ? "-"
+                : String.format(Locale.US, "%d'%02d\"", (int) pace / 60, (int) pace % 60);
+        String text = getString(R.string.history_summary, total.getCount(),
+                total.getDistance() / 1000, bestPace,
+                null == week ? 0 : week.getCount(), null == week ? 0 : week.getDistance() / 1000);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                historyText.setText(text);
+            }
+        });
+    }
+
 
     @Override
     protected void onResume() {
         super.onResume();
 
         Log.d(TAG, "onResume()");
+        startNearby();
     }
 
     @Override
@@ -297,6 +533,77 @@ public class MainActivity extends AppCompatActivity {
         super.onPause();
 
         Log.d(TAG, "onPause()");
+        stopNearby();
+    }
+
+    /**
+     * Offer the checkpoints closest to the user first, following the GPS while the start screen
+     * is shown. Without a position, or none nearby, the spinner keeps the catalog order.
+     */
+    private void startNearby() {
+        if (!isAssetComplete || null != nearbySource
+                || ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        nearby = new NearbyCheckpoints(catalog, NEARBY_COUNT, 0, NEARBY_MAX_DISTANCE);
+        LocationManager locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
+        Location last = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+        if (null != last) {
+            showNearby(last.getLatitude(), last.getLongitude());
+        }
+        nearbySource = new GpsLocationSource(locationManager, NEARBY_INTERVAL, NEARBY_MIN_DISTANCE);
+        nearbySource.start(new LocationSource.FixListener() {
+            @Override
+            public void onFix(long time, double latitude, double longitude, float accuracy,
+                              double altitude) {
+                showNearby(latitude, longitude);
+            }
+        });
+    }
+
+    private void stopNearby() {
+        if (null != nearbySource) {
+            nearbySource.stop();
+            nearbySource = null;
+        }
+    }
+
+    /**
+     * Re-order the spinner when the closest checkpoints changed, keeping the selected one.
+     */
+    private void showNearby(double latitude, double longitude) {
+        hasPosition = true;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        if (null == checkPointAdapter || !nearby.update(latitude, longitude)) {
+            return;
+        }
+        if (0 == nearby.size()) {
+            shownCheckPoints = checkPoints;
+            shownIndices = null;
+        } else {
+            List<CheckPoint> closest = new ArrayList<>(nearby.size());
+            int[] indices = new int[nearby.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = nearby.getIndex(i);
+                closest.add(catalog.get(indices[i]));
+            }
+            shownCheckPoints = closest;
+            shownIndices = indices;
+        }
+        checkPointAdapter.notifyDataSetChanged();
+        for (int i = 0; null != selectedCheckPoint && i < shownCheckPoints.size(); i++) {
+            if (checkPointAdapter.getItemId(i) == selectedIndex) {
+                spinnerCheckpoint.setSelection(i, false);
+                return;
+            }
+        }
+        spinnerCheckpoint.setSelection(0, false);
+        selectedCheckPoint = shownCheckPoints.get(0);
+        selectedIndex = (int) checkPointAdapter.getItemId(0);
+        geofence = new Geofence(selectedCheckPoint.getName(), selectedCheckPoint.getLatitude(),
+                selectedCheckPoint.getLongitude(), GEOFENCE_RADIUS);
     }
 
     @Override
@@ -429,34 +736,22 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Read checkpoints from csv file "res/raw/checkpoints.csv"
+     * Map the checkpoint catalog compiled at build time from "src/main/catalog/checkpoints.csv"
+     * (asset "checkpoints.ckc", stored uncompressed). Checkpoints are decoded when the spinner
+     * shows them.
      * */
-    private Boolean readCheckpointCSV() {
-        checkPoints = new ArrayList<>();
-        InputStream inputStream = getResources().openRawResource(R.raw.checkpoints);
+    private Boolean readCheckpointCatalog() {
+        checkPoints = Collections.emptyList();
         boolean tempFlag = false;
-        try {
-            InputStreamReader inputStreamReader = new InputStreamReader(
-                    inputStream, StandardCharsets.UTF_8);
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-            String line = "";
-            bufferedReader.readLine();  // skip first line
-            while ((line = bufferedReader.readLine()) != null) {
-                String[] values = line.split(";");
-                checkPoints.add(new CheckPoint(values[0], Float.parseFloat(values[1]), Float.parseFloat(values[2])));
-            }
-            tempFlag = true;
-        } catch (IOException | NumberFormatException e) {
+        try (AssetFileDescriptor fd = getAssets().openFd(CheckpointCatalog.ASSET_NAME);
+             FileChannel channel = fd.createInputStream().getChannel()) {
+            catalog = CheckpointCatalog.map(channel, fd.getStartOffset(), fd.getLength());
+            checkPoints = catalog.asList();
+            tempFlag = !checkPoints.isEmpty();
+        } catch (IOException e) {
             e.printStackTrace();
-            tempFlag = false;
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
-        Log.d(TAG, "Load csv file: " + (tempFlag ? "Success" : "Fail"));
+        Log.d(TAG, "Load checkpoint catalog: " + (tempFlag ? "Success" : "Fail"));
         return tempFlag;
     }
 
@@ -465,14 +760,18 @@ public class MainActivity extends AppCompatActivity {
      * */
     private void setSpinnerResource() {
         // Bind checkpoint data
-        SpinnerAdapter adapter = new ArrayAdapter<CheckPoint>(this, android.R.layout.simple_spinner_dropdown_item, checkPoints);
-        spinnerCheckpoint.setAdapter(adapter);
+        shownCheckPoints = checkPoints;
+        shownIndices = null;
+        checkPointAdapter = new CheckPointAdapter();
+        spinnerCheckpoint.setAdapter(checkPointAdapter);
 
         // Set selected action
         spinnerCheckpoint.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parentView, View selectedItemView, int position, long id) {
-                CheckPoint cp = checkPoints.get(position);
+                CheckPoint cp = shownCheckPoints.get(position);
+                selectedCheckPoint = cp;
+                selectedIndex = (int) id;
                 coordText.setText(String.format(getString(R.string.coordText_format), cp.getLongitude(), cp.getLatitude()));
 //                geofences.clear();
 //                geofences.add(new Geofence(cp.getName(), cp.getLatitude(), cp.getLongitude(), GEOFENCE_RADIUS));
@@ -486,4 +785,33 @@ public class MainActivity extends AppCompatActivity {
 
         });
     }
+
+    /**
+     * Items of the spinner: shownCheckPoints, read through on every call, so the catalog is not
+     * copied and only the rows on screen are decoded. The item ID is the catalog index.
+     */
+    private class CheckPointAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return shownCheckPoints.size();
+        }
+
+        @Override
+        public CheckPoint getItem(int position) {
+            return shownCheckPoints.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return null == shownIndices ? position : shownIndices[position];
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView view = (TextView) (null != convertView ? convertView : getLayoutInflater()
+                    .inflate(android.R.layout.simple_spinner_dropdown_item, parent, false));
+            view.setText(getItem(position).toString());
+            return view;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.Arrays;
+
+/**
+ * NearbyCheckpoints.java
+ *
+ * The `k` checkpoints of a catalog closest to the user, within a distance band, kept up to date
+ * as fixes come in.
+ *
+ * A full query (CheckpointCatalog.nearest()) fetches more candidates than needed: up to
+ * k + MARGIN checkpoints, from a band widened by REACH on both sides. Until the user has moved
+ * REACH away from where that query was made, a checkpoint that is not a candidate was either
+ * closer than the lower edge of the widened band (so it is still closer than the band), or
+ * farther than the last candidate (so it is still farther than that distance minus the move).
+ * A fix therefore only re-ranks the candidates, unless the k-th of them may now be beaten by a
+ * checkpoint outside; then the catalog is queried again from the new position. When the lower
+ * margin of the band holds so many checkpoints that fewer than k + MARGIN candidates are left in
+ * the band, the query is repeated with room for more candidates.
+ *
+ * Not thread-safe; call from the thread receiving the fixes.
+ */
+class NearbyCheckpoints {
+    static final int MARGIN = 16;
+    static final double REACH = 100;  // m
+
+    private final CheckpointCatalog catalog;
+    private final int k;
+    private final double minDistance;
+    private final double maxDistance;
+
+    // candidates of the last full query, and where it was made
+    private int[] candidates;
+    private double[] candidateDistances;
+    private int candidateCount;
+    private double candidateBound;  // checkpoints not in candidates are at least this far
+    private final LocalFrame queryFrame = new LocalFrame(0, 0);  // at the last full query
+    private boolean queried;
+    private int fullQueries;
+
+    // current ranking
+    private int[] ranked;
+    private double[] rankedDistances;
+    private int rankedCount;
+    private int inBand;  // candidates in the band, before keeping k
+    private final int[] previous;
+
+    /**
+     * @param k           number of checkpoints to recommend
+     * @param minDistance m, closer checkpoints are not recommended
+     * @param maxDistance m, farther checkpoints are not recommended
+     */
+    public NearbyCheckpoints(CheckpointCatalog catalog, int k, double minDistance,
+                             double maxDistance) {
+        this.catalog = catalog;
+        this.k = k;
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+        candidates = new int[k + MARGIN];
+        candidateDistances = new double[k + MARGIN];
+        ranked = new int[k + MARGIN];
+        rankedDistances = new double[k + MARGIN];
+        previous = new int[k];
+    }
+
+    /**
+     * Rank the checkpoints around a new position.
+     *
+     * @return whether the recommended checkpoints or their order changed
+     */
+    public boolean update(double latitude, double longitude) {
+        int previousCount = rankedCount;
+        System.arraycopy(ranked, 0, previous, 0, previousCount);
+        if (!queried || !rerank(latitude, longitude)) {
+            query(latitude, longitude);
+            rerank(latitude, longitude);
+            while (inBand < k + MARGIN && candidateCount == candidates.length) {
+                grow();
+                query(latitude, longitude);
+                rerank(latitude, longitude);
+            }
+        }
+        if (rankedCount != previousCount) {
+            return true;
+        }
+        for (int i = 0; i < rankedCount; i++) {
+            if (ranked[i] != previous[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void query(double latitude, double longitude) {
+        double lower = Math.max(0, minDistance - REACH);
+        double upper = maxDistance + REACH;
+        candidateCount = catalog.nearest(latitude, longitude, lower, upper, candidates.length,
+                candidates, candidateDistances);
+        candidateBound = candidateCount < candidates.length
+                ? Double.POSITIVE_INFINITY  // every checkpoint of the widened band is a candidate
+                : candidateDistances[candidateCount - 1];
+        queryFrame.anchor(latitude, longitude);
+        queried = true;
+        fullQueries++;
+    }
+
+    private void grow() {
+        int capacity = 2 * candidates.length;
+        candidates = new int[capacity];
+        candidateDistances = new double[capacity];
+        ranked = Arrays.copyOf(ranked, capacity);
+        rankedDistances = Arrays.copyOf(rankedDistances, capacity);
+    }
+
+    /**
+     * Rank the candidates from (latitude, longitude).
+     *
+     * @return false if the ranking may miss a checkpoint that is not a candidate
+     */
+    private boolean rerank(double latitude, double longitude) {
+        double moved = LocalFrame.distance(0, 0, queryFrame.east(longitude),
+                queryFrame.north(latitude));
+        if (moved > REACH) {
+            return false;
+        }
+        // insertion sort of a few candidates, by distance from here
+        rankedCount = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            double d = catalog.distance(latitude, longitude, candidates[c]);
+            if (d < minDistance || d > maxDistance) {
+                continue;
+            }
+            int j = rankedCount++;
+            for (; j > 0 && rankedDistances[j - 1] > d; j--) {
+                ranked[j] = ranked[j - 1];
+                rankedDistances[j] = rankedDistances[j - 1];
+            }
+            ranked[j] = candidates[c];
+            rankedDistances[j] = d;
+        }
+        inBand = rankedCount;
+        rankedCount = Math.min(rankedCount, k);
+        // another checkpoint is at least candidateBound - moved away
+        double outside = candidateBound - moved;
+        return outside > maxDistance
+                || (rankedCount == k && rankedDistances[k - 1] <= outside);
+    }
+
+    /**
+     * @return number of recommended checkpoints, at most k
+     */
+    public int size() {
+        return rankedCount;
+    }
+
+    /**
+     * @return catalog index of the i-th closest recommended checkpoint
+     */
+    public int getIndex(int i) {
+        return ranked[i];
+    }
+
+    /**
+     * @return distance to the i-th closest recommended checkpoint, m
+     */
+    public double getDistance(int i) {
+        return rankedDistances[i];
+    }
+
+    /**
+     * @return catalog indices of the recommended checkpoints, closest first
+     */
+    public int[] getIndices() {
+        return Arrays.copyOf(ranked, rankedCount);
+    }
+
+    /**
+     * @return number of catalog queries so far, the other updates re-ranked the candidates
+     */
+    int getFullQueries() {
+        return fullQueries;
+    }
+}
@@ -0,0 +1,166 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.concurrent.Future;
+
+/**
+ * PagedQuery.java
+ *
+ * Loads the results of one query page by page (result offset and record count), so the first
+ * results show after one small round trip however many there are. Each page reports the
+ * number of results and their bounds, and the listener hears as soon as the bounds of all pages
+ * so far grow, to zoom while the rest is still loading.
+ *
+ * The first page has FIRST_PAGE results. Later pages are sized so that one takes about
+ * PAGE_BUDGET ms at the rate measured so far, growing at most GROWTH times per page.
+ *
+ * A new selection cancel()s the running query: the page in flight is cancelled and whatever it
+ * still reports is ignored.
+ *
+ * Not thread safe: start(), cancel() and pageLoaded() are called on one thread, e.g. the
+ * done listeners of the ArcGIS futures on the main thread.
+ */
+class PagedQuery {
+    static final int FIRST_PAGE = 20;
+    static final int MAX_PAGE = 1000;
+    static final int GROWTH = 4;
+    static final long PAGE_BUDGET = 400;  // ms
+
+    /**
+     * Starts loading a page and reports it with query.pageLoaded() when done.
+     */
+    interface PageSource {
+        Future<?> load(PagedQuery query, int offset, int count);
+    }
+
+    interface Listener {
+        /**
+         * @param boundsGrew whether getBounds() grew with this page
+         */
+        void onPage(PagedQuery query, int count, boolean boundsGrew);
+
+        void onFinished(PagedQuery query);
+    }
+
+    private final PageSource source;
+    private final Listener listener;
+    private Future<?> inFlight;
+    private int pageSize = FIRST_PAGE;
+    private int offset;
+    private int pages;
+    private long requestTime;
+    private boolean cancelled;
+    private boolean finished;
+    private double[] bounds;  // minX, minY, maxX, maxY
+
+    PagedQuery(PageSource source, Listener listener) {
+        this.source = source;
+        this.listener = listener;
+    }
+
+    void start() {
+        request();
+    }
+
+    void cancel() {
+        cancelled = true;
+        if (null != inFlight) {
+            inFlight.cancel(true);
+            inFlight = null;
+        }
+    }
+
+    /**
+     * Report the page in flight.
+     *
+     * @param count      results in the page
+     * @param pageBounds minX, minY, maxX, maxY of its results, null if none has a geometry
+     * @param more       whether the source has results after them (e.g. the transfer limit
+     *                   was hit), also assumed if the page is full
+     */
+    void pageLoaded(int count, double[] pageBounds, boolean more) {
+        if (cancelled || finished) {
+            return;
+        }
+        inFlight = null;
+        long elapsed = System.currentTimeMillis() - requestTime;
+        boolean full = count >= pageSize;
+        offset += count;
+        pages++;
+        boolean grew = include(pageBounds);
+        pageSize = nextPageSize(pageSize, count, elapsed);
+        listener.onPage(this, count, grew);
+        if (cancelled) {
+            return;  // by the listener
+        }
+        if (count > 0 && (full || more)) {
+            request();
+        } else {
+            finished = true;
+            listener.onFinished(this);
+        }
+    }
+
+    /**
+     * Size of the next page: about PAGE_BUDGET ms of results at the rate of the last page,
+     * between FIRST_PAGE and MAX_PAGE and at most GROWTH times the last page.
+     */
+    static int nextPageSize(int pageSize, int count, long elapsed) {
+        double perMs = count / (double) Math.max(1, elapsed);
+        long size = Math.round(perMs * PAGE_BUDGET);
+        size = Math.min(size, (long) pageSize * GROWTH);
+        return (int) Math.max(FIRST_PAGE, Math.min(MAX_PAGE, size));
+    }
+
+    private void request() {
+        requestTime = System.currentTimeMillis();
+        inFlight = source.load(this, offset, pageSize);
+    }
+
+    private boolean include(double[] pageBounds) {
+        if (null == pageBounds) {
+            return false;
+        }
+        if (null == bounds) {
+            bounds = pageBounds.clone();
+            return true;
+        }
+        boolean grew = false;
+        for (int i = 0; i < 2; i++) {
+            if (pageBounds[i] < bounds[i]) {
+                bounds[i] = pageBounds[i];
+                grew = true;
+            }
+            if (pageBounds[i + 2] > bounds[i + 2]) {
+                bounds[i + 2] = pageBounds[i + 2];
+                grew = true;
+            }
+        }
+        return grew;
+    }
+
+    /**
+     * @return minX, minY, maxX, maxY of all pages so far, null before the first geometry
+     */
+    double[] getBounds() {
+        return null == bounds ? null : bounds.clone();
+    }
+
+    /**
+     * @return results loaded so far
+     */
+    int getLoaded() {
+        return offset;
+    }
+
+    int getPages() {
+        return pages;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,388 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ResultCodec.java
+ *
+ * Compact binary encoding of CheckPoint, Geofence, LonLatPoint, PointResult, TrackResult and
+ * routes (several geofences hunted in order, see TourPlanner), for
+ * bundles, files and network payloads, in place of Java serialization (class descriptors, boxed
+ * fields, 32 bytes per fix).
+ *
+ * Each message starts with a type byte and a version byte; the decoders reject other types and
+ * versions they do not know. Inside:
+ *   integers      zigzag varints (small values, small or negative deltas in few bytes)
+ *   strings       varint byte length, UTF-8
+ *   coordinates   1e-7 degrees (about 1 cm) as zigzag varints
+ *   radius        cm, varint
+ *   statistics    doubles, unchanged
+ *   tracks        number of fixes, then per fix the zigzag varint deltas of time (ms), latitude
+ *                 and longitude (1e-7 degrees), altitude (dm), and the accuracy (dm); about
+ *                 8 bytes per fix for a walk at 1 Hz
+ *
+ * An instance encodes into one ByteBuffer that is reused (and grown when needed) from one message
+ * to the next; the buffer returned by encode() is only valid until the next call. Not thread-safe.
+ * The static decoders read from any ByteBuffer positioned at a message, and leave it after it.
+ */
+class ResultCodec {
+    static final byte VERSION = 1;
+    static final byte TYPE_CHECKPOINT = 1;
+    static final byte TYPE_GEOFENCE = 2;
+    static final byte TYPE_LONLAT = 3;
+    static final byte TYPE_POINT_RESULT = 4;
+    static final byte TYPE_TRACK_RESULT = 5;
+    static final byte TYPE_ROUTE = 6;
+    static final int MAX_FIX_SIZE = 5 * 10;  // five varints
+    private static final double DEGREE_SCALE = 1e7;
+    private static final double METRE_SCALE = 10;
+    private static final double RADIUS_SCALE = 100;
+    private static final byte FLAG_SIMPLIFIED = 1;
+
+    private ByteBuffer buffer;
+
+    public ResultCodec() {
+        this(4096);
+    }
+
+    public ResultCodec(int capacity) {
+        buffer = ByteBuffer.allocate(capacity);
+    }
+
+    /********************************** encoding *************************************************/
+
+    public ByteBuffer encode(CheckPoint checkPoint) {
+        begin(TYPE_CHECKPOINT);
+        putCheckPoint(checkPoint);
+        return end();
+    }
+
+    public ByteBuffer encode(Geofence geofence) {
+        begin(TYPE_GEOFENCE);
+        putGeofence(geofence);
+        return end();
+    }
+
+    /**
+     * @param route geofences in the order they are hunted
+     */
+    public ByteBuffer encode(List<Geofence> route) {
+        begin(TYPE_ROUTE);
+        putVarLong(route.size());
+        for (Geofence geofence : route) {
+            putGeofence(geofence);
+        }
+        return end();
+    }
+
+    public ByteBuffer encode(LonLatPoint point) {
+        begin(TYPE_LONLAT);
+        putDegrees(point.getLongitude());
+        putDegrees(point.getLatitude());
+        return end();
+    }
+
+    public ByteBuffer encode(PointResult result) {
+        begin(TYPE_POINT_RESULT);
+        putCheckPoint(result.getPoint());
+        ensure(buffer.position() + 3 * 10);
+        putVarLong(zigzag(result.getArrival_timestamp()));
+        putVarLong(zigzag(result.getUserId()));
+        putVarLong(zigzag(result.getTrackId()));
+        return end();
+    }
+
+    public ByteBuffer encode(TrackResult result) {
+        TrackView track = result.getTrackPoints();
+        TrackView simplified = result.getSimplifiedTrackPoints();
+        begin(TYPE_TRACK_RESULT);
+        buffer.put(null == simplified ? 0 : FLAG_SIMPLIFIED);
+        putVarLong(zigzag(result.getStartTimestamp()));
+        putVarLong(zigzag(result.getUserId()));
+        putVarLong(zigzag(result.getTrackId()));
+        putString(result.getRewardName());
+        ensure(buffer.position() + 4 * 8);
+        buffer.putDouble(result.getDistance());
+        buffer.putDouble(result.getDuration());
+        buffer.putDouble(result.getAvgSpeed());
+        buffer.putDouble(result.getAvgTemperature());
+        putTrack(track);
+        if (null != simplified) {
+            putTrack(simplified);
+        }
+        return end();
+    }
+
+    /**
+     * @return copy of an encoded message, e.g. for Bundle.putByteArray()
+     */
+    public static byte[] toByteArray(ByteBuffer encoded) {
+        return Arrays.copyOfRange(encoded.array(), encoded.position(), encoded.limit());
+    }
+
+    private void begin(byte type) {
+        buffer.clear();
+        ensure(256);
+        buffer.put(type);
+        buffer.put(VERSION);
+    }
+
+    private ByteBuffer end() {
+        buffer.flip();
+        return buffer;
+    }
+
+    private void ensure(int capacity) {
+        if (buffer.capacity() < capacity) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void putCheckPoint(CheckPoint checkPoint) {
+        putString(checkPoint.getName());
+        ensure(buffer.position() + 2 * 10);
+        putDegrees(checkPoint.getLongitude());
+        putDegrees(checkPoint.getLatitude());
+    }
+
+    private void putGeofence(Geofence geofence) {
+        putString(geofence.getName());
+        ensure(buffer.position() + 3 * 10);
+        putDegrees(geofence.getLatitude());
+        putDegrees(geofence.getLongitude());
+        putVarLong(Math.round(geofence.getRadius() * RADIUS_SCALE));
+    }
+
+    private void putTrack(TrackView track) {
+        ensure(buffer.position() + 10 + track.size() * MAX_FIX_SIZE);
+        putVarLong(track.size());
+        putFixes(buffer, track);
+    }
+
+    private void putDegrees(double degrees) {
+        putVarLong(zigzag(Math.round(degrees * DEGREE_SCALE)));
+    }
+
+    private void putString(String value) {
+        byte[] bytes = null == value ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        ensure(buffer.position() + 5 + bytes.length);
+        putVarLong(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putVarLong(long value) {
+        putVarLong(buffer, value);
+    }
+
+    /********************************** decoding *************************************************/
+
+    public static CheckPoint decodeCheckPoint(ByteBuffer in) throws IOException {
+        try {
+            checkHeader(in, TYPE_CHECKPOINT);
+            return getCheckPoint(in);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated checkpoint");
+        }
+    }
+
+    public static Geofence decodeGeofence(ByteBuffer in) throws IOException {
+        try {
+            checkHeader(in, TYPE_GEOFENCE);
+            return getGeofence(in);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated geofence");
+        }
+    }
+
+    public static List<Geofence> decodeRoute(ByteBuffer in) throws IOException {
+        try {
+            checkHeader(in, TYPE_ROUTE);
+            long n = getVarLong(in);
+            if (n > in.remaining() / 4) {  // at least four bytes per geofence
+                throw new IOException("Corrupt route length " + n);
+            }
+            List<Geofence> route = new ArrayList<>((int) n);
+            for (int i = 0; i < n; i++) {
+                route.add(getGeofence(in));
+            }
+            return route;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated route");
+        }
+    }
+
+    public static LonLatPoint decodeLonLatPoint(ByteBuffer in) throws IOException {
+        try {
+            checkHeader(in, TYPE_LONLAT);
+            double longitude = getDegrees(in);
+            return new LonLatPoint(longitude, getDegrees(in));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated point");
+        }
+    }
+
+    public static PointResult decodePointResult(ByteBuffer in) throws IOException {
+        try {
+            checkHeader(in, TYPE_POINT_RESULT);
+            CheckPoint checkPoint = getCheckPoint(in);
+            long arrival = unzigzag(getVarLong(in));
+            int userId = (int) unzigzag(getVarLong(in));
+            int trackId = (int) unzigzag(getVarLong(in));
+            return new PointResult(checkPoint, arrival, userId, trackId);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated point result");
+        }
+    }
+
+    public static TrackResult decodeTrackResult(ByteBuffer in) throws IOException {
+        try {
+            checkHeader(in, TYPE_TRACK_RESULT);
+            byte flags = in.get();
+            long startTime = unzigzag(getVarLong(in));
+            int userId = (int) unzigzag(getVarLong(in));
+            int trackId = (int) unzigzag(getVarLong(in));
+            String rewardName = getString(in);
+            double distance = in.getDouble();
+            double duration = in.getDouble();
+            double avgSpeed = in.getDouble();
+            double avgTemperature = in.getDouble();
+            TrackBuffer track = getTrack(in);
+            TrackBuffer simplified = 0 != (flags & FLAG_SIMPLIFIED) ? getTrack(in) : null;
+            return new TrackResult(track, simplified, startTime, userId, trackId, rewardName,
+                    distance, duration, avgSpeed, avgTemperature);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated track result");
+        }
+    }
+
+    private static void checkHeader(ByteBuffer in, byte type) throws IOException {
+        byte actualType = in.get();
+        byte version = in.get();
+        if (actualType != type) {
+            throw new IOException("Expected message type " + type + ", found " + actualType);
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+    }
+
+    private static CheckPoint getCheckPoint(ByteBuffer in) throws IOException {
+        String name = getString(in);
+        double longitude = getDegrees(in);
+        return new CheckPoint(name, longitude, getDegrees(in));
+    }
+
+    private static Geofence getGeofence(ByteBuffer in) throws IOException {
+        String name = getString(in);
+        double latitude = getDegrees(in);
+        double longitude = getDegrees(in);
+        return new Geofence(name, latitude, longitude, getVarLong(in) / RADIUS_SCALE);
+    }
+
+    private static TrackBuffer getTrack(ByteBuffer in) throws IOException {
+        long n = getVarLong(in);
+        if (n > in.remaining() / 5) {  // at least five bytes per fix
+            throw new IOException("Corrupt track length " + n);
+        }
+        TrackBuffer track = new TrackBuffer(Math.max(16, (int) n));
+        getFixes(in, (int) n, track);
+        return track;
+    }
+
+    private static double getDegrees(ByteBuffer in) {
+        return unzigzag(getVarLong(in)) / DEGREE_SCALE;
+    }
+
+    private static String getString(ByteBuffer in) throws IOException {
+        long length = getVarLong(in);
+        if (length > in.remaining()) {
+            throw new IOException("Corrupt string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /********************************** shared with SessionArchive ******************************/
+
+    /**
+     * Pack the fixes of `track` as deltas, at most MAX_FIX_SIZE bytes each. `out` must have room.
+     */
+    static void putFixes(ByteBuffer out, TrackView track) {
+        long time = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long altitude = 0;
+        for (int i = 0; i < track.size(); i++) {
+            long t = track.getTime(i);
+            long lat = Math.round(track.getLatitude(i) * DEGREE_SCALE);
+            long lon = Math.round(track.getLongitude(i) * DEGREE_SCALE);
+            long alt = Math.round(track.getAltitude(i) * METRE_SCALE);
+            putVarLong(out, zigzag(t - time));
+            putVarLong(out, zigzag(lat - latitude));
+            putVarLong(out, zigzag(lon - longitude));
+            putVarLong(out, zigzag(alt - altitude));
+            putVarLong(out, Math.max(0, Math.round(track.getAccuracy(i) * METRE_SCALE)));
+            time = t;
+            latitude = lat;
+            longitude = lon;
+            altitude = alt;
+        }
+    }
+
+    /**
+     * Unpack `n` fixes written by putFixes() and append them to `track`.
+     */
+    static void getFixes(ByteBuffer in, int n, TrackBuffer track) {
+        long time = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long altitude = 0;
+        for (int j = 0; j < n; j++) {
+            time += unzigzag(getVarLong(in));
+            latitude += unzigzag(getVarLong(in));
+            longitude += unzigzag(getVarLong(in));
+            altitude += unzigzag(getVarLong(in));
+            long accuracy = getVarLong(in);
+            track.append(longitude / DEGREE_SCALE, latitude / DEGREE_SCALE, time,
+                    (float) (accuracy / METRE_SCALE), altitude / METRE_SCALE);
+        }
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,80 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+/**
+ * Reward.java
+ *
+ * Rewards of finishing activity
+ * Determined by average speed(s), distance(d), average temperature(t).
+ */
+enum Reward {
+    Peach {
+        public String getPureName() {
+            return "Peach";
+        }
+
+        public String getName() {
+            return getPureName() + "🍑";
+        }
+    },  // 4 ≤ s < 6, d ≤ 1, 4 < t < 20°
+    Watermelon {
+        public String getPureName() {
+            return "Watermelon";
+        }
+
+        public String getName() {
+            return getPureName() + "🍉";
+        }
+    }, // 4 ≤ s < 6, d > 1, t ≥ 20°
+    IceCream {
+        public String getPureName() {
+            return "Ice Cream";
+        }
+
+        public String getName() {
+            return getPureName() + "🍦";
+        }
+    },   //6 ≤ s < 8, d > 0, t ≥ 20°
+    Banana {
+        public String getPureName() {
+            return "Banana";
+        }
+
+        public String getName() {
+            return getPureName() + "🍌";
+        }
+    }, // s ≥ 8, d > 1, 4 < t < 20°
+    Apple {
+        public String getPureName() {
+            return "Apple";
+        }
+
+        public String getName() {
+            return getPureName() + "🍎";
+        }
+    };  // All other cases
+
+    public abstract String getName();
+
+    public abstract String getPureName();
+
+    /**
+     * Determine which reward should be given.
+     *
+     * @param avgSpeed  average speed, km/h
+     * @param totalDist total distance, m
+     * @param avgTemp   average temperature, celsius
+     */
+    public static Reward judge(double avgSpeed, double totalDist, double avgTemp) {
+        if (avgSpeed >= 4.0 && avgSpeed < 6.0 && totalDist <= 1 && avgTemp > 4.0 && avgTemp < 20) {
+            return Reward.Peach;
+        } else if (avgSpeed >= 4.0 && avgSpeed < 6.0 && totalDist > 1 && avgTemp > 20) {
+            return Reward.Watermelon;
+        } else if (avgSpeed >= 6.0 && avgSpeed < 8.0 && totalDist > 0 && avgTemp > 20) {
+            return Reward.IceCream;
+        } else if (avgSpeed >= 8.0 && totalDist > 1 && avgTemp > 4.0 && avgTemp < 20) {
+            return Reward.Banana;
+        } else {
+            return Reward.Apple;
+        }
+    }
+}
\ No newline at end of file
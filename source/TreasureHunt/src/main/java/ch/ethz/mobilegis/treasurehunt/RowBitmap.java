@@ -0,0 +1,120 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.Arrays;
+
+/**
+ * RowBitmap.java
+ *
+ * Compressed set of row numbers, split like a roaring bitmap into chunks of 65536 rows: a chunk
+ * holding few rows keeps them as a sorted char array (2 bytes per row), a chunk holding more
+ * than ARRAY_MAX switches to a plain bitmap (8 KB). A user with a handful of tracks among 100k
+ * thus takes a few bytes, while a value shared by most rows never costs more than a bit per row.
+ *
+ * Rows are added in ascending order, as TrackIndex appends them.
+ *
+ * Not thread safe.
+ */
+class RowBitmap {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_WORDS = (1 << CHUNK_BITS) / 64;
+    static final int ARRAY_MAX = 4096;  // rows of an array chunk, 8 KB like a bitmap chunk
+
+    // per chunk: either rows (low 16 bits, ascending) with counts, or words
+    private char[][] arrays = new char[0][];
+    private int[] counts = new int[0];
+    private long[][] bitmaps = new long[0][];
+    private int cardinality;
+    private int last = -1;
+
+    /**
+     * @param row larger than every row added so far
+     */
+    void add(int row) {
+        if (row <= last) {
+            throw new IllegalArgumentException("Rows must ascend: " + row + " after " + last);
+        }
+        last = row;
+        int chunk = row >>> CHUNK_BITS;
+        if (chunk >= counts.length) {
+            int n = Math.max(chunk + 1, counts.length * 2);
+            arrays = Arrays.copyOf(arrays, n);
+            counts = Arrays.copyOf(counts, n);
+            bitmaps = Arrays.copyOf(bitmaps, n);
+        }
+        char low = (char) row;
+        if (null != bitmaps[chunk]) {
+            bitmaps[chunk][low >>> 6] |= 1L << low;
+        } else if (counts[chunk] < ARRAY_MAX) {
+            char[] array = arrays[chunk];
+            if (null == array) {
+                array = arrays[chunk] = new char[4];
+            } else if (counts[chunk] == array.length) {
+                array = arrays[chunk] = Arrays.copyOf(array, Math.min(ARRAY_MAX, array.length * 2));
+            }
+            array[counts[chunk]++] = low;
+        } else {
+            long[] words = new long[CHUNK_WORDS];
+            char[] array = arrays[chunk];
+            for (int i = 0; i < counts[chunk]; i++) {
+                words[array[i] >>> 6] |= 1L << array[i];
+            }
+            words[low >>> 6] |= 1L << low;
+            bitmaps[chunk] = words;
+            arrays[chunk] = null;
+        }
+        cardinality++;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * words &= this, words being a plain bitmap of rows (row r at bit r % 64 of word r / 64).
+     */
+    void andInto(long[] words) {
+        for (int chunk = 0; chunk * CHUNK_WORDS < words.length; chunk++) {
+            int from = chunk * CHUNK_WORDS;
+            int to = Math.min(words.length, from + CHUNK_WORDS);
+            if (chunk < counts.length && null != bitmaps[chunk]) {
+                for (int w = from; w < to; w++) {
+                    words[w] &= bitmaps[chunk][w - from];
+                }
+            } else if (chunk < counts.length && null != arrays[chunk]) {
+                // keep the words of the listed rows only
+                char[] array = arrays[chunk];
+                int i = 0;
+                for (int w = from; w < to; w++) {
+                    if (0 == words[w]) {
+                        while (i < counts[chunk] && (array[i] >>> 6) == w - from) {
+                            i++;
+                        }
+                        continue;
+                    }
+                    long mask = 0;
+                    while (i < counts[chunk] && (array[i] >>> 6) == w - from) {
+                        mask |= 1L << array[i++];
+                    }
+                    words[w] &= mask;
+                }
+            } else {
+                Arrays.fill(words, from, to, 0);
+            }
+        }
+    }
+
+    /**
+     * @return bytes held by the chunks, roughly
+     */
+    long getMemory() {
+        long bytes = 0;
+        for (int chunk = 0; chunk < counts.length; chunk++) {
+            if (null != bitmaps[chunk]) {
+                bytes += 8L * CHUNK_WORDS;
+            } else if (null != arrays[chunk]) {
+                bytes += 2L * arrays[chunk].length;
+            }
+        }
+        return bytes;
+    }
+}
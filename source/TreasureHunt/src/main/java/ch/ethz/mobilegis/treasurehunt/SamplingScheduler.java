@@ -0,0 +1,77 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+/**
+ * SamplingScheduler.java
+ *
+ * Picks the GPS request interval and minimum distance from how far the user is from the border
+ * of the target geofence. Far away the GPS is polled rarely; it is tightened step by step while
+ * the estimated time to the border shrinks, up to 1 Hz near and inside the fence.
+ *
+ * The rate comes in a few tiers, so the source is only re-registered when the tier changes:
+ *
+ *   tier  interval  min distance  time to border  distance to border
+ *   0     1 s       2 m           any             any
+ *   1     3 s       5 m           >= 30 s         >= 20 m
+ *   2     10 s      15 m          >= 120 s        >= 100 m
+ *   3     30 s      40 m          >= 600 s        >= 500 m
+ *
+ * The time to the border assumes at least walking speed, so standing still does not slow the
+ * sampling down beyond what the distance allows. A tier is tightened as soon as it is no longer
+ * allowed, but only loosened with a COARSEN_MARGIN in hand, so it does not flap at a threshold.
+ */
+class SamplingScheduler {
+    static final long[] INTERVALS = {1000, 3000, 10000, 30000};  // ms
+    static final float[] MIN_DISTANCES = {2f, 5f, 15f, 40f};  // m
+    private static final double[] MIN_TIMES = {0, 30, 120, 600};  // s to the border
+    private static final double[] MIN_BORDER_DISTANCES = {0, 20, 100, 500};  // m to the border
+    private static final double MIN_SPEED = 1.4;  // m/s, walking
+    private static final double COARSEN_MARGIN = 1.25;
+
+    private int tier = 0;  // finest until the first fix
+
+    /**
+     * @param distance distance to the center of the target, m
+     * @param radius   radius of the target, m
+     * @param speed    current speed, m/s
+     * @return whether the tier changed, i.e. the location source must be re-registered
+     */
+    public boolean update(double distance, double radius, double speed) {
+        double border = distance - radius;
+        double time = border / Math.max(speed, MIN_SPEED);
+        int newTier = tier;
+        while (newTier > 0 && !allows(newTier, border, time, 1.0)) {
+            newTier--;  // tighten
+        }
+        while (newTier < INTERVALS.length - 1
+                && allows(newTier + 1, border, time, newTier + 1 > tier ? COARSEN_MARGIN : 1.0)) {
+            newTier++;  // loosen
+        }
+        if (newTier == tier) {
+            return false;
+        }
+        tier = newTier;
+        return true;
+    }
+
+    private static boolean allows(int tier, double border, double time, double margin) {
+        return time >= MIN_TIMES[tier] * margin && border >= MIN_BORDER_DISTANCES[tier] * margin;
+    }
+
+    public int getTier() {
+        return tier;
+    }
+
+    /**
+     * @return request interval of the current tier, ms
+     */
+    public long getInterval() {
+        return INTERVALS[tier];
+    }
+
+    /**
+     * @return request minimum distance of the current tier, m
+     */
+    public float getMinDistance() {
+        return MIN_DISTANCES[tier];
+    }
+}
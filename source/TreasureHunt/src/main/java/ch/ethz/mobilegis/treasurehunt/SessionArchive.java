@@ -0,0 +1,511 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * SessionArchive.java
+ *
+ * History of finished hunts: one binary record per hunt in an append-only data file, and an
+ * index file of (start time, offset, length) entries sorted by start time.
+ *
+ * The index is read into three primitive arrays when the archive is opened, so listing is a
+ * loop over them, a time range is two binary searches, and a single session is one read at its
+ * offset. The history itself is never parsed as a whole.
+ *
+ * Record, big endian:
+ *   magic, version, flags, record length
+ *   summary: start time, start lon/lat, checkpoint lon/lat, distance, duration, avg speed,
+ *            avg temperature, checkpoint name and reward name (length-prefixed UTF-8)
+ *   track:   number of fixes, then per fix the zigzag varint deltas of time (ms), latitude and
+ *            longitude (1e-7 degrees), altitude (dm) and the varint accuracy (dm)
+ *   CRC32 of all of the above
+ *
+ * A walking track packs into about 8 bytes per fix, against 32 in memory.
+ *
+ * Crash safety: a record is written and synced before its index entry. An entry in order is
+ * appended to the index; otherwise the whole index is written to a temporary file, synced and
+ * renamed over the old one, so a crash leaves either. On open, index entries pointing past the
+ * data are dropped, and complete records behind the last indexed one are indexed again; anything
+ * else at the end of the data file is cut off.
+ *
+ * One instance per directory (open()), its methods are synchronized except getSummary().
+ */
+class SessionArchive {
+    static final String DATA_FILE = "sessions.dat";
+    static final String INDEX_FILE = "sessions.idx";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int DATA_MAGIC = 0x54485331;  // "THS1"
+    private static final int INDEX_MAGIC = 0x54484931;  // "THI1"
+    private static final short VERSION = 1;
+    private static final short FLAG_TRACK = 1;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int INDEX_HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 20;
+    private static final int MAX_STRING_BYTES = 255;
+    private static final int MAX_SUMMARY_SIZE = 128 + 2 * MAX_STRING_BYTES;  // record prefix
+    private static final double COORDINATE_MATCH = 1e-6;  // degrees, to name imported checkpoints
+
+    private static final Map<File, SessionArchive> archives = new HashMap<>();
+
+    private final RandomAccessFile data;
+    private final File indexFile;
+    private RandomAccessFile index;  // replaced by writeIndex()
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);  // encoding, reused
+
+    // index, sorted by start time
+    private long[] startTimes = new long[64];
+    private long[] offsets = new long[64];
+    private int[] lengths = new int[64];
+    private int size;
+    private boolean batch;  // index rewritten once at the end of an import
+    private boolean indexDirty;
+
+    private SessionArchive(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        data = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+        indexFile = new File(dir, INDEX_FILE);
+        index = new RandomAccessFile(indexFile, "rw");
+        readIndex();
+        recoverTail();
+    }
+
+    /**
+     * The archive stored in `dir`, created if needed. Always the same instance for a directory.
+     */
+    public static SessionArchive open(File dir) throws IOException {
+        synchronized (archives) {
+            File key = dir.getAbsoluteFile();
+            SessionArchive archive = archives.get(key);
+            if (null == archive) {
+                archive = new SessionArchive(key);
+                archives.put(key, archive);
+            }
+            return archive;
+        }
+    }
+
+    /**
+     * Archive a finished hunt.
+     *
+     * @param track its fixes, may be empty
+     * @return position of the session in the archive (by start time)
+     */
+    public synchronized int append(SessionSummary summary, TrackView track) throws IOException {
+        buffer.clear();
+        encode(summary, track);
+        int length = buffer.position();
+        long offset = data.length();
+        data.seek(offset);
+        data.write(buffer.array(), 0, length);
+        data.getChannel().force(false);
+        return insert(summary.getStartTimestamp(), offset, length);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return start time of the i-th session, ms since epoch
+     */
+    public synchronized long getStartTime(int i) {
+        checkIndex(i);
+        return startTimes[i];
+    }
+
+    /**
+     * @return position of the first session starting at or after `time`, size() if none
+     */
+    public synchronized int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startTimes[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return position of the session started at `startTime`, -1 if none
+     */
+    public synchronized int indexOf(long startTime) {
+        int i = lowerBound(startTime);
+        return i < size && startTimes[i] == startTime ? i : -1;
+    }
+
+    /**
+     * Summary of the i-th session, read without its track. Not serialized with the other
+     * methods: summaries can be read by several threads at once.
+     */
+    public SessionSummary getSummary(int i) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            checkIndex(i);
+            offset = offsets[i];
+            length = lengths[i];
+        }
+        ByteBuffer record = ByteBuffer.allocate(Math.min(length, MAX_SUMMARY_SIZE));
+        while (record.hasRemaining()) {
+            if (data.getChannel().read(record, offset + record.position()) < 0) {
+                throw new EOFException("Session " + i + " is truncated");
+            }
+        }
+        checkHeader(record, i, length);
+        return decodeSummary(record);
+    }
+
+    /**
+     * Track of the i-th session, empty if it was imported without one.
+     */
+    public synchronized TrackBuffer getTrack(int i) throws IOException {
+        checkIndex(i);
+        ByteBuffer record = read(offsets[i], lengths[i]);
+        checkHeader(record, i, lengths[i]);
+        if (!checksumMatches(record, lengths[i])) {
+            throw new IOException("Session " + i + " is corrupt");
+        }
+        short flags = record.getShort(6);
+        decodeSummary(record);
+        int n = record.getInt();
+        TrackBuffer track = new TrackBuffer(n);
+        if (0 == (flags & FLAG_TRACK)) {
+            return track;
+        }
+        ResultCodec.getFixes(record, n, track);
+        return track;
+    }
+
+    /**
+     * Counts of an importCsv().
+     */
+    static class CsvImport {
+        private final int imported;
+        private final int skipped;
+
+        CsvImport(int imported, int skipped) {
+            this.imported = imported;
+            this.skipped = skipped;
+        }
+
+        /**
+         * @return number of sessions imported
+         */
+        public int getImported() {
+            return imported;
+        }
+
+        /**
+         * @return number of lines that could not be parsed, and were not imported
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+    }
+
+    /**
+     * Import of the result lines of older versions (the former output.csv, one hunt per line:
+     * start time, start lon/lat, checkpoint lon/lat, distance, duration, speed, temperature,
+     * reward). Sessions already archived (same start time) and empty lines are passed over;
+     * lines that cannot be parsed (e.g. written with a decimal comma) are skipped and counted.
+     *
+     * @param checkPoints known checkpoints, to name the imported ones by their coordinates
+     */
+    public synchronized CsvImport importCsv(Reader reader, List<CheckPoint> checkPoints)
+            throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        TrackBuffer noTrack = new TrackBuffer(16);
+        int imported = 0;
+        int skipped = 0;
+        batch = true;
+        try {
+            String line;
+            while (null != (line = lines.readLine())) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                SessionSummary summary = parseCsvLine(line, checkPoints);
+                if (null == summary) {
+                    skipped++;
+                } else if (indexOf(summary.getStartTimestamp()) < 0) {
+                    append(summary, noTrack);
+                    imported++;
+                }
+            }
+        } finally {
+            batch = false;
+            if (indexDirty) {
+                writeIndex();
+            }
+        }
+        return new CsvImport(imported, skipped);
+    }
+
+    private static SessionSummary parseCsvLine(String line, List<CheckPoint> checkPoints) {
+        String[] fields = line.trim().split(",");
+        if (fields.length != 10) {
+            return null;  // written with a decimal comma, or not a result
+        }
+        try {
+            double checkpointLongitude = Double.parseDouble(fields[3]);
+            double checkpointLatitude = Double.parseDouble(fields[4]);
+            String name = "";
+            for (CheckPoint checkPoint : checkPoints) {
+                if (Math.abs(checkPoint.getLongitude() - checkpointLongitude) < COORDINATE_MATCH
+                        && Math.abs(checkPoint.getLatitude() - checkpointLatitude) < COORDINATE_MATCH) {
+                    name = checkPoint.getName();
+                    break;
+                }
+            }
+            return new SessionSummary(Long.parseLong(fields[0]), Double.parseDouble(fields[1]),
+                    Double.parseDouble(fields[2]), name, checkpointLongitude, checkpointLatitude,
+                    Double.parseDouble(fields[5]), Double.parseDouble(fields[6]),
+                    Double.parseDouble(fields[7]), Double.parseDouble(fields[8]), fields[9]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /********************************** records **************************************************/
+
+    private void encode(SessionSummary summary, TrackView track) {
+        int n = track.size();
+        ensure(MAX_SUMMARY_SIZE + 8 + n * ResultCodec.MAX_FIX_SIZE);
+        buffer.putInt(DATA_MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort(n > 0 ? FLAG_TRACK : 0);
+        buffer.putInt(0);  // length, filled in below
+        buffer.putLong(summary.getStartTimestamp());
+        buffer.putDouble(summary.getStartLongitude());
+        buffer.putDouble(summary.getStartLatitude());
+        buffer.putDouble(summary.getCheckpointLongitude());
+        buffer.putDouble(summary.getCheckpointLatitude());
+        buffer.putDouble(summary.getDistance());
+        buffer.putDouble(summary.getDuration());
+        buffer.putDouble(summary.getAvgSpeed());
+        buffer.putDouble(summary.getAvgTemperature());
+        putString(summary.getCheckpointName());
+        putString(summary.getRewardName());
+        buffer.putInt(n);
+        ResultCodec.putFixes(buffer, track);
+        int length = buffer.position() + 4;
+        buffer.putInt(8, length);
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private static SessionSummary decodeSummary(ByteBuffer record) {
+        record.position(RECORD_HEADER_SIZE);
+        long startTime = record.getLong();
+        double startLongitude = record.getDouble();
+        double startLatitude = record.getDouble();
+        double checkpointLongitude = record.getDouble();
+        double checkpointLatitude = record.getDouble();
+        double distance = record.getDouble();
+        double duration = record.getDouble();
+        double avgSpeed = record.getDouble();
+        double avgTemperature = record.getDouble();
+        String checkpointName = getString(record);
+        String rewardName = getString(record);
+        return new SessionSummary(startTime, startLongitude, startLatitude, checkpointName,
+                checkpointLongitude, checkpointLatitude, distance, duration, avgSpeed,
+                avgTemperature, rewardName);
+    }
+
+    private static void checkHeader(ByteBuffer record, int i, int length) throws IOException {
+        if (record.getInt(0) != DATA_MAGIC || record.getShort(4) != VERSION
+                || record.getInt(8) != length) {
+            throw new IOException("Session " + i + " is corrupt");
+        }
+    }
+
+    private boolean checksumMatches(ByteBuffer record, int length) {
+        crc.reset();
+        crc.update(record.array(), 0, length - 4);
+        return record.getInt(length - 4) == (int) crc.getValue();
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ensure(length);
+        buffer.clear();
+        data.seek(offset);
+        data.readFully(buffer.array(), 0, length);
+        buffer.limit(length);
+        return buffer;
+    }
+
+    private void ensure(int capacity) {
+        if (buffer.capacity() < capacity) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void putString(String value) {
+        byte[] bytes = null == value ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        buffer.put((byte) length);
+        buffer.put(bytes, 0, length);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.get() & 0xFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /********************************** index ****************************************************/
+
+    private int insert(long startTime, long offset, int length) throws IOException {
+        if (size == startTimes.length) {
+            int capacity = 2 * size;
+            startTimes = Arrays.copyOf(startTimes, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        int i = size;
+        while (i > 0 && startTimes[i - 1] > startTime) {
+            i--;
+        }
+        System.arraycopy(startTimes, i, startTimes, i + 1, size - i);
+        System.arraycopy(offsets, i, offsets, i + 1, size - i);
+        System.arraycopy(lengths, i, lengths, i + 1, size - i);
+        startTimes[i] = startTime;
+        offsets[i] = offset;
+        lengths[i] = length;
+        size++;
+        if (i == size - 1 && !indexDirty) {
+            // in order: append the entry
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(startTime).putLong(offset).putInt(length);
+            index.seek(INDEX_HEADER_SIZE + (long) i * INDEX_ENTRY_SIZE);
+            index.write(entry.array());
+            index.getChannel().force(false);
+        } else {
+            indexDirty = true;
+            if (!batch) {
+                writeIndex();
+            }
+        }
+        return i;
+    }
+
+    private void writeIndex() throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(INDEX_HEADER_SIZE + size * INDEX_ENTRY_SIZE);
+        out.putInt(INDEX_MAGIC).putShort(VERSION).putShort((short) 0);
+        for (int i = 0; i < size; i++) {
+            out.putLong(startTimes[i]).putLong(offsets[i]).putInt(lengths[i]);
+        }
+        File temp = new File(indexFile.getPath() + TEMP_EXTENSION);
+        try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+            file.setLength(0);
+            file.write(out.array());
+            file.getChannel().force(false);
+        }
+        index.close();
+        boolean renamed = temp.renameTo(indexFile);
+        index = new RandomAccessFile(indexFile, "rw");
+        if (!renamed) {
+            temp.delete();
+            throw new IOException("Cannot replace " + indexFile);
+        }
+        indexDirty = false;
+    }
+
+    private void readIndex() throws IOException {
+        long length = index.length();
+        long dataLength = data.length();
+        byte[] bytes = new byte[(int) length];
+        index.seek(0);
+        index.readFully(bytes);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (length < INDEX_HEADER_SIZE || in.getInt() != INDEX_MAGIC || in.getShort() != VERSION) {
+            size = 0;
+            indexDirty = true;  // rebuilt from the data by recoverTail()
+            return;
+        }
+        in.getShort();
+        int n = (int) ((length - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE);
+        startTimes = new long[Math.max(n, 64)];
+        offsets = new long[startTimes.length];
+        lengths = new int[startTimes.length];
+        for (int i = 0; i < n; i++) {
+            long startTime = in.getLong();
+            long offset = in.getLong();
+            int recordLength = in.getInt();
+            if (offset + recordLength > dataLength) {
+                indexDirty = true;  // record lost in a crash
+                continue;
+            }
+            startTimes[size] = startTime;
+            offsets[size] = offset;
+            lengths[size] = recordLength;
+            size++;
+        }
+        if (INDEX_HEADER_SIZE + (long) n * INDEX_ENTRY_SIZE != length) {
+            indexDirty = true;  // torn entry
+        }
+    }
+
+    /**
+     * Index the complete records behind the last indexed one, cut off the rest.
+     */
+    private void recoverTail() throws IOException {
+        long end = 0;
+        for (int i = 0; i < size; i++) {
+            end = Math.max(end, offsets[i] + lengths[i]);
+        }
+        long dataLength = data.length();
+        batch = true;
+        while (end + RECORD_HEADER_SIZE <= dataLength) {
+            ByteBuffer header = read(end, RECORD_HEADER_SIZE);
+            int length = header.getInt(8);
+            if (header.getInt(0) != DATA_MAGIC || length < RECORD_HEADER_SIZE + 4
+                    || end + length > dataLength) {
+                break;
+            }
+            ByteBuffer record = read(end, length);
+            if (!checksumMatches(record, length)) {
+                break;
+            }
+            insert(record.getLong(RECORD_HEADER_SIZE), end, length);
+            end += length;
+        }
+        batch = false;
+        if (end < dataLength) {
+            data.setLength(end);
+        }
+        if (indexDirty) {
+            writeIndex();
+        }
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("session " + i + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SessionRepository.java
+ *
+ * Application-scoped store of the finished hunts, to hand a result from one activity to the
+ * next as a session ID (the start time of the hunt) in the Intent instead of Serializable extras.
+ *
+ * The results handed over last are kept in memory, so within the process a hand-off is a map
+ * lookup whatever the length of the track. Behind them is the SessionArchive, where
+ * TrackingService has put the hunt before the UI sees it, plus a small file with what the
+ * archive does not hold (user ID, track ID, arrival time at the checkpoint). After the process
+ * was killed, a result is rebuilt from these files, and its tracks are only decoded from the
+ * archive when first read (ArchivedTrack).
+ *
+ * A record is forced to disk before put() returns, as the process may be killed as soon as the
+ * next activity has the session ID. open() reads the records once into an index of session ID
+ * to offset, so rebuilding a result reads a single record. Blocking, not for the main thread.
+ */
+class SessionRepository {
+    static final String FILE = "results.dat";
+    static final long NO_SESSION = -1;
+    private static final int RECORD_SIZE = 24;  // session ID, user ID, track ID, arrival time
+    private static final int MAX_CACHED = 4;
+
+    private static final Map<File, SessionRepository> repositories = new HashMap<>();
+
+    private final File dir;
+    private final SessionArchive archive;
+    private final RandomAccessFile results;
+    private final Map<Long, Long> offsets = new HashMap<>();  // of the latest record per session
+    private final Map<Long, CachedResult> cache =
+            new LinkedHashMap<Long, CachedResult>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedResult> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+    private long lastSessionId = NO_SESSION;  // put() in this process
+
+    private SessionRepository(File dir) throws IOException {
+        this.dir = dir;
+        archive = SessionArchive.open(dir);
+        results = new RandomAccessFile(new File(dir, FILE), "rw");
+        results.setLength(results.length() / RECORD_SIZE * RECORD_SIZE);  // torn record
+        readOffsets();
+    }
+
+    /**
+     * The repository of the session archive in `dir`. Always the same instance for a directory.
+     */
+    public static SessionRepository open(File dir) throws IOException {
+        synchronized (repositories) {
+            File key = dir.getAbsoluteFile();
+            SessionRepository repository = repositories.get(key);
+            if (null == repository) {
+                repository = new SessionRepository(key);
+                repositories.put(key, repository);
+            }
+            return repository;
+        }
+    }
+
+    /**
+     * Keep the result of a finished hunt for the next activity.
+     *
+     * @return its session ID, to put in the Intent
+     */
+    public synchronized long put(TrackResult track, PointResult point) throws IOException {
+        long sessionId = track.getStartTimestamp();
+        if (!cache.containsKey(sessionId)) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putLong(sessionId).putInt(point.getUserId()).putInt(point.getTrackId())
+                    .putLong(point.getArrival_timestamp());
+            long offset = results.length();
+            results.seek(offset);
+            results.write(record.array());
+            results.getChannel().force(false);
+            offsets.put(sessionId, offset);
+        }
+        cache.put(sessionId, new CachedResult(track, point));
+        lastSessionId = sessionId;
+        return sessionId;
+    }
+
+    /**
+     * @return ID of the last result put in this process, NO_SESSION if none
+     */
+    public synchronized long getLastSessionId() {
+        return lastSessionId;
+    }
+
+    /**
+     * @throws FileNotFoundException if the session is neither in memory nor archived
+     */
+    public synchronized TrackResult getTrackResult(long sessionId) throws IOException {
+        return get(sessionId).track;
+    }
+
+    /**
+     * @throws FileNotFoundException if the session is neither in memory nor archived
+     */
+    public synchronized PointResult getPointResult(long sessionId) throws IOException {
+        return get(sessionId).point;
+    }
+
+    /**
+     * Drop the results kept in memory and read the records again, as a restart of the process
+     * does.
+     */
+    synchronized void forget() throws IOException {
+        cache.clear();
+        lastSessionId = NO_SESSION;
+        readOffsets();
+    }
+
+    private void readOffsets() throws IOException {
+        byte[] records = new byte[(int) results.length()];
+        results.seek(0);
+        results.readFully(records);
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        offsets.clear();
+        for (int offset = 0; offset < records.length; offset += RECORD_SIZE) {
+            offsets.put(buffer.getLong(offset), (long) offset);  // the latest record wins
+        }
+    }
+
+    private CachedResult get(long sessionId) throws IOException {
+        CachedResult entry = cache.get(sessionId);
+        if (null == entry) {
+            entry = load(sessionId);
+            cache.put(sessionId, entry);
+        }
+        return entry;
+    }
+
+    private CachedResult load(long sessionId) throws IOException {
+        int i = archive.indexOf(sessionId);
+        if (i < 0) {
+            throw new FileNotFoundException("Session " + sessionId + " is not archived");
+        }
+        Long offset = offsets.get(sessionId);
+        if (null == offset) {
+            throw new FileNotFoundException("Session " + sessionId + " was not handed over");
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        results.seek(offset);
+        results.readFully(record.array());
+        int userId = record.getInt(8);
+        int trackId = record.getInt(12);
+        long arrivalTime = record.getLong(16);
+
+        SessionSummary summary = archive.getSummary(i);
+        TrackResult track = new TrackResult(new ArchivedTrack(dir, sessionId, 0),
+                new ArchivedTrack(dir, sessionId, HuntSession.TRACK_SIMPLIFY_TOLERANCE),
+                summary.getStartTimestamp(), userId, trackId, summary.getRewardName(),
+                summary.getDistance(), summary.getDuration(), summary.getAvgSpeed(),
+                summary.getAvgTemperature());
+        CheckPoint checkPoint = new CheckPoint(summary.getCheckpointName(),
+                summary.getCheckpointLongitude(), summary.getCheckpointLatitude());
+        return new CachedResult(track,
+                new PointResult(checkPoint, arrivalTime, userId, trackId));
+    }
+
+    private static class CachedResult {
+        final TrackResult track;
+        final PointResult point;
+
+        CachedResult(TrackResult track, PointResult point) {
+            this.track = track;
+            this.point = point;
+        }
+    }
+}
+
+/**
+ * Track of an archived session, decoded from the SessionArchive when first read and simplified
+ * like the live track if a tolerance is given. Serialized as (directory, session ID).
+ */
+class ArchivedTrack implements TrackView {
+    private final String dir;
+    private final long sessionId;
+    private final double tolerance;  // m, 0 for the raw fixes
+    private transient volatile TrackBuffer track;
+
+    ArchivedTrack(File dir, long sessionId, double tolerance) {
+        this.dir = dir.getPath();
+        this.sessionId = sessionId;
+        this.tolerance = tolerance;
+    }
+
+    private TrackBuffer track() {
+        TrackBuffer t = track;
+        return null != t ? t : load();
+    }
+
+    private synchronized TrackBuffer load() {
+        if (null != track) {
+            return track;
+        }
+        TrackBuffer fixes;
+        try {
+            SessionArchive archive = SessionArchive.open(new File(dir));
+            int i = archive.indexOf(sessionId);
+            if (i < 0) {
+                throw new FileNotFoundException("Session " + sessionId + " is not archived");
+            }
+            fixes = archive.getTrack(i);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (tolerance > 0) {
+            TrackSimplifier simplifier = new TrackSimplifier(tolerance);
+            for (int i = 0; i < fixes.size(); i++) {
+                simplifier.add(fixes.getLongitude(i), fixes.getLatitude(i), fixes.getTime(i),
+                        fixes.getAccuracy(i), fixes.getAltitude(i));
+            }
+            simplifier.flush();
+            fixes = simplifier.getOutput();
+        }
+        track = fixes;
+        return fixes;
+    }
+
+    @Override
+    public int size() {
+        return track().size();
+    }
+
+    @Override
+    public double getLongitude(int i) {
+        return track().getLongitude(i);
+    }
+
+    @Override
+    public double getLatitude(int i) {
+        return track().getLatitude(i);
+    }
+
+    @Override
+    public long getTime(int i) {
+        return track().getTime(i);
+    }
+
+    @Override
+    public float getAccuracy(int i) {
+        return track().getAccuracy(i);
+    }
+
+    @Override
+    public double getAltitude(int i) {
+        return track().getAltitude(i);
+    }
+}
@@ -0,0 +1,238 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+/**
+ * StreamingStats.java
+ *
+ * Constant-memory summary of a timed series of samples (temperature, speed, ...):
+ * count, mean, variance, min, max, time-weighted mean and approximate quantiles.
+ *
+ * - mean / variance: Welford's update, numerically stable for long series;
+ * - time-weighted mean: every sample holds until the next one, which matches sensors that only
+ * report on change. A sample reported once and never again still counts for the whole time;
+ * - quantiles: one P^2 estimator (Jain & Chlamtac, 1985) per requested probability, five
+ * markers each, exact up to five samples.
+ *
+ * add() does not allocate. Not thread safe.
+ */
+class StreamingStats {
+    private final P2Quantile[] quantiles;
+
+    private long count;
+    private double mean;
+    private double m2;  // sum of squared differences from the mean
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    // time-weighted mean, sample and hold
+    private long firstTime;
+    private long lastTime;
+    private double lastValue;
+    private double weightedSum;  // integral of the held value over [firstTime, lastTime]
+
+    /**
+     * @param probabilities quantiles to estimate, each in (0, 1), e.g. 0.5 for the median
+     */
+    public StreamingStats(double... probabilities) {
+        quantiles = new P2Quantile[probabilities.length];
+        for (int i = 0; i < probabilities.length; i++) {
+            quantiles[i] = new P2Quantile(probabilities[i]);
+        }
+    }
+
+    /**
+     * @param value sample
+     * @param time  time of the sample, ms. Must not decrease.
+     */
+    public void add(double value, long time) {
+        if (0 == count) {
+            firstTime = time;
+            min = value;
+            max = value;
+        } else {
+            weightedSum += lastValue * (time - lastTime);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        lastTime = time;
+        lastValue = value;
+
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+
+        for (P2Quantile quantile : quantiles) {
+            quantile.add(value);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean of the samples, NaN if there is none
+     */
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    /**
+     * @return sample variance (n - 1), 0 for a single sample, NaN if there is none
+     */
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : count == 1 ? 0 : Double.NaN;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Time-weighted mean up to the last sample.
+     */
+    public double getTimeWeightedMean() {
+        return getTimeWeightedMean(lastTime);
+    }
+
+    /**
+     * Time-weighted mean up to `time`, the last sample holding until then.
+     * Equals the plain mean while no time has passed.
+     *
+     * @param time ms, same clock as add()
+     */
+    public double getTimeWeightedMean(long time) {
+        if (0 == count) {
+            return Double.NaN;
+        }
+        long end = Math.max(time, lastTime);
+        if (end == firstTime) {
+            return mean;
+        }
+        return (weightedSum + lastValue * (end - lastTime)) / (end - firstTime);
+    }
+
+    /**
+     * @param i index of the probability given to the constructor
+     * @return estimate of that quantile, NaN if there is no sample
+     */
+    public double getQuantile(int i) {
+        return quantiles[i].get();
+    }
+
+    /**
+     * P^2 estimate of a single quantile: five marker heights, adjusted by piecewise parabolic
+     * interpolation as samples arrive.
+     */
+    private static class P2Quantile {
+        private final double p;
+        private final double[] heights = new double[5];
+        private final double[] positions = new double[5];  // actual marker positions, 1-based
+        private final double[] desired = new double[5];
+        private final double[] increments;
+        private int count;
+
+        P2Quantile(double p) {
+            if (!(p > 0 && p < 1)) {
+                throw new IllegalArgumentException("quantile must be in (0, 1): " + p);
+            }
+            this.p = p;
+            increments = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+        }
+
+        void add(double x) {
+            if (count < 5) {
+                // insertion sort of the first five samples
+                int i = count++;
+                while (i > 0 && heights[i - 1] > x) {
+                    heights[i] = heights[i - 1];
+                    i--;
+                }
+                heights[i] = x;
+                if (5 == count) {
+                    for (int m = 0; m < 5; m++) {
+                        positions[m] = m + 1;
+                    }
+                    desired[0] = 1;
+                    desired[1] = 1 + 2 * p;
+                    desired[2] = 1 + 4 * p;
+                    desired[3] = 3 + 2 * p;
+                    desired[4] = 5;
+                }
+                return;
+            }
+            count++;
+
+            // cell of x, extending the extremes
+            int k;
+            if (x < heights[0]) {
+                heights[0] = x;
+                k = 0;
+            } else if (x >= heights[4]) {
+                heights[4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (x >= heights[k + 1]) {
+                    k++;
+                }
+            }
+            for (int m = k + 1; m < 5; m++) {
+                positions[m]++;
+            }
+            for (int m = 0; m < 5; m++) {
+                desired[m] += increments[m];
+            }
+
+            // adjust the three middle markers
+            for (int m = 1; m < 4; m++) {
+                double d = desired[m] - positions[m];
+                if ((d >= 1 && positions[m + 1] - positions[m] > 1)
+                        || (d <= -1 && positions[m - 1] - positions[m] < -1)) {
+                    int sign = d > 0 ? 1 : -1;
+                    double h = parabolic(m, sign);
+                    if (heights[m - 1] < h && h < heights[m + 1]) {
+                        heights[m] = h;
+                    } else {
+                        heights[m] = linear(m, sign);
+                    }
+                    positions[m] += sign;
+                }
+            }
+        }
+
+        private double parabolic(int m, int d) {
+            double n0 = positions[m - 1];
+            double n1 = positions[m];
+            double n2 = positions[m + 1];
+            return heights[m] + d / (n2 - n0) * (
+                    (n1 - n0 + d) * (heights[m + 1] - heights[m]) / (n2 - n1)
+                            + (n2 - n1 - d) * (heights[m] - heights[m - 1]) / (n1 - n0));
+        }
+
+        private double linear(int m, int d) {
+            return heights[m]
+                    + d * (heights[m + d] - heights[m]) / (positions[m + d] - positions[m]);
+        }
+
+        double get() {
+            if (0 == count) {
+                return Double.NaN;
+            }
+            if (count <= 5) {
+                // exact, nearest rank on the sorted samples
+                int rank = (int) Math.ceil(p * count) - 1;
+                return heights[Math.max(0, rank)];
+            }
+            return heights[2];
+        }
+    }
+}
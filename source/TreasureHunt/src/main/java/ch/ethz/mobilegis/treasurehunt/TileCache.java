@@ -0,0 +1,339 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TileCache.java
+ *
+ * Basemap tiles on disk, one file per tile named level_row_column.tile, evicted least recently
+ * used first once they take more than a byte budget.
+ *
+ * The LRU order lives in memory (an access-ordered map of tile key to size) and is rebuilt on
+ * open from the file modification times, which a hit refreshes. Tiles are written to a
+ * temporary file and renamed, so a crash leaves either the whole tile or none.
+ *
+ * Tiles are addressed like the web mercator tiling scheme of ArcGIS and OSM: level 0 is one
+ * tile of the world, rows count from the north. prefetch() loads every tile of a bounding box
+ * over a range of levels, so the map around the checkpoints opens without a network.
+ *
+ * Hits, misses and bytes served from disk are counted for requests through getOrFetch(), not
+ * for prefetching.
+ *
+ * One instance per directory (open()), its methods are synchronized except the file reads of
+ * getOrFetch().
+ */
+class TileCache {
+    static final String EXTENSION = ".tile";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int MAX_LEVEL = 23;
+    private static final double MAX_LATITUDE = 85.0511287798;  // square web mercator world
+
+    /**
+     * Source of tiles not in the cache, e.g. the tile service.
+     */
+    interface Fetcher {
+        byte[] fetch(int level, int row, int column) throws IOException;
+    }
+
+    private static final Map<File, TileCache> caches = new HashMap<>();
+
+    private final File dir;
+    private final long maxBytes;
+    private final LinkedHashMap<Long, Integer> sizes = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long bytesSaved;
+    private long bytesFetched;
+    private long evictions;
+
+    private TileCache(File dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File[] files = dir.listFiles();
+        if (null == files) {
+            throw new IOException("Cannot list " + dir);
+        }
+        // oldest first, so the LRU order survives restarts
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_EXTENSION)) {
+                file.delete();  // interrupted put()
+            } else if (name.endsWith(EXTENSION)) {
+                long key = parseKey(name);
+                if (key < 0) {
+                    continue;
+                }
+                sizes.put(key, (int) file.length());
+                bytes += file.length();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * @param maxBytes budget of the tile files; the budget of the first open() of a directory
+     *                 holds as long as the process runs
+     */
+    static TileCache open(File dir, long maxBytes) throws IOException {
+        synchronized (caches) {
+            File key = dir.getAbsoluteFile();
+            TileCache cache = caches.get(key);
+            if (null == cache) {
+                cache = new TileCache(key, maxBytes);
+                caches.put(key, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * The tile from disk, else from `fetcher` and then stored.
+     *
+     * @return the tile, or null if it is neither cached nor could be fetched (e.g. offline)
+     */
+    byte[] getOrFetch(int level, int row, int column, Fetcher fetcher) {
+        byte[] tile = get(level, row, column);
+        synchronized (this) {
+            if (null != tile) {
+                hits++;
+                bytesSaved += tile.length;
+                return tile;
+            }
+            misses++;
+        }
+        try {
+            tile = fetcher.fetch(level, row, column);
+        } catch (IOException e) {
+            return null;
+        }
+        if (null != tile) {
+            synchronized (this) {
+                bytesFetched += tile.length;
+            }
+            try {
+                put(level, row, column, tile);
+            } catch (IOException e) {
+                // still shown, just not kept
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * @return the cached tile, or null; a hit makes the tile the most recently used
+     */
+    byte[] get(int level, int row, int column) {
+        File file = file(level, row, column);
+        synchronized (this) {
+            if (null == sizes.get(key(level, row, column))) {
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] tile = new byte[(int) in.length()];
+            in.readFully(tile);
+            return tile;
+        } catch (IOException e) {
+            return null;  // evicted meanwhile
+        }
+    }
+
+    synchronized boolean contains(int level, int row, int column) {
+        return sizes.containsKey(key(level, row, column));
+    }
+
+    /**
+     * @return bytes of the cached tile, or -1; a hit makes the tile the most recently used in
+     *         memory, so the tiles put next evict others first
+     */
+    private synchronized int size(int level, int row, int column) {
+        Integer size = sizes.get(key(level, row, column));
+        return null == size ? -1 : size;
+    }
+
+    synchronized void put(int level, int row, int column, byte[] tile) throws IOException {
+        File file = file(level, row, column);
+        File temp = new File(dir, file.getName() + TEMP_EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(tile);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        Integer old = sizes.put(key(level, row, column), tile.length);
+        bytes += tile.length - (null == old ? 0 : old);
+        evict();
+    }
+
+    /**
+     * Fetch every tile of a bounding box at levels minLevel to maxLevel that is not cached yet,
+     * coarse levels first. Stops once the tiles of the box, cached or fetched, fill the byte
+     * budget, so a box too large for it does not evict its own tiles, and prefetching it again
+     * stops at the same tile without fetching anything.
+     *
+     * @return number of tiles fetched
+     * @throws IOException from `fetcher`, e.g. when offline; tiles fetched so far are kept
+     */
+    int prefetch(double south, double west, double north, double east, int minLevel,
+                 int maxLevel, Fetcher fetcher) throws IOException {
+        int fetched = 0;
+        long boxBytes = 0;
+        for (int level = minLevel; level <= maxLevel; level++) {
+            for (int row = row(north, level); row <= row(south, level); row++) {
+                for (int column = column(west, level); column <= column(east, level); column++) {
+                    if (boxBytes >= maxBytes) {
+                        return fetched;
+                    }
+                    int cached = size(level, row, column);
+                    if (cached >= 0) {
+                        boxBytes += cached;
+                        continue;
+                    }
+                    byte[] tile = fetcher.fetch(level, row, column);
+                    if (null == tile) {
+                        continue;
+                    }
+                    boxBytes += tile.length;
+                    if (boxBytes > maxBytes) {
+                        return fetched;
+                    }
+                    put(level, row, column, tile);
+                    fetched++;
+                }
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * Number of tiles of a bounding box at levels minLevel to maxLevel.
+     */
+    static long countTiles(double south, double west, double north, double east, int minLevel,
+                           int maxLevel) {
+        long n = 0;
+        for (int level = minLevel; level <= maxLevel; level++) {
+            n += (long) (row(south, level) - row(north, level) + 1)
+                    * (column(east, level) - column(west, level) + 1);
+        }
+        return n;
+    }
+
+    static int column(double longitude, int level) {
+        int n = 1 << level;
+        return clamp((int) Math.floor((longitude + 180) / 360 * n), n);
+    }
+
+    static int row(double latitude, int level) {
+        int n = 1 << level;
+        double phi = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double y = (1 - Math.log(Math.tan(phi) + 1 / Math.cos(phi)) / Math.PI) / 2;
+        return clamp((int) Math.floor(y * n), n);
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, Integer>> iterator = sizes.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Long, Integer> eldest = iterator.next();
+            long key = eldest.getKey();
+            file((int) (key >>> 48), (int) (key >>> 24) & 0xffffff, (int) key & 0xffffff)
+                    .delete();
+            bytes -= eldest.getValue();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private File file(int level, int row, int column) {
+        return new File(dir, level + "_" + row + "_" + column + EXTENSION);
+    }
+
+    private static long key(int level, int row, int column) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Tile level " + level);
+        }
+        return (long) level << 48 | (long) row << 24 | column;
+    }
+
+    /**
+     * @return key of a tile file name, -1 if it is not one
+     */
+    private static long parseKey(String name) {
+        String[] parts = name.substring(0, name.length() - EXTENSION.length()).split("_");
+        if (parts.length != 3) {
+            return -1;
+        }
+        try {
+            return key(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return share of getOrFetch() requests served from disk, 0 before the first
+     */
+    synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return bytes served from disk instead of the network
+     */
+    synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    synchronized long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized int getTileCount() {
+        return sizes.size();
+    }
+
+    /**
+     * @return bytes of the cached tiles
+     */
+    synchronized long getSize() {
+        return bytes;
+    }
+}
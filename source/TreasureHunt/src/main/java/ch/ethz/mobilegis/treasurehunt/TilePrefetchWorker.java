@@ -0,0 +1,94 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * TilePrefetchWorker.java
+ *
+ * Loads the basemap tiles around the checkpoints into the tile cache (see
+ * FeatureMapActivity.prefetchTiles), so the track review opens without network.
+ *
+ * Runs once per catalog extent, the only part of the catalog the tiles depend on: the extent of
+ * the last complete run is kept in the preferences. WorkManager holds the work until the network
+ * is unmetered and stops it when it no longer is; the work is unique and kept while pending or
+ * running, so a rotation or another start of the app does not run it twice. A run cut short is
+ * retried with back-off, the tiles fetched so far are kept.
+ */
+public class TilePrefetchWorker extends Worker {
+    private static final String TAG = TilePrefetchWorker.class.getSimpleName();
+    private static final String WORK_NAME = "TilePrefetch";
+    private static final String PREFERENCES = "tile_prefetch";
+    private static final String KEY_EXTENT = "extent";  // of the last complete run
+    private static final String INPUT_BOUNDS = "bounds";
+
+    public TilePrefetchWorker(@NonNull Context context, @NonNull WorkerParameters parameters) {
+        super(context, parameters);
+    }
+
+    /**
+     * Prefetch the tiles around `catalog`, unless they were for its extent already.
+     */
+    static void enqueue(Context context, CheckpointCatalog catalog) {
+        double[] bounds = catalog.getBounds();
+        if (extent(bounds).equals(preferences(context).getString(KEY_EXTENT, null))) {
+            return;
+        }
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(TilePrefetchWorker.class)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.UNMETERED)
+                        .build())
+                .setInputData(new Data.Builder().putDoubleArray(INPUT_BOUNDS, bounds).build())
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        double[] bounds = getInputData().getDoubleArray(INPUT_BOUNDS);
+        if (null == bounds) {
+            return Result.failure();
+        }
+        TileCache.Fetcher online = CachedTileLayer.createFetcher(
+                context.getString(R.string.topographic_tile_url));
+        try {
+            int n = FeatureMapActivity.prefetchTiles(context, bounds, (level, row, column) -> {
+                if (isStopped()) {
+                    throw new IOException("stopped");  // e.g. the network became metered
+                }
+                return online.fetch(level, row, column);
+            });
+            Log.i(TAG, "Prefetched " + n + " map tiles");
+        } catch (IOException e) {
+            Log.d(TAG, "Map tiles not prefetched: " + e.getMessage());
+            return Result.retry();
+        }
+        preferences(context).edit().putString(KEY_EXTENT, extent(bounds)).apply();
+        return Result.success();
+    }
+
+    private static String extent(double[] bounds) {
+        return Arrays.toString(bounds);
+    }
+
+    private static SharedPreferences preferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,435 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * TourPlanner.java
+ *
+ * Plans a hunt through several checkpoints: `stops` checkpoints of the catalog, ordered into a
+ * loop that starts and ends at the user, with a length as close as possible to a budget.
+ *
+ * The candidates are POOL_SIZE checkpoints within half the budget of the start (a farther one
+ * cannot be on a loop that long), picked evenly by distance among the closest REACHABLE ones so
+ * that long loops find far checkpoints too; without a budget, the POOL_SIZE closest. Worker
+ * threads then run independent restarts until the time limit:
+ *   - a random choice of candidates, ordered by (randomized) nearest neighbour from the start,
+ *   - improved by 2-opt (reverse a section) and Or-opt (move a run of up to OR_OPT_RUN stops)
+ *     to a local minimum of the loop length,
+ *   - then a stop is swapped for an unused candidate (inserted where it adds the least, improved
+ *     again) as long as this brings the length closer to the budget.
+ * The best loop of all workers wins. Distances are straight lines on a LocalFrame at the start.
+ */
+class TourPlanner {
+    static final int POOL_SIZE = 64;
+    static final int REACHABLE = 4096;
+    static final double WALKING_SPEED = 1.4;  // m/s, turns a duration budget into a length
+    private static final int MAX_RESTARTS = 256;  // per worker, ends early on small instances
+    private static final int OR_OPT_RUN = 3;
+    private static final double EPSILON = 1e-6;  // m
+
+    private final CheckpointCatalog catalog;
+    private final int threads;
+
+    /**
+     * A planned loop, start and end at the user excluded.
+     */
+    static class Tour {
+        private final List<CheckPoint> stops;
+        private final double length;
+
+        Tour(List<CheckPoint> stops, double length) {
+            this.stops = stops;
+            this.length = length;
+        }
+
+        /**
+         * @return checkpoints in walking order
+         */
+        public List<CheckPoint> getStops() {
+            return stops;
+        }
+
+        /**
+         * @return length of the loop, m
+         */
+        public double getLength() {
+            return length;
+        }
+
+        /**
+         * @return one geofence per stop, to hunt them in this order (HuntSession)
+         */
+        public List<Geofence> toGeofences(float radius) {
+            List<Geofence> geofences = new ArrayList<>(stops.size());
+            for (CheckPoint stop : stops) {
+                geofences.add(new Geofence(stop.getName(), stop.getLatitude(),
+                        stop.getLongitude(), radius));
+            }
+            return geofences;
+        }
+    }
+
+    public TourPlanner(CheckpointCatalog catalog, int threads) {
+        this.catalog = catalog;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param seconds   how long the hunt should take at WALKING_SPEED
+     * @param timeLimit ms
+     * @see #plan(double, double, int, double, long)
+     */
+    public Tour planForDuration(double latitude, double longitude, int stops, double seconds,
+                                long timeLimit) {
+        return plan(latitude, longitude, stops, seconds * WALKING_SPEED, timeLimit);
+    }
+
+    /**
+     * @param stops     number of checkpoints to visit; fewer if the budget does not reach them,
+     *                  at most POOL_SIZE
+     * @param budget    length of the loop to aim at, m; 0 for the shortest loop
+     * @param timeLimit ms
+     * @return the best loop found, null if no checkpoint is in reach
+     */
+    public Tour plan(double latitude, double longitude, int stops, double budget,
+                     long timeLimit) {
+        int reachable = budget > 0 ? REACHABLE : POOL_SIZE;
+        int[] pool = new int[reachable];
+        double[] poolDistances = new double[reachable];
+        int n = catalog.nearest(latitude, longitude, 0,
+                budget > 0 ? budget / 2 : Double.MAX_VALUE, reachable, pool, poolDistances);
+        if (0 == n || stops <= 0) {
+            return null;
+        }
+        if (n > POOL_SIZE) {  // every (n / POOL_SIZE)-th by distance
+            for (int i = 0; i < POOL_SIZE; i++) {
+                pool[i] = pool[(int) ((long) i * n / POOL_SIZE)];
+            }
+            n = POOL_SIZE;
+        }
+        // point 0 is the start, 1..n the candidates
+        LocalFrame frame = new LocalFrame(latitude, longitude);
+        double[] east = new double[n + 1];
+        double[] north = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            east[i + 1] = frame.east(catalog.getLongitude(pool[i]));
+            north[i + 1] = frame.north(catalog.getLatitude(pool[i]));
+        }
+        double[][] distances = new double[n + 1][n + 1];
+        for (int i = 0; i <= n; i++) {
+            for (int j = 0; j < i; j++) {
+                distances[i][j] = distances[j][i] =
+                        LocalFrame.distance(east[i], north[i], east[j], north[j]);
+            }
+        }
+
+        long deadline = System.nanoTime() + timeLimit * 1000000L;
+        int k = Math.min(stops, n);
+        int workers = Math.min(threads, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        int[] best = null;
+        double bestLength = 0;
+        try {
+            List<Future<int[]>> results = new ArrayList<>(workers);
+            for (int w = 0; w < workers; w++) {
+                long seed = w;
+                results.add(executor.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        return new Search(distances, k, budget, deadline, seed).run();
+                    }
+                }));
+            }
+            for (Future<int[]> result : results) {
+                int[] route = result.get();
+                double length = length(distances, route);
+                if (null == best || cost(length, budget) < cost(bestLength, budget) - EPSILON) {
+                    best = route;
+                    bestLength = length;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        if (null == best) {
+            return null;
+        }
+        List<CheckPoint> checkPoints = new ArrayList<>(k);
+        for (int i = 1; i < best.length; i++) {
+            checkPoints.add(catalog.get(pool[best[i] - 1]));
+        }
+        return new Tour(Collections.unmodifiableList(checkPoints), bestLength);
+    }
+
+    private static double cost(double length, double budget) {
+        return budget > 0 ? Math.abs(length - budget) : length;
+    }
+
+    /**
+     * @param route points in loop order, route[0] is the start
+     */
+    static double length(double[][] distances, int[] route) {
+        double length = 0;
+        for (int i = 0; i < route.length; i++) {
+            length += distances[route[i]][route[(i + 1) % route.length]];
+        }
+        return length;
+    }
+
+    /**
+     * Restarts of one worker. Routes are arrays of points with the start at 0, closed back to it.
+     */
+    static class Search {
+        private final double[][] distances;
+        private final int stops;
+        private final double budget;
+        private final long deadline;
+        private final Random random;
+        private final int candidates;
+        private final boolean[] used;
+        private int[] scratch;
+
+        /**
+         * @param distances between the start (0) and the candidates (1..)
+         * @param deadline  System.nanoTime() to stop at
+         */
+        Search(double[][] distances, int stops, double budget, long deadline, long seed) {
+            this.distances = distances;
+            this.stops = stops;
+            this.budget = budget;
+            this.deadline = deadline;
+            this.random = new Random(seed);
+            this.candidates = distances.length - 1;
+            this.used = new boolean[distances.length];
+            this.scratch = new int[stops + 1];
+        }
+
+        /**
+         * @return best route of all restarts, at least one restart is made
+         */
+        int[] run() {
+            int[] best = null;
+            double bestCost = 0;
+            for (int restart = 0; restart < MAX_RESTARTS; restart++) {
+                int[] route = restart(0 == restart);
+                double cost = cost(length(distances, route), budget);
+                if (null == best || cost < bestCost - EPSILON) {
+                    best = route;
+                    bestCost = cost;
+                }
+                if (bestCost < EPSILON || System.nanoTime() > deadline) {
+                    break;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @param greedy plain nearest neighbour order, else randomized
+         */
+        private int[] restart(boolean greedy) {
+            // random choice, nearest neighbour order
+            Arrays.fill(used, false);
+            int[] chosen = new int[stops];
+            for (int i = 0; i < stops; i++) {
+                int c;
+                do {
+                    c = 1 + random.nextInt(candidates);
+                } while (used[c]);
+                used[c] = true;
+                chosen[i] = c;
+            }
+            int[] route = new int[stops + 1];
+            for (int i = 0; i < stops; i++) {
+                // chosen[i ..] are left; the nearest, at times the second nearest for variety
+                double[] from = distances[route[i]];
+                int nearest = i;
+                int second = -1;
+                for (int j = i + 1; j < stops; j++) {
+                    if (from[chosen[j]] < from[chosen[nearest]]) {
+                        second = nearest;
+                        nearest = j;
+                    } else if (second < 0 || from[chosen[j]] < from[chosen[second]]) {
+                        second = j;
+                    }
+                }
+                int next = greedy || second < 0 || random.nextInt(3) > 0 ? nearest : second;
+                int c = chosen[next];
+                chosen[next] = chosen[i];
+                chosen[i] = c;
+                route[i + 1] = c;
+            }
+            improve(route);
+
+            // swap stops for unused candidates while the length gets closer to the budget
+            double length = length(distances, route);
+            int failures = 0;
+            int maxFailures = 4 * stops;
+            while (stops < candidates && failures < maxFailures && System.nanoTime() <= deadline) {
+                int position = 1 + random.nextInt(stops);
+                int candidate;
+                do {
+                    candidate = 1 + random.nextInt(candidates);
+                } while (used[candidate]);
+                int[] swapped = swap(route, position, candidate);
+                improve(swapped);
+                double swappedLength = length(distances, swapped);
+                if (cost(swappedLength, budget) < cost(length, budget) - EPSILON) {
+                    used[route[position]] = false;
+                    used[candidate] = true;
+                    route = swapped;
+                    length = swappedLength;
+                    failures = 0;
+                } else {
+                    failures++;
+                }
+            }
+            return route;
+        }
+
+        /**
+         * @return a copy of `route` without the stop at `position`, with `candidate` inserted
+         * where it adds the least length
+         */
+        private int[] swap(int[] route, int position, int candidate) {
+            int m = route.length;
+            int[] without = new int[m - 1];
+            for (int i = 0, j = 0; i < m; i++) {
+                if (i != position) {
+                    without[j++] = route[i];
+                }
+            }
+            int bestEdge = 0;
+            double bestAdded = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < without.length; i++) {
+                int u = without[i];
+                int v = without[(i + 1) % without.length];
+                double added = distances[u][candidate] + distances[candidate][v] - distances[u][v];
+                if (added < bestAdded) {
+                    bestAdded = added;
+                    bestEdge = i;
+                }
+            }
+            int[] swapped = new int[m];
+            System.arraycopy(without, 0, swapped, 0, bestEdge + 1);
+            swapped[bestEdge + 1] = candidate;
+            System.arraycopy(without, bestEdge + 1, swapped, bestEdge + 2,
+                    without.length - bestEdge - 1);
+            return swapped;
+        }
+
+        /**
+         * 2-opt and Or-opt moves until neither shortens the loop.
+         */
+        void improve(int[] route) {
+            boolean improved;
+            do {
+                improved = twoOpt(route);
+                improved |= orOpt(route);
+            } while (improved && System.nanoTime() <= deadline);
+        }
+
+        /**
+         * Reverse route[i + 1 .. j] where this shortens the loop. The start never moves.
+         */
+        private boolean twoOpt(int[] route) {
+            int m = route.length;
+            boolean improved = false;
+            for (int i = 0; i < m - 2; i++) {
+                for (int j = i + 2; j < m; j++) {
+                    int a = route[i];
+                    int b = route[i + 1];
+                    int c = route[j];
+                    int e = route[(j + 1) % m];
+                    if (a == e) {
+                        continue;  // the two edges share the start
+                    }
+                    double delta = distances[a][c] + distances[b][e]
+                            - distances[a][b] - distances[c][e];
+                    if (delta < -EPSILON) {
+                        for (int l = i + 1, r = j; l < r; l++, r--) {
+                            int t = route[l];
+                            route[l] = route[r];
+                            route[r] = t;
+                        }
+                        improved = true;
+                    }
+                }
+            }
+            return improved;
+        }
+
+        /**
+         * Move a run of 1 to OR_OPT_RUN stops, possibly reversed, to another edge where this
+         * shortens the loop.
+         */
+        private boolean orOpt(int[] route) {
+            int m = route.length;
+            boolean improved = false;
+            for (int run = 1; run <= OR_OPT_RUN && run < m - 1; run++) {
+                for (int i = 1; i + run <= m; i++) {
+                    int prev = route[i - 1];
+                    int first = route[i];
+                    int last = route[i + run - 1];
+                    int next = route[(i + run) % m];
+                    double removed = distances[prev][first] + distances[last][next]
+                            - distances[prev][next];
+                    for (int p = 0; p < m; p++) {
+                        if (p >= i - 1 && p <= i + run - 1) {
+                            continue;  // an edge touching the run
+                        }
+                        int u = route[p];
+                        int v = route[(p + 1) % m];
+                        double forward = distances[u][first] + distances[last][v]
+                                - distances[u][v];
+                        double backward = distances[u][last] + distances[first][v]
+                                - distances[u][v];
+                        double added = Math.min(forward, backward);
+                        if (added - removed < -EPSILON) {
+                            moveRun(route, i, run, p, backward < forward);
+                            improved = true;
+                            break;
+                        }
+                    }
+                }
+            }
+            return improved;
+        }
+
+        /**
+         * Move route[i .. i + run - 1] between route[p] and route[p + 1].
+         */
+        private void moveRun(int[] route, int i, int run, int p, boolean reversed) {
+            int m = route.length;
+            if (scratch.length < m) {
+                scratch = new int[m];
+            }
+            int k = 0;
+            for (int q = 0; q < m; q++) {
+                if (q >= i && q < i + run) {
+                    continue;
+                }
+                scratch[k++] = route[q];
+                if (q == p) {
+                    for (int r = 0; r < run; r++) {
+                        scratch[k++] = route[reversed ? i + run - 1 - r : i + r];
+                    }
+                }
+            }
+            System.arraycopy(scratch, 0, route, 0, m);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+/**
+ * TrackBuffer.java
+ *
+ * Growable struct-of-arrays store for GPS fixes. Every column is a primitive array, so appending
+ * a fix only writes into the arrays (they are grown by doubling, never per point).
+ *
+ * Fix times are kept as int milliseconds relative to the first fix, which covers sessions of
+ * more than 24 days.
+ */
+class TrackBuffer implements TrackView {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private double[] longitudes;
+    private double[] latitudes;
+    private int[] timeOffsets;  // ms since baseTime
+    private float[] accuracies;
+    private float[] altitudes;
+    private long baseTime;
+    private int size;
+
+    public TrackBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TrackBuffer(int initialCapacity) {
+        allocate(Math.max(initialCapacity, 16));
+    }
+
+    private void allocate(int capacity) {
+        longitudes = new double[capacity];
+        latitudes = new double[capacity];
+        timeOffsets = new int[capacity];
+        accuracies = new float[capacity];
+        altitudes = new float[capacity];
+    }
+
+    /**
+     * Append one fix.
+     *
+     * @param longitude degrees
+     * @param latitude  degrees
+     * @param time      fix time, ms since epoch
+     * @param accuracy  horizontal accuracy in m
+     * @param altitude  altitude in m
+     */
+    public void append(double longitude, double latitude, long time, float accuracy, double altitude) {
+        if (size == longitudes.length) {
+            grow();
+        }
+        if (0 == size) {
+            baseTime = time;
+        }
+        longitudes[size] = longitude;
+        latitudes[size] = latitude;
+        timeOffsets[size] = (int) (time - baseTime);
+        accuracies[size] = accuracy;
+        altitudes[size] = (float) altitude;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = longitudes.length << 1;
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        timeOffsets = Arrays.copyOf(timeOffsets, capacity);
+        accuracies = Arrays.copyOf(accuracies, capacity);
+        altitudes = Arrays.copyOf(altitudes, capacity);
+    }
+
+    /**
+     * Read-only view over the fixes appended so far. Later appends are not visible through the
+     * view, and nothing is copied: the buffer is append-only, so the first size() entries never
+     * change.
+     */
+    public TrackView snapshot() {
+        return new Snapshot(this, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    @Override
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    @Override
+    public long getTime(int i) {
+        return baseTime + timeOffsets[i];
+    }
+
+    @Override
+    public float getAccuracy(int i) {
+        return accuracies[i];
+    }
+
+    @Override
+    public double getAltitude(int i) {
+        return altitudes[i];
+    }
+
+    /* Only the used part of the columns is serialized */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeLong(baseTime);
+        for (int i = 0; i < size; i++) {
+            out.writeDouble(longitudes[i]);
+            out.writeDouble(latitudes[i]);
+            out.writeInt(timeOffsets[i]);
+            out.writeFloat(accuracies[i]);
+            out.writeFloat(altitudes[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        size = in.readInt();
+        baseTime = in.readLong();
+        allocate(Math.max(size, 16));
+        for (int i = 0; i < size; i++) {
+            longitudes[i] = in.readDouble();
+            latitudes[i] = in.readDouble();
+            timeOffsets[i] = in.readInt();
+            accuracies[i] = in.readFloat();
+            altitudes[i] = in.readFloat();
+        }
+    }
+
+    /**
+     * Fixed-length window on a TrackBuffer.
+     */
+    private static class Snapshot implements TrackView {
+        private final TrackBuffer buffer;
+        private final int size;
+
+        Snapshot(TrackBuffer buffer, int size) {
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public double getLongitude(int i) {
+            checkIndex(i);
+            return buffer.getLongitude(i);
+        }
+
+        @Override
+        public double getLatitude(int i) {
+            checkIndex(i);
+            return buffer.getLatitude(i);
+        }
+
+        @Override
+        public long getTime(int i) {
+            checkIndex(i);
+            return buffer.getTime(i);
+        }
+
+        @Override
+        public float getAccuracy(int i) {
+            checkIndex(i);
+            return buffer.getAccuracy(i);
+        }
+
+        @Override
+        public double getAltitude(int i) {
+            checkIndex(i);
+            return buffer.getAltitude(i);
+        }
+
+        private void checkIndex(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * TrackHeatmap.java
+ *
+ * Density of the uploaded tracks: per cell of a grid, the number of tracks passing through it,
+ * at the map levels MIN_LEVEL to MAX_LEVEL. The grid follows the web mercator tiling scheme;
+ * each map tile holds CELLS x CELLS cells (4 x 4 pixels of a 256 pixel tile) in a fixed array
+ * of 16-bit counts, saturating, so a tile never takes more than TILE_BYTES however many tracks
+ * cross it. Only tiles that some track crosses exist.
+ *
+ * A track is rasterised by sampling its segments every half cell; it counts once per cell it
+ * crosses. Tracks are added in parallel: each worker rasterises its tracks into sorted cell
+ * keys and merges them tile by tile, holding the lock of one tile at a time. Adding more tracks
+ * later (a sync) only adds to the counts.
+ *
+ * Coordinates are web mercator metres. Thread safe.
+ */
+class TrackHeatmap {
+    static final int MIN_LEVEL = 11;
+    static final int MAX_LEVEL = 17;
+    static final int CELL_BITS = 6;
+    static final int CELLS = 1 << CELL_BITS;
+    static final int TILE_BYTES = 2 * CELLS * CELLS;
+    private static final double WORLD_HALF = 20037508.342787;  // metres, web mercator
+    private static final int MIN_CHUNK = 16;  // tracks per task
+    private static final int TILE_BITS = 23;  // row and column bits of a tile key
+
+    private final ConcurrentHashMap<Long, char[]> tiles = new ConcurrentHashMap<>();
+    private final AtomicIntegerArray maxCounts = new AtomicIntegerArray(MAX_LEVEL + 1);
+    private int trackCount;
+
+    /**
+     * Add tracks, split into chunks over `executor`; returns when all are counted.
+     *
+     * @param tracks x0, y0, x1, y1, ... per track
+     * @throws InterruptedException also if `executor` is shut down meanwhile (closing); the
+     *         tracks are then counted partly, if at all
+     */
+    void addAll(List<double[]> tracks, ExecutorService executor, int threads)
+            throws InterruptedException {
+        int n = tracks.size();
+        int chunks = Math.max(1, Math.min(threads, n / MIN_CHUNK));
+        List<Future<Void>> parts = new ArrayList<>(chunks);
+        try {
+            for (int c = 0; c < chunks; c++) {
+                int from = (int) ((long) n * c / chunks);
+                int to = (int) ((long) n * (c + 1) / chunks);
+                parts.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = from; i < to; i++) {
+                            add(tracks.get(i));
+                        }
+                        return null;
+                    }
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            for (Future<Void> part : parts) {
+                part.cancel(true);
+            }
+            throw new InterruptedException("executor shut down");
+        }
+        try {
+            for (Future<Void> part : parts) {
+                part.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Add one track.
+     *
+     * @param xy x0, y0, x1, y1, ...
+     */
+    void add(double[] xy) {
+        long[] cells = new long[64];
+        int n = 0;
+        for (int level = MIN_LEVEL; level <= MAX_LEVEL; level++) {
+            double cellSize = 2 * WORLD_HALF / ((long) CELLS << level);
+            double step = cellSize / 2;
+            int last = (CELLS << level) - 1;
+            for (int i = 0; i < xy.length / 2; i++) {
+                double x = xy[2 * i];
+                double y = xy[2 * i + 1];
+                // samples of the segment from the previous vertex, then the vertex itself
+                int samples = 1;
+                double dx = 0;
+                double dy = 0;
+                if (i > 0) {
+                    dx = x - xy[2 * i - 2];
+                    dy = y - xy[2 * i - 1];
+                    samples = Math.max(1, (int) Math.ceil(Math.hypot(dx, dy) / step));
+                }
+                for (int s = samples - 1; s >= 0; s--) {
+                    double t = (double) s / samples;
+                    int gx = clamp((int) Math.floor((x - t * dx + WORLD_HALF) / cellSize), last);
+                    int gy = clamp((int) Math.floor((WORLD_HALF - (y - t * dy)) / cellSize), last);
+                    long key = cellKey(level, gy, gx);
+                    if (n > 0 && cells[n - 1] == key) {
+                        continue;
+                    }
+                    if (n == cells.length) {
+                        cells = Arrays.copyOf(cells, n * 2);
+                    }
+                    cells[n++] = key;
+                }
+            }
+        }
+        Arrays.sort(cells, 0, n);
+        // merge tile by tile, each cell once
+        int i = 0;
+        while (i < n) {
+            long tileKey = cells[i] >>> (2 * CELL_BITS);
+            char[] counts = tiles.get(tileKey);
+            if (null == counts) {
+                counts = new char[CELLS * CELLS];
+                char[] raced = tiles.putIfAbsent(tileKey, counts);
+                if (null != raced) {
+                    counts = raced;
+                }
+            }
+            int max = 0;
+            synchronized (counts) {
+                for (long previous = -1; i < n && cells[i] >>> (2 * CELL_BITS) == tileKey; i++) {
+                    if (cells[i] == previous) {
+                        continue;
+                    }
+                    previous = cells[i];
+                    int cell = (int) (cells[i] & (CELLS * CELLS - 1));
+                    if (counts[cell] < Character.MAX_VALUE) {
+                        counts[cell]++;
+                    }
+                    max = Math.max(max, counts[cell]);
+                }
+            }
+            int level = (int) (tileKey >>> (2 * TILE_BITS));
+            int newMax = max;
+            maxCounts.getAndUpdate(level, current -> Math.max(current, newMax));
+        }
+        synchronized (this) {
+            trackCount++;
+        }
+    }
+
+    /**
+     * @return the counts of a tile, row by row from the north (a copy), or null if no track
+     *         crosses it or the level is not kept
+     */
+    char[] getTile(int level, int row, int column) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            return null;
+        }
+        char[] counts = tiles.get(tileKey(level, row, column));
+        if (null == counts) {
+            return null;
+        }
+        synchronized (counts) {
+            return counts.clone();
+        }
+    }
+
+    /**
+     * @return largest count of a cell at `level`
+     */
+    int getMaxCount(int level) {
+        return level < MIN_LEVEL || level > MAX_LEVEL ? 0 : maxCounts.get(level);
+    }
+
+    synchronized int getTrackCount() {
+        return trackCount;
+    }
+
+    int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return bytes of the tile counts
+     */
+    long getMemory() {
+        return (long) tiles.size() * TILE_BYTES;
+    }
+
+    /**
+     * Heat colour of a count: transparent for 0, then blue to red with the log of the count
+     * relative to `max`, so single tracks stay visible next to busy paths.
+     *
+     * @return ARGB
+     */
+    static int color(int count, int max) {
+        if (count <= 0 || max <= 0) {
+            return 0;
+        }
+        double t = Math.min(1, Math.log1p(count) / Math.log1p(max));
+        // hue from 240 (blue) to 0 (red), alpha from 96 to 224
+        double hue = 240 * (1 - t);
+        int alpha = (int) Math.round(96 + 128 * t);
+        return alpha << 24 | hueToRgb(hue);
+    }
+
+    private static int hueToRgb(double hue) {
+        double h = hue / 60;
+        double x = 1 - Math.abs(h % 2 - 1);
+        double r;
+        double g;
+        double b;
+        if (h < 1) {
+            r = 1; g = x; b = 0;
+        } else if (h < 2) {
+            r = x; g = 1; b = 0;
+        } else if (h < 3) {
+            r = 0; g = 1; b = x;
+        } else {
+            r = 0; g = x; b = 1;
+        }
+        return (int) Math.round(r * 255) << 16 | (int) Math.round(g * 255) << 8
+                | (int) Math.round(b * 255);
+    }
+
+    private static int clamp(int i, int last) {
+        return Math.max(0, Math.min(last, i));
+    }
+
+    private static long tileKey(int level, int row, int column) {
+        return (long) level << (2 * TILE_BITS) | (long) row << TILE_BITS | column;
+    }
+
+    /**
+     * Key of a cell, ordered by tile: tile key, row and column in the tile.
+     */
+    private static long cellKey(int level, int gy, int gx) {
+        long tile = tileKey(level, gy >>> CELL_BITS, gx >>> CELL_BITS);
+        return tile << (2 * CELL_BITS) | (long) (gy & (CELLS - 1)) << CELL_BITS | (gx & (CELLS - 1));
+    }
+}
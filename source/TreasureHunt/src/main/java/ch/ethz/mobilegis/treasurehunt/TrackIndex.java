@@ -0,0 +1,262 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TrackIndex.java
+ *
+ * Attributes of the uploaded tracks, indexed on the device so FeatureMapActivity filters them
+ * without asking the server: a RowBitmap of rows per user ID and per reward, and per numeric
+ * column (distance, duration, average speed, start time) the rows sorted by value, so a range
+ * is two binary searches.
+ *
+ * find() intersects the bitmaps of the requested values in a plain bitmap of all rows, i.e. a
+ * few thousand 64-bit ANDs for 100k tracks, then each range: by checking the rows left if they
+ * are fewer than those in the range, else by setting the range in a bitmap too.
+ *
+ * Tracks are only appended (uploads are not edited), in ascending object ID, so a sync asks the
+ * server for object IDs above getMaxObjectId(). The sorted columns are rebuilt on the first
+ * find() after an add().
+ *
+ * Not thread safe.
+ */
+class TrackIndex {
+    static final int DISTANCE = 0;
+    static final int DURATION = 1;
+    static final int AVERAGE_SPEED = 2;
+    static final int START_TIME = 3;
+    private static final int COLUMNS = 4;
+
+    /**
+     * Conditions combined with AND, each optional.
+     */
+    static class Filter {
+        private Integer userId;
+        private String reward;
+        private final double[] min = new double[COLUMNS];
+        private final double[] max = new double[COLUMNS];
+
+        Filter() {
+            Arrays.fill(min, Double.NEGATIVE_INFINITY);
+            Arrays.fill(max, Double.POSITIVE_INFINITY);
+        }
+
+        Filter user(int userId) {
+            this.userId = userId;
+            return this;
+        }
+
+        Filter reward(String reward) {
+            this.reward = reward;
+            return this;
+        }
+
+        /**
+         * @param column DISTANCE, DURATION, AVERAGE_SPEED or START_TIME; bounds inclusive
+         */
+        Filter range(int column, double min, double max) {
+            this.min[column] = min;
+            this.max[column] = max;
+            return this;
+        }
+    }
+
+    private long[] objectIds = new long[64];
+    private final double[][] values = new double[COLUMNS][64];
+    private int size;
+    private final Map<Integer, RowBitmap> byUser = new HashMap<>();
+    private final Map<String, RowBitmap> byReward = new HashMap<>();
+
+    // per column: rows ordered by value, and the values in that order; null when stale
+    private final int[][] sortedRows = new int[COLUMNS][];
+    private final double[][] sortedValues = new double[COLUMNS][];
+
+    /**
+     * Append a track. Missing numbers are NaN and never in a range.
+     *
+     * @param objectId above those added so far
+     * @return false if the object ID is not above them (already indexed)
+     */
+    boolean add(long objectId, int userId, String reward, double distance, double duration,
+                double averageSpeed, double startTime) {
+        if (size > 0 && objectId <= objectIds[size - 1]) {
+            return false;
+        }
+        if (size == objectIds.length) {
+            objectIds = Arrays.copyOf(objectIds, size * 2);
+            for (int c = 0; c < COLUMNS; c++) {
+                values[c] = Arrays.copyOf(values[c], size * 2);
+            }
+        }
+        objectIds[size] = objectId;
+        values[DISTANCE][size] = distance;
+        values[DURATION][size] = duration;
+        values[AVERAGE_SPEED][size] = averageSpeed;
+        values[START_TIME][size] = startTime;
+        bitmap(byUser, userId).add(size);
+        if (null != reward) {
+            bitmap(byReward, reward).add(size);
+        }
+        size++;
+        Arrays.fill(sortedRows, null);
+        return true;
+    }
+
+    private static <K> RowBitmap bitmap(Map<K, RowBitmap> index, K key) {
+        RowBitmap bitmap = index.get(key);
+        if (null == bitmap) {
+            bitmap = new RowBitmap();
+            index.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return object IDs of the tracks matching `filter`, ascending
+     */
+    long[] find(Filter filter) {
+        long[] words = new long[(size + 63) >>> 6];
+        Arrays.fill(words, -1L);
+        if ((size & 63) != 0) {
+            words[words.length - 1] = (1L << size) - 1;  // no rows past the end
+        }
+        if (null != filter.userId) {
+            and(byUser.get(filter.userId), words);
+        }
+        if (null != filter.reward) {
+            and(byReward.get(filter.reward), words);
+        }
+        for (int c = 0; c < COLUMNS; c++) {
+            if (filter.min[c] != Double.NEGATIVE_INFINITY
+                    || filter.max[c] != Double.POSITIVE_INFINITY) {
+                andRange(c, filter.min[c], filter.max[c], words);
+            }
+        }
+        int n = 0;
+        for (long word : words) {
+            n += Long.bitCount(word);
+        }
+        long[] found = new long[n];
+        int i = 0;
+        for (int w = 0; w < words.length; w++) {
+            for (long word = words[w]; word != 0; word &= word - 1) {
+                found[i++] = objectIds[(w << 6) + Long.numberOfTrailingZeros(word)];
+            }
+        }
+        return found;
+    }
+
+    private static void and(RowBitmap bitmap, long[] words) {
+        if (null == bitmap) {
+            Arrays.fill(words, 0);
+        } else {
+            bitmap.andInto(words);
+        }
+    }
+
+    /**
+     * words &= rows with a value in [min, max]: the candidates left in `words` are checked one
+     * by one if they are fewer than the rows of the range, else the range is set in a bitmap.
+     */
+    private void andRange(int column, double min, double max, long[] words) {
+        if (null == sortedRows[column]) {
+            sort(column);
+        }
+        double[] sorted = sortedValues[column];
+        int from = lowerBound(sorted, min, false);
+        int to = lowerBound(sorted, max, true);
+        int candidates = 0;
+        for (long word : words) {
+            candidates += Long.bitCount(word);
+        }
+        if (candidates <= to - from) {
+            double[] columnValues = values[column];
+            for (int w = 0; w < words.length; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    double value = columnValues[(w << 6) + bit];
+                    if (!(value >= min && value <= max)) {
+                        words[w] &= ~(1L << bit);
+                    }
+                }
+            }
+            return;
+        }
+        long[] range = new long[words.length];
+        int[] rows = sortedRows[column];
+        for (int i = from; i < to; i++) {
+            range[rows[i] >>> 6] |= 1L << rows[i];
+        }
+        for (int w = 0; w < words.length; w++) {
+            words[w] &= range[w];
+        }
+    }
+
+    /**
+     * @return first index whose value is >= `value` (> if `after`); NaN sorts last
+     */
+    private int lowerBound(double[] sorted, double value, boolean after) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Double.compare(sorted[mid], value);
+            if (cmp < 0 || after && cmp == 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void sort(int column) {
+        final double[] columnValues = values[column];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(columnValues[a], columnValues[b]);
+            }
+        });
+        int[] rows = new int[size];
+        double[] sorted = new double[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = order[i];
+            sorted[i] = columnValues[rows[i]];
+        }
+        sortedRows[column] = rows;
+        sortedValues[column] = sorted;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return largest object ID indexed, -1 if none; a sync fetches the tracks above it
+     */
+    long getMaxObjectId() {
+        return 0 == size ? -1 : objectIds[size - 1];
+    }
+
+    /**
+     * @return bytes of the user and reward bitmaps, roughly
+     */
+    long getBitmapMemory() {
+        long bytes = 0;
+        for (RowBitmap bitmap : byUser.values()) {
+            bytes += bitmap.getMemory();
+        }
+        for (RowBitmap bitmap : byReward.values()) {
+            bytes += bitmap.getMemory();
+        }
+        return bytes;
+    }
+}
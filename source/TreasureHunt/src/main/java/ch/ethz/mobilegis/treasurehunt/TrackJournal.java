@@ -0,0 +1,692 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * TrackJournal.java
+ *
+ * Append-only, memory-mapped file of the fixes of one hunt. Appending writes straight into the
+ * mapping (the page cache), so the track survives the process being killed, and it is read back
+ * from the mapping, so a long hunt does not keep its track on the heap.
+ *
+ * File layout, all big endian:
+ *
+ *   header, 128 bytes: magic, version, state (OPEN / CLOSED), creation time, checkpoint
+ *                      latitude, longitude, radius and name (UTF-8, at most MAX_NAME_BYTES)
+ *   slots, 32 bytes:   fix        time (long, never 0), latitude, longitude (double),
+ *                                 accuracy, altitude (float)
+ *                      checksum   CHECKSUM_MARKER, CRC32 of the BLOCK_RECORDS fixes before it
+ *
+ * Every BLOCK_RECORDS fixes a checksum slot follows and the mapping is forced to disk. The time
+ * of a fix is written last, so a slot with time 0 was never (completely) written.
+ *
+ * Recovery (open()): fixes are read up to the first empty or implausible slot. A block whose
+ * checksum does not match is dropped with everything after it. The fixes after the last checksum
+ * are kept if plausible: they were written by a process that died, not by a torn disk write.
+ *
+ * The ambient temperature samples of the hunt go to a file beside the journal, appended with
+ * one write each, as (number of fixes journaled before the sample, celsius) records of 8 bytes;
+ * the slots are left to the fixes, so fix i stays at a computed offset. Samples after the last
+ * recovered fix are dropped on recovery. They are few and also kept on the heap.
+ *
+ * A journal whose state is still OPEN while no hunt is running belongs to an interrupted
+ * session. finish() marks it CLOSED.
+ *
+ * If the file cannot grow (disk full), further fixes are kept in a TrackBuffer on the heap, so
+ * the hunt goes on; only they are lost on a crash.
+ *
+ * Not thread safe.
+ */
+class TrackJournal implements TrackView {
+    static final String EXTENSION = ".trj";
+    static final String ROUTE_EXTENSION = ".route";  // beside the journal of a multi-checkpoint hunt
+    static final String TEMPERATURE_EXTENSION = ".temperature";  // beside the journal
+    static final int HEADER_SIZE = 128;
+    static final int SLOT_SIZE = 32;
+    static final int BLOCK_RECORDS = 63;  // fixes per checksum, a block is 64 slots = 2 KB
+    private static final int BLOCK_SLOTS = BLOCK_RECORDS + 1;
+    private static final int GROW_BLOCKS = 64;  // mapping grows by 128 KB, about an hour at 1 Hz
+    private static final int MAGIC = 0x54484A31;  // "THJ1"
+    private static final short VERSION = 1;
+    private static final short STATE_OPEN = 0;
+    private static final short STATE_CLOSED = 1;
+    private static final long CHECKSUM_MARKER = -1L;
+    private static final int MAX_NAME_BYTES = HEADER_SIZE - 42;
+    private static final int TEMPERATURE_RECORD_SIZE = 8;
+
+    // header fields
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_STATE = 6;
+    private static final int OFFSET_CREATED = 8;
+    private static final int OFFSET_LATITUDE = 16;
+    private static final int OFFSET_LONGITUDE = 24;
+    private static final int OFFSET_RADIUS = 32;
+    private static final int OFFSET_NAME_LENGTH = 40;
+    private static final int OFFSET_NAME = 42;
+
+    // slot fields
+    private static final int OFFSET_TIME = 0;
+    private static final int OFFSET_FIX_LATITUDE = 8;
+    private static final int OFFSET_FIX_LONGITUDE = 16;
+    private static final int OFFSET_ACCURACY = 24;
+    private static final int OFFSET_ALTITUDE = 28;
+    private static final int OFFSET_CRC = 8;
+
+    private final File file;
+    private FileChannel channel;  // null once finished or read-only
+    private MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private int size;  // fixes in the file
+    private TrackBuffer overflow;  // fixes that did not fit in the file
+    private IOException error;
+
+    // temperature samples
+    private FileOutputStream temperatureOut;  // opened at the first sample appended
+    private int[] temperatureFixes = new int[16];
+    private float[] temperatures = new float[16];
+    private int temperatureCount;
+
+    private TrackJournal(File file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Start the journal of a new hunt. An existing file is overwritten.
+     *
+     * @param checkpoint the treasure location, kept to resume the hunt
+     * @param time       creation time, ms since epoch
+     */
+    public static TrackJournal create(File file, Geofence checkpoint, long time) throws IOException {
+        File dir = file.getParentFile();
+        if (null != dir && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        temperatureFile(file).delete();  // of an earlier journal of the same name
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    mappingSize(GROW_BLOCKS));
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putShort(OFFSET_VERSION, VERSION);
+            buffer.putShort(OFFSET_STATE, STATE_OPEN);
+            buffer.putLong(OFFSET_CREATED, time);
+            buffer.putDouble(OFFSET_LATITUDE, checkpoint.getLatitude());
+            buffer.putDouble(OFFSET_LONGITUDE, checkpoint.getLongitude());
+            buffer.putDouble(OFFSET_RADIUS, checkpoint.getRadius());
+            byte[] name = encodeName(checkpoint.getName());
+            buffer.putShort(OFFSET_NAME_LENGTH, (short) name.length);
+            for (int i = 0; i < name.length; i++) {
+                buffer.put(OFFSET_NAME + i, name[i]);
+            }
+            buffer.force();
+            return new TrackJournal(file, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an existing journal to read it or to append to it: recovers the valid fixes and
+     * temperature samples (see class comment) and clears whatever lies behind them.
+     */
+    public static TrackJournal open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = Math.max(channel.size(), mappingSize(GROW_BLOCKS));
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            checkHeader(buffer, file);
+            TrackJournal journal = new TrackJournal(file, channel, buffer);
+            journal.recover();
+            journal.recoverTemperatures();
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Map the first `size` fixes of a journal for reading, e.g. in another process.
+     */
+    static TrackJournal openReadOnly(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            checkHeader(buffer, file);
+            TrackJournal journal = new TrackJournal(file, null, buffer);
+            if (size > 0 && slot(size - 1) >= journal.capacity()) {
+                throw new IOException("Journal " + file + " shorter than " + size + " fixes");
+            }
+            journal.size = size;
+            return journal;
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer, File file) throws IOException {
+        if (buffer.getInt(OFFSET_MAGIC) != MAGIC || buffer.getShort(OFFSET_VERSION) != VERSION) {
+            throw new IOException("Not a track journal: " + file);
+        }
+    }
+
+    /**
+     * Checkpoint stored in the header of a journal, without mapping it.
+     */
+    public static Geofence readCheckpoint(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            raf.getChannel().read(header, 0);
+            checkHeader(header, file);
+            return checkpointOf(header);
+        }
+    }
+
+    /**
+     * Keep the route of a hunt through several checkpoints beside its journal (the header only
+     * holds the first checkpoint), so that a resumed hunt visits the rest of the route too.
+     */
+    public static void writeRoute(File journal, List<Geofence> route) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(routeFile(journal))) {
+            out.getChannel().write(new ResultCodec().encode(route));
+        }
+    }
+
+    /**
+     * Route of the hunt of a journal, without mapping it: the checkpoint of its header alone
+     * unless writeRoute() stored one.
+     */
+    public static List<Geofence> readRoute(File journal) throws IOException {
+        File file = routeFile(journal);
+        if (!file.exists()) {
+            return Collections.singletonList(readCheckpoint(journal));
+        }
+        return ResultCodec.decodeRoute(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    }
+
+    private static File routeFile(File journal) {
+        return new File(journal.getPath() + ROUTE_EXTENSION);
+    }
+
+    private static File temperatureFile(File journal) {
+        return new File(journal.getPath() + TEMPERATURE_EXTENSION);
+    }
+
+    /**
+     * Delete a journal, its route and its temperature samples.
+     */
+    public static boolean delete(File journal) {
+        routeFile(journal).delete();
+        temperatureFile(journal).delete();
+        return journal.delete();
+    }
+
+    /**
+     * Journals in `dir` still OPEN, newest first. `exclude` is the journal of the running hunt.
+     */
+    public static List<File> findInterrupted(File dir, File exclude) {
+        List<File> interrupted = new ArrayList<>();
+        for (File file : listJournals(dir)) {
+            if (file.equals(exclude)) {
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                if (raf.length() >= HEADER_SIZE && raf.readInt() == MAGIC
+                        && raf.readShort() == VERSION && raf.readShort() == STATE_OPEN) {
+                    interrupted.add(file);
+                }
+            } catch (IOException e) {
+                // unreadable, not offered for recovery
+            }
+        }
+        return interrupted;
+    }
+
+    /**
+     * Delete all but the `keep` newest journals of `dir`. OPEN journals are kept.
+     */
+    public static void prune(File dir, int keep) {
+        List<File> open = findInterrupted(dir, null);
+        List<File> journals = listJournals(dir);
+        for (int i = keep; i < journals.size(); i++) {
+            File file = journals.get(i);
+            if (!open.contains(file)) {
+                delete(file);
+            }
+        }
+    }
+
+    /* Journal files, newest first (names start with the creation time) */
+    private static List<File> listJournals(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+        if (null == files) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files, Collections.reverseOrder());
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Append one fix. Same arguments as TrackBuffer.append().
+     */
+    public void append(double longitude, double latitude, long time, float accuracy, double altitude) {
+        if (null == channel) {
+            throw new IllegalStateException("Journal is read-only or finished");
+        }
+        if (null == overflow && slot(size) >= capacity()) {
+            grow();
+        }
+        if (null != overflow) {
+            overflow.append(longitude, latitude, time, accuracy, altitude);
+            return;
+        }
+        int offset = offset(slot(size));
+        buffer.putDouble(offset + OFFSET_FIX_LATITUDE, latitude);
+        buffer.putDouble(offset + OFFSET_FIX_LONGITUDE, longitude);
+        buffer.putFloat(offset + OFFSET_ACCURACY, accuracy);
+        buffer.putFloat(offset + OFFSET_ALTITUDE, (float) altitude);
+        buffer.putLong(offset + OFFSET_TIME, time);  // last: marks the slot as written
+        size++;
+        if (size % BLOCK_RECORDS == 0) {
+            writeChecksum(size / BLOCK_RECORDS - 1);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Append an ambient temperature sample, taken after the fixes appended so far.
+     *
+     * @param temperature celsius
+     */
+    public void appendTemperature(float temperature) {
+        if (null == channel) {
+            throw new IllegalStateException("Journal is read-only or finished");
+        }
+        int fixes = size();
+        addTemperature(fixes, temperature);
+        if (null != error) {
+            return;  // on the heap only, as the fixes
+        }
+        try {
+            if (null == temperatureOut) {
+                temperatureOut = new FileOutputStream(temperatureFile(file), true);
+            }
+            temperatureOut.write(ByteBuffer.allocate(TEMPERATURE_RECORD_SIZE)
+                    .putInt(fixes).putFloat(temperature).array());
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    private void addTemperature(int fixes, float temperature) {
+        if (temperatureCount == temperatures.length) {
+            temperatureFixes = Arrays.copyOf(temperatureFixes, 2 * temperatureCount);
+            temperatures = Arrays.copyOf(temperatures, 2 * temperatureCount);
+        }
+        temperatureFixes[temperatureCount] = fixes;
+        temperatures[temperatureCount] = temperature;
+        temperatureCount++;
+    }
+
+    private void grow() {
+        int blocks = capacity() / BLOCK_SLOTS + GROW_BLOCKS;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappingSize(blocks));
+        } catch (IOException e) {
+            error = e;
+            overflow = new TrackBuffer();
+        }
+    }
+
+    /**
+     * The hunt is over, finished or abandoned: the journal is no longer an interrupted session.
+     * It stays readable.
+     */
+    public void finish() {
+        if (null == channel) {
+            return;
+        }
+        buffer.putShort(OFFSET_STATE, STATE_CLOSED);
+        buffer.force();
+        try {
+            channel.close();  // the mapping stays valid
+            if (null != temperatureOut) {
+                temperatureOut.close();
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        channel = null;
+        temperatureOut = null;
+    }
+
+    public boolean isFinished() {
+        return buffer.getShort(OFFSET_STATE) == STATE_CLOSED;
+    }
+
+    public Geofence getCheckpoint() {
+        return checkpointOf(buffer);
+    }
+
+    /**
+     * @return creation time, ms since epoch
+     */
+    public long getCreatedTime() {
+        return buffer.getLong(OFFSET_CREATED);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the error that made the journal fall back to the heap, or null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return number of temperature samples
+     */
+    public int getTemperatureCount() {
+        return temperatureCount;
+    }
+
+    /**
+     * @return the j-th temperature sample, celsius
+     */
+    public float getTemperature(int j) {
+        checkTemperatureIndex(j);
+        return temperatures[j];
+    }
+
+    /**
+     * @return number of fixes appended before the j-th temperature sample
+     */
+    public int getTemperatureFixes(int j) {
+        checkTemperatureIndex(j);
+        return temperatureFixes[j];
+    }
+
+    private void checkTemperatureIndex(int j) {
+        if (j < 0 || j >= temperatureCount) {
+            throw new IndexOutOfBoundsException("sample " + j + ", count " + temperatureCount);
+        }
+    }
+
+    /**
+     * Read-only view over the fixes appended so far, backed by the file; see TrackBuffer.snapshot().
+     * It is serialized as a reference to the file, not as the fixes.
+     */
+    public TrackView snapshot() {
+        return new Snapshot(this, size());
+    }
+
+    @Override
+    public int size() {
+        return null == overflow ? size : size + overflow.size();
+    }
+
+    @Override
+    public double getLongitude(int i) {
+        return i < size ? buffer.getDouble(offset(slot(i)) + OFFSET_FIX_LONGITUDE)
+                : overflow.getLongitude(i - size);
+    }
+
+    @Override
+    public double getLatitude(int i) {
+        return i < size ? buffer.getDouble(offset(slot(i)) + OFFSET_FIX_LATITUDE)
+                : overflow.getLatitude(i - size);
+    }
+
+    @Override
+    public long getTime(int i) {
+        return i < size ? buffer.getLong(offset(slot(i)) + OFFSET_TIME) : overflow.getTime(i - size);
+    }
+
+    @Override
+    public float getAccuracy(int i) {
+        return i < size ? buffer.getFloat(offset(slot(i)) + OFFSET_ACCURACY)
+                : overflow.getAccuracy(i - size);
+    }
+
+    @Override
+    public double getAltitude(int i) {
+        return i < size ? buffer.getFloat(offset(slot(i)) + OFFSET_ALTITUDE)
+                : overflow.getAltitude(i - size);
+    }
+
+    /**
+     * Find the valid fixes, then clear the rest of the mapping so stale slots cannot be mistaken
+     * for fixes after the next crash.
+     */
+    private void recover() {
+        int capacity = capacity();
+        long lastTime = Long.MIN_VALUE;
+        int valid = 0;
+        for (int i = 0; slot(i) < capacity; i++) {
+            int offset = offset(slot(i));
+            long time = buffer.getLong(offset + OFFSET_TIME);
+            double latitude = buffer.getDouble(offset + OFFSET_FIX_LATITUDE);
+            double longitude = buffer.getDouble(offset + OFFSET_FIX_LONGITUDE);
+            if (0 == time || CHECKSUM_MARKER == time || time < lastTime
+                    || !(Math.abs(latitude) <= 90) || !(Math.abs(longitude) <= 180)) {
+                break;
+            }
+            lastTime = time;
+            valid = i + 1;
+            if (valid % BLOCK_RECORDS == 0) {
+                int checksumOffset = offset(slot(i) + 1);
+                if (CHECKSUM_MARKER == buffer.getLong(checksumOffset + OFFSET_TIME)
+                        && buffer.getInt(checksumOffset + OFFSET_CRC)
+                        != blockChecksum(i / BLOCK_RECORDS)) {
+                    valid -= BLOCK_RECORDS;  // torn block, dropped with all after it
+                    break;
+                }
+            }
+        }
+        size = valid;
+        // complete the checksum of the last block if the process died before writing it
+        if (size > 0 && size % BLOCK_RECORDS == 0) {
+            writeChecksum(size / BLOCK_RECORDS - 1);
+        }
+        for (int offset = offset(slot(size)); offset < offset(capacity); offset += 8) {
+            buffer.putLong(offset, 0);
+        }
+        buffer.force();
+    }
+
+    /**
+     * Read the samples up to the last recovered fix, cut off the rest (samples after fixes lost
+     * with a torn block, or a record cut short).
+     */
+    private void recoverTemperatures() throws IOException {
+        File temperatureFile = temperatureFile(file);
+        if (!temperatureFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(temperatureFile, "rw")) {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            int previous = 0;
+            while (in.remaining() >= TEMPERATURE_RECORD_SIZE) {
+                int fixes = in.getInt();
+                float temperature = in.getFloat();
+                if (fixes < previous || fixes > size) {
+                    break;
+                }
+                addTemperature(fixes, temperature);
+                previous = fixes;
+            }
+            raf.setLength((long) temperatureCount * TEMPERATURE_RECORD_SIZE);
+        }
+    }
+
+    private void writeChecksum(int block) {
+        int offset = offset((block + 1) * BLOCK_SLOTS - 1);
+        buffer.putInt(offset + OFFSET_CRC, blockChecksum(block));
+        buffer.putLong(offset + OFFSET_TIME, CHECKSUM_MARKER);
+    }
+
+    private int blockChecksum(int block) {
+        ByteBuffer fixes = buffer.duplicate();
+        int start = offset(block * BLOCK_SLOTS);
+        fixes.limit(start + BLOCK_RECORDS * SLOT_SIZE).position(start);
+        crc.reset();
+        crc.update(fixes);
+        return (int) crc.getValue();
+    }
+
+    private int capacity() {
+        return (buffer.capacity() - HEADER_SIZE) / SLOT_SIZE;
+    }
+
+    /* Slot of fix i: fixes are interleaved with one checksum slot per block */
+    private static int slot(int i) {
+        return i + i / BLOCK_RECORDS;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static long mappingSize(int blocks) {
+        return HEADER_SIZE + (long) blocks * BLOCK_SLOTS * SLOT_SIZE;
+    }
+
+    private static byte[] encodeName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_NAME_BYTES);
+        // do not cut a multi-byte character
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static Geofence checkpointOf(ByteBuffer header) {
+        byte[] name = new byte[header.getShort(OFFSET_NAME_LENGTH)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = header.get(OFFSET_NAME + i);
+        }
+        return new Geofence(new String(name, StandardCharsets.UTF_8),
+                header.getDouble(OFFSET_LATITUDE), header.getDouble(OFFSET_LONGITUDE),
+                header.getDouble(OFFSET_RADIUS));
+    }
+
+    /* The journal itself is never serialized, only Snapshot references to it */
+    private Object writeReplace() throws ObjectStreamException {
+        return snapshot();
+    }
+
+    /**
+     * Fixed-length window on a TrackJournal.
+     */
+    private static class Snapshot implements TrackView {
+        private final transient TrackJournal journal;
+        private final int size;
+
+        Snapshot(TrackJournal journal, int size) {
+            this.journal = journal;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public double getLongitude(int i) {
+            checkIndex(i);
+            return journal.getLongitude(i);
+        }
+
+        @Override
+        public double getLatitude(int i) {
+            checkIndex(i);
+            return journal.getLatitude(i);
+        }
+
+        @Override
+        public long getTime(int i) {
+            checkIndex(i);
+            return journal.getTime(i);
+        }
+
+        @Override
+        public float getAccuracy(int i) {
+            checkIndex(i);
+            return journal.getAccuracy(i);
+        }
+
+        @Override
+        public double getAltitude(int i) {
+            checkIndex(i);
+            return journal.getAltitude(i);
+        }
+
+        private void checkIndex(int i) {
+            if (i >= size) {
+                throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+            }
+        }
+
+        /* A reference to the file, unless some fixes only live on the heap */
+        private Object writeReplace() throws ObjectStreamException {
+            if (size <= journal.size) {
+                return new Reference(journal.file.getPath(), size);
+            }
+            TrackBuffer copy = new TrackBuffer(size);
+            for (int i = 0; i < size; i++) {
+                copy.append(getLongitude(i), getLatitude(i), getTime(i), getAccuracy(i),
+                        getAltitude(i));
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Serialized form of a Snapshot: the file and the number of fixes.
+     */
+    private static class Reference implements Serializable {
+        private final String path;
+        private final int size;
+
+        Reference(String path, int size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return openReadOnly(new File(path), size).snapshot();
+            } catch (IOException e) {
+                throw new InvalidObjectException("Cannot map " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
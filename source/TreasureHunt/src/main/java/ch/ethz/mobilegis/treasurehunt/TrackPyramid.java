@@ -0,0 +1,147 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.util.Arrays;
+
+/**
+ * TrackPyramid.java
+ *
+ * A track polyline at several levels of detail, for drawing it at any map scale with about as
+ * many vertices as the screen can show. Level 0 is the full track, level k > 0 its
+ * Douglas-Peucker simplification with tolerance BASE_TOLERANCE * 2^(k-1) map units.
+ *
+ * One Douglas-Peucker pass without tolerance ranks every vertex: its importance is its distance
+ * to the segment it splits, capped by the importance of the vertex that split the enclosing
+ * segment. The vertices of level k are then those more important than the tolerance of the
+ * level, exactly the result of Douglas-Peucker at that tolerance, so the levels are nested and
+ * cost one pass. Levels hold vertex indices into the full track; a level with only the end
+ * points is shared by all coarser levels.
+ *
+ * Coordinates are planar map units (e.g. web mercator metres).
+ */
+class TrackPyramid {
+    static final int LEVELS = 16;
+    static final double BASE_TOLERANCE = 0.5;  // map units, level 1
+
+    private final double[] xy;
+    private final int[][] levels;
+
+    /**
+     * @param xy x0, y0, x1, y1, ... of the track, kept (not copied)
+     */
+    TrackPyramid(double[] xy) {
+        this.xy = xy;
+        int n = xy.length / 2;
+        double[] importance = rank(xy, n);
+        levels = new int[LEVELS][];
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            all[i] = i;
+        }
+        levels[0] = all;
+        for (int level = 1; level < LEVELS; level++) {
+            int[] previous = levels[level - 1];
+            if (previous.length <= 2) {
+                levels[level] = previous;
+                continue;
+            }
+            double tolerance = tolerance(level);
+            int[] kept = new int[previous.length];
+            int m = 0;
+            for (int i : previous) {
+                if (importance[i] > tolerance) {
+                    kept[m++] = i;
+                }
+            }
+            levels[level] = m == previous.length ? previous : Arrays.copyOf(kept, m);
+        }
+    }
+
+    /**
+     * @return tolerance of `level` in map units, 0 for level 0
+     */
+    static double tolerance(int level) {
+        return 0 == level ? 0 : BASE_TOLERANCE * (1 << (level - 1));
+    }
+
+    /**
+     * @param tolerance largest acceptable error in map units, e.g. half a pixel at the current
+     *                  scale
+     * @return coarsest level within `tolerance`
+     */
+    static int levelFor(double tolerance) {
+        int level = 0;
+        while (level + 1 < LEVELS && tolerance(level + 1) <= tolerance) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Importance of every vertex, infinite for the end points.
+     */
+    private static double[] rank(double[] xy, int n) {
+        double[] importance = new double[n];
+        if (0 == n) {
+            return importance;
+        }
+        importance[0] = Double.POSITIVE_INFINITY;
+        importance[n - 1] = Double.POSITIVE_INFINITY;
+        // segments to split: start, end; explicit stack, tracks can have many thousand vertices
+        int[] stack = new int[2 * Math.max(n, 2)];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            if (end - start < 2) {
+                continue;
+            }
+            double x0 = xy[2 * start];
+            double y0 = xy[2 * start + 1];
+            double x = xy[2 * end] - x0;
+            double y = xy[2 * end + 1] - y0;
+            double len2 = x * x + y * y;
+            int farthest = start + 1;
+            double max = -1;
+            for (int i = start + 1; i < end; i++) {
+                double d2 = TrackSimplifier.segmentDistance2(xy[2 * i] - x0, xy[2 * i + 1] - y0,
+                        x, y, len2);
+                if (d2 > max) {
+                    max = d2;
+                    farthest = i;
+                }
+            }
+            // kept only while the vertex that split the enclosing segment is kept
+            double cap = Math.min(importance[start], importance[end]);
+            importance[farthest] = Math.min(Math.sqrt(max), cap);
+            stack[top++] = start;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = end;
+        }
+        return importance;
+    }
+
+    /**
+     * @return number of vertices of `level`
+     */
+    int size(int level) {
+        return levels[level].length;
+    }
+
+    double getX(int level, int i) {
+        return xy[2 * levels[level][i]];
+    }
+
+    double getY(int level, int i) {
+        return xy[2 * levels[level][i] + 1];
+    }
+
+    /**
+     * @return indices into the full track of the vertices of `level`, ascending; not a copy
+     */
+    int[] getVertices(int level) {
+        return levels[level];
+    }
+}
@@ -0,0 +1,150 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+/**
+ * TrackSimplifier.java
+ *
+ * Online line simplification of a GPS track, fed one fix at a time.
+ *
+ * Works as a bounded-window Douglas-Peucker ("opening window"): the last kept point is the
+ * anchor, and the fixes after it are collected in a window as long as every one of them lies
+ * within `tolerance` metres of the segment anchor -> newest fix. When a new fix breaks that
+ * condition (or the window is full), the previous fix is kept and becomes the new anchor.
+ *
+ * Guarantees:
+ * - every dropped fix is within `tolerance` of the simplified polyline;
+ * - memory is O(maxWindow), each fix costs O(maxWindow).
+ *
+ * Distances are computed in a LocalFrame centred at the anchor.
+ */
+class TrackSimplifier {
+    private static final int DEFAULT_MAX_WINDOW = 64;
+
+    private final double tolerance;
+    private final int maxWindow;
+    private final TrackBuffer output;
+
+    // anchor (last kept point)
+    private LocalFrame frame;
+
+    // window of fixes after the anchor, projected to metres relative to the anchor
+    private final double[] winX;
+    private final double[] winY;
+    private final double[] winLon;
+    private final double[] winLat;
+    private final long[] winTime;
+    private final float[] winAccuracy;
+    private final double[] winAltitude;
+    private int winSize;
+
+    /**
+     * @param tolerance max allowed distance (m) between a dropped fix and the simplified track.
+     */
+    public TrackSimplifier(double tolerance) {
+        this(tolerance, DEFAULT_MAX_WINDOW, new TrackBuffer());
+    }
+
+    /**
+     * @param tolerance max allowed distance (m) between a dropped fix and the simplified track.
+     * @param maxWindow max number of pending fixes, bounds memory and per-fix cost.
+     * @param output    buffer receiving the kept fixes.
+     */
+    public TrackSimplifier(double tolerance, int maxWindow, TrackBuffer output) {
+        if (tolerance < 0 || maxWindow < 2) {
+            throw new IllegalArgumentException("tolerance=" + tolerance + " maxWindow=" + maxWindow);
+        }
+        this.tolerance = tolerance;
+        this.maxWindow = maxWindow;
+        this.output = output;
+        winX = new double[maxWindow];
+        winY = new double[maxWindow];
+        winLon = new double[maxWindow];
+        winLat = new double[maxWindow];
+        winTime = new long[maxWindow];
+        winAccuracy = new float[maxWindow];
+        winAltitude = new double[maxWindow];
+    }
+
+    /**
+     * Feed the next fix of the raw track.
+     */
+    public void add(double longitude, double latitude, long time, float accuracy, double altitude) {
+        if (null == frame) {
+            keep(longitude, latitude, time, accuracy, altitude);
+            return;
+        }
+        double x = frame.east(longitude);
+        double y = frame.north(latitude);
+
+        if (winSize == maxWindow || !windowFits(x, y)) {
+            // keep the newest pending fix, and restart the window from it
+            int last = winSize - 1;
+            keep(winLon[last], winLat[last], winTime[last], winAccuracy[last], winAltitude[last]);
+            x = frame.east(longitude);
+            y = frame.north(latitude);
+        }
+        winX[winSize] = x;
+        winY[winSize] = y;
+        winLon[winSize] = longitude;
+        winLat[winSize] = latitude;
+        winTime[winSize] = time;
+        winAccuracy[winSize] = accuracy;
+        winAltitude[winSize] = altitude;
+        winSize++;
+    }
+
+    /**
+     * Keep the pending end point. Call once the raw track is complete.
+     */
+    public void flush() {
+        if (winSize > 0) {
+            int last = winSize - 1;
+            keep(winLon[last], winLat[last], winTime[last], winAccuracy[last], winAltitude[last]);
+        }
+    }
+
+    /**
+     * @return the simplified track. Does not include the pending end point until flush().
+     */
+    public TrackBuffer getOutput() {
+        return output;
+    }
+
+    /**
+     * Whether all pending fixes are within tolerance of the segment anchor -> (x, y).
+     */
+    private boolean windowFits(double x, double y) {
+        double len2 = x * x + y * y;
+        double tol2 = tolerance * tolerance;
+        for (int i = 0; i < winSize; i++) {
+            if (segmentDistance2(winX[i], winY[i], x, y, len2) > tol2) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Squared distance of point (px, py) to the segment (0, 0) -> (x, y).
+     */
+    static double segmentDistance2(double px, double py, double x, double y, double len2) {
+        double t = len2 > 0 ? (px * x + py * y) / len2 : 0;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        double dx = px - t * x;
+        double dy = py - t * y;
+        return dx * dx + dy * dy;
+    }
+
+    private void keep(double longitude, double latitude, long time, float accuracy, double altitude) {
+        output.append(longitude, latitude, time, accuracy, altitude);
+        if (null == frame) {
+            frame = new LocalFrame(latitude, longitude);
+        } else {
+            frame.anchor(latitude, longitude);
+        }
+        winSize = 0;
+    }
+}
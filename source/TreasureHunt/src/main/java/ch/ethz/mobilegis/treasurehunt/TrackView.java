@@ -0,0 +1,32 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.Serializable;
+
+/**
+ * TrackView.java
+ *
+ * Read-only, indexed access to a recorded track. Consumers (TrackResult, the result writer, the
+ * polyline builder) iterate with a plain index loop, so no per-point objects are created.
+ */
+interface TrackView extends Serializable {
+    int size();
+
+    double getLongitude(int i);
+
+    double getLatitude(int i);
+
+    /**
+     * @return fix time in ms since epoch
+     */
+    long getTime(int i);
+
+    /**
+     * @return horizontal accuracy in m
+     */
+    float getAccuracy(int i);
+
+    /**
+     * @return altitude in m
+     */
+    double getAltitude(int i);
+}
@@ -0,0 +1,532 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.location.LocationManager;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * TrackingService.java
+ *
+ * Foreground service running the hunt: location fixes, temperature, HuntSession, arrival
+ * notifications and the session archive. It keeps tracking while NavigateActivity is stopped.
+ *
+ * Fixes arrive in batches (FusedLocationSource, at most MAX_BATCH_DELAY late) on a background
+ * thread, and each batch goes through the whole pipeline in one pass. The main thread is only
+ * woken to update an attached Observer, once per batch. The GPS rate itself follows the
+ * distance to the target (SamplingScheduler).
+ *
+ * The raw fixes go to a TrackJournal under getFilesDir(). If the process dies mid-hunt, the
+ * journal stays OPEN; MainActivity offers to resume it, and the service is started again with
+ * its path (EXTRA_JOURNAL in the geofence bundle) and replays it into a new HuntSession.
+ *
+ * Started with startForegroundService() and EXTRA_GEOFENCE_BUNDLE, then bound by the activity
+ * to observe it. Stopped by the activity when the hunt is over or abandoned.
+ */
+public class TrackingService extends Service implements LocationSource.FixListener,
+        HuntSession.Listener, SensorEventListener {
+    public static final String EXTRA_GEOFENCE_BUNDLE = "geofenceBundle";
+    public static final String EXTRA_GEOFENCE = "geofence";
+    public static final String EXTRA_ROUTE = "route";  // hunts through several checkpoints
+    public static final String EXTRA_JOURNAL = "journal";  // path of an interrupted hunt
+    private static final String JOURNAL_DIR = "journals";
+    private static final String ARCHIVE_DIR = "archive";
+    private static final int KEEP_JOURNALS = 5;  // finished hunts kept, for their TrackResult
+    private static final String TAG = TrackingService.class.getSimpleName();
+    private static final long MAX_BATCH_DELAY = 5000;  // ms, bounds the geofence latency
+    private static final float DEFAULT_TEMPERATURE = 20.0f;
+    static final int NOTIF_ID_ARRIVE_CHECKPOINT = 0;  // notification id, used to cancel notification
+    static final int NOTIF_ID_ARRIVE_START = 1;
+    private static final int NOTIF_ID_TRACKING = 3;
+
+    private static volatile File activeJournal;  // journal of the running hunt
+
+    /**
+     * Progress of the hunt for the UI. Called on the main thread.
+     */
+    interface Observer {
+        /**
+         * @param latitude  filtered position, degrees
+         * @param longitude filtered position, degrees
+         * @param distance  distance to the current target, m
+         * @param speed     filtered speed, m/s
+         * @param bearing   bearing to the current target, degrees
+         */
+        void onPositionChanged(double latitude, double longitude, double distance, double speed,
+                               float bearing);
+
+        void onCheckpointReached(Geofence checkpoint);
+
+        void onFinished(Reward reward);
+
+        void onTemperatureChanged(float temperature);
+
+        void onSourceEnabled();
+
+        void onSourceDisabled();
+    }
+
+    class LocalBinder extends Binder {
+        TrackingService getService() {
+            return TrackingService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread trackingThread;
+    private Handler trackingHandler;
+    private NotificationManager notificationManager;
+    private SensorManager sensorManager;
+    private Sensor temperatureSensor;
+    private LocationSource locationSource;
+
+    // created on the main thread, then run on the tracking thread only
+    private HuntSession huntSession;
+    private final SamplingScheduler samplingScheduler = new SamplingScheduler();
+    private volatile Observer observer;  // set on the main thread
+    private volatile boolean running;
+
+    // latest state, for observers attaching later. Written on the tracking thread.
+    private volatile double latitude;
+    private volatile double longitude;
+    private volatile double distance = Double.NaN;  // NaN before the first fix
+    private volatile double speed;
+    private volatile float bearing;
+    private volatile float temperature = DEFAULT_TEMPERATURE;
+
+    // events that found no observer, touched on the main thread only
+    private Geofence missedCheckpoint;
+    private Reward missedReward;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.d(TAG, "onCreate()");
+        notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+        temperatureSensor = sensorManager.getDefaultSensor(Sensor.TYPE_AMBIENT_TEMPERATURE);
+        trackingThread = new HandlerThread("Tracking");
+        trackingThread.start();
+        trackingHandler = new Handler(trackingThread.getLooper());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (null != huntSession || null == intent) {
+            return START_NOT_STICKY;  // already hunting
+        }
+        Bundle geofenceBundle = intent.getBundleExtra(EXTRA_GEOFENCE_BUNDLE);
+        List<Geofence> route = getRoute(geofenceBundle);
+        Geofence geofence = route.get(0);
+        Log.d(TAG, "geofence=" + geofence.toString() + ", route of " + route.size());
+        TrackJournal journal = openJournal(route, geofenceBundle.getString(EXTRA_JOURNAL));
+        huntSession = new HuntSession(route, MainActivity.GEOFENCE_RADIUS, this, journal);
+        startForeground(NOTIF_ID_TRACKING, buildTrackingNotification(geofenceBundle,
+                geofence.getName()));
+        running = true;
+        locationSource = createLocationSource();
+        if (null != journal) {
+            activeJournal = journal.getFile();
+        }
+        trackingHandler.post(() -> {
+            // the replay of a long hunt takes a while, and must be done before the first fix
+            if (null != journal && journal.size() > 0) {
+                Log.i(TAG, "Resuming hunt from " + journal.size() + " journaled fixes");
+                huntSession.replayJournal();
+            }
+            if (!running) {
+                return;  // the journal already ended the hunt, or it was abandoned meanwhile
+            }
+            if (null == journal || 0 == journal.getTemperatureCount()) {
+                huntSession.addTemperature(DEFAULT_TEMPERATURE);  // a resumed hunt has its own
+            }
+            locationSource.start(this);
+            sensorManager.registerListener(this, temperatureSensor,
+                    SensorManager.SENSOR_DELAY_NORMAL, trackingHandler);
+        });
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Journal of the hunt: the interrupted one at `path`, or a new one.
+     *
+     * @return null if the file cannot be used, the track is then kept in memory
+     */
+    private TrackJournal openJournal(List<Geofence> route, String path) {
+        try {
+            if (null != path) {
+                return TrackJournal.open(new File(path));
+            }
+            File dir = getJournalDir(this);
+            TrackJournal.prune(dir, KEEP_JOURNALS);
+            long now = System.currentTimeMillis();
+            File file = new File(dir, now + TrackJournal.EXTENSION);
+            if (route.size() > 1) {
+                TrackJournal.writeRoute(file, route);
+            }
+            return TrackJournal.create(file, route.get(0), now);
+        } catch (IOException e) {
+            Log.e(TAG, "Fail to open journal, track kept in memory: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Put the target of the hunt into a geofence bundle, encoded by ResultCodec.
+     */
+    static void putGeofence(Bundle geofenceBundle, Geofence geofence) {
+        geofenceBundle.putByteArray(EXTRA_GEOFENCE,
+                ResultCodec.toByteArray(new ResultCodec(256).encode(geofence)));
+    }
+
+    /**
+     * Put the checkpoints of a hunt into a geofence bundle: the first one as the geofence of the
+     * hunt, all of them as its route if there are several.
+     */
+    static void putRoute(Bundle geofenceBundle, List<Geofence> route) {
+        putGeofence(geofenceBundle, route.get(0));
+        if (route.size() > 1) {
+            geofenceBundle.putByteArray(EXTRA_ROUTE,
+                    ResultCodec.toByteArray(new ResultCodec().encode(route)));
+        }
+    }
+
+    /**
+     * @return the route of a geofence bundle, its geofence alone if it has none
+     */
+    static List<Geofence> getRoute(Bundle geofenceBundle) {
+        byte[] route = geofenceBundle.getByteArray(EXTRA_ROUTE);
+        if (null == route) {
+            return Collections.singletonList(getGeofence(geofenceBundle));
+        }
+        try {
+            return ResultCodec.decodeRoute(ByteBuffer.wrap(route));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt route extra: " + e.getMessage());
+        }
+    }
+
+    static Geofence getGeofence(Bundle geofenceBundle) {
+        try {
+            return ResultCodec.decodeGeofence(
+                    ByteBuffer.wrap(geofenceBundle.getByteArray(EXTRA_GEOFENCE)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt geofence extra: " + e.getMessage());
+        }
+    }
+
+    static File getJournalDir(Context context) {
+        return new File(context.getFilesDir(), JOURNAL_DIR);
+    }
+
+    static File getArchiveDir(Context context) {
+        return new File(context.getFilesDir(), ARCHIVE_DIR);
+    }
+
+    /**
+     * @return journal of the running hunt, null if none
+     */
+    static File getActiveJournal() {
+        return activeJournal;
+    }
+
+    /**
+     * Batched fused locations when Google Play services is available, plain GPS otherwise.
+     */
+    private LocationSource createLocationSource() {
+        if (ConnectionResult.SUCCESS
+                == GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(this)) {
+            return new FusedLocationSource(this, samplingScheduler.getInterval(),
+                    samplingScheduler.getMinDistance(), MAX_BATCH_DELAY, trackingThread.getLooper());
+        }
+        Log.w(TAG, "Google Play services unavailable, no location batching");
+        return new GpsLocationSource((LocationManager) getSystemService(LOCATION_SERVICE),
+                samplingScheduler.getInterval(), samplingScheduler.getMinDistance(),
+                trackingThread.getLooper());
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "onDestroy()");
+        stopTracking();
+        if (null != huntSession && null != huntSession.getJournal()) {
+            // abandoned or finished: either way no longer an interrupted hunt
+            TrackJournal journal = huntSession.getJournal();
+            trackingHandler.post(journal::finish);
+        }
+        activeJournal = null;
+        trackingThread.quitSafely();
+        notificationManager.cancel(NOTIF_ID_ARRIVE_CHECKPOINT);
+        notificationManager.cancel(NOTIF_ID_ARRIVE_START);
+        super.onDestroy();
+    }
+
+    private void stopTracking() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        trackingHandler.post(() -> {
+            locationSource.stop();
+            sensorManager.unregisterListener(this);
+        });
+    }
+
+    /**
+     * Attach the UI. It immediately gets the latest position and temperature, and the arrival
+     * or result it missed while detached.
+     *
+     * @param observer null to detach
+     */
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+        if (null == observer) {
+            return;
+        }
+        observer.onTemperatureChanged(temperature);
+        if (!Double.isNaN(distance)) {
+            observer.onPositionChanged(latitude, longitude, distance, speed, bearing);
+        }
+        if (null != missedReward) {
+            observer.onFinished(missedReward);
+        } else if (null != missedCheckpoint) {
+            observer.onCheckpointReached(missedCheckpoint);
+        }
+        missedReward = null;
+        missedCheckpoint = null;
+    }
+
+    /**
+     * The hunt, for reading its result once finished. Not to be modified.
+     */
+    public HuntSession getHuntSession() {
+        return huntSession;
+    }
+
+    /********************************** tracking thread ******************************************/
+
+    @Override
+    public void onFix(long time, double latitude, double longitude, float accuracy, double altitude) {
+        huntSession.onFix(time, latitude, longitude, accuracy, altitude);
+    }
+
+    @Override
+    public void onFixes(FixBatch batch) {
+        Log.d(TAG, "batch of " + batch.size() + " fixes");
+        huntSession.onFixes(batch);
+    }
+
+    @Override
+    public void onSourceEnabled() {
+        mainHandler.post(() -> {
+            Observer o = observer;
+            if (null != o) {
+                o.onSourceEnabled();
+            }
+        });
+    }
+
+    @Override
+    public void onSourceDisabled() {
+        mainHandler.post(() -> {
+            Observer o = observer;
+            if (null != o) {
+                o.onSourceDisabled();
+            }
+        });
+    }
+
+    @Override
+    public void onPositionChanged(double distance, double speed, float bearing) {
+        latitude = huntSession.getLatitude();
+        longitude = huntSession.getLongitude();
+        this.distance = distance;
+        this.speed = speed;
+        this.bearing = bearing;
+        // poll the GPS less often while the target is far away
+        if (samplingScheduler.update(distance, huntSession.getGeofence().getRadius(), speed)) {
+            Log.d(TAG, "sampling tier " + samplingScheduler.getTier());
+            locationSource.setInterval(samplingScheduler.getInterval(),
+                    samplingScheduler.getMinDistance());
+        }
+        if (null == observer) {
+            return;
+        }
+        double lat = latitude;
+        double lon = longitude;
+        mainHandler.post(() -> {
+            Observer o = observer;
+            if (null != o) {
+                o.onPositionChanged(lat, lon, distance, speed, bearing);
+            }
+        });
+    }
+
+    @Override
+    public void onCheckpointReached(Geofence checkpoint) {
+        Log.d(TAG, "Enter geofence: " + checkpoint.getName());
+        String message = huntSession.isReturnTrip()
+                ? getString(R.string.arrival_notification_message)
+                : getString(R.string.next_checkpoint_notification_message,
+                        huntSession.getGeofence().getName());
+        sendNotification("Arrive at" + checkpoint.getName(), message, NOTIF_ID_ARRIVE_CHECKPOINT);
+        mainHandler.post(() -> {
+            Observer o = observer;
+            if (null != o) {
+                o.onCheckpointReached(checkpoint);
+            } else {
+                missedCheckpoint = checkpoint;
+            }
+        });
+    }
+
+    @Override
+    public void onFinished(Reward reward) {
+        Log.d(TAG, "Enter geofence: " + HuntSession.START_POINT_NAME);
+        stopTracking();
+        TrackJournal journal = huntSession.getJournal();
+        if (null != journal) {
+            journal.finish();
+            if (null != journal.getError()) {
+                Log.e(TAG, "Journal incomplete: " + journal.getError().getMessage());
+            }
+        }
+        notificationManager.cancel(NOTIF_ID_ARRIVE_CHECKPOINT);
+        sendNotification("Activity finished",
+                getString(R.string.finish_notification_message), NOTIF_ID_ARRIVE_CHECKPOINT);
+        archiveResult();
+        stopForeground(true);
+        mainHandler.post(() -> {
+            Observer o = observer;
+            if (null != o) {
+                o.onFinished(reward);
+            } else {
+                missedReward = reward;
+            }
+        });
+    }
+
+    /**
+     * Listen to sensor change event: update temperature.
+     */
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (event.sensor.getType() == Sensor.TYPE_AMBIENT_TEMPERATURE) {
+            float value = event.values[0];  // unit: celsius
+            Log.d(TAG, "Temperature=" + value);
+            temperature = value;
+            huntSession.addTemperature(value);
+            mainHandler.post(() -> {
+                Observer o = observer;
+                if (null != o) {
+                    o.onTemperatureChanged(value);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+    /********************************** notifications and result ********************************/
+
+    /**
+     * Ongoing notification of the foreground service, opening the hunt when touched.
+     */
+    private Notification buildTrackingNotification(Bundle geofenceBundle, String destination) {
+        Intent intent = new Intent(this, NavigateActivity.class);
+        intent.putExtra(EXTRA_GEOFENCE_BUNDLE, geofenceBundle);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        return new NotificationCompat.Builder(this, MainActivity.CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getString(R.string.tracking_notification_title))
+                .setContentText(destination)
+                .setContentIntent(pendingIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    /**
+     * Send notification with sound and vibaration
+     *
+     * @param title:   title content of the notification
+     * @param message: body message of the notification
+     * @param id:      notification id, to identify this notification
+     */
+    private void sendNotification(String title, String message, int id) {
+        Log.d(TAG, "sending notification");
+
+        // Get a notification builder that's compatible with platform versions >= 4
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, MainActivity.CHANNEL_ID);
+
+        // Define the notification settings.
+        builder.setSmallIcon(R.drawable.ic_launcher)
+                .setLargeIcon(BitmapFactory.decodeResource(getResources(),
+                        R.drawable.ic_launcher))
+                .setColor(Color.RED)
+                .setDefaults(Notification.DEFAULT_ALL)
+                .setContentTitle(title)
+                .setContentText(message);
+
+        // Dismiss notification once the user touches it.
+        builder.setAutoCancel(true);
+
+        // Issue the notification
+        notificationManager.notify(id, builder.build());
+    }
+
+    /**
+     * Add the finished hunt, with its track, to the session archive, and fold it into the
+     * history rollups.
+     */
+    private void archiveResult() {
+        File dir = getArchiveDir(this);
+        SessionSummary summary = huntSession.buildSummary();
+        try {
+            SessionArchive archive = SessionArchive.open(dir);
+            HistoryRollups rollups = HistoryRollups.load(dir, archive, TimeZone.getDefault());
+            archive.append(summary, huntSession.getTrackPoints());
+            rollups.add(summary);
+            rollups.save(dir);
+        } catch (IOException e) {
+            Log.e(TAG, "Fail to archive session: " + e.getMessage());
+        }
+    }
+}
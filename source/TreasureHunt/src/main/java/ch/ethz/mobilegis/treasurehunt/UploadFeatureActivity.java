@@ -3,7 +3,6 @@ package ch.ethz.mobilegis.treasurehunt;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Context;
-import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.os.Bundle;
 
@@ -12,6 +11,7 @@ import android.os.Bundle;
  * Assignment 2
  * */
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,9 +51,7 @@ import com.esri.arcgisruntime.mapping.view.MapView;
  * */
 
 public class UploadFeatureActivity extends AppCompatActivity {
-    public static final String TRACK_OBJ_KEY = "TrackObj";
-    public static final String POINT_OBJ_KEY = "PointObj";
-    public static final String GAME_RESULT_BDL_KEY = "GameResultBdl";
+    public static final String EXTRA_SESSION_ID = "sessionId";  // of the SessionRepository
 
     private static final String TAG = UploadFeatureActivity.class.getSimpleName();
 
@@ -93,11 +91,18 @@ public class UploadFeatureActivity extends AppCompatActivity {
         finishFlag = false;
 
         // Extract data
-        Intent intent = getIntent();
-        Bundle extras = intent.getExtras();
-        Bundle bundleObject = extras.getBundle(GAME_RESULT_BDL_KEY);
-        trackResult = (TrackResult) bundleObject.getSerializable(TRACK_OBJ_KEY);
-        pointResult = (PointResult) bundleObject.getSerializable(POINT_OBJ_KEY);
+        long sessionId = getIntent().getLongExtra(EXTRA_SESSION_ID, SessionRepository.NO_SESSION);
+        try {
+            SessionRepository repository = SessionRepository.open(TrackingService.getArchiveDir(this));
+            trackResult = repository.getTrackResult(sessionId);
+            pointResult = repository.getPointResult(sessionId);
+        } catch (IOException e) {
+            Log.e(TAG, "Fail to load session " + sessionId + ": " + e.getMessage());
+            Toast.makeText(this, "Upload fail. Result not found.", Toast.LENGTH_LONG).show();
+            setResult(RESULT_CANCELED);
+            finish();
+            return;
+        }
         Log.d(TAG, "data loaded");
 
         progressBar.setProgress(10);
@@ -184,8 +189,14 @@ public class UploadFeatureActivity extends AppCompatActivity {
         attributes.put("average_temp", trackResult.getAvgTemperature());
 
         PointCollection borderCAtoNV = new PointCollection(SpatialReferences.getWgs84());
-        for (LonLatPoint pt : trackResult.getTrackPoints()) {
-            borderCAtoNV.add(pt.getLongitude(), pt.getLatitude());
+        // upload the simplified geometry, raw fixes are only kept locally. Either is read point by
+        // point from its source (heap or mapped journal file), never copied as a whole.
+        TrackView track = trackResult.getSimplifiedTrackPoints();
+        if (null == track) {
+            track = trackResult.getTrackPoints();
+        }
+        for (int i = 0; i < track.size(); i++) {
+            borderCAtoNV.add(track.getLongitude(i), track.getLatitude(i));
         }
         Polyline polyLine = new Polyline(borderCAtoNV);
 
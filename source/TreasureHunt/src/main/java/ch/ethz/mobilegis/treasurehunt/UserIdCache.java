@@ -0,0 +1,79 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * UserIdCache.java
+ *
+ * The distinct user IDs of a track layer, kept in a small file for the user picker of
+ * FeatureMapActivity, so opening the map does not query the layer again until the list is
+ * older than a time to live.
+ *
+ * File, big endian: magic, version, fetch time (ms), layer URL (modified UTF-8), number of IDs,
+ * the IDs in ascending order. Written to a temporary file and renamed.
+ */
+class UserIdCache {
+    private static final int MAGIC = 0x54485531;  // "THU1"
+    private static final short VERSION = 1;
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private UserIdCache() {
+    }
+
+    /**
+     * @return the user IDs stored for `source` at most `ttl` ms before `now`, or null if there
+     *         are none, they are stale or the file is unreadable
+     */
+    static int[] read(File file, String source, long now, long ttl) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                return null;
+            }
+            long fetched = in.readLong();
+            if (fetched > now || now - fetched > ttl || !source.equals(in.readUTF())) {
+                return null;
+            }
+            int n = in.readInt();
+            if (n < 0 || n > file.length() / 4) {
+                return null;
+            }
+            int[] ids = new int[n];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readInt();
+            }
+            return ids;
+        } catch (IOException e) {
+            return null;  // missing or torn, fetched again
+        }
+    }
+
+    /**
+     * @param ids ascending
+     */
+    static void write(File file, String source, long fetched, int[] ids) throws IOException {
+        File temp = new File(file.getPath() + TEMP_EXTENSION);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(fetched);
+            out.writeUTF(source);
+            out.writeInt(ids.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+}
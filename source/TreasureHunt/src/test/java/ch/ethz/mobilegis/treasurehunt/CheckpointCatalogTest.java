@@ -0,0 +1,108 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * CheckpointCatalog: the shipped CSV compiled and mapped, nearest() against a linear scan over a
+ * large random catalog, and rejected files.
+ */
+public class CheckpointCatalogTest {
+    private static final String CSV_PATH = "src/main/catalog/checkpoints.csv";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shippedCatalog() throws IOException {
+        File file = new File(folder.getRoot(), CheckpointCatalog.ASSET_NAME);
+        CheckpointCatalog.compile(new File(CSV_PATH), file);
+        CheckpointCatalog catalog = CheckpointCatalog.open(file);
+
+        assertEquals(11, catalog.size());
+        CheckPoint first = catalog.get(0);
+        assertEquals("Bus Stop of Bus 69", first.getName());
+        assertEquals(8.507333224490367, first.getLongitude(), 1e-7);
+        assertEquals(47.40830372291337, first.getLatitude(), 1e-7);
+        assertEquals("AVEC Box", catalog.asList().get(1).getName());
+
+        assertEquals(0, catalog.nearest(47.40830, 8.50733, 10));
+        assertEquals(-1, catalog.nearest(47.0, 8.0, 1000));
+    }
+
+    @Test
+    public void nearestMatchesLinearScan() throws IOException {
+        Random random = new Random(1);
+        List<String> names = new ArrayList<>();
+        List<double[]> coordinates = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            names.add("cp" + i);
+            coordinates.add(new double[]{47.3 + random.nextDouble() * 0.2,
+                    8.4 + random.nextDouble() * 0.3});
+        }
+        CheckpointCatalog catalog = mapped(CheckpointCatalog.build(names, coordinates));
+        assertEquals("cp12345", catalog.getName(12345));
+
+        for (int q = 0; q < 500; q++) {
+            // some queries outside the grid
+            double latitude = 47.25 + random.nextDouble() * 0.3;
+            double longitude = 8.35 + random.nextDouble() * 0.4;
+            double maxDistance = q % 2 == 0 ? 200 : Double.MAX_VALUE;
+            int expected = -1;
+            double best = maxDistance;
+            for (int i = 0; i < catalog.size(); i++) {
+                double d = distance(latitude, longitude, catalog.getLatitude(i),
+                        catalog.getLongitude(i));
+                if (d <= best) {
+                    expected = i;
+                    best = d;
+                }
+            }
+            int actual = catalog.nearest(latitude, longitude, maxDistance);
+            if (expected != actual) {  // ties aside
+                assertEquals(best, distance(latitude, longitude, catalog.getLatitude(actual),
+                        catalog.getLongitude(actual)), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File file = folder.newFile("not-a-catalog");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[128]);
+        }
+        try {
+            CheckpointCatalog.open(file);
+            fail("opened");
+        } catch (IOException expected) {
+            // rejected
+        }
+    }
+
+    private CheckpointCatalog mapped(ByteBuffer built) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(built.array());
+        }
+        return CheckpointCatalog.open(file);
+    }
+
+    private static double distance(double latitude, double longitude, double toLatitude,
+                                   double toLongitude) {
+        double north = (toLatitude - latitude) * 111195;
+        double east = (toLongitude - longitude) * Math.cos(Math.toRadians(latitude)) * 111195;
+        return Math.sqrt(north * north + east * east);
+    }
+}
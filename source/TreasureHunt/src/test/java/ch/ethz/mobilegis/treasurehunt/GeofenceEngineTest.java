@@ -0,0 +1,136 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * GeofenceEngine against a brute-force scan. Its cost per fix is measured in GeofenceBenchmark.
+ */
+public class GeofenceEngineTest {
+    private static final double HYSTERESIS = 2.0;
+    private static final long DWELL = 30000;
+
+    @Test
+    public void sameTransitionsAsBruteForce() {
+        Random random = new Random(5);
+        List<Geofence> fences = randomFences(2000, 3000, random);
+        GeofenceEngine engine = new GeofenceEngine(fences, HYSTERESIS, DWELL);
+        BruteForce reference = new BruteForce(fences);
+
+        double[][] walk = randomWalk(20000, 3000, random);
+        int transitions = 0;
+        for (int t = 0; t < walk.length; t++) {
+            long time = t * 1000L;
+            GeofenceEngine.Transitions result = engine.onFix(walk[t][0], walk[t][1], time);
+            String expected = reference.onFix(walk[t][0], walk[t][1], time);
+            assertEquals("fix " + t, expected, describe(result));
+            transitions += result.size();
+        }
+        assertTrue(transitions > 0);
+    }
+
+    private static String describe(GeofenceEngine.Transitions transitions) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < transitions.size(); i++) {
+            builder.append(transitions.getType(i)).append(':').append(transitions.getFence(i)).append(' ');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Fences of 10-50 m radius, uniformly in an extent x extent square around Hoengg.
+     */
+    private static List<Geofence> randomFences(int count, double extent, Random random) {
+        LocalFrame frame = new LocalFrame(47.408, 8.508);
+        List<Geofence> fences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double east = (random.nextDouble() - 0.5) * extent;
+            double north = (random.nextDouble() - 0.5) * extent;
+            fences.add(new Geofence("fence " + i, frame.latitude(north), frame.longitude(east),
+                    10 + random.nextDouble() * 40));
+        }
+        return fences;
+    }
+
+    /**
+     * 1 Hz fixes of a runner (3 m/s) bouncing inside the extent, with 3 m jitter.
+     */
+    private static double[][] randomWalk(int n, double extent, Random random) {
+        LocalFrame frame = new LocalFrame(47.408, 8.508);
+        double[][] walk = new double[n][];
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        for (int i = 0; i < n; i++) {
+            heading += random.nextGaussian() * 0.2;
+            x += Math.sin(heading) * 3;
+            y += Math.cos(heading) * 3;
+            if (Math.abs(x) > extent / 2 || Math.abs(y) > extent / 2) {
+                heading += Math.PI;
+            }
+            walk[i] = new double[]{
+                    frame.latitude(y + random.nextGaussian() * 3),
+                    frame.longitude(x + random.nextGaussian() * 3)};
+        }
+        return walk;
+    }
+
+    /**
+     * Same semantics as GeofenceEngine, checking every fence on every fix.
+     */
+    private static class BruteForce {
+        private final List<Geofence> fences;
+        private final List<Integer> active = new ArrayList<>();
+        private final boolean[] inside;
+        private final long[] enterTime;
+        private final boolean[] dwellReported;
+
+        BruteForce(List<Geofence> fences) {
+            this.fences = fences;
+            inside = new boolean[fences.size()];
+            enterTime = new long[fences.size()];
+            dwellReported = new boolean[fences.size()];
+        }
+
+        String onFix(double latitude, double longitude, long time) {
+            LocalFrame frame = new LocalFrame(latitude, longitude);
+            StringBuilder exits = new StringBuilder();
+            StringBuilder enters = new StringBuilder();
+            double[] distances = new double[fences.size()];
+            for (int i = 0; i < fences.size(); i++) {
+                distances[i] = Math.hypot(fences.get(i).getEast(frame), fences.get(i).getNorth(frame));
+            }
+            // exits and dwells in the engine's order of active fences
+            for (int a = 0; a < active.size(); ) {
+                int i = active.get(a);
+                if (distances[i] > fences.get(i).getRadius() + HYSTERESIS) {
+                    inside[i] = false;
+                    active.set(a, active.get(active.size() - 1));
+                    active.remove(active.size() - 1);
+                    exits.append(GeofenceEngine.EXIT).append(':').append(i).append(' ');
+                    continue;
+                }
+                if (!dwellReported[i] && time - enterTime[i] >= DWELL) {
+                    dwellReported[i] = true;
+                    exits.append(GeofenceEngine.DWELL).append(':').append(i).append(' ');
+                }
+                a++;
+            }
+            for (int i = 0; i < fences.size(); i++) {
+                if (!inside[i] && distances[i] < fences.get(i).getRadius() - HYSTERESIS) {
+                    inside[i] = true;
+                    enterTime[i] = time;
+                    dwellReported[i] = false;
+                    active.add(i);
+                    enters.append(GeofenceEngine.ENTER).append(':').append(i).append(' ');
+                }
+            }
+            return exits.toString() + enters;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * HistoryRollups: incremental folding against a parallel rebuild, day and ISO week keys, and
+ * the rollup file being trusted only while it matches the archive.
+ */
+public class HistoryRollupsTest {
+    private static final TimeZone ZURICH = TimeZone.getTimeZone("Europe/Zurich");
+    private static final long START_TIME = 1622966400000L;  // Sunday 2021-06-06 10:00 in Zurich
+    private static final long HOUR = 3600 * 1000L;
+    private static final String[] CHECKPOINTS = {"Hoengg", "AVEC Box", "Bus Stop of Bus 69"};
+    private static final String[] REWARDS = {"Watermelon", "Ice Cream", "Lollipop"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SessionSummary summary(long startTime, String checkpoint, double distance,
+                                          double duration, String reward) {
+        return new SessionSummary(startTime, 8.5, 47.4, checkpoint, 8.51, 47.41, distance,
+                duration, distance / duration * 3.6, 20, reward);
+    }
+
+    @Test
+    public void dayAndWeekKeys() {
+        HistoryRollups rollups = new HistoryRollups(ZURICH);
+        rollups.add(summary(START_TIME, "Hoengg", 1000, 600, "Watermelon"));
+        rollups.add(summary(START_TIME + 14 * HOUR, "Hoengg", 500, 200, "Watermelon"));  // 00:00
+        assertEquals(1, rollups.getDays().get(20210606).getCount());
+        assertEquals(1, rollups.getDays().get(20210607).getCount());
+        assertEquals(1, rollups.getWeeks().get(202122).getCount());  // Sunday ends week 22
+        assertEquals(1, rollups.getWeeks().get(202123).getCount());
+        assertEquals(rollups.getDays().get(20210607), rollups.getDay(START_TIME + 20 * HOUR));
+
+        Rollup hoengg = rollups.getCheckpoints().get("Hoengg");
+        assertEquals(2, hoengg.getCount());
+        assertEquals(1500, hoengg.getDistance(), 0);
+        assertEquals(800, hoengg.getDuration(), 0);
+        assertEquals(400, hoengg.getBestPace(), 1e-9);  // 200 s for 0.5 km
+
+        // ISO week 53 of 2020 lasts until Sunday 2021-01-03
+        rollups.add(summary(1609668000000L, "Hoengg", 0, 60, "Lollipop"));
+        assertEquals(1, rollups.getWeeks().get(202053).getCount());
+        assertEquals(400, rollups.getTotal().getBestPace(), 1e-9);
+    }
+
+    @Test
+    public void incrementalMatchesParallelRebuild() throws IOException {
+        File dir = folder.getRoot();
+        SessionArchive archive = SessionArchive.open(dir);
+        HistoryRollups rollups = HistoryRollups.load(dir, archive, ZURICH);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            SessionSummary summary = summary(START_TIME + i * 5 * HOUR,
+                    CHECKPOINTS[random.nextInt(CHECKPOINTS.length)], 200 + random.nextInt(3000),
+                    100 + random.nextInt(2000), REWARDS[random.nextInt(REWARDS.length)]);
+            archive.append(summary, new TrackBuffer(16));
+            rollups.add(summary);
+        }
+        rollups.save(dir);
+
+        HistoryRollups rebuilt = HistoryRollups.rebuild(archive, ZURICH, 4);
+        assertRollups(rollups, rebuilt);
+        assertRollups(rollups, HistoryRollups.load(dir, archive, ZURICH));
+    }
+
+    @Test
+    public void rebuiltWhenOutOfDate() throws IOException {
+        File dir = folder.getRoot();
+        SessionArchive archive = SessionArchive.open(dir);
+        HistoryRollups rollups = HistoryRollups.load(dir, archive, ZURICH);
+        assertEquals(0, rollups.getSessionCount());
+        assertTrue(new File(dir, HistoryRollups.FILE).exists());
+
+        // archived, but the process died before the rollups were saved
+        archive.append(summary(START_TIME, "Hoengg", 1000, 600, "Watermelon"),
+                new TrackBuffer(16));
+        assertEquals(1, HistoryRollups.load(dir, archive, ZURICH).getSessionCount());
+
+        // other time zone: other days (22:00 the day before in Honolulu)
+        HistoryRollups utc = HistoryRollups.load(dir, archive, TimeZone.getTimeZone("UTC"));
+        assertEquals(1, utc.getDays().get(20210606).getCount());
+        assertNull(HistoryRollups.load(dir, archive, TimeZone.getTimeZone("Pacific/Honolulu"))
+                .getDays().get(20210606));
+    }
+
+    private static void assertRollups(HistoryRollups expected, HistoryRollups actual) {
+        assertRollups(expected.getTotal(), actual.getTotal());
+        assertRollups(expected.getDays(), actual.getDays());
+        assertRollups(expected.getWeeks(), actual.getWeeks());
+        assertRollups(expected.getCheckpoints(), actual.getCheckpoints());
+        assertRollups(expected.getRewards(), actual.getRewards());
+    }
+
+    private static <K> void assertRollups(Map<K, Rollup> expected, Map<K, Rollup> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (K key : expected.keySet()) {
+            assertRollups(expected.get(key), actual.get(key));
+        }
+    }
+
+    private static void assertRollups(Rollup expected, Rollup actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getDistance(), actual.getDistance(), 1e-6);
+        assertEquals(expected.getDuration(), actual.getDuration(), 1e-6);
+        assertEquals(expected.getBestPace(), actual.getBestPace(), 0);
+    }
+}
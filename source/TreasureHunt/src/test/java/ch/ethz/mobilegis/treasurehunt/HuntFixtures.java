@@ -0,0 +1,80 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The sample walk of the tests that run a HuntSession: test_gpx/Walkonhoengg.gpx, out to its
+ * last point (the checkpoint) and back to the start, replayed from START_TIME.
+ */
+final class HuntFixtures {
+    static final String GPX_PATH = "../../test_gpx/Walkonhoengg.gpx";
+    static final float GEOFENCE_RADIUS = 10f;
+    static final long START_TIME = 1622966400000L;
+    static final Geofence CHECKPOINT =
+            new Geofence("Hoengg", 47.40688000, 8.510730000, GEOFENCE_RADIUS);
+
+    private HuntFixtures() {
+    }
+
+    /**
+     * @return the sample walk as a round trip, to configure further and start
+     */
+    static GpxReplaySource sampleWalk() throws IOException {
+        return GpxReplaySource.fromFile(GPX_PATH).setStartTime(START_TIME).setRoundTrip(true);
+    }
+
+    /**
+     * @return a hunt of the sample walk on a warm day (25 celsius), finished
+     */
+    static HuntSession finishedHunt(HuntSession.Listener listener) throws IOException {
+        HuntSession session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, listener);
+        session.addTemperature(25f);
+        sampleWalk().start(session);
+        return session;
+    }
+
+    /**
+     * Both hunts came to exactly the same result.
+     */
+    static void assertSameResult(HuntSession expected, HuntSession actual) {
+        SessionSummary e = expected.buildSummary();
+        SessionSummary a = actual.buildSummary();
+        assertEquals(e.getStartTimestamp(), a.getStartTimestamp());
+        assertEquals(e.getStartLongitude(), a.getStartLongitude(), 0);
+        assertEquals(e.getStartLatitude(), a.getStartLatitude(), 0);
+        assertEquals(e.getCheckpointName(), a.getCheckpointName());
+        assertEquals(e.getDistance(), a.getDistance(), 0);
+        assertEquals(e.getDuration(), a.getDuration(), 0);
+        assertEquals(e.getAvgSpeed(), a.getAvgSpeed(), 0);
+        assertEquals(e.getAvgTemperature(), a.getAvgTemperature(), 0);
+        assertEquals(e.getRewardName(), a.getRewardName());
+    }
+
+    /**
+     * Counts the callbacks of a HuntSession.
+     */
+    static class Recorder implements HuntSession.Listener {
+        int positions;
+        int checkpoints;
+        String lastCheckpoint;
+        Reward reward;
+
+        @Override
+        public void onPositionChanged(double distance, double speed, float bearing) {
+            positions++;
+        }
+
+        @Override
+        public void onCheckpointReached(Geofence checkpoint) {
+            checkpoints++;
+            lastCheckpoint = checkpoint.getName();
+        }
+
+        @Override
+        public void onFinished(Reward reward) {
+            this.reward = reward;
+        }
+    }
+}
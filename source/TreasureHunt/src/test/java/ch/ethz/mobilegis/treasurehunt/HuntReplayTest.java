@@ -0,0 +1,187 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static ch.ethz.mobilegis.treasurehunt.HuntFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Complete hunts on the JVM: the sample GPX walk is replayed into a HuntSession, out to its last
+ * point (the checkpoint) and back to the start, and archived; a synthetic loop through a route
+ * of checkpoints.
+ */
+public class HuntReplayTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripOnSampleWalk() throws IOException {
+        Recorder recorder = new Recorder();
+        HuntSession session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, recorder);
+        session.addTemperature(25f);
+        sampleWalk().start(session);
+
+        assertEquals(1, recorder.checkpoints);
+        assertTrue(session.isReturnTrip());
+        assertTrue(session.isFinished());
+        assertEquals(HuntSession.START_POINT_NAME, session.getGeofence().getName());
+        // 1.4 m/s = 5 km/h on a warm day
+        assertEquals(Reward.Watermelon, recorder.reward);
+        assertEquals(5.04, session.getAvgSpeed(), 0.5);
+        assertEquals(1.4, session.getSpeedStats().getQuantile(HuntSession.MEDIAN), 0.2);
+        assertEquals(25, session.getAvgTemp(), 1e-9);
+        assertTrue(session.getTotalDist() > 100);
+
+        TrackResult trackResult = session.buildTrackResult(1, 2);
+        assertTrue(trackResult.getTrackPoints().size() >= recorder.positions);
+        assertTrue(trackResult.getSimplifiedTrackPoints().size() < trackResult.getTrackPoints().size());
+        assertEquals(session.getStartTime(), (long) trackResult.getStartTimestamp());
+        assertEquals(CHECKPOINT.getName(), session.buildPointResult(1, 2).getPoint().getName());
+        assertEquals("Watermelon", session.buildSummary().getRewardName());
+
+        // archived as the service does once the hunt is finished
+        SessionArchive archive = SessionArchive.open(folder.getRoot());
+        assertEquals(0, archive.append(session.buildSummary(), session.getTrackPoints()));
+        SessionSummary archived = archive.getSummary(0);
+        assertEquals(session.getStartTime(), archived.getStartTimestamp());
+        assertEquals(CHECKPOINT.getName(), archived.getCheckpointName());
+        assertEquals("Watermelon", archived.getRewardName());
+        assertEquals(session.getTotalDist(), archived.getDistance(), 0.01);
+        assertEquals(session.getAvgSpeed(), archived.getAvgSpeed(), 0.01);
+        assertEquals(25, archived.getAvgTemperature(), 0.01);
+        TrackView track = session.getTrackPoints();
+        TrackBuffer archivedTrack = archive.getTrack(0);
+        assertEquals(track.size(), archivedTrack.size());
+        for (int i = 0; i < track.size(); i++) {
+            assertEquals(track.getTime(i), archivedTrack.getTime(i));
+            assertEquals(track.getLatitude(i), archivedTrack.getLatitude(i), 1e-7);
+            assertEquals(track.getLongitude(i), archivedTrack.getLongitude(i), 1e-7);
+        }
+    }
+
+    @Test
+    public void tourThroughRoute() {
+        // start -> 200 m north -> 200 m east -> start
+        LocalFrame frame = new LocalFrame(47.40, 8.50);
+        double[] latitudes = {47.40, frame.latitude(200), frame.latitude(200), 47.40};
+        double[] longitudes = {8.50, 8.50, frame.longitude(200), 8.50};
+        List<Geofence> route = Arrays.asList(
+                new Geofence("North", latitudes[1], longitudes[1], GEOFENCE_RADIUS),
+                new Geofence("North-east", latitudes[2], longitudes[2], GEOFENCE_RADIUS));
+        Recorder recorder = new Recorder();
+        HuntSession session = new HuntSession(route, GEOFENCE_RADIUS, recorder, null);
+        GpxReplaySource source = new GpxReplaySource(latitudes, longitudes, new double[4])
+                .setStartTime(START_TIME);
+
+        source.start(session);
+        assertEquals(2, recorder.checkpoints);
+        assertEquals("North-east", recorder.lastCheckpoint);
+        assertEquals(2, session.getCheckpointsReached());
+        assertTrue(session.isFinished());
+        assertEquals(HuntSession.START_POINT_NAME, session.getGeofence().getName());
+        assertEquals(683, session.getTotalDist(), 20);  // 200 + 200 + 283
+        assertEquals("North", session.buildPointResult(1, 2).getPoint().getName());
+    }
+
+    @Test
+    public void coldDayGivesApple() throws IOException {
+        Recorder recorder = new Recorder();
+        HuntSession session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, recorder);
+        session.addTemperature(10f);
+        sampleWalk().start(session);
+        assertEquals(Reward.Apple, recorder.reward);
+    }
+
+    @Test
+    public void temperatureWeightedByFixTime() throws IOException {
+        long[] checkpointTime = new long[1];
+        HuntSession[] hunt = new HuntSession[1];
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onCheckpointReached(Geofence checkpoint) {
+                super.onCheckpointReached(checkpoint);
+                // colder from the checkpoint on, as the sensor reports it
+                checkpointTime[0] = hunt[0].buildPointResult(1, 2).getArrival_timestamp();
+                hunt[0].addTemperature(10f);
+            }
+        };
+        HuntSession session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, recorder);
+        hunt[0] = session;
+        session.addTemperature(30f);
+        sampleWalk().start(session);
+        long start = session.getStartTime();
+        long end = start + Math.round(session.getDuration() * 1000);
+        double expected = (30.0 * (checkpointTime[0] - start) + 10.0 * (end - checkpointTime[0]))
+                / (end - start);
+        assertEquals(expected, session.getAvgTemp(), 1e-6);
+    }
+
+    @Test
+    public void oneWayNeverFinishes() throws IOException {
+        Recorder recorder = new Recorder();
+        HuntSession session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, recorder);
+        GpxReplaySource.fromFile(GPX_PATH).setStartTime(START_TIME).start(session);
+        assertEquals(1, recorder.checkpoints);
+        assertFalse(session.isFinished());
+        assertNull(recorder.reward);
+    }
+
+    @Test
+    public void noisyReplayIsDeterministic() throws IOException {
+        assertSameResult(replayNoisy(), replayNoisy());
+    }
+
+    private static HuntSession replayNoisy() throws IOException {
+        Recorder recorder = new Recorder();
+        HuntSession session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, recorder);
+        session.addTemperature(25f);
+        sampleWalk().setAccuracy(5f, 3.0, 11).start(session);
+        assertTrue(session.isFinished());
+        return session;
+    }
+
+    @Test
+    public void batchedReplayGivesSameResult() throws IOException {
+        Recorder single = new Recorder();
+        HuntSession singleSession = finishedHunt(single);
+
+        Recorder batched = new Recorder();
+        HuntSession batchedSession = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, batched);
+        batchedSession.addTemperature(25f);
+        sampleWalk().setBatchSize(5).start(batchedSession);
+
+        assertTrue(batchedSession.isFinished());
+        assertEquals(single.reward, batched.reward);
+        assertEquals(1, batched.checkpoints);
+        assertEquals(singleSession.getTrackPoints().size(), batchedSession.getTrackPoints().size());
+        // one position update per batch, plus one before each arrival
+        assertTrue(batched.positions < single.positions / 4);
+        assertSameResult(singleSession, batchedSession);
+    }
+
+    @Test
+    public void replayOnThread() throws IOException, InterruptedException {
+        CountDownLatch finished = new CountDownLatch(1);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onFinished(Reward reward) {
+                super.onFinished(reward);
+                finished.countDown();
+            }
+        };
+        HuntSession session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, recorder);
+        GpxReplaySource source = sampleWalk().setFixInterval(1000).setSpeedup(1000);
+        source.start(session);
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        source.stop();
+        assertEquals(1, recorder.checkpoints);
+    }
+}
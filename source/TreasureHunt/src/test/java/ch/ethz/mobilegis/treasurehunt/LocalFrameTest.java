@@ -0,0 +1,154 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the accuracy contract of LocalFrame against Vincenty's inverse formula on WGS84.
+ */
+public class LocalFrameTest {
+
+    @Test
+    public void distanceAndBearingWithinContract() {
+        Random random = new Random(1);
+        for (int k = 0; k < 20000; k++) {
+            double lat0 = (random.nextDouble() * 2 - 1) * 70;
+            double lon0 = (random.nextDouble() * 2 - 1) * 180;
+            LocalFrame frame = new LocalFrame(lat0, lon0);
+
+            // two points anywhere within the re-anchor distance
+            double[] p1 = randomPoint(frame, random);
+            double[] p2 = randomPoint(frame, random);
+            double e1 = frame.east(p1[1]);
+            double n1 = frame.north(p1[0]);
+            double e2 = frame.east(p2[1]);
+            double n2 = frame.north(p2[0]);
+
+            double[] reference = vincenty(p1[0], p1[1], p2[0], p2[1]);
+            double distance = LocalFrame.distance(e1, n1, e2, n2);
+            double distErr = Math.abs(distance - reference[0]);
+            assertTrue("distance " + distance + " vs " + reference[0],
+                    distErr <= 1e-3 * reference[0] + 0.01);
+
+            if (reference[0] > 10) {
+                double bearingErr = Math.abs(angleDiff(
+                        LocalFrame.bearing(e1, n1, e2, n2), reference[1]));
+                assertTrue("bearing err " + bearingErr, bearingErr < 0.1);
+            }
+        }
+    }
+
+    @Test
+    public void reanchorWhenDrifting() {
+        LocalFrame frame = new LocalFrame(47.408, 8.508);
+        int epoch = frame.getEpoch();
+        assertFalse(frame.ensureCovers(47.409, 8.509));
+        assertEquals(epoch, frame.getEpoch());
+        assertTrue(frame.ensureCovers(47.45, 8.508));  // ~4.7 km north
+        assertEquals(epoch + 1, frame.getEpoch());
+        assertEquals(0, frame.north(47.45), 1e-9);
+    }
+
+    @Test
+    public void roundTrip() {
+        LocalFrame frame = new LocalFrame(47.408, 8.508);
+        assertEquals(8.51, frame.longitude(frame.east(8.51)), 1e-12);
+        assertEquals(47.41, frame.latitude(frame.north(47.41)), 1e-12);
+    }
+
+    @Test
+    public void roundTripAcrossAntimeridian() {
+        LocalFrame frame = new LocalFrame(-16.8, 179.999);  // Fiji
+        double east = frame.east(-179.999);
+        assertEquals(213, east, 1);  // 0.002 degrees east
+        assertEquals(-179.999, frame.longitude(east), 1e-9);
+        assertEquals(179.998, frame.longitude(frame.east(179.998)), 1e-9);
+
+        frame = new LocalFrame(-16.8, -179.999);
+        assertEquals(179.999, frame.longitude(frame.east(179.999)), 1e-9);
+        assertEquals(-180, frame.longitude(frame.east(180)), 1e-9);
+        for (double e = -2000; e <= 2000; e += 10) {
+            double longitude = frame.longitude(e);
+            assertTrue("longitude " + longitude, longitude >= -180 && longitude < 180);
+        }
+    }
+
+    @Test
+    public void geofenceProjectionFollowsEpoch() {
+        LocalFrame frame = new LocalFrame(47.408, 8.508);
+        Geofence geofence = new Geofence("ETH Link", 47.409, 8.5077, 10);
+        double north = geofence.getNorth(frame);
+        assertEquals(frame.north(47.409), north, 1e-9);
+        frame.anchor(47.409, 8.5077);
+        assertEquals(0, geofence.getNorth(frame), 1e-9);
+        assertEquals(0, geofence.getEast(frame), 1e-9);
+    }
+
+    private static double[] randomPoint(LocalFrame frame, Random random) {
+        double r = Math.sqrt(random.nextDouble()) * LocalFrame.REANCHOR_DISTANCE;
+        double a = random.nextDouble() * 2 * Math.PI;
+        return new double[]{frame.latitude(r * Math.cos(a)), frame.longitude(r * Math.sin(a))};
+    }
+
+    private static double angleDiff(double a, double b) {
+        double d = (a - b) % 360;
+        if (d > 180) {
+            d -= 360;
+        } else if (d < -180) {
+            d += 360;
+        }
+        return d;
+    }
+
+    /**
+     * Vincenty's inverse formula.
+     *
+     * @return {distance in m, initial bearing in degrees}
+     */
+    private static double[] vincenty(double lat1, double lon1, double lat2, double lon2) {
+        double a = LocalFrame.EQUATORIAL_RADIUS;
+        double f = LocalFrame.FLATTENING;
+        double b = a * (1 - f);
+        double L = Math.toRadians(lon2 - lon1);
+        double U1 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat1)));
+        double U2 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(U1), cosU1 = Math.cos(U1);
+        double sinU2 = Math.sin(U2), cosU2 = Math.cos(U2);
+        double lambda = L;
+        double sinSigma, cosSigma, sigma, cosSqAlpha, cos2SigmaM, sinLambda, cosLambda;
+        int iterations = 0;
+        do {
+            sinLambda = Math.sin(lambda);
+            cosLambda = Math.cos(lambda);
+            sinSigma = Math.sqrt(Math.pow(cosU2 * sinLambda, 2)
+                    + Math.pow(cosU1 * sinU2 - sinU1 * cosU2 * cosLambda, 2));
+            if (sinSigma == 0) {
+                return new double[]{0, 0};
+            }
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+            double C = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+            double lambdaPrev = lambda;
+            lambda = L + (1 - C) * f * sinAlpha
+                    * (sigma + C * sinSigma * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - lambdaPrev) < 1e-13) {
+                break;
+            }
+        } while (++iterations < 200);
+        double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+        double A = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double B = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double deltaSigma = B * sinSigma * (cos2SigmaM + B / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - B / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        double distance = b * A * (sigma - deltaSigma);
+        double bearing = Math.toDegrees(Math.atan2(cosU2 * sinLambda,
+                cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+        return new double[]{distance, bearing};
+    }
+}
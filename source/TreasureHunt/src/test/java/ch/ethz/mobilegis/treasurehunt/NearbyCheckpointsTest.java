@@ -0,0 +1,98 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * NearbyCheckpoints: along a walk through 100k checkpoints the incremental ranking is the one a
+ * full k-NN query would give, with few full queries; nearest() in a band against a linear scan.
+ */
+public class NearbyCheckpointsTest {
+    private static final int K = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CheckpointCatalog randomCatalog(int n) throws IOException {
+        Random random = new Random(1);
+        List<String> names = new ArrayList<>();
+        List<double[]> coordinates = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            names.add("cp" + i);
+            coordinates.add(new double[]{47.3 + random.nextDouble() * 0.2,
+                    8.4 + random.nextDouble() * 0.3});
+        }
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(CheckpointCatalog.build(names, coordinates).array());
+        }
+        return CheckpointCatalog.open(file);
+    }
+
+    @Test
+    public void walkMatchesFullQueries() throws IOException {
+        CheckpointCatalog catalog = randomCatalog(100000);
+        assertWalk(catalog, new NearbyCheckpoints(catalog, K, 0, 2000), 0, 2000);
+        assertWalk(catalog, new NearbyCheckpoints(catalog, K, 150, 400), 150, 400);
+    }
+
+    private static void assertWalk(CheckpointCatalog catalog, NearbyCheckpoints nearby,
+                                   double minDistance, double maxDistance) {
+        LocalFrame around = new LocalFrame(47.4, 8.55);
+        int[] indices = new int[K];
+        double[] distances = new double[K];
+        int fixes = 3000;
+        for (int i = 0; i < fixes; i++) {
+            // 1 Hz walk, 1.4 m apart
+            double latitude = around.latitude(i * 1.4);
+            double longitude = around.longitude(Math.sin(i / 200.0) * 100);
+            nearby.update(latitude, longitude);
+
+            int n = catalog.nearest(latitude, longitude, minDistance, maxDistance, K, indices,
+                    distances);
+            assertEquals(n, nearby.size());
+            for (int j = 0; j < n; j++) {
+                assertEquals(distances[j], nearby.getDistance(j), 1e-6);  // same up to ties
+            }
+        }
+        assertTrue(nearby.getFullQueries() < fixes / 20);
+    }
+
+    @Test
+    public void nearestInBandMatchesLinearScan() throws IOException {
+        CheckpointCatalog catalog = randomCatalog(20000);
+        Random random = new Random(2);
+        int[] indices = new int[K];
+        double[] distances = new double[K];
+        double[] all = new double[catalog.size()];
+        for (int q = 0; q < 200; q++) {
+            double latitude = 47.3 + random.nextDouble() * 0.2;
+            double longitude = 8.4 + random.nextDouble() * 0.3;
+            int m = 0;
+            for (int i = 0; i < catalog.size(); i++) {
+                double d = catalog.distance(latitude, longitude, i);
+                if (d >= 300 && d <= 1000) {
+                    all[m++] = d;
+                }
+            }
+            Arrays.sort(all, 0, m);
+            int n = catalog.nearest(latitude, longitude, 300, 1000, K, indices, distances);
+            assertEquals(Math.min(K, m), n);
+            for (int j = 0; j < n; j++) {
+                assertEquals(all[j], distances[j], 1e-9);
+                assertEquals(distances[j], catalog.distance(latitude, longitude, indices[j]), 1e-9);
+            }
+        }
+    }
+}
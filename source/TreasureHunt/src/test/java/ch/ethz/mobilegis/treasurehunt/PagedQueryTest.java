@@ -0,0 +1,128 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * PagedQuery: pages cover every result once, the first one small; bounds grow page by page;
+ * a cancelled query requests nothing more and ignores its page in flight.
+ */
+public class PagedQueryTest {
+    /**
+     * `total` results at x = index, y = 0; pages are answered by reply(), as the done
+     * listeners would.
+     */
+    private static class FakeSource implements PagedQuery.PageSource {
+        final int total;
+        final int limit;  // server side maximum record count
+        final List<int[]> requests = new ArrayList<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        PagedQuery query;
+
+        FakeSource(int total, int limit) {
+            this.total = total;
+            this.limit = limit;
+        }
+
+        @Override
+        public Future<?> load(PagedQuery query, int offset, int count) {
+            this.query = query;
+            requests.add(new int[]{offset, count});
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            return future;
+        }
+
+        boolean reply() {
+            int[] request = requests.get(requests.size() - 1);
+            int offset = request[0];
+            int count = Math.max(0, Math.min(Math.min(request[1], limit), total - offset));
+            double[] bounds = 0 == count ? null : new double[]{offset, 0, offset + count - 1, 0};
+            futures.get(futures.size() - 1).complete(null);
+            query.pageLoaded(count, bounds, offset + count < total && count == limit);
+            return !query.isFinished() && !query.isCancelled();
+        }
+    }
+
+    private static class Pages implements PagedQuery.Listener {
+        final List<Integer> counts = new ArrayList<>();
+        int grew;
+        int finished;
+
+        @Override
+        public void onPage(PagedQuery query, int count, boolean boundsGrew) {
+            counts.add(count);
+            grew += boundsGrew ? 1 : 0;
+        }
+
+        @Override
+        public void onFinished(PagedQuery query) {
+            finished++;
+        }
+    }
+
+    @Test
+    public void pagesCoverAllResults() {
+        for (int total : new int[]{0, 1, PagedQuery.FIRST_PAGE, 5000}) {
+            for (int limit : new int[]{Integer.MAX_VALUE, 300}) {
+                FakeSource source = new FakeSource(total, limit);
+                Pages pages = new Pages();
+                PagedQuery query = new PagedQuery(source, pages);
+                query.start();
+                assertEquals(PagedQuery.FIRST_PAGE, source.requests.get(0)[1]);
+                while (source.reply()) {
+                    assertTrue(source.requests.size() < 1000);
+                }
+                assertEquals(1, pages.finished);
+                assertEquals(total, query.getLoaded());
+                int offset = 0;
+                for (int[] request : source.requests) {
+                    assertEquals(offset, request[0]);  // no gap, no overlap
+                    offset += Math.min(Math.min(request[1], limit), total - offset);
+                    assertTrue(request[1] <= PagedQuery.MAX_PAGE);
+                }
+                if (total > 0) {
+                    assertArrayEquals(new double[]{0, 0, total - 1, 0}, query.getBounds(), 0);
+                    // every page extends the bounds, except an empty last one
+                    assertEquals(pages.counts.size() - (0 == pages.counts.get(
+                            pages.counts.size() - 1) ? 1 : 0), pages.grew);
+                } else {
+                    assertNull(query.getBounds());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cancelIgnoresPageInFlight() {
+        FakeSource source = new FakeSource(1000, Integer.MAX_VALUE);
+        Pages pages = new Pages();
+        PagedQuery query = new PagedQuery(source, pages);
+        query.start();
+        assertTrue(source.reply());
+        query.cancel();
+        assertTrue(source.futures.get(1).isCancelled());
+        assertFalse(source.reply());
+        assertEquals(1, pages.counts.size());
+        assertEquals(2, source.requests.size());
+        assertEquals(0, pages.finished);
+    }
+
+    @Test
+    public void pageSizeFollowsRate() {
+        // fast: grows by GROWTH per page up to MAX_PAGE
+        assertEquals(PagedQuery.FIRST_PAGE * PagedQuery.GROWTH,
+                PagedQuery.nextPageSize(PagedQuery.FIRST_PAGE, PagedQuery.FIRST_PAGE, 1));
+        assertEquals(PagedQuery.MAX_PAGE, PagedQuery.nextPageSize(800, 800, 1));
+        // 1 result per ms: PAGE_BUDGET results
+        assertEquals((int) PagedQuery.PAGE_BUDGET, PagedQuery.nextPageSize(500, 500, 500));
+        // slow: never below the first page
+        assertEquals(PagedQuery.FIRST_PAGE, PagedQuery.nextPageSize(500, 500, 60000));
+    }
+}
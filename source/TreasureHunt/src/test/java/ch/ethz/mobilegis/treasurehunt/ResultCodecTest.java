@@ -0,0 +1,143 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static ch.ethz.mobilegis.treasurehunt.HuntFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * ResultCodec: round trips of each type, size of a replayed hunt against Java serialization,
+ * several messages in one buffer, and rejected input.
+ */
+public class ResultCodecTest {
+    @Test
+    public void smallTypesRoundTrip() throws IOException {
+        ResultCodec codec = new ResultCodec(16);  // grows
+        Geofence geofence = ResultCodec.decodeGeofence(codec.encode(CHECKPOINT));
+        assertEquals("Hoengg", geofence.getName());
+        assertEquals(CHECKPOINT.getLatitude(), geofence.getLatitude(), 1e-7);
+        assertEquals(CHECKPOINT.getLongitude(), geofence.getLongitude(), 1e-7);
+        assertEquals(GEOFENCE_RADIUS, geofence.getRadius(), 0.01);
+
+        CheckPoint checkPoint = ResultCodec.decodeCheckPoint(
+                codec.encode(new CheckPoint("Zürich HB", 8.540192, 47.378177)));
+        assertEquals("Zürich HB", checkPoint.getName());
+        assertEquals(8.540192, checkPoint.getLongitude(), 1e-7);
+
+        LonLatPoint point = ResultCodec.decodeLonLatPoint(
+                codec.encode(new LonLatPoint(-122.4194155, -37.8136)));
+        assertEquals(-122.4194155, point.getLongitude(), 1e-7);
+        assertEquals(-37.8136, point.getLatitude(), 1e-7);
+
+        PointResult result = ResultCodec.decodePointResult(codec.encode(
+                new PointResult(checkPoint, START_TIME, -1, 99999)));
+        assertEquals(START_TIME, result.getArrival_timestamp());
+        assertEquals(-1, result.getUserId());
+        assertEquals(99999, result.getTrackId());
+        assertEquals("Zürich HB", result.getPoint().getName());
+    }
+
+    @Test
+    public void longNamesGrowTheBuffer() throws IOException {
+        TrackBuffer track = new TrackBuffer();
+        track.append(8.5, 47.4, START_TIME, 5f, 500);
+        // every name length that ends near the capacity of a grown buffer
+        for (int length = 200; length < 800; length++) {
+            char[] chars = new char[length];
+            Arrays.fill(chars, 'x');
+            String name = new String(chars);
+
+            PointResult point = ResultCodec.decodePointResult(new ResultCodec(16).encode(
+                    new PointResult(new CheckPoint(name, 8.5, 47.4), START_TIME, 7, 42)));
+            assertEquals(name, point.getPoint().getName());
+            assertEquals(42, point.getTrackId());
+
+            TrackResult result = ResultCodec.decodeTrackResult(new ResultCodec(16).encode(
+                    new TrackResult(track, null, START_TIME, 7, 42, name, 1, 2, 3, 4)));
+            assertEquals(name, result.getRewardName());
+            assertEquals(4, result.getAvgTemperature(), 0);
+            assertEquals(1, result.getTrackPoints().size());
+        }
+    }
+
+    @Test
+    public void replayedHuntRoundTrip() throws IOException {
+        HuntSession session = finishedHunt(new Recorder());
+        TrackResult expected = session.buildTrackResult(7, 42);
+
+        ByteBuffer encoded = new ResultCodec().encode(expected);
+        int size = encoded.remaining();
+        TrackResult actual = ResultCodec.decodeTrackResult(encoded);
+        assertFalse(encoded.hasRemaining());
+        assertEquals(expected.getStartTimestamp(), actual.getStartTimestamp());
+        assertEquals(7, actual.getUserId());
+        assertEquals(42, actual.getTrackId());
+        assertEquals(expected.getRewardName(), actual.getRewardName());
+        assertEquals(expected.getDistance(), actual.getDistance(), 0);
+        assertEquals(expected.getAvgTemperature(), actual.getAvgTemperature(), 0);
+        assertTracks(expected.getTrackPoints(), actual.getTrackPoints());
+        assertTracks(expected.getSimplifiedTrackPoints(), actual.getSimplifiedTrackPoints());
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(expected);
+        }
+        assertTrue(size * 3 < serialized.size());
+    }
+
+    @Test
+    public void messagesInOneBuffer() throws IOException {
+        ResultCodec codec = new ResultCodec();
+        ByteBuffer payload = ByteBuffer.allocate(1024);
+        payload.put(codec.encode(CHECKPOINT));
+        payload.put(codec.encode(new LonLatPoint(8.5, 47.4)));
+        payload.flip();
+        assertEquals("Hoengg", ResultCodec.decodeGeofence(payload).getName());
+        assertEquals(47.4, ResultCodec.decodeLonLatPoint(payload).getLatitude(), 1e-7);
+        assertFalse(payload.hasRemaining());
+    }
+
+    @Test
+    public void rejectsOtherTypeVersionAndTruncation() {
+        ResultCodec codec = new ResultCodec();
+        byte[] geofence = ResultCodec.toByteArray(codec.encode(CHECKPOINT));
+        assertRejected(() -> ResultCodec.decodeCheckPoint(ByteBuffer.wrap(geofence)));
+
+        byte[] future = geofence.clone();
+        future[1] = ResultCodec.VERSION + 1;
+        assertRejected(() -> ResultCodec.decodeGeofence(ByteBuffer.wrap(future)));
+
+        assertRejected(() -> ResultCodec.decodeGeofence(
+                ByteBuffer.wrap(geofence, 0, geofence.length - 1)));
+    }
+
+    private interface Decoder {
+        Object decode() throws IOException;
+    }
+
+    private static void assertRejected(Decoder decoder) {
+        try {
+            decoder.decode();
+            fail("decoded");
+        } catch (IOException expected) {
+            // rejected
+        }
+    }
+
+    private static void assertTracks(TrackView expected, TrackView actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 1e-7);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 1e-7);
+            assertEquals(expected.getAltitude(i), actual.getAltitude(i), 0.1);
+            assertEquals(expected.getAccuracy(i), actual.getAccuracy(i), 0.1);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static ch.ethz.mobilegis.treasurehunt.HuntFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tiers of the SamplingScheduler, and the sample walk replayed with adaptive against fixed-rate
+ * sampling: fewer fixes, about the same arrival times.
+ */
+public class SamplingSchedulerTest {
+    @Test
+    public void tightensWhenApproaching() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        assertEquals(0, scheduler.getTier());
+        assertTrue(scheduler.update(2000, 10, 1.4));
+        assertEquals(3, scheduler.getTier());
+        assertEquals(30000, scheduler.getInterval());
+        assertFalse(scheduler.update(1900, 10, 1.4));  // same tier, no re-registration
+        scheduler.update(500, 10, 1.4);  // 350 s to the border
+        assertEquals(2, scheduler.getTier());
+        scheduler.update(100, 10, 1.4);  // 64 s
+        assertEquals(1, scheduler.getTier());
+        scheduler.update(30, 10, 1.4);  // 20 m
+        assertEquals(0, scheduler.getTier());
+        assertEquals(1000, scheduler.getInterval());
+        assertEquals(2f, scheduler.getMinDistance(), 0);
+        scheduler.update(5, 10, 1.4);  // inside
+        assertEquals(0, scheduler.getTier());
+    }
+
+    @Test
+    public void fasterMeansFinerSampling() {
+        SamplingScheduler walking = new SamplingScheduler();
+        walking.update(2000, 10, 1.4);
+        SamplingScheduler cycling = new SamplingScheduler();
+        cycling.update(2000, 10, 6.0);
+        assertTrue(cycling.getTier() < walking.getTier());
+    }
+
+    @Test
+    public void standingStillCountsAsWalking() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        scheduler.update(110, 10, 0);  // 71 s at walking speed
+        assertEquals(1, scheduler.getTier());
+    }
+
+    @Test
+    public void loosensOnlyWithMargin() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        scheduler.update(180, 10, 1.4);  // 121 s, but not 120 s * margin
+        assertEquals(1, scheduler.getTier());
+        scheduler.update(100, 10, 1.4);
+        scheduler.update(250, 10, 1.4);  // 171 s
+        assertEquals(2, scheduler.getTier());
+        // no flapping around the 120 s threshold once coarse
+        assertFalse(scheduler.update(180, 10, 1.4));
+        assertTrue(scheduler.update(170, 10, 1.4));  // 114 s
+        assertEquals(1, scheduler.getTier());
+    }
+
+    @Test
+    public void adaptiveReplayAgainstFixedRate() throws IOException {
+        Hunt fixed = hunt(false);
+        Hunt adaptive = hunt(true);
+
+        assertEquals(Reward.Watermelon, fixed.reward);
+        assertEquals(fixed.reward, adaptive.reward);
+        assertTrue(adaptive.tierChanges > 0);
+        // entry detection late by at most a couple of 1 Hz fixes
+        long checkpointDelay = adaptive.checkpointTime - fixed.checkpointTime;
+        long finishDelay = adaptive.finishTime - fixed.finishTime;
+        assertTrue(checkpointDelay >= 0 && checkpointDelay <= 3000);
+        assertTrue(finishDelay >= 0 && finishDelay <= 3000);
+        assertTrue(adaptive.fixes < fixed.fixes * 0.6);
+        assertEquals(fixed.session.getTotalDist(), adaptive.session.getTotalDist(),
+                0.1 * fixed.session.getTotalDist());
+    }
+
+    private static Hunt hunt(boolean adaptive) throws IOException {
+        GpxReplaySource source = sampleWalk();
+        Hunt hunt = new Hunt(source, adaptive);
+        source.start(hunt);
+        assertTrue(hunt.session.isFinished());
+        return hunt;
+    }
+
+    /**
+     * Counts the fixes reaching the session and re-registers the source like TrackingService.
+     */
+    private static class Hunt implements LocationSource.FixListener, HuntSession.Listener {
+        final HuntSession session;
+        final LocationSource source;
+        final SamplingScheduler scheduler;
+        int fixes;
+        int tierChanges;
+        long lastFixTime;
+        long checkpointTime;
+        long finishTime;
+        Reward reward;
+
+        Hunt(LocationSource source, boolean adaptive) {
+            this.source = source;
+            this.scheduler = adaptive ? new SamplingScheduler() : null;
+            session = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, this);
+            session.addTemperature(25f);
+        }
+
+        @Override
+        public void onFix(long time, double latitude, double longitude, float accuracy,
+                          double altitude) {
+            fixes++;
+            lastFixTime = time;
+            session.onFix(time, latitude, longitude, accuracy, altitude);
+        }
+
+        @Override
+        public void onPositionChanged(double distance, double speed, float bearing) {
+            if (null != scheduler
+                    && scheduler.update(distance, session.getGeofence().getRadius(), speed)) {
+                tierChanges++;
+                source.setInterval(scheduler.getInterval(), scheduler.getMinDistance());
+            }
+        }
+
+        @Override
+        public void onCheckpointReached(Geofence checkpoint) {
+            checkpointTime = lastFixTime;
+        }
+
+        @Override
+        public void onFinished(Reward reward) {
+            finishTime = lastFixTime;
+            this.reward = reward;
+        }
+    }
+}
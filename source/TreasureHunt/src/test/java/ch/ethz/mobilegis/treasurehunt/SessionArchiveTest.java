@@ -0,0 +1,176 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Locale;
+
+import static ch.ethz.mobilegis.treasurehunt.HuntFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * SessionArchive: a replayed hunt read back, time range lookups, out of order sessions,
+ * recovery after a crash, and the import of output.csv.
+ */
+public class SessionArchiveTest {
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File reopened;  // directory of the last reopen()
+
+    private static SessionSummary summary(long startTime) {
+        return new SessionSummary(startTime, 8.5, 47.4, "Hoengg", 8.51073, 47.40688, 1234.5,
+                600, 7.41, 21.5, "Watermelon");
+    }
+
+    @Test
+    public void replayedHuntRoundTrip() throws IOException {
+        HuntSession session = finishedHunt(new Recorder());
+        assertTrue(session.isFinished());
+
+        SessionArchive archive = SessionArchive.open(folder.getRoot());
+        TrackView track = session.getTrackPoints();
+        assertEquals(0, archive.append(session.buildSummary(), track));
+        long bytes = new File(folder.getRoot(), SessionArchive.DATA_FILE).length();
+        assertTrue(bytes < 10 * track.size());  // 32 bytes per fix in memory
+
+        SessionSummary summary = archive.getSummary(0);
+        assertEquals(START_TIME, summary.getStartTimestamp());
+        assertEquals("Hoengg", summary.getCheckpointName());
+        assertEquals(session.getReward().getPureName(), summary.getRewardName());
+        assertEquals(session.getTotalDist(), summary.getDistance(), 0);
+
+        TrackBuffer read = archive.getTrack(0);
+        assertEquals(track.size(), read.size());
+        for (int i = 0; i < track.size(); i++) {
+            assertEquals(track.getTime(i), read.getTime(i));
+            assertEquals(track.getLatitude(i), read.getLatitude(i), 1e-7);
+            assertEquals(track.getLongitude(i), read.getLongitude(i), 1e-7);
+            assertEquals(track.getAltitude(i), read.getAltitude(i), 0.1);
+            assertEquals(track.getAccuracy(i), read.getAccuracy(i), 0.1);
+        }
+    }
+
+    @Test
+    public void timeRangeAndOutOfOrder() throws IOException {
+        SessionArchive archive = SessionArchive.open(folder.getRoot());
+        for (int day = 0; day < 10; day += 2) {
+            archive.append(summary(START_TIME + day * DAY), new TrackBuffer(16));
+        }
+        assertEquals(2, archive.append(summary(START_TIME + 3 * DAY), new TrackBuffer(16)));
+        assertEquals(6, archive.size());
+
+        // days 2, 3, 4
+        assertEquals(1, archive.lowerBound(START_TIME + DAY + 1));
+        assertEquals(4, archive.lowerBound(START_TIME + 5 * DAY));
+        assertEquals(6, archive.lowerBound(START_TIME + 100 * DAY));
+        assertEquals(2, archive.indexOf(START_TIME + 3 * DAY));
+        assertEquals(-1, archive.indexOf(START_TIME + 5 * DAY));
+        assertEquals(START_TIME + 3 * DAY, archive.getSummary(2).getStartTimestamp());
+        assertEquals(0, archive.getTrack(2).size());
+
+        // the index was replaced as a whole, entries in order are appended to the new one
+        File index = new File(folder.getRoot(), SessionArchive.INDEX_FILE);
+        assertFalse(new File(index.getPath() + ".tmp").exists());
+        assertEquals(8 + 6 * 20, index.length());
+        archive.append(summary(START_TIME + 10 * DAY), new TrackBuffer(16));
+        assertEquals(8 + 7 * 20, index.length());
+
+        // same order after reopening
+        SessionArchive reopened = reopen();
+        assertEquals(7, reopened.size());
+        for (int i = 1; i < reopened.size(); i++) {
+            assertTrue(reopened.getStartTime(i - 1) < reopened.getStartTime(i));
+            assertEquals(reopened.getStartTime(i), reopened.getSummary(i).getStartTimestamp());
+        }
+    }
+
+    @Test
+    public void recoversAfterCrash() throws IOException {
+        SessionArchive archive = SessionArchive.open(folder.getRoot());
+        for (int day = 0; day < 3; day++) {
+            archive.append(summary(START_TIME + day * DAY), new TrackBuffer(16));
+        }
+        File data = new File(folder.getRoot(), SessionArchive.DATA_FILE);
+        File index = new File(folder.getRoot(), SessionArchive.INDEX_FILE);
+        long complete = data.length();
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(raf.length() - 20 - 7);  // last entry lost, another one torn
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(data, "rw")) {
+            raf.seek(complete);
+            raf.write(new byte[]{0x54, 0x48, 0x53, 0x31, 0, 1});  // record cut short
+        }
+
+        SessionArchive recovered = reopen();
+        assertEquals(3, recovered.size());
+        assertEquals(START_TIME + DAY, recovered.getSummary(1).getStartTimestamp());
+        assertEquals(START_TIME + 2 * DAY, recovered.getSummary(2).getStartTimestamp());
+        assertEquals(complete, new File(reopened, SessionArchive.DATA_FILE).length());
+        recovered.append(summary(START_TIME + 3 * DAY), new TrackBuffer(16));
+        assertEquals(4, reopen(reopened).size());
+    }
+
+    @Test
+    public void importsCsvOnce() throws IOException {
+        HuntSession session = finishedHunt(new Recorder());
+        SessionSummary expected = session.buildSummary();
+        String line = csvLine(expected);
+        String csv = line + "\n\nnot,a,result\n"
+                + csvLine(summary(START_TIME + DAY)).replace(".", ",") + "\n";  // decimal comma
+
+        SessionArchive archive = SessionArchive.open(folder.getRoot());
+        SessionArchive.CsvImport first = archive.importCsv(new StringReader(csv),
+                Collections.singletonList(new CheckPoint("Hoengg", 8.51073, 47.40688)));
+        assertEquals(1, first.getImported());
+        assertEquals(2, first.getSkipped());
+        SessionArchive.CsvImport again = archive.importCsv(new StringReader(line + "\n"),
+                Collections.<CheckPoint>emptyList());
+        assertEquals(0, again.getImported());
+        assertEquals(0, again.getSkipped());
+        assertEquals(1, archive.size());
+
+        SessionSummary imported = reopen().getSummary(0);
+        assertEquals(expected.getStartTimestamp(), imported.getStartTimestamp());
+        assertEquals("Hoengg", imported.getCheckpointName());
+        assertEquals(expected.getRewardName(), imported.getRewardName());
+        assertEquals(expected.getDistance(), imported.getDistance(), 0.05);
+        assertEquals(expected.getAvgSpeed(), imported.getAvgSpeed(), 0.005);
+        assertEquals(0, archive.getTrack(0).size());
+    }
+
+    /**
+     * A line of output.csv as older versions wrote it.
+     */
+    private static String csvLine(SessionSummary summary) {
+        return String.format(Locale.ROOT, "%d,%.8f,%.8f,%.8f,%.8f,%.1f,%.1f,%.2f,%.1f,%s",
+                summary.getStartTimestamp(), summary.getStartLongitude(),
+                summary.getStartLatitude(), summary.getCheckpointLongitude(),
+                summary.getCheckpointLatitude(), summary.getDistance(), summary.getDuration(),
+                summary.getAvgSpeed(), summary.getAvgTemperature(), summary.getRewardName());
+    }
+
+    /**
+     * A fresh instance on the same files, as after a restart of the app.
+     */
+    private SessionArchive reopen() throws IOException {
+        return reopen(folder.getRoot());
+    }
+
+    private SessionArchive reopen(File dir) throws IOException {
+        reopened = folder.newFolder();
+        for (String name : new String[]{SessionArchive.DATA_FILE, SessionArchive.INDEX_FILE}) {
+            Files.copy(new File(dir, name).toPath(),
+                    new File(reopened, name).toPath());
+        }
+        return SessionArchive.open(reopened);
+    }
+}
@@ -0,0 +1,115 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static ch.ethz.mobilegis.treasurehunt.HuntFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * SessionRepository: a replayed hunt handed over by session ID, in the same process and after a
+ * restart, and its archived track serialized as a reference.
+ */
+public class SessionRepositoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A replayed hunt, archived like TrackingService does.
+     */
+    private HuntSession archivedHunt(File dir) throws IOException {
+        HuntSession session = finishedHunt(new Recorder());
+        assertTrue(session.isFinished());
+        SessionArchive.open(dir).append(session.buildSummary(), session.getTrackPoints());
+        return session;
+    }
+
+    @Test
+    public void handOffInProcess() throws IOException {
+        File dir = folder.getRoot();
+        HuntSession session = archivedHunt(dir);
+        SessionRepository repository = SessionRepository.open(dir);
+        assertEquals(SessionRepository.NO_SESSION, repository.getLastSessionId());
+        TrackResult track = session.buildTrackResult(7, 42);
+        PointResult point = session.buildPointResult(7, 42);
+
+        long sessionId = repository.put(track, point);
+        assertEquals(START_TIME, sessionId);
+        assertEquals(sessionId, repository.getLastSessionId());
+        assertSame(repository, SessionRepository.open(dir));
+        assertSame(track, repository.getTrackResult(sessionId));
+        assertSame(point, repository.getPointResult(sessionId));
+    }
+
+    @Test
+    public void handOffAfterRestart() throws IOException {
+        File dir = folder.getRoot();
+        HuntSession session = archivedHunt(dir);
+        SessionRepository repository = SessionRepository.open(dir);
+        TrackResult expected = session.buildTrackResult(7, 42);
+        PointResult expectedPoint = session.buildPointResult(7, 42);
+        long sessionId = repository.put(expected, expectedPoint);
+        repository.forget();
+
+        TrackResult track = repository.getTrackResult(sessionId);
+        assertNotSame(expected, track);
+        assertEquals(expected.getStartTimestamp(), track.getStartTimestamp());
+        assertEquals(42, track.getTrackId());
+        assertEquals(7, track.getUserId());
+        assertEquals(expected.getRewardName(), track.getRewardName());
+        assertEquals(expected.getDistance(), track.getDistance(), 0);
+        assertTracks(expected.getTrackPoints(), track.getTrackPoints());
+        assertTracks(expected.getSimplifiedTrackPoints(), track.getSimplifiedTrackPoints());
+
+        PointResult point = repository.getPointResult(sessionId);
+        assertEquals(expectedPoint.getArrival_timestamp(), point.getArrival_timestamp());
+        assertEquals("Hoengg", point.getPoint().getName());
+        assertEquals(expectedPoint.getPoint().getLatitude(), point.getPoint().getLatitude(), 0);
+
+        // handed over again with another track ID: the latest record wins
+        repository.forget();
+        repository.put(session.buildTrackResult(7, 43), session.buildPointResult(7, 43));
+        repository.forget();
+        assertEquals(43, repository.getTrackResult(sessionId).getTrackId());
+    }
+
+    @Test
+    public void archivedTrackSerializedAsReference() throws IOException, ClassNotFoundException {
+        File dir = folder.getRoot();
+        HuntSession session = archivedHunt(dir);
+        TrackView track = new ArchivedTrack(dir, START_TIME, 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(track);
+        }
+        assertTrue(bytes.size() < 512);
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertTracks(session.getTrackPoints(), (TrackView) in.readObject());
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void unknownSession() throws IOException {
+        SessionRepository.open(folder.getRoot()).getTrackResult(START_TIME);
+    }
+
+    private static void assertTracks(TrackView expected, TrackView actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 1e-7);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 1e-7);
+        }
+    }
+}
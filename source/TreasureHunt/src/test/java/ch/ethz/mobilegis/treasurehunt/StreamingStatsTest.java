@@ -0,0 +1,94 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StreamingStats against two-pass statistics and sorted quantiles.
+ */
+public class StreamingStatsTest {
+
+    @Test
+    public void empty() {
+        StreamingStats stats = new StreamingStats(0.5);
+        assertEquals(0, stats.getCount());
+        assertTrue(Double.isNaN(stats.getMean()));
+        assertTrue(Double.isNaN(stats.getVariance()));
+        assertTrue(Double.isNaN(stats.getTimeWeightedMean(1000)));
+        assertTrue(Double.isNaN(stats.getQuantile(0)));
+    }
+
+    @Test
+    public void meanVarianceMinMax() {
+        Random random = new Random(1);
+        double[] values = new double[10000];
+        StreamingStats stats = new StreamingStats();
+        for (int i = 0; i < values.length; i++) {
+            // large offset, the naive sum-of-squares formula loses all digits here
+            values[i] = 1e9 + random.nextGaussian() * 3;
+            stats.add(values[i], i * 1000L);
+        }
+        double mean = Arrays.stream(values).sum() / values.length;
+        double variance = Arrays.stream(values).map(v -> (v - mean) * (v - mean)).sum()
+                / (values.length - 1);
+        assertEquals(values.length, stats.getCount());
+        assertEquals(mean, stats.getMean(), 1e-5);
+        assertEquals(variance, stats.getVariance(), 1e-6 * variance);
+        assertEquals(Arrays.stream(values).min().getAsDouble(), stats.getMin(), 0);
+        assertEquals(Arrays.stream(values).max().getAsDouble(), stats.getMax(), 0);
+    }
+
+    @Test
+    public void timeWeightedMeanHoldsSamples() {
+        StreamingStats stats = new StreamingStats();
+        stats.add(10, 0);
+        assertEquals(10, stats.getTimeWeightedMean(), 0);
+        stats.add(20, 1000);  // 10 held for 1 s
+        stats.add(30, 4000);  // 20 held for 3 s
+        assertEquals((10 * 1 + 20 * 3) / 4.0, stats.getTimeWeightedMean(), 1e-12);
+        // 30 held for 4 more s
+        assertEquals((10 * 1 + 20 * 3 + 30 * 4) / 8.0, stats.getTimeWeightedMean(8000), 1e-12);
+        assertEquals(20, stats.getMean(), 1e-12);
+    }
+
+    @Test
+    public void exactQuantilesForFewSamples() {
+        StreamingStats stats = new StreamingStats(0.5, 0.9);
+        double[] values = {7, 3, 5};
+        for (int i = 0; i < values.length; i++) {
+            stats.add(values[i], i);
+        }
+        assertEquals(5, stats.getQuantile(0), 0);
+        assertEquals(7, stats.getQuantile(1), 0);
+    }
+
+    @Test
+    public void approximateQuantiles() {
+        double[] probabilities = {0.1, 0.5, 0.9, 0.99};
+        Random random = new Random(2);
+        int n = 100000;
+        double[][] series = {new double[n], new double[n], new double[n]};
+        for (int i = 0; i < n; i++) {
+            series[0][i] = random.nextDouble() * 10;  // uniform, e.g. speed
+            series[1][i] = 20 + random.nextGaussian() * 2;  // normal, e.g. temperature
+            series[2][i] = -Math.log(1 - random.nextDouble());  // exponential, skewed
+        }
+        for (double[] values : series) {
+            StreamingStats stats = new StreamingStats(probabilities);
+            for (int i = 0; i < n; i++) {
+                stats.add(values[i], i);
+            }
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double range = sorted[n - 1] - sorted[0];
+            for (int q = 0; q < probabilities.length; q++) {
+                double exact = sorted[(int) Math.ceil(probabilities[q] * n) - 1];
+                assertEquals("p=" + probabilities[q], exact, stats.getQuantile(q), 0.01 * range);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * TileCache: LRU eviction within the byte budget, also after reopening; hit statistics;
+ * prefetching a bounding box and serving it offline; tile coordinates.
+ */
+public class TileCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tiles of `size` bytes, counting fetches; fails like a missing network when offline.
+     */
+    private static class FakeServer implements TileCache.Fetcher {
+        final int size;
+        int fetches;
+        boolean offline;
+
+        FakeServer(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public byte[] fetch(int level, int row, int column) throws IOException {
+            if (offline) {
+                throw new IOException("offline");
+            }
+            fetches++;
+            return tile(level, row, column, size);
+        }
+    }
+
+    private static byte[] tile(int level, int row, int column, int size) {
+        byte[] tile = new byte[size];
+        Arrays.fill(tile, (byte) (level * 31 + row * 7 + column));
+        return tile;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException, InterruptedException {
+        File dir = folder.newFolder();
+        TileCache cache = TileCache.open(dir, 3000);
+        for (int column = 0; column < 3; column++) {
+            cache.put(15, 100, column, tile(15, 100, column, 1000));
+            Thread.sleep(20);  // distinct modification times
+        }
+        assertNotNull(cache.get(15, 100, 0));
+        Thread.sleep(20);
+        cache.put(15, 100, 3, tile(15, 100, 3, 1000));
+        assertFalse(cache.contains(15, 100, 1));
+        assertArrayEquals(tile(15, 100, 0, 1000), cache.get(15, 100, 0));
+        assertEquals(3000, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, dir.listFiles().length);
+
+        // after a restart, the order comes from the files; a smaller budget evicts the oldest
+        File moved = folder.newFolder();
+        for (File file : dir.listFiles()) {
+            assertTrue(file.renameTo(new File(moved, file.getName())));
+        }
+        TileCache reopened = TileCache.open(moved, 2000);
+        assertEquals(2, reopened.getTileCount());
+        assertFalse(reopened.contains(15, 100, 2));  // oldest
+        assertTrue(reopened.contains(15, 100, 0));
+        assertTrue(reopened.contains(15, 100, 3));
+    }
+
+    @Test
+    public void countsHitsAndBytesSaved() throws IOException {
+        TileCache cache = TileCache.open(folder.newFolder(), 1 << 20);
+        FakeServer server = new FakeServer(500);
+        assertEquals(0, cache.getHitRate(), 0);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(tile(16, 200, 300, 500), cache.getOrFetch(16, 200, 300, server));
+        }
+        assertEquals(1, server.fetches);
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRate(), 1e-9);
+        assertEquals(1500, cache.getBytesSaved());
+        assertEquals(500, cache.getBytesFetched());
+
+        server.offline = true;
+        assertNull(cache.getOrFetch(16, 200, 301, server));
+        assertNotNull(cache.getOrFetch(16, 200, 300, server));
+    }
+
+    @Test
+    public void prefetchServesOffline() throws IOException {
+        TileCache cache = TileCache.open(folder.newFolder(), 1 << 20);
+        FakeServer server = new FakeServer(100);
+        double south = 47.397;
+        double west = 8.496;
+        double north = 47.420;
+        double east = 8.520;
+        long expected = TileCache.countTiles(south, west, north, east, 10, 16);
+        assertEquals(expected, cache.prefetch(south, west, north, east, 10, 16, server));
+        assertEquals(expected, server.fetches);
+        // already cached, nothing fetched again
+        assertEquals(0, cache.prefetch(south, west, north, east, 10, 16, server));
+
+        server.offline = true;
+        for (int level = 10; level <= 16; level++) {
+            assertNotNull(cache.getOrFetch(level, TileCache.row(47.408, level),
+                    TileCache.column(8.508, level), server));
+        }
+        assertEquals(1.0, cache.getHitRate(), 0);
+        assertEquals(700, cache.getBytesSaved());
+
+        // budget too small for the box: stops before evicting its own tiles
+        TileCache small = TileCache.open(folder.newFolder(), 1000);
+        assertEquals(10, small.prefetch(south, west, north, east, 10, 16, new FakeServer(100)));
+        assertEquals(0, small.getEvictions());
+        // and again: full, so nothing is fetched
+        FakeServer again = new FakeServer(100);
+        assertEquals(0, small.prefetch(south, west, north, east, 10, 16, again));
+        assertEquals(0, again.fetches);
+        assertEquals(0, small.getEvictions());
+    }
+
+    @Test
+    public void tileCoordinates() {
+        assertEquals(0, TileCache.column(-180, 5));
+        assertEquals(31, TileCache.column(180, 5));
+        assertEquals(0, TileCache.row(89, 5));
+        assertEquals(1, TileCache.row(0, 1));  // equator: first row of the south half
+        // ETH Hoenggerberg in the OSM tiling
+        assertEquals(8579, TileCache.column(8.508, 14));
+        assertEquals(5735, TileCache.row(47.408, 14));
+    }
+}
@@ -0,0 +1,127 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * TourPlanner: loops close to a length budget, the shortest loop against all orders of a few
+ * checkpoints, routes through the bundle encoding.
+ */
+public class TourPlannerTest {
+    private static final double LATITUDE = 47.408;
+    private static final double LONGITUDE = 8.508;
+
+    /**
+     * n checkpoints within `radius` m around the start.
+     */
+    private static CheckpointCatalog randomCatalog(int n, double radius, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        LocalFrame frame = new LocalFrame(LATITUDE, LONGITUDE);
+        List<String> names = new ArrayList<>();
+        List<double[]> coordinates = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            names.add("cp" + i);
+            coordinates.add(new double[]{
+                    frame.latitude((random.nextDouble() * 2 - 1) * radius),
+                    frame.longitude((random.nextDouble() * 2 - 1) * radius)});
+        }
+        return CheckpointCatalog.of(names, coordinates);
+    }
+
+    @Test
+    public void loopCloseToBudget() throws IOException {
+        CheckpointCatalog catalog = randomCatalog(2000, 3000, 1);
+        TourPlanner planner = new TourPlanner(catalog, 4);
+        for (double budget : new double[]{1500, 3000, 5000}) {
+            TourPlanner.Tour tour = planner.plan(LATITUDE, LONGITUDE, 4, budget, 200);
+            assertEquals(4, tour.getStops().size());
+            assertEquals(budget, tour.getLength(), budget * 0.02);
+            assertEquals(loopLength(tour.getStops()), tour.getLength(), 1e-6);
+            Set<String> names = new HashSet<>();
+            for (CheckPoint stop : tour.getStops()) {
+                names.add(stop.getName());
+            }
+            assertEquals(4, names.size());
+        }
+        TourPlanner.Tour tour = planner.planForDuration(LATITUDE, LONGITUDE, 3, 3600, 100);
+        assertEquals(3600 * TourPlanner.WALKING_SPEED, tour.getLength(), 100);
+    }
+
+    @Test
+    public void shortestLoopIsOptimal() throws IOException {
+        for (long seed = 0; seed < 5; seed++) {
+            CheckpointCatalog catalog = randomCatalog(8, 500, seed);
+            TourPlanner.Tour tour = new TourPlanner(catalog, 2).plan(LATITUDE, LONGITUDE, 8, 0,
+                    1000);
+            assertEquals(8, tour.getStops().size());
+            List<CheckPoint> all = new ArrayList<>(catalog.asList());
+            assertEquals(shortest(all, new ArrayList<>()), tour.getLength(), 1e-6);
+        }
+    }
+
+    @Test
+    public void outOfReach() throws IOException {
+        CheckpointCatalog catalog = randomCatalog(100, 500, 1);
+        assertNull(new TourPlanner(catalog, 1).plan(LATITUDE + 1, LONGITUDE, 3, 1000, 100));
+        // fewer stops than asked: at most a pool of candidates
+        TourPlanner.Tour tour = new TourPlanner(catalog, 1).plan(LATITUDE, LONGITUDE, 200,
+                5000, 100);
+        assertEquals(TourPlanner.POOL_SIZE, tour.getStops().size());
+    }
+
+    @Test
+    public void routeRoundTrip() throws IOException {
+        TourPlanner.Tour tour = new TourPlanner(randomCatalog(50, 1000, 2), 1).plan(LATITUDE,
+                LONGITUDE, 5, 3000, 50);
+        List<Geofence> route = tour.toGeofences(10f);
+        List<Geofence> decoded = ResultCodec.decodeRoute(new ResultCodec(16).encode(route));
+        assertEquals(5, decoded.size());
+        for (int i = 0; i < route.size(); i++) {
+            assertEquals(route.get(i).getName(), decoded.get(i).getName());
+            assertEquals(route.get(i).getLatitude(), decoded.get(i).getLatitude(), 1e-7);
+            assertEquals(10, decoded.get(i).getRadius(), 0.01);
+        }
+    }
+
+    /**
+     * Length of the shortest loop from the start through `left`, after `order`, by brute force.
+     */
+    private static double shortest(List<CheckPoint> left, List<CheckPoint> order) {
+        if (left.isEmpty()) {
+            return loopLength(order);
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < left.size(); i++) {
+            CheckPoint next = left.remove(i);
+            order.add(next);
+            best = Math.min(best, shortest(left, order));
+            order.remove(order.size() - 1);
+            left.add(i, next);
+        }
+        return best;
+    }
+
+    private static double loopLength(List<CheckPoint> stops) {
+        LocalFrame frame = new LocalFrame(LATITUDE, LONGITUDE);
+        double length = 0;
+        double east = 0;
+        double north = 0;
+        for (CheckPoint stop : stops) {
+            double e = frame.east(stop.getLongitude());
+            double n = frame.north(stop.getLatitude());
+            length += LocalFrame.distance(east, north, e, n);
+            east = e;
+            north = n;
+        }
+        return length + LocalFrame.distance(east, north, 0, 0);
+    }
+}
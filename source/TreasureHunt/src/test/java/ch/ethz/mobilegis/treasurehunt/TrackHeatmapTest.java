@@ -0,0 +1,139 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * TrackHeatmap: a track counts once per cell it crosses, at every level; parallel adds give the
+ * counts of sequential ones.
+ */
+public class TrackHeatmapTest {
+    private static final double WORLD_HALF = 20037508.342787;
+
+    /**
+     * Random walks of n vertices from within 1 km of Hoenggerberg, in web mercator metres.
+     */
+    private static List<double[]> walks(int tracks, int n, long seed) {
+        Random random = new Random(seed);
+        List<double[]> walks = new ArrayList<>();
+        for (int t = 0; t < tracks; t++) {
+            double[] xy = new double[2 * n];
+            xy[0] = 947000 + random.nextDouble() * 1000;
+            xy[1] = 6008000 + random.nextDouble() * 1000;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            for (int i = 1; i < n; i++) {
+                heading += random.nextGaussian() * 0.3;
+                double step = 1 + random.nextDouble() * 20;
+                xy[2 * i] = xy[2 * i - 2] + step * Math.cos(heading);
+                xy[2 * i + 1] = xy[2 * i - 1] + step * Math.sin(heading);
+            }
+            walks.add(xy);
+        }
+        return walks;
+    }
+
+    @Test
+    public void lineCountsOncePerCell() {
+        int level = TrackHeatmap.MAX_LEVEL;
+        double cell = 2 * WORLD_HALF / ((long) TrackHeatmap.CELLS << level);
+        // along the middle of a row of cells, from cell 10 to cell 50 of a tile, then back
+        int row = 51200;
+        int column = 68600;
+        double x0 = -WORLD_HALF + (column * TrackHeatmap.CELLS + 10.5) * cell;
+        double x1 = -WORLD_HALF + (column * TrackHeatmap.CELLS + 50.5) * cell;
+        double y = WORLD_HALF - (row * TrackHeatmap.CELLS + 20.5) * cell;
+        TrackHeatmap heatmap = new TrackHeatmap();
+        heatmap.add(new double[]{x0, y, x1, y, x0, y});
+        heatmap.add(new double[]{x0, y, x1, y});
+        char[] counts = heatmap.getTile(level, row, column);
+        for (int cy = 0; cy < TrackHeatmap.CELLS; cy++) {
+            for (int cx = 0; cx < TrackHeatmap.CELLS; cx++) {
+                int expected = 20 == cy && cx >= 10 && cx <= 50 ? 2 : 0;
+                assertEquals(expected, counts[cy * TrackHeatmap.CELLS + cx]);
+            }
+        }
+        assertEquals(2, heatmap.getMaxCount(level));
+        assertEquals(2, heatmap.getTrackCount());
+        // one tile per level, the line is within one tile at every level
+        assertEquals(TrackHeatmap.MAX_LEVEL - TrackHeatmap.MIN_LEVEL + 1, heatmap.getTileCount());
+        assertEquals(2, heatmap.getMaxCount(TrackHeatmap.MIN_LEVEL));
+        assertNull(heatmap.getTile(level, row + 1, column));
+        assertNull(heatmap.getTile(TrackHeatmap.MIN_LEVEL - 1, row >> 7, column >> 7));
+    }
+
+    @Test
+    public void parallelAddsMatchSequential() throws InterruptedException {
+        List<double[]> tracks = walks(200, 300, 1);
+        TrackHeatmap sequential = new TrackHeatmap();
+        for (double[] track : tracks) {
+            sequential.add(track);
+        }
+        TrackHeatmap parallel = new TrackHeatmap();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // in two syncs
+            parallel.addAll(tracks.subList(0, 77), executor, 4);
+            parallel.addAll(tracks.subList(77, 200), executor, 4);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(200, parallel.getTrackCount());
+        assertEquals(sequential.getTileCount(), parallel.getTileCount());
+        assertEquals((long) sequential.getTileCount() * TrackHeatmap.TILE_BYTES,
+                parallel.getMemory());
+        for (int level = TrackHeatmap.MIN_LEVEL; level <= TrackHeatmap.MAX_LEVEL; level++) {
+            assertEquals(sequential.getMaxCount(level), parallel.getMaxCount(level));
+            int tiles = 1 << level;
+            int row = (int) ((WORLD_HALF - 6008500) / (2 * WORLD_HALF) * tiles);
+            int column = (int) ((947500 + WORLD_HALF) / (2 * WORLD_HALF) * tiles);
+            for (int r = row - 2; r <= row + 2; r++) {
+                for (int c = column - 2; c <= column + 2; c++) {
+                    char[] expected = sequential.getTile(level, r, c);
+                    char[] actual = parallel.getTile(level, r, c);
+                    if (null == expected) {
+                        assertNull(actual);
+                    } else {
+                        assertArrayEquals(expected, actual);
+                    }
+                }
+            }
+        }
+        // the walks overlap at coarse levels
+        assertTrue(parallel.getMaxCount(TrackHeatmap.MIN_LEVEL)
+                > parallel.getMaxCount(TrackHeatmap.MAX_LEVEL));
+    }
+
+    @Test
+    public void addAfterShutdownIsClosing() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        executor.shutdownNow();  // as the activity closes while a sync is counted
+        TrackHeatmap heatmap = new TrackHeatmap();
+        try {
+            heatmap.addAll(walks(200, 300, 1), executor, 4);
+            fail();
+        } catch (InterruptedException e) {
+            // closing
+        }
+        assertEquals(0, heatmap.getTileCount());
+    }
+
+    @Test
+    public void colorRamp() {
+        assertEquals(0, TrackHeatmap.color(0, 10));
+        int previousAlpha = 0;
+        for (int count = 1; count <= 10; count++) {
+            int alpha = TrackHeatmap.color(count, 10) >>> 24;
+            assertTrue(alpha > previousAlpha);
+            previousAlpha = alpha;
+        }
+        assertEquals(0xFF0000, TrackHeatmap.color(10, 10) & 0xFFFFFF);  // red
+        assertEquals(0xFF0000, TrackHeatmap.color(20, 10) & 0xFFFFFF);
+    }
+}
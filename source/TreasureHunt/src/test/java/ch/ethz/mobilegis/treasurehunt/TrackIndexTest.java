@@ -0,0 +1,112 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TrackIndex: combined filters against a linear scan over 100k tracks, with users from a few
+ * tracks (array chunks) to most of them (bitmap chunks); syncing appends above the largest
+ * object ID only.
+ */
+public class TrackIndexTest {
+    private static final String[] REWARDS = {"Gold", "Silver", "Bronze", "Watermelon"};
+
+    private static class Track {
+        long objectId;
+        int userId;
+        String reward;
+        double[] values = new double[4];
+    }
+
+    @Test
+    public void filtersMatchLinearScan() {
+        Random random = new Random(1);
+        TrackIndex index = new TrackIndex();
+        List<Track> tracks = new ArrayList<>();
+        long objectId = 0;
+        for (int i = 0; i < 100000; i++) {
+            Track track = new Track();
+            track.objectId = objectId += 1 + random.nextInt(3);
+            // user 0 has most tracks, the others a few
+            track.userId = random.nextInt(4) > 0 ? 0 : 1 + random.nextInt(2000);
+            track.reward = random.nextInt(10) > 0 ? REWARDS[random.nextInt(REWARDS.length)] : null;
+            track.values[TrackIndex.DISTANCE] = random.nextInt(50) > 0 ? random.nextDouble() * 5000
+                    : Double.NaN;
+            track.values[TrackIndex.DURATION] = random.nextInt(3600);
+            track.values[TrackIndex.AVERAGE_SPEED] = random.nextDouble() * 10;
+            track.values[TrackIndex.START_TIME] = 1.6e12 + random.nextInt(1000000) * 1000.0;
+            assertTrue(index.add(track.objectId, track.userId, track.reward,
+                    track.values[0], track.values[1], track.values[2], track.values[3]));
+            tracks.add(track);
+        }
+        assertFalse(index.add(objectId, 5, null, 0, 0, 0, 0));  // already synced
+        assertEquals(objectId, index.getMaxObjectId());
+
+        for (int userId : new int[]{-1, 0, 7, 1999, 5000}) {
+            for (String reward : new String[]{null, "Gold", "Diamond"}) {
+                for (int q = 0; q < 5; q++) {
+                    double min = random.nextDouble() * 4000;
+                    double max = min + random.nextDouble() * 2000;
+                    TrackIndex.Filter filter = new TrackIndex.Filter();
+                    if (userId >= 0) {
+                        filter.user(userId);
+                    }
+                    if (null != reward) {
+                        filter.reward(reward);
+                    }
+                    int column = q % 2 == 0 ? TrackIndex.DISTANCE : TrackIndex.DURATION;
+                    if (q > 0) {
+                        filter.range(column, min, max);
+                    }
+                    long[] found = index.find(filter);
+
+                    List<Long> expected = new ArrayList<>();
+                    for (Track track : tracks) {
+                        if ((userId < 0 || track.userId == userId)
+                                && (null == reward || reward.equals(track.reward))
+                                && (q == 0 || track.values[column] >= min
+                                && track.values[column] <= max)) {
+                            expected.add(track.objectId);
+                        }
+                    }
+                    assertEquals(expected.size(), found.length);
+                    for (int i = 0; i < found.length; i++) {
+                        assertEquals((long) expected.get(i), found[i]);
+                    }
+                }
+            }
+        }
+        assertTrue(index.getBitmapMemory() < 200 * 1024);
+    }
+
+    @Test
+    public void rowBitmapChunks() {
+        RowBitmap bitmap = new RowBitmap();
+        long[] expected = new long[(200000 + 63) / 64];
+        Random random = new Random(2);
+        for (int row = 0; row < 200000; row++) {
+            // sparse in the first chunk, dense in the second, sparse again after
+            boolean dense = row >= 65536 && row < 131072;
+            if (random.nextInt(dense ? 2 : 100) == 0) {
+                bitmap.add(row);
+                expected[row >>> 6] |= 1L << row;
+            }
+        }
+        long[] all = new long[expected.length];
+        Arrays.fill(all, -1L);
+        bitmap.andInto(all);
+        assertArrayEquals(expected, all);
+        try {
+            bitmap.add(5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // rows ascend
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+
+import static ch.ethz.mobilegis.treasurehunt.HuntFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * TrackJournal: reading back, recovery after a crash or a torn block, serialization as a file
+ * reference, and a hunt resumed from its journal.
+ */
+public class TrackJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void appendFixes(TrackJournal journal, int from, int to) {
+        for (int i = from; i < to; i++) {
+            journal.append(8.5 + i * 1e-5, 47.4 + i * 1e-5, START_TIME + i * 1000L, 3f + i % 7,
+                    400 + i % 11);
+        }
+    }
+
+    private static void assertFixes(TrackView track, int n) {
+        assertEquals(n, track.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(8.5 + i * 1e-5, track.getLongitude(i), 0);
+            assertEquals(47.4 + i * 1e-5, track.getLatitude(i), 0);
+            assertEquals(START_TIME + i * 1000L, track.getTime(i));
+            assertEquals(3f + i % 7, track.getAccuracy(i), 0);
+            assertEquals(400 + i % 11, track.getAltitude(i), 0);
+        }
+    }
+
+    @Test
+    public void appendAndRecover() throws IOException {
+        File file = new File(folder.getRoot(), "1" + TrackJournal.EXTENSION);
+        TrackJournal journal = TrackJournal.create(file, CHECKPOINT, START_TIME);
+        int n = 5 * TrackJournal.BLOCK_RECORDS + 17;  // a partial block after the last checksum
+        appendFixes(journal, 0, n);
+        assertFixes(journal, n);
+        TrackView snapshot = journal.snapshot();
+        appendFixes(journal, n, n + 1);
+        assertEquals(n, snapshot.size());
+
+        // no finish(): the process died
+        assertEquals(1, TrackJournal.findInterrupted(folder.getRoot(), null).size());
+        assertTrue(TrackJournal.findInterrupted(folder.getRoot(), file).isEmpty());
+        TrackJournal recovered = TrackJournal.open(file);
+        assertFixes(recovered, n + 1);
+        assertFalse(recovered.isFinished());
+        assertEquals(START_TIME, recovered.getCreatedTime());
+        Geofence checkpoint = recovered.getCheckpoint();
+        assertEquals(CHECKPOINT.getName(), checkpoint.getName());
+        assertEquals(CHECKPOINT.getLatitude(), checkpoint.getLatitude(), 0);
+        assertEquals(CHECKPOINT.getRadius(), checkpoint.getRadius(), 0);
+
+        // appending goes on after the recovered fixes
+        appendFixes(recovered, n + 1, n + 100);
+        recovered.finish();
+        assertTrue(recovered.isFinished());
+        assertFixes(recovered, n + 100);
+        assertTrue(TrackJournal.findInterrupted(folder.getRoot(), null).isEmpty());
+        assertFixes(TrackJournal.open(file), n + 100);
+    }
+
+    @Test
+    public void growsBeyondFirstMapping() throws IOException {
+        File file = new File(folder.getRoot(), "2" + TrackJournal.EXTENSION);
+        TrackJournal journal = TrackJournal.create(file, CHECKPOINT, START_TIME);
+        int n = 10000;  // about three hours at 1 Hz
+        appendFixes(journal, 0, n);
+        assertNull(journal.getError());
+        assertFixes(TrackJournal.open(file), n);
+    }
+
+    @Test
+    public void tornBlockIsDropped() throws IOException {
+        File file = new File(folder.getRoot(), "3" + TrackJournal.EXTENSION);
+        TrackJournal journal = TrackJournal.create(file, CHECKPOINT, START_TIME);
+        appendFixes(journal, 0, 4 * TrackJournal.BLOCK_RECORDS + 5);
+
+        // flip the accuracy of a fix in the third block
+        int slot = 2 * (TrackJournal.BLOCK_RECORDS + 1) + 10;
+        long offset = TrackJournal.HEADER_SIZE + slot * TrackJournal.SLOT_SIZE + 24;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.writeFloat(99f);
+        }
+        TrackJournal recovered = TrackJournal.open(file);
+        assertFixes(recovered, 2 * TrackJournal.BLOCK_RECORDS);
+
+        // the dropped fixes do not come back after the next crash
+        appendFixes(recovered, 2 * TrackJournal.BLOCK_RECORDS, 2 * TrackJournal.BLOCK_RECORDS + 3);
+        assertFixes(TrackJournal.open(file), 2 * TrackJournal.BLOCK_RECORDS + 3);
+    }
+
+    @Test
+    public void snapshotIsSerializedAsFileReference() throws IOException, ClassNotFoundException {
+        File file = new File(folder.getRoot(), "4" + TrackJournal.EXTENSION);
+        TrackJournal journal = TrackJournal.create(file, CHECKPOINT, START_TIME);
+        appendFixes(journal, 0, 3600);
+        journal.finish();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(journal.snapshot());
+        }
+        assertTrue(bytes.size() < 1024);  // 3600 fixes would be over 100 KB
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertFixes((TrackView) in.readObject(), 3600);
+        }
+    }
+
+    @Test
+    public void pruneKeepsNewestAndInterrupted() throws IOException {
+        for (int i = 1; i <= 4; i++) {
+            TrackJournal journal = TrackJournal.create(
+                    new File(folder.getRoot(), i + TrackJournal.EXTENSION), CHECKPOINT, i);
+            if (i != 1) {
+                journal.finish();
+            }
+        }
+        TrackJournal.prune(folder.getRoot(), 2);
+        assertTrue(new File(folder.getRoot(), "1" + TrackJournal.EXTENSION).exists());
+        assertFalse(new File(folder.getRoot(), "2" + TrackJournal.EXTENSION).exists());
+        assertTrue(new File(folder.getRoot(), "3" + TrackJournal.EXTENSION).exists());
+        assertTrue(new File(folder.getRoot(), "4" + TrackJournal.EXTENSION).exists());
+    }
+
+    @Test
+    public void huntResumedFromJournal() throws IOException {
+        // uninterrupted hunt
+        HuntSession reference = finishedHunt(new Recorder());
+        assertTrue(reference.isFinished());
+
+        // same walk, the process dies after 300 fixes (past the checkpoint)
+        File file = new File(folder.getRoot(), "5" + TrackJournal.EXTENSION);
+        Recorder first = new Recorder();
+        HuntSession crashed = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, first,
+                TrackJournal.create(file, CHECKPOINT, START_TIME));
+        crashed.addTemperature(25f);
+        Recorder second = new Recorder();
+        HuntSession[] resumed = new HuntSession[1];
+        int[] fixes = new int[1];
+        sampleWalk().start((time, latitude, longitude, accuracy, altitude) -> {
+            if (fixes[0]++ == 300) {
+                resumed[0] = resume(file, second);
+            }
+            HuntSession session = null == resumed[0] ? crashed : resumed[0];
+            session.onFix(time, latitude, longitude, accuracy, altitude);
+        });
+        assertEquals(1, first.checkpoints);
+        assertFalse(crashed.isFinished());
+
+        HuntSession session = resumed[0];
+        assertTrue(session.isFinished());
+        assertEquals(1, second.checkpoints);  // replayed
+        assertEquals(reference.getReward(), second.reward);
+        assertFixes(reference.getTrackPoints(), session.getTrackPoints());
+        assertSameResult(reference, session);
+        assertTrue(session.getJournal().size() > 300);
+    }
+
+    @Test
+    public void temperaturesResumedFromJournal() throws IOException {
+        // uninterrupted hunt, warming up on the way
+        HuntSession reference = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, new Recorder());
+        reference.addTemperature(15f);
+        int[] fixes = new int[1];
+        sampleWalk().start((time, latitude, longitude, accuracy, altitude) -> {
+            addTemperatures(reference, fixes[0]++);
+            reference.onFix(time, latitude, longitude, accuracy, altitude);
+        });
+        assertTrue(reference.isFinished());
+
+        // same hunt, the process dies after 300 fixes
+        File file = new File(folder.getRoot(), "6" + TrackJournal.EXTENSION);
+        HuntSession crashed = new HuntSession(CHECKPOINT, GEOFENCE_RADIUS, new Recorder(),
+                TrackJournal.create(file, CHECKPOINT, START_TIME));
+        crashed.addTemperature(15f);
+        HuntSession[] resumed = new HuntSession[1];
+        fixes[0] = 0;
+        sampleWalk().start((time, latitude, longitude, accuracy, altitude) -> {
+            if (fixes[0] == 300) {
+                resumed[0] = resume(file, new Recorder());
+            }
+            HuntSession session = null == resumed[0] ? crashed : resumed[0];
+            addTemperatures(session, fixes[0]++);
+            session.onFix(time, latitude, longitude, accuracy, altitude);
+        });
+
+        HuntSession session = resumed[0];
+        assertTrue(session.isFinished());
+        assertEquals(5, session.getJournal().getTemperatureCount());
+        assertEquals(250, session.getJournal().getTemperatureFixes(3));
+        assertEquals(reference.getTemperatureStats().getCount(),
+                session.getTemperatureStats().getCount());
+        assertSameResult(reference, session);
+        assertNotEquals(15, session.buildSummary().getAvgTemperature(), 0.5);
+    }
+
+    /* The samples of the hunt of temperaturesResumedFromJournal, before fix `i` */
+    private static void addTemperatures(HuntSession session, int i) {
+        if (100 == i) {
+            session.addTemperature(20f);
+        } else if (250 == i) {
+            session.addTemperature(25f);
+            session.addTemperature(26f);
+        } else if (400 == i) {
+            session.addTemperature(30f);
+        }
+    }
+
+    private static HuntSession resume(File file, Recorder recorder) {
+        try {
+            TrackJournal journal = TrackJournal.open(file);
+            HuntSession session = new HuntSession(journal.getCheckpoint(), GEOFENCE_RADIUS,
+                    recorder, journal);
+            session.replayJournal();  // with the temperature samples
+            return session;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertFixes(TrackView expected, TrackView actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 0);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 0);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TrackPyramid: every level is Douglas-Peucker at its tolerance, levels are nested and shrink,
+ * the level of a scale stays within its tolerance.
+ */
+public class TrackPyramidTest {
+    /**
+     * Random walk of n vertices, in metres.
+     */
+    private static double[] walk(int n, long seed) {
+        Random random = new Random(seed);
+        double[] xy = new double[2 * n];
+        double heading = 0;
+        for (int i = 1; i < n; i++) {
+            heading += random.nextGaussian() * 0.3;
+            double step = 1 + random.nextDouble() * 3;
+            xy[2 * i] = xy[2 * i - 2] + step * Math.cos(heading);
+            xy[2 * i + 1] = xy[2 * i - 1] + step * Math.sin(heading);
+        }
+        return xy;
+    }
+
+    @Test
+    public void levelsAreDouglasPeucker() {
+        for (long seed = 0; seed < 5; seed++) {
+            double[] xy = walk(3000, seed);
+            TrackPyramid pyramid = new TrackPyramid(xy);
+            assertEquals(3000, pyramid.size(0));
+            for (int level = 1; level < TrackPyramid.LEVELS; level++) {
+                List<Integer> expected = new ArrayList<>();
+                expected.add(0);
+                douglasPeucker(xy, 0, 2999, TrackPyramid.tolerance(level), expected);
+                expected.add(2999);
+                int[] vertices = pyramid.getVertices(level);
+                assertEquals(expected.size(), vertices.length);
+                for (int i = 0; i < vertices.length; i++) {
+                    assertEquals((int) expected.get(i), vertices[i]);
+                }
+                assertTrue(pyramid.size(level) <= pyramid.size(level - 1));
+                assertWithin(xy, vertices, TrackPyramid.tolerance(level));
+            }
+            assertEquals(2, pyramid.size(TrackPyramid.LEVELS - 1));
+        }
+    }
+
+    @Test
+    public void shortTracks() {
+        for (int n = 0; n <= 3; n++) {
+            TrackPyramid pyramid = new TrackPyramid(walk(n, 1));
+            assertEquals(n, pyramid.size(0));
+            for (int level = 1; level < TrackPyramid.LEVELS; level++) {
+                assertTrue(pyramid.size(level) >= Math.min(n, 2));
+                assertTrue(pyramid.size(level) <= pyramid.size(level - 1));
+            }
+        }
+    }
+
+    @Test
+    public void levelForTolerance() {
+        assertEquals(0, TrackPyramid.levelFor(0.1));
+        assertEquals(1, TrackPyramid.levelFor(TrackPyramid.BASE_TOLERANCE));
+        assertEquals(3, TrackPyramid.levelFor(TrackPyramid.BASE_TOLERANCE * 5));
+        assertEquals(TrackPyramid.LEVELS - 1, TrackPyramid.levelFor(1e9));
+        for (double tolerance = 0.01; tolerance < 1e6; tolerance *= 1.3) {
+            assertTrue(TrackPyramid.tolerance(TrackPyramid.levelFor(tolerance)) <= tolerance);
+        }
+    }
+
+    private static void douglasPeucker(double[] xy, int start, int end, double tolerance,
+                                       List<Integer> kept) {
+        double x = xy[2 * end] - xy[2 * start];
+        double y = xy[2 * end + 1] - xy[2 * start + 1];
+        int farthest = -1;
+        double max = tolerance * tolerance;
+        for (int i = start + 1; i < end; i++) {
+            double d2 = TrackSimplifier.segmentDistance2(xy[2 * i] - xy[2 * start],
+                    xy[2 * i + 1] - xy[2 * start + 1], x, y, x * x + y * y);
+            if (d2 > max) {
+                max = d2;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0) {
+            douglasPeucker(xy, start, farthest, tolerance, kept);
+            kept.add(farthest);
+            douglasPeucker(xy, farthest, end, tolerance, kept);
+        }
+    }
+
+    /**
+     * Every vertex within `tolerance` of the segment of `vertices` around it.
+     */
+    private static void assertWithin(double[] xy, int[] vertices, double tolerance) {
+        for (int k = 0; k + 1 < vertices.length; k++) {
+            int a = vertices[k];
+            int b = vertices[k + 1];
+            double x = xy[2 * b] - xy[2 * a];
+            double y = xy[2 * b + 1] - xy[2 * a + 1];
+            for (int i = a + 1; i < b; i++) {
+                double d2 = TrackSimplifier.segmentDistance2(xy[2 * i] - xy[2 * a],
+                        xy[2 * i + 1] - xy[2 * a + 1], x, y, x * x + y * y);
+                assertTrue(Math.sqrt(d2) <= tolerance + 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Point reduction and error of TrackSimplifier, on the sample GPX walk and on long synthetic
+ * tracks. Its cost per fix is measured in TrackBenchmark.
+ */
+public class TrackSimplifierTest {
+    private static final String GPX_PATH = "../../test_gpx/Walkonhoengg.gpx";
+    private static final double[] TOLERANCES = {1.0, 3.0, 5.0, 10.0};
+    private static final Pattern TRKPT = Pattern.compile(
+            "<trkpt\\s+lat=\"([-0-9.]+)\"\\s+lon=\"([-0-9.]+)\"");
+
+    @Test
+    public void sampleWalk() throws IOException {
+        TrackBuffer raw = readGpx(GPX_PATH);
+        assertTrue(raw.size() > 0);
+        // the sample walk is sparse, densify it to a 1 Hz-like track with GPS jitter
+        TrackBuffer dense = densify(raw, 1.0, 2.0, new Random(7));
+        for (double tolerance : TOLERANCES) {
+            assertSimplified(dense, tolerance);
+        }
+    }
+
+    @Test
+    public void syntheticLongTrack() {
+        // ~5.5 h at 1 Hz
+        TrackBuffer raw = randomWalk(20000, new Random(42));
+        for (double tolerance : TOLERANCES) {
+            assertSimplified(raw, tolerance);
+        }
+    }
+
+    @Test
+    public void syntheticVeryLongTrack() {
+        TrackBuffer raw = randomWalk(200000, new Random(43));
+        assertSimplified(raw, 3.0);
+    }
+
+    private static void assertSimplified(TrackBuffer raw, double tolerance) {
+        TrackSimplifier simplifier = new TrackSimplifier(tolerance);
+        for (int i = 0; i < raw.size(); i++) {
+            simplifier.add(raw.getLongitude(i), raw.getLatitude(i), raw.getTime(i),
+                    raw.getAccuracy(i), raw.getAltitude(i));
+        }
+        simplifier.flush();
+        TrackBuffer simplified = simplifier.getOutput();
+
+        double error = maxError(raw, simplified);
+        assertEquals(raw.getTime(0), simplified.getTime(0));
+        assertEquals(raw.getTime(raw.size() - 1), simplified.getTime(simplified.size() - 1));
+        assertTrue(simplified.size() < raw.size());
+        assertTrue("max error " + error, error <= tolerance + 1e-6);
+    }
+
+    /**
+     * Distance of every raw fix to the simplified segment spanning its time.
+     *
+     * @return the largest, in m
+     */
+    private static double maxError(TrackView raw, TrackView simplified) {
+        double max = 0;
+        int seg = 0;
+        LocalFrame frame = new LocalFrame(simplified.getLatitude(0), simplified.getLongitude(0));
+        for (int i = 0; i < raw.size(); i++) {
+            long time = raw.getTime(i);
+            while (seg < simplified.size() - 2 && simplified.getTime(seg + 1) < time) {
+                seg++;
+            }
+            frame.anchor(simplified.getLatitude(seg), simplified.getLongitude(seg));
+            double x = frame.east(simplified.getLongitude(seg + 1));
+            double y = frame.north(simplified.getLatitude(seg + 1));
+            double px = frame.east(raw.getLongitude(i));
+            double py = frame.north(raw.getLatitude(i));
+            double d = Math.sqrt(TrackSimplifier.segmentDistance2(px, py, x, y, x * x + y * y));
+            max = Math.max(max, d);
+        }
+        return max;
+    }
+
+    private static TrackBuffer readGpx(String path) throws IOException {
+        String gpx = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        Matcher matcher = TRKPT.matcher(gpx);
+        TrackBuffer track = new TrackBuffer();
+        long time = 0;
+        while (matcher.find()) {
+            track.append(Double.parseDouble(matcher.group(2)), Double.parseDouble(matcher.group(1)),
+                    time, 5f, 0);
+            time += 1000;
+        }
+        return track;
+    }
+
+    /**
+     * Resample a track to one fix per `step` metres, adding gaussian noise of `sigma` metres.
+     */
+    private static TrackBuffer densify(TrackView track, double step, double sigma, Random random) {
+        double my = Math.toRadians(LocalFrame.EARTH_RADIUS);
+        double mx = my * Math.cos(Math.toRadians(track.getLatitude(0)));
+        TrackBuffer out = new TrackBuffer();
+        long time = 0;
+        for (int i = 0; i + 1 < track.size(); i++) {
+            double dx = (track.getLongitude(i + 1) - track.getLongitude(i)) * mx;
+            double dy = (track.getLatitude(i + 1) - track.getLatitude(i)) * my;
+            int n = Math.max(1, (int) (Math.hypot(dx, dy) / step));
+            for (int k = 0; k < n; k++) {
+                double f = (double) k / n;
+                double lon = track.getLongitude(i) + f * dx / mx + random.nextGaussian() * sigma / mx;
+                double lat = track.getLatitude(i) + f * dy / my + random.nextGaussian() * sigma / my;
+                out.append(lon, lat, time, (float) sigma, 0);
+                time += 1000;
+            }
+        }
+        int last = track.size() - 1;
+        out.append(track.getLongitude(last), track.getLatitude(last), time, (float) sigma, 0);
+        return out;
+    }
+
+    /**
+     * Walking/running track near Hoengg: smooth heading changes, 1-4 m/s, 1 Hz, 2 m jitter.
+     */
+    private static TrackBuffer randomWalk(int n, Random random) {
+        double my = Math.toRadians(LocalFrame.EARTH_RADIUS);
+        double mx = my * Math.cos(Math.toRadians(47.408));
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        double speed = 2;
+        TrackBuffer out = new TrackBuffer();
+        for (int i = 0; i < n; i++) {
+            heading += random.nextGaussian() * 0.1;
+            if (random.nextInt(60) == 0) {
+                heading += (random.nextBoolean() ? 1 : -1) * Math.PI / 2;  // street corner
+            }
+            speed = Math.min(4, Math.max(1, speed + random.nextGaussian() * 0.1));
+            x += Math.sin(heading) * speed;
+            y += Math.cos(heading) * speed;
+            double lon = 8.508 + (x + random.nextGaussian() * 2) / mx;
+            double lat = 47.408 + (y + random.nextGaussian() * 2) / my;
+            out.append(lon, lat, i * 1000L, 4f, 530);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,48 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * UserIdCache: fresh lists are read back, stale ones, those of another layer and torn files
+ * are not.
+ */
+public class UserIdCacheTest {
+    private static final String LAYER = "https://example.com/FeatureServer/0";
+    private static final long TTL = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void freshWithinTtl() throws IOException {
+        File file = new File(folder.getRoot(), "user_ids.bin");
+        assertNull(UserIdCache.read(file, LAYER, 1000, TTL));
+        int[] ids = {3, 7, 42, 1001};
+        UserIdCache.write(file, LAYER, 1000, ids);
+        assertArrayEquals(ids, UserIdCache.read(file, LAYER, 1000 + TTL, TTL));
+        assertNull(UserIdCache.read(file, LAYER, 1001 + TTL, TTL));
+        assertNull(UserIdCache.read(file, LAYER, 999, TTL));  // clock went back
+        assertNull(UserIdCache.read(file, LAYER + "1", 2000, TTL));
+
+        UserIdCache.write(file, LAYER, 5000, new int[0]);
+        assertArrayEquals(new int[0], UserIdCache.read(file, LAYER, 5000, TTL));
+    }
+
+    @Test
+    public void tornFile() throws IOException {
+        File file = new File(folder.getRoot(), "user_ids.bin");
+        UserIdCache.write(file, LAYER, 1000, new int[]{1, 2, 3});
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(out.length() - 2);
+        }
+        assertNull(UserIdCache.read(file, LAYER, 1000, TTL));
+    }
+}
@@ -0,0 +1,141 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * ResultCodec against ObjectOutputStream, for a TrackResult (with its simplified track) and for
+ * the Geofence of the Intent bundles: time to encode and decode, and the encoded size, reported
+ * as the "bytes" secondary result of the encoding benchmarks.
+ */
+@State(Scope.Thread)
+public class CodecBenchmark {
+    @Param({"1000", "10000"})
+    public int points;
+
+    private final ResultCodec codec = new ResultCodec();
+    private final Geofence geofence = new Geofence("Hoengg", 47.40688, 8.51073, 10);
+    private TrackResult trackResult;
+    private byte[] encoded;
+    private byte[] serialized;
+    private byte[] encodedGeofence;
+    private byte[] serializedGeofence;
+
+    @Setup
+    public void setup() throws IOException {
+        // 1 Hz walk with a bit of GPS noise, 1.4 m apart
+        LocalFrame around = new LocalFrame(47.408, 8.508);
+        TrackBuffer track = new TrackBuffer(points);
+        TrackSimplifier simplifier = new TrackSimplifier(HuntSession.TRACK_SIMPLIFY_TOLERANCE);
+        Random random = new Random(1);
+        for (int i = 0; i < points; i++) {
+            double east = Math.sin(i / 100.0) * 50 + random.nextGaussian();
+            double north = i * 1.4 + random.nextGaussian();
+            double longitude = around.longitude(east);
+            double latitude = around.latitude(north);
+            long time = 1622966400000L + i * 1000L;
+            float accuracy = 3 + random.nextInt(10);
+            double altitude = 450 + random.nextGaussian() * 2;
+            track.append(longitude, latitude, time, accuracy, altitude);
+            simplifier.add(longitude, latitude, time, accuracy, altitude);
+        }
+        simplifier.flush();
+        trackResult = new TrackResult(track, simplifier.getOutput(), track.getTime(0), 1, 42,
+                "Watermelon", points * 1.4, points, 1.4 * 3.6, 20);
+        encoded = ResultCodec.toByteArray(codec.encode(trackResult));
+        serialized = serialize(trackResult);
+        encodedGeofence = ResultCodec.toByteArray(codec.encode(geofence));
+        serializedGeofence = serialize(geofence);
+    }
+
+    /**
+     * Encoded size in bytes.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size extends ReportedValues {
+        public long bytes;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeTrackResult(Size size) {
+        ByteBuffer buffer = codec.encode(trackResult);
+        if (size.isReporting()) {
+            size.bytes = buffer.remaining();
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public TrackResult decodeTrackResult() throws IOException {
+        return ResultCodec.decodeTrackResult(ByteBuffer.wrap(encoded));
+    }
+
+    @Benchmark
+    public byte[] serializeTrackResult(Size size) throws IOException {
+        byte[] bytes = serialize(trackResult);
+        if (size.isReporting()) {
+            size.bytes = bytes.length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public Object deserializeTrackResult() throws IOException, ClassNotFoundException {
+        return deserialize(serialized);
+    }
+
+    @Benchmark
+    public byte[] encodeGeofence(Size size) {
+        byte[] bytes = ResultCodec.toByteArray(codec.encode(geofence));
+        if (size.isReporting()) {
+            size.bytes = bytes.length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public Geofence decodeGeofence() throws IOException {
+        return ResultCodec.decodeGeofence(ByteBuffer.wrap(encodedGeofence));
+    }
+
+    @Benchmark
+    public byte[] serializeGeofence(Size size) throws IOException {
+        byte[] bytes = serialize(geofence);
+        if (size.isReporting()) {
+            size.bytes = bytes.length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public Object deserializeGeofence() throws IOException, ClassNotFoundException {
+        return deserialize(serializedGeofence);
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
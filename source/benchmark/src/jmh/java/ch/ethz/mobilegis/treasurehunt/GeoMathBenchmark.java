@@ -0,0 +1,97 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Distance and bearing from the user to a target, as computed for every fix.
+ */
+@State(Scope.Thread)
+public class GeoMathBenchmark {
+    private static final int POINTS = 1024;  // power of two, see next()
+
+    private final double[] latitudes = new double[POINTS];
+    private final double[] longitudes = new double[POINTS];
+    private Geofence target;
+    private LocalFrame frame;
+    private int i;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        LocalFrame around = new LocalFrame(47.408, 8.508);
+        for (int k = 0; k < POINTS; k++) {
+            latitudes[k] = around.latitude((random.nextDouble() - 0.5) * 3000);
+            longitudes[k] = around.longitude((random.nextDouble() - 0.5) * 3000);
+        }
+        target = new Geofence("target", latitudes[0], longitudes[0], 500);
+        frame = new LocalFrame(47.408, 8.508);
+    }
+
+    private int next() {
+        i = (i + 1) & (POINTS - 1);
+        return i;
+    }
+
+    /**
+     * Distance between two points projected into a fixed frame.
+     */
+    @Benchmark
+    public double distance() {
+        int k = next();
+        int l = (k + 1) & (POINTS - 1);
+        return LocalFrame.distance(frame.east(longitudes[k]), frame.north(latitudes[k]),
+                frame.east(longitudes[l]), frame.north(latitudes[l]));
+    }
+
+    /**
+     * Bearing between two points projected into a fixed frame.
+     */
+    @Benchmark
+    public double bearing() {
+        int k = next();
+        int l = (k + 1) & (POINTS - 1);
+        return LocalFrame.bearing(frame.east(longitudes[k]), frame.north(latitudes[k]),
+                frame.east(longitudes[l]), frame.north(latitudes[l]));
+    }
+
+    /**
+     * Re-anchoring the frame at the user, as GeofenceEngine does per fix.
+     */
+    @Benchmark
+    public LocalFrame anchor() {
+        int k = next();
+        frame.anchor(latitudes[k], longitudes[k]);
+        return frame;
+    }
+
+    /**
+     * Containment in a single geofence whose projection is cached in the frame.
+     */
+    @Benchmark
+    public boolean geofenceContains() {
+        int k = next();
+        return target.distanceTo(frame, frame.east(longitudes[k]), frame.north(latitudes[k]))
+                < target.getRadius();
+    }
+
+    /**
+     * Haversine great-circle distance, for reference.
+     */
+    @Benchmark
+    public double haversine() {
+        int k = next();
+        int l = (k + 1) & (POINTS - 1);
+        double phi1 = Math.toRadians(latitudes[k]);
+        double phi2 = Math.toRadians(latitudes[l]);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(longitudes[l] - longitudes[k]);
+        double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * LocalFrame.EARTH_RADIUS * Math.asin(Math.sqrt(a));
+    }
+}
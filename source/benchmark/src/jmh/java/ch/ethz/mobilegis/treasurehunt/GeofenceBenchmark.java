@@ -0,0 +1,68 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Geofence containment: one fix against GeofenceEngine, with fences spread over an area
+ * proportional to their number. A single Geofence is measured in GeoMathBenchmark.
+ */
+@State(Scope.Thread)
+public class GeofenceBenchmark {
+    private static final int FIXES = 1 << 16;
+
+    @Param({"1", "1000", "10000", "100000"})
+    public int fences;
+
+    private GeofenceEngine engine;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int i;
+    private long time;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(fences);
+        double extent = Math.max(200, Math.sqrt(fences) * 100);  // ~1 fence per hectare
+        LocalFrame around = new LocalFrame(47.408, 8.508);
+        List<Geofence> list = new ArrayList<>(fences);
+        for (int k = 0; k < fences; k++) {
+            list.add(new Geofence("fence " + k,
+                    around.latitude((random.nextDouble() - 0.5) * extent),
+                    around.longitude((random.nextDouble() - 0.5) * extent),
+                    10 + random.nextDouble() * 40));
+        }
+        engine = new GeofenceEngine(list);
+
+        // walker at 3 m/s, bouncing inside the extent
+        latitudes = new double[FIXES];
+        longitudes = new double[FIXES];
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        for (int k = 0; k < FIXES; k++) {
+            heading += random.nextGaussian() * 0.2;
+            x += Math.sin(heading) * 3;
+            y += Math.cos(heading) * 3;
+            if (Math.abs(x) > extent / 2 || Math.abs(y) > extent / 2) {
+                heading += Math.PI;
+            }
+            latitudes[k] = around.latitude(y);
+            longitudes[k] = around.longitude(x);
+        }
+    }
+
+    @Benchmark
+    public int engineOnFix() {
+        i = (i + 1) & (FIXES - 1);
+        time += 1000;
+        return engine.onFix(latitudes[i], longitudes[i], time).size();
+    }
+}
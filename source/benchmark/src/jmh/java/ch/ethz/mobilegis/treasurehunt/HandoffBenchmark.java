@@ -0,0 +1,119 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+
+/**
+ * Handing the result of a finished hunt from NavigateActivity to UploadFeatureActivity, until the
+ * receiver has walked the track once:
+ *  - serializableExtras: TrackResult and PointResult as Serializable extras, written twice (bundle
+ *    and direct extra) and read once, as before the SessionRepository
+ *  - repository: put() and get by session ID in the same process
+ *  - repositoryAfterRestart: get by session ID after the process was killed, the track decoded
+ *    from the SessionArchive
+ */
+@State(Scope.Thread)
+public class HandoffBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int points;
+
+    private File dir;
+    private TrackResult trackResult;
+    private PointResult pointResult;
+    private SessionRepository repository;
+    private long sessionId;
+
+    @Setup
+    public void setup() throws IOException {
+        // 1 Hz walk north, 1.4 m apart
+        LocalFrame around = new LocalFrame(47.408, 8.508);
+        TrackBuffer track = new TrackBuffer(points);
+        for (int i = 0; i < points; i++) {
+            track.append(around.longitude(0), around.latitude(i * 1.4), 1622966400000L + i * 1000L,
+                    4f, 450);
+        }
+        TrackSimplifier simplifier = new TrackSimplifier(HuntSession.TRACK_SIMPLIFY_TOLERANCE);
+        for (int i = 0; i < points; i++) {
+            simplifier.add(track.getLongitude(i), track.getLatitude(i), track.getTime(i),
+                    track.getAccuracy(i), track.getAltitude(i));
+        }
+        simplifier.flush();
+        double duration = points;
+        trackResult = new TrackResult(track, simplifier.getOutput(), track.getTime(0), 1, 1,
+                "Watermelon", points * 1.4, duration, 1.4 * 3.6, 20);
+        pointResult = new PointResult(new CheckPoint("Checkpoint", around.longitude(0),
+                around.latitude(points * 0.7)), track.getTime(points / 2), 1, 1);
+
+        dir = Files.createTempDirectory("handoff").toFile();
+        SessionArchive.open(dir).append(new SessionSummary(track.getTime(0),
+                track.getLongitude(0), track.getLatitude(0), "Checkpoint",
+                pointResult.getPoint().getLongitude(), pointResult.getPoint().getLatitude(),
+                points * 1.4, duration, 1.4 * 3.6, 20, "Watermelon"), track);
+        repository = SessionRepository.open(dir);
+        sessionId = repository.put(trackResult, pointResult);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public double serializableExtras() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bundle)) {
+            out.writeObject(trackResult);
+            out.writeObject(pointResult);
+        }
+        ByteArrayOutputStream extras = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(extras)) {
+            out.writeObject(trackResult);
+            out.writeObject(pointResult);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bundle.toByteArray()))) {
+            TrackResult track = (TrackResult) in.readObject();
+            PointResult point = (PointResult) in.readObject();
+            return walk(track.getTrackPoints()) + point.getArrival_timestamp();
+        }
+    }
+
+    @Benchmark
+    public double repository() throws IOException {
+        long id = repository.put(trackResult, pointResult);
+        TrackResult track = repository.getTrackResult(id);
+        PointResult point = repository.getPointResult(id);
+        return walk(track.getTrackPoints()) + point.getArrival_timestamp();
+    }
+
+    @Benchmark
+    public double repositoryAfterRestart() throws IOException {
+        repository.forget();
+        TrackResult track = repository.getTrackResult(sessionId);
+        PointResult point = repository.getPointResult(sessionId);
+        return walk(track.getTrackPoints()) + point.getArrival_timestamp();
+    }
+
+    private static double walk(TrackView track) {
+        double sum = 0;
+        for (int i = 0; i < track.size(); i++) {
+            sum += track.getLatitude(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,80 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A whole hunt, end to end: the sample walk replayed from GpxReplaySource through HuntSession,
+ * out to the checkpoint and back, to its finished summary; and the same followed by the write of
+ * the session to the SessionArchive, which syncs the record to disk.
+ */
+@State(Scope.Thread)
+public class HuntBenchmark {
+    private static final String GPX_PATH = "../../test_gpx/Walkonhoengg.gpx";  // from benchmark/
+    private static final Geofence CHECKPOINT = new Geofence("Hoengg", 47.40688, 8.51073, 10);
+
+    private final HuntSession.Listener listener = new HuntSession.Listener() {
+        @Override
+        public void onPositionChanged(double distance, double speed, float bearing) {
+        }
+
+        @Override
+        public void onCheckpointReached(Geofence checkpoint) {
+        }
+
+        @Override
+        public void onFinished(Reward reward) {
+        }
+    };
+    private GpxReplaySource source;
+    private File dir;
+    private SessionArchive archive;
+
+    @Setup
+    public void setup() throws IOException {
+        source = GpxReplaySource.fromFile(GPX_PATH).setAccuracy(5f, 3.0, 11).setRoundTrip(true);
+    }
+
+    /* An empty archive per iteration, so it does not grow over the whole run */
+    @Setup(Level.Iteration)
+    public void openArchive() throws IOException {
+        dir = Files.createTempDirectory("HuntBenchmark").toFile();
+        archive = SessionArchive.open(dir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteArchive() {
+        new File(dir, SessionArchive.DATA_FILE).delete();
+        new File(dir, SessionArchive.INDEX_FILE).delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public SessionSummary replay() {
+        return hunt().buildSummary();
+    }
+
+    @Benchmark
+    public int replayAndArchive() throws IOException {
+        HuntSession session = hunt();
+        return archive.append(session.buildSummary(), session.getTrackPoints());
+    }
+
+    private HuntSession hunt() {
+        HuntSession session = new HuntSession(CHECKPOINT, 10, listener);
+        session.addTemperature(25f);
+        source.start(session);
+        if (!session.isFinished()) {
+            throw new IllegalStateException("replayed hunt did not finish");
+        }
+        return session;
+    }
+}
@@ -0,0 +1,86 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The closest checkpoints to a walking user, per fix (target: well under 1 ms at 100k):
+ *  - linearScan: distance to every checkpoint, then sorted, as a flat list would do
+ *  - fullQuery: k-NN query of the catalog grid at each fix
+ *  - incremental: NearbyCheckpoints.update(), which mostly re-ranks its candidates
+ */
+@State(Scope.Thread)
+public class NearbyBenchmark {
+    private static final int K = 10;
+    private static final int FIXES = 1024;
+
+    @Param({"1000", "10000", "100000"})
+    public int checkpoints;
+
+    private CheckpointCatalog catalog;
+    private NearbyCheckpoints nearby;
+    private final double[] latitudes = new double[FIXES];
+    private final double[] longitudes = new double[FIXES];
+    private final int[] indices = new int[K];
+    private final double[] distances = new double[K];
+    private double[] all;
+    private int fix;
+
+    @Setup
+    public void setup() throws IOException {
+        // checkpoints spread over 15 x 22 km around Zurich
+        Random random = new Random(1);
+        List<String> names = new ArrayList<>();
+        List<double[]> coordinates = new ArrayList<>();
+        for (int i = 0; i < checkpoints; i++) {
+            names.add("cp" + i);
+            coordinates.add(new double[]{47.3 + random.nextDouble() * 0.2,
+                    8.4 + random.nextDouble() * 0.3});
+        }
+        catalog = CheckpointCatalog.of(names, coordinates);
+        nearby = new NearbyCheckpoints(catalog, K, 0, 5000);
+        all = new double[checkpoints];
+        // 1 Hz walk, 1.4 m apart
+        LocalFrame around = new LocalFrame(47.4, 8.55);
+        for (int i = 0; i < FIXES; i++) {
+            latitudes[i] = around.latitude(i * 1.4);
+            longitudes[i] = around.longitude(Math.sin(i / 200.0) * 100);
+        }
+    }
+
+    private int next() {
+        fix = (fix + 1) % FIXES;
+        return fix;
+    }
+
+    @Benchmark
+    public double linearScan() {
+        int i = next();
+        for (int j = 0; j < checkpoints; j++) {
+            all[j] = catalog.distance(latitudes[i], longitudes[i], j);
+        }
+        Arrays.sort(all);
+        return all[K - 1];
+    }
+
+    @Benchmark
+    public int fullQuery() {
+        int i = next();
+        return catalog.nearest(latitudes[i], longitudes[i], 0, 5000, K, indices, distances);
+    }
+
+    @Benchmark
+    public boolean incremental() {
+        int i = next();
+        return nearby.update(latitudes[i], longitudes[i]);
+    }
+}
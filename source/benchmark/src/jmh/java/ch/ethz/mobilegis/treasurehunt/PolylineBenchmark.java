@@ -0,0 +1,78 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Building the polyline handed to the feature upload (UploadFeatureActivity.addTrackFeature)
+ * from the raw or the simplified track. Scores are per polyline.
+ *
+ * The ArcGIS PointCollection cannot be created on the JVM, the benchmarks copy the TrackView
+ * into the equivalent packed x/y array instead.
+ */
+@State(Scope.Thread)
+public class PolylineBenchmark {
+    @Param({"1000", "100000"})
+    public int points;
+
+    private TrackView raw;
+    private TrackView simplified;
+
+    @Setup
+    public void setup() {
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        walk(latitudes, longitudes);
+        TrackBuffer track = new TrackBuffer();
+        TrackSimplifier simplifier = new TrackSimplifier(HuntSession.TRACK_SIMPLIFY_TOLERANCE);
+        for (int k = 0; k < points; k++) {
+            track.append(longitudes[k], latitudes[k], k * 1000L, 4f, 500);
+            simplifier.add(longitudes[k], latitudes[k], k * 1000L, 4f, 500);
+        }
+        simplifier.flush();
+        raw = track.snapshot();
+        simplified = simplifier.getOutput().snapshot();
+    }
+
+    @Benchmark
+    public double[] polylineRaw() {
+        return polyline(raw);
+    }
+
+    @Benchmark
+    public double[] polylineSimplified() {
+        return polyline(simplified);
+    }
+
+    private static double[] polyline(TrackView track) {
+        double[] xy = new double[2 * track.size()];
+        for (int i = 0; i < track.size(); i++) {
+            xy[2 * i] = track.getLongitude(i);
+            xy[2 * i + 1] = track.getLatitude(i);
+        }
+        return xy;
+    }
+
+    /**
+     * 1 Hz walk at 1.4 m/s near Hoengg with 2 m jitter.
+     */
+    static void walk(double[] latitudes, double[] longitudes) {
+        Random random = new Random(3);
+        LocalFrame around = new LocalFrame(47.408, 8.508);
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        for (int k = 0; k < latitudes.length; k++) {
+            heading += random.nextGaussian() * 0.1;
+            x += Math.sin(heading) * 1.4;
+            y += Math.cos(heading) * 1.4;
+            latitudes[k] = around.latitude(y + random.nextGaussian() * 2);
+            longitudes[k] = around.longitude(x + random.nextGaussian() * 2);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+/**
+ * Base of the @AuxCounters states whose counters are values (a size, an error), not counts.
+ * JMH adds EVENTS counters up over the measurement iterations, so only the last one reports:
+ * the benchmark sets the counters if isReporting(), the other iterations leave them at 0.
+ */
+@State(Scope.Thread)
+public abstract class ReportedValues {
+    private int measurements;  // measurement iterations started
+    private boolean reporting;
+
+    @Setup(Level.Iteration)
+    public void startIteration(IterationParams iteration) {
+        boolean measurement = IterationType.MEASUREMENT == iteration.getType();
+        if (measurement) {
+            measurements++;
+        }
+        reporting = measurement && measurements == iteration.getCount();
+    }
+
+    boolean isReporting() {
+        return reporting;
+    }
+}
@@ -0,0 +1,72 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Finishing a hunt: the Serializable round trip of the TrackResult passed between activities.
+ */
+@State(Scope.Thread)
+public class ResultBenchmark {
+    @Param({"1000", "10000"})
+    public int points;
+
+    private HuntSession session;
+    private TrackResult trackResult;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        // straight out-and-back walk of `points` fixes, 1.4 m apart
+        LocalFrame around = new LocalFrame(47.408, 8.508);
+        double length = points / 2 * 1.4;
+        double[] latitudes = {around.latitude(0), around.latitude(length)};
+        double[] longitudes = {around.longitude(0), around.longitude(0)};
+        session = new HuntSession(new Geofence("Checkpoint", latitudes[1], longitudes[1], 10), 10,
+                new HuntSession.Listener() {
+                    @Override
+                    public void onPositionChanged(double distance, double speed, float bearing) {
+                    }
+
+                    @Override
+                    public void onCheckpointReached(Geofence checkpoint) {
+                    }
+
+                    @Override
+                    public void onFinished(Reward reward) {
+                    }
+                });
+        session.addTemperature(20f);
+        new GpxReplaySource(latitudes, longitudes, new double[2]).setRoundTrip(true).start(session);
+        if (!session.isFinished()) {
+            throw new IllegalStateException("replayed hunt did not finish");
+        }
+        trackResult = session.buildTrackResult(1, 1);
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(trackResult);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * TrackSimplifier over a whole track, per tolerance (m): the time to simplify it, and the
+ * "keptPoints", "maxError" and "meanError" (m, of the raw fixes to the simplified track)
+ * secondary results. The tracks:
+ *  - Walkonhoengg: the sample walk, replayed at 1 Hz with 2 m of GPS noise
+ *  - synthetic20k, synthetic200k: random walks of that many fixes (about 5.5 and 55 hours)
+ */
+@State(Scope.Thread)
+public class SimplifyQualityBenchmark {
+    private static final String GPX_PATH = "../../test_gpx/Walkonhoengg.gpx";  // from benchmark/
+
+    @Param({"1", "3", "5", "10"})
+    public double tolerance;
+
+    @Param({"Walkonhoengg", "synthetic20k", "synthetic200k"})
+    public String track;
+
+    private TrackBuffer raw;
+    private double maxError;
+    private double meanError;
+
+    @Setup
+    public void setup() throws IOException {
+        raw = new TrackBuffer();
+        if ("Walkonhoengg".equals(track)) {
+            GpxReplaySource.fromFile(GPX_PATH).setAccuracy(2f, 2.0, 7).start(
+                    (time, latitude, longitude, accuracy, altitude) ->
+                            raw.append(longitude, latitude, time, accuracy, altitude));
+        } else {
+            int fixes = "synthetic20k".equals(track) ? 20000 : 200000;
+            double[] latitudes = new double[fixes];
+            double[] longitudes = new double[fixes];
+            PolylineBenchmark.walk(latitudes, longitudes);
+            for (int k = 0; k < fixes; k++) {
+                raw.append(longitudes[k], latitudes[k], k * 1000L, 4f, 500);
+            }
+        }
+        // the output does not change between invocations, its error is measured once
+        TrackBuffer simplified = simplify(raw, tolerance);
+        double sum = 0;
+        LocalFrame frame = new LocalFrame(simplified.getLatitude(0), simplified.getLongitude(0));
+        int segment = 0;
+        for (int i = 0; i < raw.size(); i++) {
+            // distance to the simplified segment spanning the time of the fix
+            long time = raw.getTime(i);
+            while (segment < simplified.size() - 2 && simplified.getTime(segment + 1) < time) {
+                segment++;
+            }
+            frame.anchor(simplified.getLatitude(segment), simplified.getLongitude(segment));
+            double x = frame.east(simplified.getLongitude(segment + 1));
+            double y = frame.north(simplified.getLatitude(segment + 1));
+            double error = Math.sqrt(TrackSimplifier.segmentDistance2(
+                    frame.east(raw.getLongitude(i)), frame.north(raw.getLatitude(i)),
+                    x, y, x * x + y * y));
+            maxError = Math.max(maxError, error);
+            sum += error;
+        }
+        meanError = sum / raw.size();
+    }
+
+    /**
+     * Quality of the simplified track.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Quality extends ReportedValues {
+        public long keptPoints;
+        public double maxError;
+        public double meanError;
+    }
+
+    @Benchmark
+    public TrackBuffer simplify(Quality quality) {
+        TrackBuffer simplified = simplify(raw, tolerance);
+        if (quality.isReporting()) {
+            quality.keptPoints = simplified.size();
+            quality.maxError = maxError;
+            quality.meanError = meanError;
+        }
+        return simplified;
+    }
+
+    private static TrackBuffer simplify(TrackView raw, double tolerance) {
+        TrackSimplifier simplifier = new TrackSimplifier(tolerance);
+        for (int i = 0; i < raw.size(); i++) {
+            simplifier.add(raw.getLongitude(i), raw.getLatitude(i), raw.getTime(i),
+                    raw.getAccuracy(i), raw.getAltitude(i));
+        }
+        simplifier.flush();
+        return simplifier.getOutput();
+    }
+}
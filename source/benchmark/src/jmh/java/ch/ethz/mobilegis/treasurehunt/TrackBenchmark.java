@@ -0,0 +1,46 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Recording a track: TrackBuffer appends and online simplification. Scores are per fix.
+ */
+@State(Scope.Thread)
+public class TrackBenchmark {
+    private static final int FIXES = 10000;
+
+    private double[] latitudes;
+    private double[] longitudes;
+
+    @Setup
+    public void setup() {
+        latitudes = new double[FIXES];
+        longitudes = new double[FIXES];
+        PolylineBenchmark.walk(latitudes, longitudes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIXES)
+    public TrackBuffer append() {
+        TrackBuffer track = new TrackBuffer();
+        for (int k = 0; k < FIXES; k++) {
+            track.append(longitudes[k], latitudes[k], k * 1000L, 4f, 500);
+        }
+        return track;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIXES)
+    public TrackSimplifier simplify() {
+        TrackSimplifier simplifier = new TrackSimplifier(HuntSession.TRACK_SIMPLIFY_TOLERANCE);
+        for (int k = 0; k < FIXES; k++) {
+            simplifier.add(longitudes[k], latitudes[k], k * 1000L, 4f, 500);
+        }
+        simplifier.flush();
+        return simplifier;
+    }
+}
@@ -0,0 +1,68 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Filtering 100k uploaded tracks in TrackIndex, as FeatureMapActivity does on every change of
+ * the filter:
+ *  - frequentUser: the user of most tracks (bitmap chunks)
+ *  - rareUser: a user of a few tracks (array chunks)
+ *  - userAndReward: two bitmaps intersected
+ *  - userAndDistance: a bitmap and a range of a sorted column
+ */
+@State(Scope.Thread)
+public class TrackIndexBenchmark {
+    private static final int TRACKS = 100000;
+    private static final String[] REWARDS = {"Gold", "Silver", "Bronze", "Watermelon"};
+
+    private TrackIndex index;
+    private TrackIndex.Filter frequentUser;
+    private TrackIndex.Filter rareUser;
+    private TrackIndex.Filter userAndReward;
+    private TrackIndex.Filter userAndDistance;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        index = new TrackIndex();
+        long objectId = 0;
+        for (int i = 0; i < TRACKS; i++) {
+            objectId += 1 + random.nextInt(3);
+            // user 0 has most tracks, the others a few
+            int userId = random.nextInt(4) > 0 ? 0 : 1 + random.nextInt(2000);
+            String reward = random.nextInt(10) > 0 ? REWARDS[random.nextInt(REWARDS.length)] : null;
+            index.add(objectId, userId, reward, random.nextDouble() * 5000, random.nextInt(3600),
+                    random.nextDouble() * 10, 1.6e12 + random.nextInt(1000000) * 1000.0);
+        }
+        frequentUser = new TrackIndex.Filter().user(0);
+        rareUser = new TrackIndex.Filter().user(7);
+        userAndReward = new TrackIndex.Filter().user(0).reward("Gold");
+        userAndDistance = new TrackIndex.Filter().user(0).range(TrackIndex.DISTANCE, 1000, 2000);
+        index.find(userAndDistance);  // sorts the columns once
+    }
+
+    @Benchmark
+    public long[] frequentUser() {
+        return index.find(frequentUser);
+    }
+
+    @Benchmark
+    public long[] rareUser() {
+        return index.find(rareUser);
+    }
+
+    @Benchmark
+    public long[] userAndReward() {
+        return index.find(userAndReward);
+    }
+
+    @Benchmark
+    public long[] userAndDistance() {
+        return index.find(userAndDistance);
+    }
+}
@@ -0,0 +1,81 @@
+package ch.ethz.mobilegis.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Per-frame vertex work of the track map (FeatureMapActivity) on a synthetic layer of 1,000
+ * tracks of 1,500 fixes each around Hoenggerberg: every vertex drawn is transformed to screen
+ * pixels and its segment length accumulated, as a renderer does once per frame.
+ *  - frameFull: every track at full vertex count, as the feature layer drew them
+ *  - frameLod:  the TrackPyramid level of the scale (LodTrackOverlay), within half a pixel
+ *
+ * The MapView cannot run on the JVM; the scores stand in for the frame time spent on track
+ * geometry. Scores are per frame, at street, district and city scale (metres per pixel).
+ */
+@State(Scope.Thread)
+public class TrackLodBenchmark {
+    private static final int TRACKS = 1000;
+    private static final int FIXES = 1500;
+
+    @Param({"0.3", "2.4", "19"})
+    public double unitsPerPixel;
+
+    private TrackPyramid[] pyramids;
+    private int level;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        pyramids = new TrackPyramid[TRACKS];
+        for (int t = 0; t < TRACKS; t++) {
+            // web mercator metres, walks of ~2 km from start points within 1 km
+            double[] xy = new double[2 * FIXES];
+            xy[0] = 947000 + random.nextDouble() * 1000;
+            xy[1] = 6008000 + random.nextDouble() * 1000;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            for (int i = 1; i < FIXES; i++) {
+                heading += random.nextGaussian() * 0.2;
+                double step = 1.4 + random.nextGaussian() * 0.3;
+                xy[2 * i] = xy[2 * i - 2] + step * Math.cos(heading) + random.nextGaussian();
+                xy[2 * i + 1] = xy[2 * i - 1] + step * Math.sin(heading) + random.nextGaussian();
+            }
+            pyramids[t] = new TrackPyramid(xy);
+        }
+        level = TrackPyramid.levelFor(unitsPerPixel * 0.5);
+    }
+
+    @Benchmark
+    public double frameFull() {
+        return frame(0);
+    }
+
+    @Benchmark
+    public double frameLod() {
+        return frame(level);
+    }
+
+    private double frame(int level) {
+        double scale = 1 / unitsPerPixel;
+        double originX = 947500;
+        double originY = 6008500;
+        double length = 0;
+        for (TrackPyramid pyramid : pyramids) {
+            double px = (pyramid.getX(level, 0) - originX) * scale;
+            double py = (originY - pyramid.getY(level, 0)) * scale;
+            for (int i = 1; i < pyramid.size(level); i++) {
+                double x = (pyramid.getX(level, i) - originX) * scale;
+                double y = (originY - pyramid.getY(level, i)) * scale;
+                length += Math.abs(x - px) + Math.abs(y - py);
+                px = x;
+                py = y;
+            }
+        }
+        return length;
+    }
+}